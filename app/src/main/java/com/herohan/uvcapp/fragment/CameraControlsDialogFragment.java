@@ -16,6 +16,7 @@ import androidx.fragment.app.DialogFragment;
 
 import com.herohan.uvcapp.ICameraHelper;
 import com.herohan.uvcapp.databinding.FragmentCameraControlsBinding;
+import com.serenegiant.usb.ControlQueue;
 import com.serenegiant.usb.UVCControl;
 import com.herohan.uvcapp.R;
 import com.warkiz.widget.IndicatorSeekBar;
@@ -25,6 +26,34 @@ import java.lang.ref.WeakReference;
 
 public class CameraControlsDialogFragment extends DialogFragment {
 
+    /**
+     * controls that {@link #resetAllControlParams} writes
+     */
+    private static final int[] RESET_CONTROLS = {
+            UVCControl.CONTROL_BRIGHTNESS,
+            UVCControl.CONTROL_CONTRAST,
+            UVCControl.CONTROL_CONTRAST_AUTO,
+            UVCControl.CONTROL_HUE,
+            UVCControl.CONTROL_HUE_AUTO,
+            UVCControl.CONTROL_SATURATION,
+            UVCControl.CONTROL_SHARPNESS,
+            UVCControl.CONTROL_GAMMA,
+            UVCControl.CONTROL_WHITE_BALANCE,
+            UVCControl.CONTROL_WHITE_BALANCE_AUTO,
+            UVCControl.CONTROL_BACKLIGHT_COMPENSATION,
+            UVCControl.CONTROL_GAIN,
+            UVCControl.CONTROL_EXPOSURE_TIME_ABSOLUTE,
+            UVCControl.CONTROL_AE_MODE,
+            UVCControl.CONTROL_IRIS_ABSOLUTE,
+            UVCControl.CONTROL_FOCUS_ABSOLUTE,
+            UVCControl.CONTROL_FOCUS_AUTO,
+            UVCControl.CONTROL_ZOOM_ABSOLUTE,
+            UVCControl.CONTROL_PAN_ABSOLUTE,
+            UVCControl.CONTROL_TILT_ABSOLUTE,
+            UVCControl.CONTROL_ROLL_ABSOLUTE,
+            UVCControl.CONTROL_POWER_LINE_FREQUENCY,
+    };
+
     private WeakReference<ICameraHelper> mCameraHelperWeak;
 
     private FragmentCameraControlsBinding mBinding;
@@ -73,8 +102,15 @@ public class CameraControlsDialogFragment extends DialogFragment {
             }
             UVCControl control = cameraHelper.getUVCControl();
 
-            resetAllControlParams(control);
-            setAllControlParams(control);
+            // on the queue thread, so that values of the sliders queued before are not applied after this
+            control.getQueue().execute(RESET_CONTROLS, () -> {
+                resetAllControlParams(control);
+                v.post(() -> {
+                    if (isAdded()) {
+                        setAllControlParams(control);
+                    }
+                });
+            });
         });
     }
 
@@ -261,147 +297,150 @@ public class CameraControlsDialogFragment extends DialogFragment {
     }
 
     private void setAllControlChangeListener(UVCControl controls) {
+        // values are applied on the queue thread, only the latest value of a dragged slider is sent
+        final ControlQueue queue = controls.getQueue();
+
         // Brightness
         mBinding.isbBrightness.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setBrightness(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_BRIGHTNESS, seekParams.progress));
 
         // Contrast
         mBinding.isbContrast.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setContrast(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_CONTRAST, seekParams.progress));
         // Contrast Auto
         mBinding.cbContrastAuto.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            if (isChecked) {
-                // Before enable Contrast Auto, must reset Contrast
-                controls.resetContrast();
-                setSeekBarParams(
-                        mBinding.isbContrast,
-                        controls.isContrastEnable(),
-                        controls.updateContrastLimit(),
-                        controls.getContrast());
-                mBinding.isbContrast.setEnabled(false);
-            } else {
-                mBinding.isbContrast.setEnabled(true);
-            }
-            controls.setContrastAuto(isChecked);
+            mBinding.isbContrast.setEnabled(!isChecked);
+            // on the queue thread, so that a value of the slider queued before is not applied after this
+            queue.execute(new int[]{UVCControl.CONTROL_CONTRAST, UVCControl.CONTROL_CONTRAST_AUTO}, () -> {
+                if (isChecked) {
+                    // Before enable Contrast Auto, must reset Contrast
+                    controls.resetContrast();
+                    showResetValue(mBinding.cbContrastAuto, mBinding.isbContrast,
+                            controls.isContrastEnable(),
+                            controls.updateContrastLimit(),
+                            controls.getContrast());
+                }
+                controls.setContrastAuto(isChecked);
+            });
         });
 
         // Hue
         mBinding.isbHue.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setHue(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_HUE, seekParams.progress));
         // Hue Auto
         mBinding.cbHueAuto.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            if (isChecked) {
-                // Before enable Hue Auto, must reset Hue
-                controls.resetHue();
-                setSeekBarParams(
-                        mBinding.isbHue,
-                        controls.isHueEnable(),
-                        controls.updateHueLimit(),
-                        controls.getHue());
-                mBinding.isbHue.setEnabled(false);
-            } else {
-                mBinding.isbHue.setEnabled(true);
-            }
-            controls.setHueAuto(isChecked);
+            mBinding.isbHue.setEnabled(!isChecked);
+            // on the queue thread, so that a value of the slider queued before is not applied after this
+            queue.execute(new int[]{UVCControl.CONTROL_HUE, UVCControl.CONTROL_HUE_AUTO}, () -> {
+                if (isChecked) {
+                    // Before enable Hue Auto, must reset Hue
+                    controls.resetHue();
+                    showResetValue(mBinding.cbHueAuto, mBinding.isbHue,
+                            controls.isHueEnable(),
+                            controls.updateHueLimit(),
+                            controls.getHue());
+                }
+                controls.setHueAuto(isChecked);
+            });
         });
 
         // Saturation
         mBinding.isbSaturation.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setSaturation(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_SATURATION, seekParams.progress));
         // Sharpness
         mBinding.isbSharpness.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setSharpness(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_SHARPNESS, seekParams.progress));
         // Gamma
         mBinding.isbGamma.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setGamma(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_GAMMA, seekParams.progress));
 
         // White Balance
         mBinding.isbWhiteBalance.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setWhiteBalance(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_WHITE_BALANCE, seekParams.progress));
         // White Balance Auto
         mBinding.cbWhiteBalanceAuto.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            if (isChecked) {
-                // Before enable White Balance Auto, must reset White Balance
-                controls.resetWhiteBalance();
-                setSeekBarParams(
-                        mBinding.isbWhiteBalance,
-                        controls.isWhiteBalanceEnable(),
-                        controls.updateWhiteBalanceLimit(),
-                        controls.getWhiteBalance());
-                mBinding.isbWhiteBalance.setEnabled(false);
-            } else {
-                mBinding.isbWhiteBalance.setEnabled(true);
-            }
-            controls.setWhiteBalanceAuto(isChecked);
+            mBinding.isbWhiteBalance.setEnabled(!isChecked);
+            // on the queue thread, so that a value of the slider queued before is not applied after this
+            queue.execute(new int[]{UVCControl.CONTROL_WHITE_BALANCE, UVCControl.CONTROL_WHITE_BALANCE_AUTO}, () -> {
+                if (isChecked) {
+                    // Before enable White Balance Auto, must reset White Balance
+                    controls.resetWhiteBalance();
+                    showResetValue(mBinding.cbWhiteBalanceAuto, mBinding.isbWhiteBalance,
+                            controls.isWhiteBalanceEnable(),
+                            controls.updateWhiteBalanceLimit(),
+                            controls.getWhiteBalance());
+                }
+                controls.setWhiteBalanceAuto(isChecked);
+            });
         });
 
         // Backlight Compensation
         mBinding.isbBacklightComp.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setBacklightComp(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_BACKLIGHT_COMPENSATION, seekParams.progress));
 
         // Gain
         mBinding.isbGain.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setGain(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_GAIN, seekParams.progress));
 
         // Exposure Time
         mBinding.isbExposureTime.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setExposureTimeAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_EXPOSURE_TIME_ABSOLUTE, seekParams.progress));
         // Exposure Time Auto
         mBinding.cbExposureTimeAuto.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            if (isChecked) {
-                // Before enable Exposure Time Auto, must reset Exposure Time
-                controls.resetExposureTimeAbsolute();
-                setSeekBarParams(
-                        mBinding.isbExposureTime,
-                        controls.isExposureTimeAbsoluteEnable(),
-                        controls.updateExposureTimeAbsoluteLimit(),
-                        controls.getExposureTimeAbsolute());
-                mBinding.isbExposureTime.setEnabled(false);
-            } else {
-                mBinding.isbExposureTime.setEnabled(true);
-            }
-            controls.setExposureTimeAuto(isChecked);
+            mBinding.isbExposureTime.setEnabled(!isChecked);
+            // on the queue thread, so that a value of the slider queued before is not applied after this
+            queue.execute(new int[]{UVCControl.CONTROL_EXPOSURE_TIME_ABSOLUTE, UVCControl.CONTROL_AE_MODE}, () -> {
+                if (isChecked) {
+                    // Before enable Exposure Time Auto, must reset Exposure Time
+                    controls.resetExposureTimeAbsolute();
+                    showResetValue(mBinding.cbExposureTimeAuto, mBinding.isbExposureTime,
+                            controls.isExposureTimeAbsoluteEnable(),
+                            controls.updateExposureTimeAbsoluteLimit(),
+                            controls.getExposureTimeAbsolute());
+                }
+                controls.setExposureTimeAuto(isChecked);
+            });
         });
 
         // Iris
         mBinding.isbIris.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setIrisAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_IRIS_ABSOLUTE, seekParams.progress));
 
         // Focus
         mBinding.isbFocus.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setFocusAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_FOCUS_ABSOLUTE, seekParams.progress));
         // Focus Auto
         mBinding.cbFocusAuto.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            if (isChecked) {
-                // Before enable Focus Auto, must reset Focus absolute
-                controls.resetFocusAbsolute();
-                setSeekBarParams(
-                        mBinding.isbFocus,
-                        controls.isFocusAbsoluteEnable(),
-                        controls.updateFocusAbsoluteLimit(),
-                        controls.getFocusAbsolute());
-                mBinding.isbFocus.setEnabled(false);
-            } else {
-                mBinding.isbFocus.setEnabled(true);
-            }
-            controls.setFocusAuto(isChecked);
+            mBinding.isbFocus.setEnabled(!isChecked);
+            // on the queue thread, so that a value of the slider queued before is not applied after this
+            queue.execute(new int[]{UVCControl.CONTROL_FOCUS_ABSOLUTE, UVCControl.CONTROL_FOCUS_AUTO}, () -> {
+                if (isChecked) {
+                    // Before enable Focus Auto, must reset Focus absolute
+                    controls.resetFocusAbsolute();
+                    showResetValue(mBinding.cbFocusAuto, mBinding.isbFocus,
+                            controls.isFocusAbsoluteEnable(),
+                            controls.updateFocusAbsoluteLimit(),
+                            controls.getFocusAbsolute());
+                }
+                controls.setFocusAuto(isChecked);
+            });
         });
 
         // Zoom
         mBinding.isbZoom.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setZoomAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_ZOOM_ABSOLUTE, seekParams.progress));
 
         // Pan
         mBinding.isbPan.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setPanAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_PAN_ABSOLUTE, seekParams.progress));
 
         // Tilt
         mBinding.isbTilt.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setTiltAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_TILT_ABSOLUTE, seekParams.progress));
 
         // Roll
         mBinding.isbRoll.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setRollAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_ROLL_ABSOLUTE, seekParams.progress));
 
         // Power Line Frequency
         mBinding.rgPowerLineFrequency.setOnCheckedChangeListener((group, checkedId) -> {
@@ -415,7 +454,7 @@ public class CameraControlsDialogFragment extends DialogFragment {
             } else if (checkedId == R.id.rbPowerLineFrequencyAuto) {
                 value = 3;
             }
-            controls.setPowerlineFrequency(value);
+            queue.set(UVCControl.CONTROL_POWER_LINE_FREQUENCY, value);
         });
     }
 
@@ -482,6 +521,16 @@ public class CameraControlsDialogFragment extends DialogFragment {
         control.resetPowerlineFrequency();
     }
 
+    /**
+     * show the manual value that was reset on the queue thread before the auto mode was enabled
+     */
+    private void showResetValue(CheckBox autoCheckBox, IndicatorSeekBar seekBar, boolean isEnable, int[] limit, int value) {
+        seekBar.post(() -> {
+            setSeekBarParams(seekBar, isEnable, limit, value);
+            seekBar.setEnabled(!autoCheckBox.isChecked());
+        });
+    }
+
     private void setSeekBarParams(IndicatorSeekBar seekBar, boolean isEnable, int[] limit, int value) {
         seekBar.setEnabled(isEnable);
         if (isEnable && limit != null) {
@@ -40,6 +40,8 @@ public class EntryActivity extends AppCompatActivity implements View.OnClickList
         btnRecordVideo.setOnClickListener(this);
         Button btnSetFrameCallback = findViewById(R.id.btnSetFrameCallback);
         btnSetFrameCallback.setOnClickListener(this);
+        Button btnMultiCameraBenchmark = findViewById(R.id.btnMultiCameraBenchmark);
+        btnMultiCameraBenchmark.setOnClickListener(this);
     }
 
     @Override
@@ -77,6 +79,8 @@ public class EntryActivity extends AppCompatActivity implements View.OnClickList
                         startActivity(new Intent(this, RecordVideoActivity.class));
                     } else if (v.getId() == R.id.btnSetFrameCallback) {
                         startActivity(new Intent(this, SetFrameCallbackActivity.class));
+                    } else if (v.getId() == R.id.btnMultiCameraBenchmark) {
+                        startActivity(new Intent(this, MultiCameraBenchmarkActivity.class));
                     }
 
                 });
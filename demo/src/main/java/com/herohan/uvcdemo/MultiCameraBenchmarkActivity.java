@@ -0,0 +1,358 @@
+package com.herohan.uvcdemo;
+
+import android.hardware.usb.UsbDevice;
+import android.os.Bundle;
+import android.os.ConditionVariable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.herohan.uvcapp.CameraException;
+import com.herohan.uvcapp.CameraHelper;
+import com.herohan.uvcapp.ICameraHelper;
+import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.UVCCamera;
+import com.serenegiant.usb.UVCParam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the time from openCamera to the first frame of all attached cameras,
+ * opening them one after another and then all at once.
+ * The ratio of both shows how much the cameras block each other while opening.
+ */
+public class MultiCameraBenchmarkActivity extends AppCompatActivity implements View.OnClickListener {
+
+    private static final boolean DEBUG = true;
+    private static final String TAG = MultiCameraBenchmarkActivity.class.getSimpleName();
+
+    private static final int MAX_CAMERAS = 8;
+    private static final int ROUNDS = 3;
+    private static final long TIMEOUT_MS = 10000;
+
+    private final Object mSync = new Object();
+    private final List<UsbDevice> mAttachedDevices = new ArrayList<>();
+
+    private ICameraHelper mProbeHelper;
+
+    private TextView tvBenchmarkResult;
+    private Button btnRunBenchmark;
+
+    private HandlerThread mHandlerThread;
+    private Handler mAsyncHandler;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_multi_camera_benchmark);
+        setTitle(R.string.entry_multi_camera_benchmark);
+
+        tvBenchmarkResult = findViewById(R.id.tvBenchmarkResult);
+        btnRunBenchmark = findViewById(R.id.btnRunBenchmark);
+        btnRunBenchmark.setOnClickListener(this);
+
+        mHandlerThread = new HandlerThread(TAG);
+        mHandlerThread.start();
+        mAsyncHandler = new Handler(mHandlerThread.getLooper());
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        mHandlerThread.quitSafely();
+        mAsyncHandler.removeCallbacksAndMessages(null);
+    }
+
+    @Override
+    protected void onStart() {
+        if (DEBUG) Log.d(TAG, "onStart:");
+        super.onStart();
+        if (mProbeHelper == null) {
+            // only collects attached devices, the benchmark opens each of them on its own helper
+            mProbeHelper = new CameraHelper();
+            mProbeHelper.setStateCallback(mProbeListener);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        if (DEBUG) Log.d(TAG, "onStop:");
+        super.onStop();
+        if (mProbeHelper != null) {
+            mProbeHelper.release();
+            mProbeHelper = null;
+        }
+        synchronized (mSync) {
+            mAttachedDevices.clear();
+        }
+    }
+
+    @Override
+    public void onClick(View v) {
+        if (v.getId() == R.id.btnRunBenchmark) {
+            final List<UsbDevice> devices;
+            synchronized (mSync) {
+                devices = new ArrayList<>(mAttachedDevices.subList(0, Math.min(mAttachedDevices.size(), MAX_CAMERAS)));
+            }
+            if (devices.isEmpty()) {
+                tvBenchmarkResult.setText(R.string.device_list_empty_tip);
+                return;
+            }
+            btnRunBenchmark.setEnabled(false);
+            tvBenchmarkResult.setText("");
+            mAsyncHandler.post(() -> {
+                runBenchmark(devices);
+                runOnUiThread(() -> btnRunBenchmark.setEnabled(true));
+            });
+        }
+    }
+
+    private void runBenchmark(final List<UsbDevice> devices) {
+        final List<BenchmarkCamera> cameras = new ArrayList<>();
+        try {
+            // permission dialogs are shown one by one
+            for (UsbDevice device : devices) {
+                final BenchmarkCamera camera = new BenchmarkCamera(device);
+                if (camera.select()) {
+                    cameras.add(camera);
+                } else {
+                    camera.release();
+                    appendResult("skip " + device.getDeviceName() + ": could not open device");
+                }
+            }
+            if (cameras.isEmpty()) {
+                return;
+            }
+            appendResult(String.format(Locale.US, "%d cameras, %d rounds", cameras.size(), ROUNDS));
+
+            long sequentialMs = 0;
+            long concurrentMs = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                final long sequential = runSequential(cameras);
+                final long concurrent = runConcurrent(cameras);
+                if (sequential < 0 || concurrent < 0) {
+                    appendResult("round " + round + ": timeout");
+                    return;
+                }
+                appendResult(String.format(Locale.US, "round %d: sequential %dms, concurrent %dms",
+                        round, sequential, concurrent));
+                sequentialMs += sequential;
+                concurrentMs += concurrent;
+            }
+            sequentialMs /= ROUNDS;
+            concurrentMs /= ROUNDS;
+            appendResult(String.format(Locale.US,
+                    "average: sequential %dms, concurrent %dms, speedup %.2fx",
+                    sequentialMs, concurrentMs,
+                    concurrentMs > 0 ? (float) sequentialMs / concurrentMs : 0.0f));
+            appendResult(UVCCamera.getEventLoopStats().toString());
+        } finally {
+            for (BenchmarkCamera camera : cameras) {
+                camera.release();
+            }
+        }
+    }
+
+    /**
+     * @return total time to the first frame of all cameras opened one after another, -1 on timeout
+     */
+    private long runSequential(final List<BenchmarkCamera> cameras) {
+        long total = 0;
+        for (BenchmarkCamera camera : cameras) {
+            final long startNs = SystemClock.elapsedRealtimeNanos();
+            camera.open();
+            final boolean started = camera.waitFirstFrame();
+            camera.close();
+            if (!started) {
+                return -1;
+            }
+            total += camera.mFirstFrameNs - startNs;
+        }
+        return total / 1000000;
+    }
+
+    /**
+     * @return time until all cameras opened at once delivered their first frame, -1 on timeout
+     */
+    private long runConcurrent(final List<BenchmarkCamera> cameras) {
+        final long startNs = SystemClock.elapsedRealtimeNanos();
+        for (BenchmarkCamera camera : cameras) {
+            camera.open();
+        }
+        long lastFrameNs = startNs;
+        boolean started = true;
+        for (BenchmarkCamera camera : cameras) {
+            if (camera.waitFirstFrame()) {
+                lastFrameNs = Math.max(lastFrameNs, camera.mFirstFrameNs);
+            } else {
+                started = false;
+            }
+        }
+        for (BenchmarkCamera camera : cameras) {
+            camera.close();
+        }
+        return started ? (lastFrameNs - startNs) / 1000000 : -1;
+    }
+
+    private void appendResult(final String text) {
+        Log.i(TAG, text);
+        runOnUiThread(() -> tvBenchmarkResult.append(text + "\n"));
+    }
+
+    private final ICameraHelper.StateCallback mProbeListener = new ICameraHelper.StateCallback() {
+        @Override
+        public void onAttach(UsbDevice device) {
+            if (DEBUG) Log.v(TAG, "onAttach:" + device.getDeviceName());
+            synchronized (mSync) {
+                if (!mAttachedDevices.contains(device)) {
+                    mAttachedDevices.add(device);
+                }
+            }
+        }
+
+        @Override
+        public void onDeviceOpen(UsbDevice device, boolean isFirstOpen) {
+        }
+
+        @Override
+        public void onCameraOpen(UsbDevice device) {
+        }
+
+        @Override
+        public void onCameraClose(UsbDevice device) {
+        }
+
+        @Override
+        public void onDeviceClose(UsbDevice device) {
+        }
+
+        @Override
+        public void onDetach(UsbDevice device) {
+            if (DEBUG) Log.v(TAG, "onDetach:" + device.getDeviceName());
+            synchronized (mSync) {
+                mAttachedDevices.remove(device);
+            }
+        }
+
+        @Override
+        public void onCancel(UsbDevice device) {
+        }
+    };
+
+    /**
+     * A camera opened on its own helper, as an app with several cameras does
+     */
+    private static final class BenchmarkCamera implements ICameraHelper.StateCallback {
+        private final UsbDevice mDevice;
+        private final ICameraHelper mHelper;
+        private final ConditionVariable mDeviceOpened = new ConditionVariable();
+        private final ConditionVariable mFirstFrame = new ConditionVariable();
+        private final ConditionVariable mCameraClosed = new ConditionVariable();
+        private volatile boolean mIsDeviceOpened;
+        private volatile long mFirstFrameNs;
+
+        BenchmarkCamera(final UsbDevice device) {
+            mDevice = device;
+            mHelper = new CameraHelper();
+            mHelper.setStateCallback(this);
+        }
+
+        boolean select() {
+            mHelper.selectDevice(mDevice);
+            return mDeviceOpened.block(TIMEOUT_MS) && mIsDeviceOpened;
+        }
+
+        void open() {
+            mFirstFrameNs = 0;
+            mFirstFrame.close();
+            mCameraClosed.close();
+            final UVCParam param = new UVCParam();
+            param.setQuirks(UVCCamera.UVC_QUIRK_FIX_BANDWIDTH);
+            mHelper.openCamera(param);
+        }
+
+        boolean waitFirstFrame() {
+            return mFirstFrame.block(TIMEOUT_MS) && mFirstFrameNs != 0;
+        }
+
+        void close() {
+            mHelper.closeCamera();
+            mCameraClosed.block(TIMEOUT_MS);
+        }
+
+        void release() {
+            mHelper.release();
+        }
+
+        private final IFrameCallback mFrameCallback = frame -> {
+            if (mFirstFrameNs == 0) {
+                mFirstFrameNs = SystemClock.elapsedRealtimeNanos();
+                mFirstFrame.open();
+            }
+        };
+
+        @Override
+        public void onAttach(UsbDevice device) {
+        }
+
+        @Override
+        public void onDeviceOpen(UsbDevice device, boolean isFirstOpen) {
+            if (device.equals(mDevice)) {
+                mIsDeviceOpened = true;
+                mDeviceOpened.open();
+            }
+        }
+
+        @Override
+        public void onCameraOpen(UsbDevice device) {
+            if (device.equals(mDevice)) {
+                mHelper.setFrameCallback(mFrameCallback, UVCCamera.PIXEL_FORMAT_RAW);
+                mHelper.startPreview();
+            }
+        }
+
+        @Override
+        public void onCameraClose(UsbDevice device) {
+            if (device.equals(mDevice)) {
+                mCameraClosed.open();
+            }
+        }
+
+        @Override
+        public void onDeviceClose(UsbDevice device) {
+        }
+
+        @Override
+        public void onDetach(UsbDevice device) {
+            if (device.equals(mDevice)) {
+                mDeviceOpened.open();
+                mFirstFrame.open();
+                mCameraClosed.open();
+            }
+        }
+
+        @Override
+        public void onCancel(UsbDevice device) {
+            if (device.equals(mDevice)) {
+                mDeviceOpened.open();
+            }
+        }
+
+        @Override
+        public void onError(UsbDevice device, CameraException e) {
+            Log.w(TAG, "onError:" + device.getDeviceName(), e);
+            if (device.equals(mDevice)) {
+                mFirstFrame.open();
+            }
+        }
+    }
+}
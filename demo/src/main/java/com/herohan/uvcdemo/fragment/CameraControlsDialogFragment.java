@@ -17,6 +17,7 @@ import androidx.fragment.app.DialogFragment;
 
 import com.herohan.uvcapp.ICameraHelper;
 import com.herohan.uvcdemo.R;
+import com.serenegiant.usb.ControlQueue;
 import com.serenegiant.usb.UVCControl;
 import com.warkiz.widget.IndicatorSeekBar;
 import com.warkiz.widget.OnSeekChangeListener;
@@ -25,6 +26,34 @@ import java.lang.ref.WeakReference;
 
 public class CameraControlsDialogFragment extends DialogFragment {
 
+    /**
+     * controls that {@link #resetAllControlParams} writes
+     */
+    private static final int[] RESET_CONTROLS = {
+            UVCControl.CONTROL_BRIGHTNESS,
+            UVCControl.CONTROL_CONTRAST,
+            UVCControl.CONTROL_CONTRAST_AUTO,
+            UVCControl.CONTROL_HUE,
+            UVCControl.CONTROL_HUE_AUTO,
+            UVCControl.CONTROL_SATURATION,
+            UVCControl.CONTROL_SHARPNESS,
+            UVCControl.CONTROL_GAMMA,
+            UVCControl.CONTROL_WHITE_BALANCE,
+            UVCControl.CONTROL_WHITE_BALANCE_AUTO,
+            UVCControl.CONTROL_BACKLIGHT_COMPENSATION,
+            UVCControl.CONTROL_GAIN,
+            UVCControl.CONTROL_EXPOSURE_TIME_ABSOLUTE,
+            UVCControl.CONTROL_AE_MODE,
+            UVCControl.CONTROL_IRIS_ABSOLUTE,
+            UVCControl.CONTROL_FOCUS_ABSOLUTE,
+            UVCControl.CONTROL_FOCUS_AUTO,
+            UVCControl.CONTROL_ZOOM_ABSOLUTE,
+            UVCControl.CONTROL_PAN_ABSOLUTE,
+            UVCControl.CONTROL_TILT_ABSOLUTE,
+            UVCControl.CONTROL_ROLL_ABSOLUTE,
+            UVCControl.CONTROL_POWER_LINE_FREQUENCY,
+    };
+
     private WeakReference<ICameraHelper> mCameraHelperWeak;
 
     private IndicatorSeekBar isbBrightness;
@@ -124,8 +153,15 @@ public class CameraControlsDialogFragment extends DialogFragment {
             }
             UVCControl control = cameraHelper.getUVCControl();
 
-            resetAllControlParams(control);
-            setAllControlParams(control);
+            // on the queue thread, so that values of the sliders queued before are not applied after this
+            control.getQueue().execute(RESET_CONTROLS, () -> {
+                resetAllControlParams(control);
+                v.post(() -> {
+                    if (isAdded()) {
+                        setAllControlParams(control);
+                    }
+                });
+            });
         });
     }
 
@@ -312,147 +348,150 @@ public class CameraControlsDialogFragment extends DialogFragment {
     }
 
     private void setAllControlChangeListener(UVCControl controls) {
+        // values are applied on the queue thread, only the latest value of a dragged slider is sent
+        final ControlQueue queue = controls.getQueue();
+
         // Brightness
         isbBrightness.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setBrightness(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_BRIGHTNESS, seekParams.progress));
 
         // Contrast
         isbContrast.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setContrast(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_CONTRAST, seekParams.progress));
         // Contrast Auto
         cbContrastAuto.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            if (isChecked) {
-                // Before enable Contrast Auto, must reset Contrast
-                controls.resetContrast();
-                setSeekBarParams(
-                        isbContrast,
-                        controls.isContrastEnable(),
-                        controls.updateContrastLimit(),
-                        controls.getContrast());
-                isbContrast.setEnabled(false);
-            } else {
-                isbContrast.setEnabled(true);
-            }
-            controls.setContrastAuto(isChecked);
+            isbContrast.setEnabled(!isChecked);
+            // on the queue thread, so that a value of the slider queued before is not applied after this
+            queue.execute(new int[]{UVCControl.CONTROL_CONTRAST, UVCControl.CONTROL_CONTRAST_AUTO}, () -> {
+                if (isChecked) {
+                    // Before enable Contrast Auto, must reset Contrast
+                    controls.resetContrast();
+                    showResetValue(cbContrastAuto, isbContrast,
+                            controls.isContrastEnable(),
+                            controls.updateContrastLimit(),
+                            controls.getContrast());
+                }
+                controls.setContrastAuto(isChecked);
+            });
         });
 
         // Hue
         isbHue.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setHue(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_HUE, seekParams.progress));
         // Hue Auto
         cbHueAuto.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            if (isChecked) {
-                // Before enable Hue Auto, must reset Hue
-                controls.resetHue();
-                setSeekBarParams(
-                        isbHue,
-                        controls.isHueEnable(),
-                        controls.updateHueLimit(),
-                        controls.getHue());
-                isbHue.setEnabled(false);
-            } else {
-                isbHue.setEnabled(true);
-            }
-            controls.setHueAuto(isChecked);
+            isbHue.setEnabled(!isChecked);
+            // on the queue thread, so that a value of the slider queued before is not applied after this
+            queue.execute(new int[]{UVCControl.CONTROL_HUE, UVCControl.CONTROL_HUE_AUTO}, () -> {
+                if (isChecked) {
+                    // Before enable Hue Auto, must reset Hue
+                    controls.resetHue();
+                    showResetValue(cbHueAuto, isbHue,
+                            controls.isHueEnable(),
+                            controls.updateHueLimit(),
+                            controls.getHue());
+                }
+                controls.setHueAuto(isChecked);
+            });
         });
 
         // Saturation
         isbSaturation.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setSaturation(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_SATURATION, seekParams.progress));
         // Sharpness
         isbSharpness.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setSharpness(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_SHARPNESS, seekParams.progress));
         // Gamma
         isbGamma.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setGamma(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_GAMMA, seekParams.progress));
 
         // White Balance
         isbWhiteBalance.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setWhiteBalance(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_WHITE_BALANCE, seekParams.progress));
         // White Balance Auto
         cbWhiteBalanceAuto.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            if (isChecked) {
-                // Before enable White Balance Auto, must reset White Balance
-                controls.resetWhiteBalance();
-                setSeekBarParams(
-                        isbWhiteBalance,
-                        controls.isWhiteBalanceEnable(),
-                        controls.updateWhiteBalanceLimit(),
-                        controls.getWhiteBalance());
-                isbWhiteBalance.setEnabled(false);
-            } else {
-                isbWhiteBalance.setEnabled(true);
-            }
-            controls.setWhiteBalanceAuto(isChecked);
+            isbWhiteBalance.setEnabled(!isChecked);
+            // on the queue thread, so that a value of the slider queued before is not applied after this
+            queue.execute(new int[]{UVCControl.CONTROL_WHITE_BALANCE, UVCControl.CONTROL_WHITE_BALANCE_AUTO}, () -> {
+                if (isChecked) {
+                    // Before enable White Balance Auto, must reset White Balance
+                    controls.resetWhiteBalance();
+                    showResetValue(cbWhiteBalanceAuto, isbWhiteBalance,
+                            controls.isWhiteBalanceEnable(),
+                            controls.updateWhiteBalanceLimit(),
+                            controls.getWhiteBalance());
+                }
+                controls.setWhiteBalanceAuto(isChecked);
+            });
         });
 
         // Backlight Compensation
         isbBacklightComp.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setBacklightComp(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_BACKLIGHT_COMPENSATION, seekParams.progress));
 
         // Gain
         isbGain.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setGain(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_GAIN, seekParams.progress));
 
         // Exposure Time
         isbExposureTime.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setExposureTimeAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_EXPOSURE_TIME_ABSOLUTE, seekParams.progress));
         // Exposure Time Auto
         cbExposureTimeAuto.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            if (isChecked) {
-                // Before enable Exposure Time Auto, must reset Exposure Time
-                controls.resetExposureTimeAbsolute();
-                setSeekBarParams(
-                        isbExposureTime,
-                        controls.isExposureTimeAbsoluteEnable(),
-                        controls.updateExposureTimeAbsoluteLimit(),
-                        controls.getExposureTimeAbsolute());
-                isbExposureTime.setEnabled(false);
-            } else {
-                isbExposureTime.setEnabled(true);
-            }
-            controls.setExposureTimeAuto(isChecked);
+            isbExposureTime.setEnabled(!isChecked);
+            // on the queue thread, so that a value of the slider queued before is not applied after this
+            queue.execute(new int[]{UVCControl.CONTROL_EXPOSURE_TIME_ABSOLUTE, UVCControl.CONTROL_AE_MODE}, () -> {
+                if (isChecked) {
+                    // Before enable Exposure Time Auto, must reset Exposure Time
+                    controls.resetExposureTimeAbsolute();
+                    showResetValue(cbExposureTimeAuto, isbExposureTime,
+                            controls.isExposureTimeAbsoluteEnable(),
+                            controls.updateExposureTimeAbsoluteLimit(),
+                            controls.getExposureTimeAbsolute());
+                }
+                controls.setExposureTimeAuto(isChecked);
+            });
         });
 
         // Iris
         isbIris.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setIrisAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_IRIS_ABSOLUTE, seekParams.progress));
 
         // Focus
         isbFocus.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setFocusAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_FOCUS_ABSOLUTE, seekParams.progress));
         // Focus Auto
         cbFocusAuto.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            if (isChecked) {
-                // Before enable Focus Auto, must reset Focus absolute
-                controls.resetFocusAbsolute();
-                setSeekBarParams(
-                        isbFocus,
-                        controls.isFocusAbsoluteEnable(),
-                        controls.updateFocusAbsoluteLimit(),
-                        controls.getFocusAbsolute());
-                isbFocus.setEnabled(false);
-            } else {
-                isbFocus.setEnabled(true);
-            }
-            controls.setFocusAuto(isChecked);
+            isbFocus.setEnabled(!isChecked);
+            // on the queue thread, so that a value of the slider queued before is not applied after this
+            queue.execute(new int[]{UVCControl.CONTROL_FOCUS_ABSOLUTE, UVCControl.CONTROL_FOCUS_AUTO}, () -> {
+                if (isChecked) {
+                    // Before enable Focus Auto, must reset Focus absolute
+                    controls.resetFocusAbsolute();
+                    showResetValue(cbFocusAuto, isbFocus,
+                            controls.isFocusAbsoluteEnable(),
+                            controls.updateFocusAbsoluteLimit(),
+                            controls.getFocusAbsolute());
+                }
+                controls.setFocusAuto(isChecked);
+            });
         });
 
         // Zoom
         isbZoom.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setZoomAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_ZOOM_ABSOLUTE, seekParams.progress));
 
         // Pan
         isbPan.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setPanAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_PAN_ABSOLUTE, seekParams.progress));
 
         // Tilt
         isbTilt.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setTiltAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_TILT_ABSOLUTE, seekParams.progress));
 
         // Roll
         isbRoll.setOnSeekChangeListener(
-                (MyOnSeekChangeListener) seekParams -> controls.setRollAbsolute(seekParams.progress));
+                (MyOnSeekChangeListener) seekParams -> queue.set(UVCControl.CONTROL_ROLL_ABSOLUTE, seekParams.progress));
 
         // Power Line Frequency
         rgPowerLineFrequency.setOnCheckedChangeListener((group, checkedId) -> {
@@ -466,7 +505,7 @@ public class CameraControlsDialogFragment extends DialogFragment {
             } else if (checkedId == R.id.rbPowerLineFrequencyAuto) {
                 value = 3;
             }
-            controls.setPowerlineFrequency(value);
+            queue.set(UVCControl.CONTROL_POWER_LINE_FREQUENCY, value);
         });
     }
 
@@ -533,6 +572,16 @@ public class CameraControlsDialogFragment extends DialogFragment {
         control.resetPowerlineFrequency();
     }
 
+    /**
+     * show the manual value that was reset on the queue thread before the auto mode was enabled
+     */
+    private void showResetValue(CheckBox autoCheckBox, IndicatorSeekBar seekBar, boolean isEnable, int[] limit, int value) {
+        seekBar.post(() -> {
+            setSeekBarParams(seekBar, isEnable, limit, value);
+            seekBar.setEnabled(!autoCheckBox.isChecked());
+        });
+    }
+
     private void setSeekBarParams(IndicatorSeekBar seekBar, boolean isEnable, int[] limit, int value) {
         seekBar.setEnabled(isEnable);
         if (isEnable && limit != null) {
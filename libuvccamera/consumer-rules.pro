@@ -4,5 +4,6 @@
 -keepclassmembers class * implements com.serenegiant.usb.IButtonCallback {*;}
 -keepclassmembers class * implements com.serenegiant.usb.IFrameCallback {*;}
 -keepclassmembers class * implements com.serenegiant.usb.IStatusCallback {*;}
+-keepclassmembers class * implements com.serenegiant.usb.IFrameStatsCallback {*;}
 -keepclassmembers class * implements com.serenegiant.opengl.IDrawer2D {*;}
 -keepclassmembers class * implements com.serenegiant.opengl.renderer.IRendererHolder {*;}
\ No newline at end of file
@@ -21,3 +21,4 @@
 -keepclassmembers class * implements com.serenegiant.usb.IButtonCallback {*;}
 -keepclassmembers class * implements com.serenegiant.usb.IFrameCallback {*;}
 -keepclassmembers class * implements com.serenegiant.usb.IStatusCallback {*;}
+-keepclassmembers class * implements com.serenegiant.usb.IFrameStatsCallback {*;}
@@ -0,0 +1,244 @@
+package com.serenegiant.opengl;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+*/
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Renders known YUYV/NV12/NV21 frames with {@link GLYuvDrawer2D} into an offscreen surface
+ * and compares the pixels read back with the RGB expected by BT.601/BT.709 in limited/full range.
+ * The expected values are computed from Kr/Kb here, independently of the matrices in {@link ShaderConst}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GLYuvDrawer2DTest {
+	private static final int WIDTH = 16;
+	private static final int HEIGHT = 16;
+	/**
+	 * the shaders run at mediump and the full range offset of chroma is 0.5 instead of 128/255
+	 */
+	private static final int TOLERANCE = 3;
+
+	/**
+	 * Y, U, V triplets: grey, saturated primaries and a skin tone
+	 */
+	private static final int[][] SAMPLES = {
+		{128, 128, 128},
+		{ 81,  90, 240},
+		{145,  54,  34},
+		{ 41, 240, 110},
+		{200, 100, 160},
+		{ 16, 128, 128},
+		{235, 128, 128},
+	};
+
+	private EGLBase mEgl;
+	private EGLBase.IEglSurface mSurface;
+	private GLYuvTexture mTexture;
+	private GLYuvDrawer2D mDrawer;
+	private final float[] mTexMatrix = new float[16];
+
+	@Before
+	public void setUp() {
+		mEgl = EGLBase.createFrom(null, false, false);
+		mSurface = mEgl.createOffscreen(WIDTH, HEIGHT);
+		mSurface.makeCurrent();
+		mTexture = new GLYuvTexture();
+		mDrawer = new GLYuvDrawer2D();
+		Matrix.setIdentityM(mTexMatrix, 0);
+	}
+
+	@After
+	public void tearDown() {
+		if (mDrawer != null) {
+			mDrawer.release();
+			mDrawer = null;
+		}
+		if (mTexture != null) {
+			mTexture.release();
+			mTexture = null;
+		}
+		if (mSurface != null) {
+			mSurface.release();
+			mSurface = null;
+		}
+		if (mEgl != null) {
+			mEgl.release();
+			mEgl = null;
+		}
+	}
+
+	@Test
+	public void yuyvUniform() {
+		checkUniform(GLYuvTexture.FORMAT_YUYV);
+	}
+
+	@Test
+	public void nv12Uniform() {
+		checkUniform(GLYuvTexture.FORMAT_NV12);
+	}
+
+	@Test
+	public void nv21Uniform() {
+		checkUniform(GLYuvTexture.FORMAT_NV21);
+	}
+
+	/**
+	 * Y0 and Y1 of a YUYV macro pixel must land on the even and odd column respectively
+	 */
+	@Test
+	public void yuyvEvenOddLuma() {
+		final int y0 = 60, y1 = 190, u = 110, v = 150;
+		final ByteBuffer frame = allocate(GLYuvTexture.FORMAT_YUYV);
+		for (int i = 0; i < WIDTH * HEIGHT / 2; i++) {
+			frame.put((byte) y0).put((byte) u).put((byte) y1).put((byte) v);
+		}
+		frame.flip();
+		final int[] even = expected(GLYuvDrawer2D.COLOR_SPACE_BT601, false, y0, u, v);
+		final int[] odd = expected(GLYuvDrawer2D.COLOR_SPACE_BT601, false, y1, u, v);
+		final ByteBuffer pixels = render(frame, GLYuvTexture.FORMAT_YUYV,
+			GLYuvDrawer2D.COLOR_SPACE_BT601, false);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				assertPixel("yuyv even/odd", pixels, x, y, (x & 1) == 0 ? even : odd);
+			}
+		}
+	}
+
+	private void checkUniform(final int format) {
+		final int[] colorSpaces = {GLYuvDrawer2D.COLOR_SPACE_BT601, GLYuvDrawer2D.COLOR_SPACE_BT709};
+		final boolean[] ranges = {false, true};
+		for (final int colorSpace : colorSpaces) {
+			for (final boolean fullRange : ranges) {
+				for (final int[] yuv : SAMPLES) {
+					final ByteBuffer pixels = render(
+						uniformFrame(format, yuv[0], yuv[1], yuv[2]), format, colorSpace, fullRange);
+					final int[] rgb = expected(colorSpace, fullRange, yuv[0], yuv[1], yuv[2]);
+					final String label = "format=" + format
+						+ (colorSpace == GLYuvDrawer2D.COLOR_SPACE_BT709 ? ",BT709" : ",BT601")
+						+ (fullRange ? ",full" : ",limited")
+						+ ",yuv=(" + yuv[0] + "," + yuv[1] + "," + yuv[2] + ")";
+					for (int y = 0; y < HEIGHT; y++) {
+						for (int x = 0; x < WIDTH; x++) {
+							assertPixel(label, pixels, x, y, rgb);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private ByteBuffer render(final ByteBuffer frame, final int format,
+		final int colorSpace, final boolean fullRange) {
+
+		assertTrue("upload failed", mTexture.upload(frame, format, WIDTH, HEIGHT));
+		mDrawer.setColorSpace(colorSpace, fullRange);
+		mDrawer.setTexture(mTexture);
+		GLES20.glViewport(0, 0, WIDTH, HEIGHT);
+		GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+		mDrawer.draw(0, mTexMatrix, 0);
+		GLES20.glFinish();
+		final ByteBuffer pixels = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4)
+			.order(ByteOrder.nativeOrder());
+		GLES20.glReadPixels(0, 0, WIDTH, HEIGHT, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+		final int error = GLES20.glGetError();
+		if (error != GLES20.GL_NO_ERROR) {
+			fail("GL error 0x" + Integer.toHexString(error));
+		}
+		return pixels;
+	}
+
+	private static ByteBuffer allocate(final int format) {
+		return ByteBuffer.allocateDirect(GLYuvTexture.getFrameBytes(format, WIDTH, HEIGHT))
+			.order(ByteOrder.nativeOrder());
+	}
+
+	private static ByteBuffer uniformFrame(final int format, final int y, final int u, final int v) {
+		final ByteBuffer frame = allocate(format);
+		if (format == GLYuvTexture.FORMAT_YUYV) {
+			for (int i = 0; i < WIDTH * HEIGHT / 2; i++) {
+				frame.put((byte) y).put((byte) u).put((byte) y).put((byte) v);
+			}
+		} else {
+			for (int i = 0; i < WIDTH * HEIGHT; i++) {
+				frame.put((byte) y);
+			}
+			final byte first = (byte) (format == GLYuvTexture.FORMAT_NV12 ? u : v);
+			final byte second = (byte) (format == GLYuvTexture.FORMAT_NV12 ? v : u);
+			for (int i = 0; i < WIDTH * HEIGHT / 4; i++) {
+				frame.put(first).put(second);
+			}
+		}
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * RGB[0-255] of the given YUV from the luma coefficients of BT.601/BT.709
+	 */
+	private static int[] expected(final int colorSpace, final boolean fullRange,
+		final int y, final int u, final int v) {
+
+		final double kr = colorSpace == GLYuvDrawer2D.COLOR_SPACE_BT709 ? 0.2126 : 0.299;
+		final double kb = colorSpace == GLYuvDrawer2D.COLOR_SPACE_BT709 ? 0.0722 : 0.114;
+		final double luma, cb, cr;
+		if (fullRange) {
+			luma = y / 255.0;
+			cb = (u - 128) / 255.0;
+			cr = (v - 128) / 255.0;
+		} else {
+			luma = (y - 16) / 219.0;
+			cb = (u - 128) / 224.0;
+			cr = (v - 128) / 224.0;
+		}
+		final double r = luma + 2.0 * (1.0 - kr) * cr;
+		final double b = luma + 2.0 * (1.0 - kb) * cb;
+		final double g = (luma - kr * r - kb * b) / (1.0 - kr - kb);
+		return new int[] {toByte(r), toByte(g), toByte(b)};
+	}
+
+	private static int toByte(final double value) {
+		return (int) Math.round(Math.max(0.0, Math.min(1.0, value)) * 255.0);
+	}
+
+	private static void assertPixel(final String label, final ByteBuffer pixels,
+		final int x, final int y, final int[] rgb) {
+
+		final int offset = (y * WIDTH + x) * 4;
+		for (int i = 0; i < 3; i++) {
+			final int actual = pixels.get(offset + i) & 0xff;
+			if (Math.abs(actual - rgb[i]) > TOLERANCE) {
+				fail(label + " at (" + x + "," + y + ") expected rgb=("
+					+ rgb[0] + "," + rgb[1] + "," + rgb[2] + ") but channel " + i + " was " + actual);
+			}
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package com.herohan.uvcapp;
+
+import androidx.annotation.NonNull;
+
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.UVCCamera;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Result of planning isochronous USB bandwidth of all open cameras,
+ * see {@link ICameraHelper#planBandwidth(boolean)}.
+ * Bandwidth is counted in bytes per (micro)frame, which is what an alt-setting reserves.
+ */
+public class BandwidthPlan {
+
+    /**
+     * Mode and reservation planned for a camera
+     */
+    public static class CameraPlan {
+        private final String mDeviceName;
+        private final int mBusNum;
+        private final Size mRequestedSize;
+        private final Size mPlannedSize;
+        private final int mMaxPayloadSize;
+        private final int mReservedBytes;
+
+        CameraPlan(final String deviceName, final int busNum,
+                   final Size requestedSize, final Size plannedSize,
+                   final int maxPayloadSize, final int reservedBytes) {
+            mDeviceName = deviceName;
+            mBusNum = busNum;
+            mRequestedSize = requestedSize;
+            mPlannedSize = plannedSize;
+            mMaxPayloadSize = maxPayloadSize;
+            mReservedBytes = reservedBytes;
+        }
+
+        public String getDeviceName() {
+            return mDeviceName;
+        }
+
+        public int getBusNum() {
+            return mBusNum;
+        }
+
+        /**
+         * @return preview size that the app requested, planning starts from it
+         */
+        public Size getRequestedSize() {
+            return mRequestedSize;
+        }
+
+        /**
+         * @return preview size that fits into the bus, may have another format, lower fps or resolution
+         */
+        public Size getPlannedSize() {
+            return mPlannedSize;
+        }
+
+        /**
+         * @return payload size limit passed to {@link com.serenegiant.usb.UVCCamera#setMaxPayloadSize(int)},
+         * 0 if the negotiated value is used
+         */
+        public int getMaxPayloadSize() {
+            return mMaxPayloadSize;
+        }
+
+        /**
+         * @return bytes per (micro)frame that the selected alt-setting reserves, 0 if bulk
+         */
+        public int getReservedBytes() {
+            return mReservedBytes;
+        }
+
+        /**
+         * @return true if the planned mode differs from the requested one
+         */
+        public boolean isDowngraded() {
+            return !isSameMode(mRequestedSize, mPlannedSize);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s(bus=%d):%s->%s,payload=%d,reserved=%d",
+                    mDeviceName, mBusNum, describe(mRequestedSize), describe(mPlannedSize),
+                    mMaxPayloadSize, mReservedBytes);
+        }
+    }
+
+    /**
+     * Bandwidth usage of a bus
+     */
+    public static class BusUsage {
+        private final int mBusNum;
+        private final int mSpeed;
+        private final int mBudgetBytes;
+        private final int mUsedBytes;
+
+        BusUsage(final int busNum, final int speed, final int budgetBytes, final int usedBytes) {
+            mBusNum = busNum;
+            mSpeed = speed;
+            mBudgetBytes = budgetBytes;
+            mUsedBytes = usedBytes;
+        }
+
+        public int getBusNum() {
+            return mBusNum;
+        }
+
+        /**
+         * @return one of BandwidthInfo#SPEED_XXX that the budget is counted for
+         */
+        public int getSpeed() {
+            return mSpeed;
+        }
+
+        /**
+         * @return estimated periodic bandwidth of the bus in bytes per (micro)frame
+         */
+        public int getBudgetBytes() {
+            return mBudgetBytes;
+        }
+
+        public int getUsedBytes() {
+            return mUsedBytes;
+        }
+
+        /**
+         * @return bytes per (micro)frame left for other cameras, negative if the bus is over-subscribed
+         */
+        public int getHeadroomBytes() {
+            return mBudgetBytes - mUsedBytes;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "bus %d(speed=%d):%d/%d,headroom=%d",
+                    mBusNum, mSpeed, mUsedBytes, mBudgetBytes, getHeadroomBytes());
+        }
+    }
+
+    private final List<CameraPlan> mCameraPlans;
+    private final List<BusUsage> mBusUsages;
+    private final boolean mFits;
+
+    BandwidthPlan(@NonNull final List<CameraPlan> cameraPlans,
+                  @NonNull final List<BusUsage> busUsages, final boolean fits) {
+        mCameraPlans = Collections.unmodifiableList(cameraPlans);
+        mBusUsages = Collections.unmodifiableList(busUsages);
+        mFits = fits;
+    }
+
+    /**
+     * @return false if some bus is still over-subscribed
+     * even after all cameras on it were downgraded as far as possible
+     */
+    public boolean fits() {
+        return mFits;
+    }
+
+    @NonNull
+    public List<CameraPlan> getCameraPlans() {
+        return mCameraPlans;
+    }
+
+    @NonNull
+    public List<BusUsage> getBusUsages() {
+        return mBusUsages;
+    }
+
+    /**
+     * @return smallest headroom of all buses in bytes per (micro)frame, 0 if no camera is planned
+     */
+    public int getMinHeadroomBytes() {
+        if (mBusUsages.isEmpty()) {
+            return 0;
+        }
+        int result = Integer.MAX_VALUE;
+        for (BusUsage usage : mBusUsages) {
+            result = Math.min(result, usage.getHeadroomBytes());
+        }
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("BandwidthPlan{fits=").append(mFits);
+        for (BusUsage usage : mBusUsages) {
+            sb.append("\n  ").append(usage);
+        }
+        for (CameraPlan plan : mCameraPlans) {
+            sb.append("\n  ").append(plan);
+        }
+        return sb.append("}").toString();
+    }
+
+    static boolean isSameMode(final Size a, final Size b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return (a.type == b.type) && (a.width == b.width) && (a.height == b.height) && (a.fps == b.fps);
+    }
+
+    private static String describe(final Size size) {
+        if (size == null) {
+            return "null";
+        }
+        return String.format(Locale.US, "%s %dx%d@%d",
+                size.type == UVCCamera.UVC_VS_FRAME_MJPEG ? "MJPEG" : "YUV",
+                size.width, size.height, size.fps);
+    }
+}
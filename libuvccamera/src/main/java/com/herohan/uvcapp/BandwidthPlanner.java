@@ -0,0 +1,369 @@
+package com.herohan.uvcapp;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.serenegiant.usb.BandwidthInfo;
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.UVCCamera;
+import com.serenegiant.uvccamera.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plans stream modes of cameras that share USB buses so that the isochronous bandwidth
+ * their alt-settings reserve fits into the periodic bandwidth of each bus.
+ * <p>
+ * The bandwidth of a mode is estimated from the frame size and rate, or taken from
+ * the payload calibrated or dwMaxPayloadTransferSize negotiated for its current mode, and rounded up
+ * to the alt-setting libuvc would select for it. While a bus is over-subscribed the camera
+ * that reserves the most is downgraded one step: uncompressed to MJPEG of the same size,
+ * lower fps, smaller resolution of the same aspect ratio, and finally fps below {@link #MIN_FPS}.
+ * Planning starts from the size the app requested, so a camera downgraded before returns to it
+ * once the bus has room again. Cameras that are recording keep their current mode.
+ * MJPEG cameras usually ask for the largest alt-setting whatever their actual bit rate is,
+ * they are limited to the alt-setting that fits the payload calibrated for their current mode.
+ * Without calibration the negotiated payload is kept, a limit from the estimate could truncate
+ * frames of detailed scenes, and other modes are estimated until they are negotiated.
+ * <p>
+ * Android does not expose hubs and transaction translators, so all cameras with the same
+ * bus number share one budget, and full speed cameras on a high speed bus are counted
+ * against a separate full speed budget as if they were behind a single transaction translator.
+ */
+class BandwidthPlanner {
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final String TAG = BandwidthPlanner.class.getSimpleName();
+
+    /**
+     * Periodic bandwidth of a bus in bytes per (micro)frame,
+     * 80% of a high speed microframe and 90% of a full speed frame / super speed bus interval
+     */
+    private static final int HIGH_SPEED_BUDGET = 6000;
+    private static final int FULL_SPEED_BUDGET = 1350;
+    private static final int SUPER_SPEED_BUDGET = 56250;
+    /**
+     * Bytes per pixel of YUYV and the estimated average of MJPEG with some margin for detailed scenes
+     */
+    private static final float UNCOMPRESSED_BYTES_PER_PIXEL = 2.0f;
+    private static final float MJPEG_BYTES_PER_PIXEL = 0.4f;
+    /**
+     * UVC payload header that is sent in every (micro)frame
+     */
+    private static final int PAYLOAD_HEADER_BYTES = 12;
+    /**
+     * Frame rate is lowered below this only after the resolution can not be lowered any more
+     */
+    static final int MIN_FPS = 15;
+
+    /**
+     * A camera to plan
+     */
+    static final class Entry {
+        final String deviceName;
+        final BandwidthInfo info;
+        /**
+         * mode to start planning from, usually the size the app requested
+         */
+        final Size requested;
+        /**
+         * mode the camera streams now, which the negotiated and measured payload of info belong to
+         */
+        final Size current;
+        final List<Size> supported;
+        /**
+         * true if the mode must not change, e.g. while recording
+         */
+        final boolean fixed;
+
+        Entry(@NonNull final String deviceName, @NonNull final BandwidthInfo info,
+              @NonNull final Size requested, @NonNull final Size current,
+              @Nullable final List<Size> supported, final boolean fixed) {
+            this.deviceName = deviceName;
+            this.info = info;
+            this.requested = fixed ? current : requested;
+            this.current = current;
+            this.supported = supported != null ? supported : new ArrayList<>();
+            this.fixed = fixed;
+        }
+    }
+
+    private static final class State {
+        final Entry entry;
+        Size mode;
+        int required;
+        int reserved;
+
+        State(final Entry entry) {
+            this.entry = entry;
+            setMode(entry.requested);
+        }
+
+        void setMode(@NonNull final Size size) {
+            mode = size;
+            required = requiredBytes(entry, size);
+            reserved = reservedBytes(entry.info, required);
+        }
+    }
+
+    private BandwidthPlanner() {
+    }
+
+    /**
+     * @return plan of the entries in the same order
+     */
+    @NonNull
+    static BandwidthPlan plan(@NonNull final List<Entry> entries) {
+        final List<State> states = new ArrayList<>(entries.size());
+        final SparseArray<List<State>> groups = new SparseArray<>();
+        for (Entry entry : entries) {
+            final State state = new State(entry);
+            states.add(state);
+            final int key = groupKey(entry.info);
+            List<State> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(state);
+        }
+        boolean fits = true;
+        final List<BandwidthPlan.BusUsage> usages = new ArrayList<>();
+        for (int i = 0; i < groups.size(); i++) {
+            final List<State> group = groups.valueAt(i);
+            final int speed = budgetSpeed(group.get(0).entry.info.getSpeed());
+            final int budget = budgetBytes(speed);
+            int used = usedBytes(group);
+            while (used > budget) {
+                if (!downgradeLargest(group)) {
+                    Log.w(TAG, "bus " + group.get(0).entry.info.getBusNum() + " is over-subscribed:" + used + "/" + budget);
+                    fits = false;
+                    break;
+                }
+                used = usedBytes(group);
+            }
+            usages.add(new BandwidthPlan.BusUsage(group.get(0).entry.info.getBusNum(), speed, budget, used));
+        }
+        final List<BandwidthPlan.CameraPlan> plans = new ArrayList<>(states.size());
+        for (State state : states) {
+            final Entry entry = state.entry;
+            // truncating uncompressed payloads breaks frames, only MJPEG is limited and only when calibrated
+            final int maxPayload = (state.mode.type == UVCCamera.UVC_VS_FRAME_MJPEG)
+                    && entry.info.isIsochronous() && isCalibrated(entry, state.mode) ? state.reserved : 0;
+            plans.add(new BandwidthPlan.CameraPlan(entry.deviceName, entry.info.getBusNum(),
+                    entry.requested, state.mode, maxPayload, state.reserved));
+        }
+        final BandwidthPlan result = new BandwidthPlan(plans, usages, fits);
+        if (DEBUG) Log.d(TAG, "plan:" + result);
+        return result;
+    }
+
+    /**
+     * downgrade the camera that reserves the most and can still be downgraded
+     *
+     * @return false if no camera of the group can be downgraded
+     */
+    private static boolean downgradeLargest(@NonNull final List<State> group) {
+        State target = null;
+        Size next = null;
+        for (State state : group) {
+            if (!state.entry.info.isIsochronous() || state.entry.fixed) {
+                continue;
+            }
+            if ((target == null) || (state.reserved > target.reserved)) {
+                final Size size = nextMode(state.entry, state.mode);
+                if (size != null) {
+                    target = state;
+                    next = size;
+                }
+            }
+        }
+        if (target == null) {
+            return false;
+        }
+        if (DEBUG) Log.v(TAG, "downgrade " + target.entry.deviceName + ":" + target.mode + "->" + next);
+        target.setMode(next);
+        return true;
+    }
+
+    /**
+     * @return next cheaper mode of the camera, null if there is no cheaper mode
+     */
+    @Nullable
+    private static Size nextMode(@NonNull final Entry entry, @NonNull final Size mode) {
+        if (mode.type != UVCCamera.UVC_VS_FRAME_MJPEG) {
+            final Size mjpeg = findSize(entry.supported, UVCCamera.UVC_VS_FRAME_MJPEG, mode.width, mode.height);
+            if (mjpeg != null) {
+                final int fps = highestFps(mjpeg, mode.fps);
+                if (fps > 0) {
+                    return copyOf(mjpeg, fps);
+                }
+            }
+        }
+        final Size current = findSize(entry.supported, mode.type, mode.width, mode.height);
+        final int lowerFps = current != null ? highestFps(current, mode.fps - 1) : 0;
+        if (lowerFps >= MIN_FPS) {
+            return copyOf(current, lowerFps);
+        }
+        final Size smaller = smallerMode(entry.supported, mode);
+        if (smaller != null) {
+            return smaller;
+        }
+        return lowerFps > 0 ? copyOf(current, lowerFps) : null;
+    }
+
+    /**
+     * @return next smaller resolution of the same format and aspect ratio at the fps of the mode
+     * or the closest lower one, null if there is no smaller resolution
+     */
+    @Nullable
+    static Size smallerMode(@NonNull final List<Size> supported, @NonNull final Size mode) {
+        Size smaller = null;
+        for (Size size : supported) {
+            if ((size.type == mode.type)
+                    && (size.width * size.height < mode.width * mode.height)
+                    && (size.width * mode.height == size.height * mode.width)
+                    && ((smaller == null) || (size.width * size.height > smaller.width * smaller.height))) {
+                smaller = size;
+            }
+        }
+        if (smaller != null) {
+            final int fps = highestFps(smaller, mode.fps);
+            return copyOf(smaller, fps > 0 ? fps : lowestFps(smaller));
+        }
+        return null;
+    }
+
+    /**
+     * @return estimated payload bytes per (micro)frame of the mode
+     */
+    private static int requiredBytes(@NonNull final Entry entry, @NonNull final Size mode) {
+        final int intervals = intervalsPerSecond(entry.info.getSpeed());
+        final boolean mjpeg = mode.type == UVCCamera.UVC_VS_FRAME_MJPEG;
+        final float bytesPerPixel = mjpeg ? MJPEG_BYTES_PER_PIXEL : UNCOMPRESSED_BYTES_PER_PIXEL;
+        final int estimated = (int) Math.ceil(
+                (double) mode.width * mode.height * bytesPerPixel * mode.fps / intervals) + PAYLOAD_HEADER_BYTES;
+        final int negotiated = entry.info.getNegotiatedPayloadSize();
+        if (BandwidthPlan.isSameMode(mode, entry.current) && (negotiated > 0)) {
+            if (isCalibrated(entry, mode)) {
+                // calibrated on the device, see UVCCamera#setPayloadCalibration
+                final int measured = entry.info.getMeasuredPayloadSize();
+                return Math.min(negotiated,
+                        measured + measured * UVCCamera.DEFAULT_CALIBRATION_MARGIN_PERCENT / 100);
+            }
+            // the payload is not limited without calibration, so the negotiated one is reserved
+            return negotiated;
+        }
+        return estimated;
+    }
+
+    /**
+     * @return true if the payload of the mode was measured on the device
+     */
+    private static boolean isCalibrated(@NonNull final Entry entry, @NonNull final Size mode) {
+        return BandwidthPlan.isSameMode(mode, entry.current)
+                && (entry.info.getNegotiatedPayloadSize() > 0)
+                && (entry.info.getMeasuredPayloadSize() > 0);
+    }
+
+    /**
+     * @return bytes per (micro)frame of the smallest alt-setting that can carry the payload,
+     * the payload itself if no alt-setting can
+     */
+    private static int reservedBytes(@NonNull final BandwidthInfo info, final int required) {
+        if (!info.isIsochronous()) {
+            return 0;
+        }
+        for (int bytes : info.getAltSettingBytes()) {
+            if (bytes >= required) {
+                return bytes;
+            }
+        }
+        return required;
+    }
+
+    private static int usedBytes(@NonNull final List<State> group) {
+        int result = 0;
+        for (State state : group) {
+            result += state.reserved;
+        }
+        return result;
+    }
+
+    private static int groupKey(@NonNull final BandwidthInfo info) {
+        return (info.getBusNum() << 3) | budgetSpeed(info.getSpeed());
+    }
+
+    private static int budgetSpeed(final int speed) {
+        switch (speed) {
+            case BandwidthInfo.SPEED_LOW:
+            case BandwidthInfo.SPEED_FULL:
+                return BandwidthInfo.SPEED_FULL;
+            case BandwidthInfo.SPEED_SUPER:
+            case BandwidthInfo.SPEED_SUPER_PLUS:
+                return BandwidthInfo.SPEED_SUPER;
+            default:
+                // most UVC cameras are high speed devices
+                return BandwidthInfo.SPEED_HIGH;
+        }
+    }
+
+    private static int budgetBytes(final int speed) {
+        switch (speed) {
+            case BandwidthInfo.SPEED_FULL:
+                return FULL_SPEED_BUDGET;
+            case BandwidthInfo.SPEED_SUPER:
+                return SUPER_SPEED_BUDGET;
+            default:
+                return HIGH_SPEED_BUDGET;
+        }
+    }
+
+    private static int intervalsPerSecond(final int speed) {
+        return budgetSpeed(speed) == BandwidthInfo.SPEED_FULL ? 1000 : 8000;
+    }
+
+    @Nullable
+    private static Size findSize(@NonNull final List<Size> sizes, final int type, final int width, final int height) {
+        for (Size size : sizes) {
+            if ((size.type == type) && (size.width == width) && (size.height == height)) {
+                return size;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return highest fps of the size that is not higher than maxFps, 0 if none
+     */
+    private static int highestFps(@NonNull final Size size, final int maxFps) {
+        int result = 0;
+        if (size.fpsList != null) {
+            for (int fps : size.fpsList) {
+                if ((fps <= maxFps) && (fps > result)) {
+                    result = fps;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int lowestFps(@NonNull final Size size) {
+        int result = size.fps;
+        if (size.fpsList != null) {
+            for (int fps : size.fpsList) {
+                if ((fps > 0) && (fps < result)) {
+                    result = fps;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Size copyOf(@NonNull final Size size, final int fps) {
+        return new Size(size.type, size.width, size.height, fps, size.fpsList);
+    }
+}
@@ -4,14 +4,20 @@ import static com.herohan.uvcapp.ImageCapture.ERROR_INVALID_CAMERA;
 
 import android.hardware.usb.UsbDevice;
 import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.herohan.uvcapp.utils.Watchdog;
+import com.serenegiant.usb.BandwidthInfo;
 import com.serenegiant.usb.DeviceFilter;
 import com.serenegiant.usb.Format;
+import com.serenegiant.usb.FrameMemoryBudget;
 import com.serenegiant.usb.IButtonCallback;
 import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.IFrameStatsCallback;
+import com.serenegiant.usb.ITensorCallback;
+import com.serenegiant.usb.InferenceTapConfig;
+import com.serenegiant.usb.MosaicCompositor;
 import com.serenegiant.usb.Size;
 import com.serenegiant.usb.USBMonitor;
 import com.serenegiant.usb.USBMonitor.OnDeviceConnectListener;
@@ -23,15 +29,69 @@ import com.serenegiant.uvccamera.BuildConfig;
 import com.serenegiant.uvccamera.R;
 
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 class CameraConnectionService {
     private static final boolean DEBUG = BuildConfig.DEBUG;
     private static final String TAG = CameraConnectionService.class.getSimpleName();
 
+    /**
+     * Default budget of cameras kept open in standby, shared by all connections
+     */
+    private static final int DEFAULT_STANDBY_MAX_CAMERAS = 2;
+    private static final long DEFAULT_STANDBY_MAX_BYTES = 64L * 1024 * 1024;
+    /**
+     * Interval to check cameras that the frame memory budget asks to reduce their resolution,
+     * and time a reduced camera is given to recover before it is reduced again
+     */
+    private static final long FRAME_MEMORY_CHECK_INTERVAL_MS = 1000;
+    private static final long FRAME_MEMORY_SETTLE_MS = 5000;
+    /**
+     * A reduced camera is restored when its original resolution fits below this percentage of the limit,
+     * same as the native budget restores frame rates
+     */
+    private static final int FRAME_MEMORY_RESTORE_PERCENT = 70;
+
     private static volatile CameraConnectionService mInstance;
 
+    /**
+     * Cameras of all connections with their device names,
+     * cameras opened by different helpers still share the bandwidth of a bus
+     */
+    private final Object mAllCamerasSync = new Object();
+    private final LinkedHashMap<CameraInternal, String> mAllCameras = new LinkedHashMap<>();
+    private volatile boolean mAutoBandwidthPlanning;
+    /**
+     * Original sizes of cameras whose resolution was reduced for the frame memory budget,
+     * guarded by mAllCamerasSync
+     */
+    private final HashMap<CameraInternal, ReducedSize> mReducedSizes = new HashMap<>();
+    private Handler mFrameMemoryHandler;
+    private CameraExecutors.SerialExecutor mFrameMemoryExecutor;
+    /**
+     * Budget of cameras in standby of all connections, guarded by mAllCamerasSync
+     */
+    private int mStandbyMaxCameras = DEFAULT_STANDBY_MAX_CAMERAS;
+    private long mStandbyMaxBytes = DEFAULT_STANDBY_MAX_BYTES;
+
+    private static final class ReducedSize {
+        final Size original;
+        // size the budget switched to, the camera is not restored once something else changed it
+        int reducedWidth;
+        int reducedHeight;
+        long reducedMs;
+
+        ReducedSize(final Size original) {
+            this.original = original;
+        }
+    }
+
     CameraConnectionService() {
     }
 
@@ -50,6 +110,216 @@ class CameraConnectionService {
         return new CameraConnection();
     }
 
+    private void registerCamera(final CameraInternal cameraInternal, final String deviceName) {
+        synchronized (mAllCamerasSync) {
+            mAllCameras.put(cameraInternal, deviceName);
+        }
+    }
+
+    private void unregisterCamera(final CameraInternal cameraInternal) {
+        synchronized (mAllCamerasSync) {
+            mAllCameras.remove(cameraInternal);
+            mReducedSizes.remove(cameraInternal);
+        }
+    }
+
+    /**
+     * Close cameras in standby of all connections that exceed the budget, least recently used first.
+     * The budget is service wide because every connection would otherwise keep its own cameras.
+     */
+    private void trimStandbyCameras() {
+        final List<CameraInternal> evicted = new ArrayList<>();
+        synchronized (mAllCamerasSync) {
+            final List<CameraInternal> standby = new ArrayList<>();
+            final HashMap<CameraInternal, Long> memory = new HashMap<>();
+            long bytes = 0;
+            for (CameraInternal cameraInternal : mAllCameras.keySet()) {
+                if (cameraInternal.isStandby()) {
+                    final long cameraBytes = cameraInternal.getStandbyMemoryBytes();
+                    standby.add(cameraInternal);
+                    memory.put(cameraInternal, cameraBytes);
+                    bytes += cameraBytes;
+                }
+            }
+            Collections.sort(standby, (a, b) -> Long.compare(a.getStandbySinceMs(), b.getStandbySinceMs()));
+            int count = standby.size();
+            for (CameraInternal cameraInternal : standby) {
+                if (count <= mStandbyMaxCameras && bytes <= mStandbyMaxBytes) {
+                    break;
+                }
+                evicted.add(cameraInternal);
+                count--;
+                bytes -= memory.get(cameraInternal);
+            }
+        }
+        for (CameraInternal cameraInternal : evicted) {
+            // may have been activated meanwhile
+            if (cameraInternal.isStandby()) {
+                if (DEBUG) Log.d(TAG, "trimStandbyCameras:close " + cameraInternal);
+                cameraInternal.closeCamera();
+            }
+        }
+    }
+
+    private void setStandbyBudget(final int maxCameras, final long maxBytes) {
+        synchronized (mAllCamerasSync) {
+            mStandbyMaxCameras = maxCameras;
+            mStandbyMaxBytes = maxBytes;
+        }
+        trimStandbyCameras();
+    }
+
+    /**
+     * The app chose the size of the camera, which overrides a size reduced for the frame memory budget
+     */
+    private void onAppPreviewSize(final CameraInternal cameraInternal) {
+        synchronized (mAllCamerasSync) {
+            if (mReducedSizes.remove(cameraInternal) != null) {
+                Log.i(TAG, "onAppPreviewSize:size is not restored for the frame memory budget");
+            }
+        }
+    }
+
+    /**
+     * @return camera of the device opened by any connection, null if not opened
+     */
+    CameraInternal findCamera(final UsbDevice device) {
+        synchronized (mAllCamerasSync) {
+            for (Map.Entry<CameraInternal, String> e : mAllCameras.entrySet()) {
+                if (e.getValue().equals(device.getDeviceName())) {
+                    return e.getKey();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Plan bandwidth of cameras of all connections, see {@link BandwidthPlanner}
+     *
+     * The cameras are switched one after another without mAllCamerasSync,
+     * restarting a stream takes a while and must not block other cameras.
+     *
+     * @param apply    true to switch the cameras to the planned modes
+     * @param starting null to plan all opened cameras,
+     *                 otherwise only cameras that are streaming and this one that is about to start
+     */
+    private BandwidthPlan planBandwidth(final boolean apply, final CameraInternal starting) {
+        final List<CameraInternal> cameras = new ArrayList<>();
+        final List<BandwidthPlanner.Entry> entries = new ArrayList<>();
+        synchronized (mAllCamerasSync) {
+            for (Map.Entry<CameraInternal, String> e : mAllCameras.entrySet()) {
+                final CameraInternal cameraInternal = e.getKey();
+                final BandwidthInfo info = cameraInternal.getBandwidthInfo();
+                final Size size = cameraInternal.getPreviewSize();
+                if ((info == null) || (size == null)) {
+                    continue;
+                }
+                if ((starting != null) && (cameraInternal != starting) && !info.isStreaming()) {
+                    continue;
+                }
+                // a size reduced for the frame memory budget is restored by the budget itself
+                final Size requested = mReducedSizes.containsKey(cameraInternal)
+                        ? size : cameraInternal.getRequestedSize();
+                cameras.add(cameraInternal);
+                entries.add(new BandwidthPlanner.Entry(e.getValue(), info,
+                        requested != null ? requested : size, size,
+                        cameraInternal.getSupportedSizeList(), cameraInternal.isRecording()));
+            }
+        }
+        final BandwidthPlan plan = BandwidthPlanner.plan(entries);
+        if (apply) {
+            final List<BandwidthPlan.CameraPlan> plans = plan.getCameraPlans();
+            for (int i = 0; i < plans.size(); i++) {
+                final BandwidthPlan.CameraPlan cameraPlan = plans.get(i);
+                cameras.get(i).applyBandwidthPlan(cameraPlan.getPlannedSize(), cameraPlan.getMaxPayloadSize());
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Limit frame memory of all cameras, see {@link FrameMemoryBudget}.
+     * Frame rates are lowered natively, resolutions are lowered and restored here.
+     */
+    private void setFrameMemoryLimit(final long bytes) {
+        FrameMemoryBudget.setLimit(bytes);
+        synchronized (mAllCamerasSync) {
+            if (mFrameMemoryHandler == null) {
+                mFrameMemoryHandler = CameraExecutors.newCallbackHandler();
+                mFrameMemoryExecutor = CameraExecutors.newSerialExecutor();
+            }
+            mFrameMemoryHandler.removeCallbacks(mFrameMemoryCheckTask);
+            // also runs without limit until reduced cameras are restored
+            mFrameMemoryHandler.post(mFrameMemoryCheckTask);
+        }
+    }
+
+    private final Runnable mFrameMemoryCheckTask = new Runnable() {
+        @Override
+        public void run() {
+            // switching resolution blocks, so it does not run on the callback looper
+            mFrameMemoryExecutor.execute(CameraConnectionService.this::checkFrameMemory);
+        }
+    };
+
+    private void checkFrameMemory() {
+        synchronized (mAllCamerasSync) {
+            final long limit = FrameMemoryBudget.getLimit();
+            final long now = SystemClock.uptimeMillis();
+            for (CameraInternal cameraInternal : mAllCameras.keySet()) {
+                final FrameMemoryBudget.Stats stats = cameraInternal.getFrameMemoryStats();
+                final Size size = cameraInternal.getPreviewSize();
+                if ((stats == null) || (size == null)) {
+                    continue;
+                }
+                ReducedSize reduced = mReducedSizes.get(cameraInternal);
+                if ((reduced != null)
+                        && ((size.width != reduced.reducedWidth) || (size.height != reduced.reducedHeight))) {
+                    // something else switched the size after it was reduced, that size is kept
+                    mReducedSizes.remove(cameraInternal);
+                    reduced = null;
+                }
+                if (stats.getLevel() >= FrameMemoryBudget.LEVEL_REDUCE_RESOLUTION) {
+                    if (((reduced != null) && (now - reduced.reducedMs < FRAME_MEMORY_SETTLE_MS))
+                            || cameraInternal.isRecording()) {
+                        continue;
+                    }
+                    final List<Size> supported = cameraInternal.getSupportedSizeList();
+                    final Size smaller = supported != null ? BandwidthPlanner.smallerMode(supported, size) : null;
+                    if (smaller == null) {
+                        continue;
+                    }
+                    if (reduced == null) {
+                        reduced = new ReducedSize(size);
+                        mReducedSizes.put(cameraInternal, reduced);
+                    }
+                    reduced.reducedWidth = smaller.width;
+                    reduced.reducedHeight = smaller.height;
+                    reduced.reducedMs = now;
+                    Log.i(TAG, "checkFrameMemory:reduce " + size + "->" + smaller + "," + stats);
+                    cameraInternal.switchPreviewSize(smaller);
+                } else if ((reduced != null) && (stats.getLevel() == FrameMemoryBudget.LEVEL_NORMAL)
+                        && !cameraInternal.isRecording()) {
+                    // usage grows roughly with the frame size
+                    final long current = (long) size.width * size.height;
+                    final long original = (long) reduced.original.width * reduced.original.height;
+                    final long extra = current > 0 ? stats.getUsedBytes() * (original - current) / current : 0;
+                    if ((limit == 0) || ((FrameMemoryBudget.getUsedBytes() + extra) * 100
+                            < limit * FRAME_MEMORY_RESTORE_PERCENT)) {
+                        Log.i(TAG, "checkFrameMemory:restore " + size + "->" + reduced.original);
+                        mReducedSizes.remove(cameraInternal);
+                        cameraInternal.switchPreviewSize(reduced.original);
+                    }
+                }
+            }
+            if ((limit > 0) || !mReducedSizes.isEmpty()) {
+                mFrameMemoryHandler.removeCallbacks(mFrameMemoryCheckTask);
+                mFrameMemoryHandler.postDelayed(mFrameMemoryCheckTask, FRAME_MEMORY_CHECK_INTERVAL_MS);
+            }
+        }
+    }
+
     private final class CameraConnection implements ICameraConnection {
         private final String LOG_PREFIX = "CameraConnection#";
 
@@ -58,20 +328,18 @@ class CameraConnectionService {
         private String mLastCameraKey = null;
 
         private USBMonitor mUSBMonitor;
-        private HandlerThread mListenerHandlerThread;
-        private Handler mListenerHandler;
+        private final Handler mListenerHandler;
         private WeakReference<ICameraHelper.StateCallback> mWeakStateCallback;
 
         CameraConnection() {
-            mListenerHandlerThread = new HandlerThread(LOG_PREFIX + hashCode());
-            mListenerHandlerThread.start();
-            mListenerHandler = new Handler(mListenerHandlerThread.getLooper());
-//            Watchdog.getInstance().addThread(mListenerHandler);
+            // listener callbacks and USB events of all connections share one looper
+            mListenerHandler = CameraExecutors.newCallbackHandler();
 
             mUSBMonitor = new USBMonitor(
                     UVCUtils.getApplication(),
                     new MyOnDeviceConnectListener(),
-                    mListenerHandler);
+                    mListenerHandler,
+                    CameraExecutors.newCallbackHandler());
         }
 
         //********************************************************************************
@@ -85,6 +353,7 @@ class CameraConnectionService {
                 if (cameraInternal == null) {
                     cameraInternal = new CameraInternal(UVCUtils.getApplication(), ctrlBlock, device.getVendorId(), device.getProductId());
                     mCameras.put(key, cameraInternal);
+                    registerCamera(cameraInternal, device.getDeviceName());
                 } else {
                     if (DEBUG) Log.d(TAG, "Camera already exist");
                 }
@@ -101,6 +370,7 @@ class CameraConnectionService {
                 mLastCameraKey = key;
                 final CameraInternal service = mCameras.get(key);
                 if (service != null) {
+                    unregisterCamera(service);
                     service.release();
                 }
                 mCameras.remove(key);
@@ -267,6 +537,7 @@ class CameraConnectionService {
             if (cameraInternal == null) {
                 throw new IllegalArgumentException("invalid device");
             }
+            onAppPreviewSize(cameraInternal);
             cameraInternal.setPreviewSize(size);
         }
 
@@ -309,6 +580,88 @@ class CameraConnectionService {
             }
         }
 
+        @Override
+        public void setInferenceTap(final UsbDevice device, final InferenceTapConfig config,
+                                    final ByteBuffer tensor, final ITensorCallback callback) {
+            if (DEBUG)
+                Log.d(TAG, LOG_PREFIX + "setInferenceTap:" + config);
+            final CameraInternal cameraInternal = getCamera(device);
+            if (cameraInternal != null) {
+                cameraInternal.setInferenceTap(config, tensor, callback);
+            }
+        }
+
+        @Override
+        public void setMosaicTile(final UsbDevice device, final MosaicCompositor mosaic, final int index) {
+            if (DEBUG)
+                Log.d(TAG, LOG_PREFIX + "setMosaicTile:" + mosaic + "," + index);
+            final CameraInternal cameraInternal = getCamera(device);
+            if (cameraInternal != null) {
+                cameraInternal.setMosaicTile(mosaic, index);
+            }
+        }
+
+        @Override
+        public void setFrameStatsCallback(final UsbDevice device, final IFrameStatsCallback callback,
+                                          final int maxFps) {
+            if (DEBUG)
+                Log.d(TAG, LOG_PREFIX + "setFrameStatsCallback:" + maxFps);
+            final CameraInternal cameraInternal = getCamera(device);
+            if (cameraInternal != null) {
+                cameraInternal.setFrameStatsCallback(callback, maxFps);
+            }
+        }
+
+        @Override
+        public void setStaticSceneSkip(final UsbDevice device, final int threshold, final int maxIntervalMs) {
+            if (DEBUG)
+                Log.d(TAG, LOG_PREFIX + "setStaticSceneSkip:" + threshold + "," + maxIntervalMs);
+            final CameraInternal cameraInternal = getCamera(device);
+            if (cameraInternal != null) {
+                cameraInternal.setStaticSceneSkip(threshold, maxIntervalMs);
+            }
+        }
+
+        @Override
+        public void setAutoStreamNegotiation(final UsbDevice device, final boolean enable) {
+            if (DEBUG)
+                Log.d(TAG, LOG_PREFIX + "setAutoStreamNegotiation:" + enable);
+            final CameraInternal cameraInternal = getCamera(device);
+            if (cameraInternal != null) {
+                cameraInternal.setAutoStreamNegotiation(enable);
+            }
+        }
+
+        @Override
+        public void setStreamDemand(final UsbDevice device, final String consumerId,
+                                    final int maxFps, final int width, final int height) {
+            if (DEBUG)
+                Log.d(TAG, LOG_PREFIX + "setStreamDemand:" + consumerId);
+            final CameraInternal cameraInternal = getCamera(device);
+            if (cameraInternal != null) {
+                cameraInternal.setStreamDemand(consumerId, maxFps, width, height);
+            }
+        }
+
+        @Override
+        public void removeStreamDemand(final UsbDevice device, final String consumerId) {
+            if (DEBUG)
+                Log.d(TAG, LOG_PREFIX + "removeStreamDemand:" + consumerId);
+            final CameraInternal cameraInternal = getCamera(device);
+            if (cameraInternal != null) {
+                cameraInternal.removeStreamDemand(consumerId);
+            }
+        }
+
+        @Override
+        public int getFrameChangeScore(final UsbDevice device) {
+            final CameraInternal cameraInternal = getCamera(device);
+            if (cameraInternal != null) {
+                return cameraInternal.getFrameChangeScore();
+            }
+            return -1;
+        }
+
         /**
          * open device once again, open camera and start streaming
          */
@@ -353,6 +706,9 @@ class CameraConnectionService {
             if (cameraInternal == null) {
                 throw new IllegalArgumentException("invalid device");
             }
+            if (mAutoBandwidthPlanning) {
+                planBandwidth(true, cameraInternal);
+            }
             cameraInternal.startPreview();
         }
 
@@ -371,6 +727,88 @@ class CameraConnectionService {
             cameraInternal.stopPreview();
         }
 
+        /**
+         * stop streaming but keep the device open for fast switching
+         *
+         * @param device
+         */
+        @Override
+        public void standbyCamera(final UsbDevice device) {
+            if (DEBUG) Log.d(TAG, LOG_PREFIX + "standbyCamera:");
+            final CameraInternal cameraInternal = getCamera(device);
+            if (cameraInternal == null) {
+                throw new IllegalArgumentException("invalid device");
+            }
+            cameraInternal.standby();
+            CameraConnectionService.this.trimStandbyCameras();
+        }
+
+        @Override
+        public boolean isStandby(final UsbDevice device) {
+            final CameraInternal cameraInternal = getCamera(device, false);
+            return (cameraInternal != null) && cameraInternal.isStandby();
+        }
+
+        @Override
+        public BandwidthInfo getBandwidthInfo(final UsbDevice device) {
+            final CameraInternal cameraInternal = getCamera(device, false);
+            return cameraInternal != null ? cameraInternal.getBandwidthInfo() : null;
+        }
+
+        @Override
+        public BandwidthPlan planBandwidth(final boolean apply) {
+            if (DEBUG) Log.d(TAG, LOG_PREFIX + "planBandwidth:" + apply);
+            return CameraConnectionService.this.planBandwidth(apply, null);
+        }
+
+        @Override
+        public void setFrameMemoryLimit(final long bytes) {
+            if (DEBUG) Log.d(TAG, LOG_PREFIX + "setFrameMemoryLimit:" + bytes);
+            CameraConnectionService.this.setFrameMemoryLimit(bytes);
+        }
+
+        @Override
+        public void setFrameMemoryPriority(final UsbDevice device, final int priority) {
+            final CameraInternal cameraInternal = getCamera(device, false);
+            if (cameraInternal != null) {
+                cameraInternal.setFrameMemoryPriority(priority);
+            }
+        }
+
+        @Override
+        public void setYuvPreview(final UsbDevice device, final boolean enable) {
+            final CameraInternal cameraInternal = getCamera(device, false);
+            if (cameraInternal != null) {
+                cameraInternal.setYuvPreview(enable);
+            }
+        }
+
+        @Override
+        public void setYuvColorSpace(final UsbDevice device, final int colorSpace, final boolean fullRange) {
+            final CameraInternal cameraInternal = getCamera(device, false);
+            if (cameraInternal != null) {
+                cameraInternal.setYuvColorSpace(colorSpace, fullRange);
+            }
+        }
+
+        @Override
+        public FrameMemoryBudget.Stats getFrameMemoryStats(final UsbDevice device) {
+            final CameraInternal cameraInternal = getCamera(device, false);
+            return cameraInternal != null ? cameraInternal.getFrameMemoryStats() : null;
+        }
+
+        @Override
+        public void setAutoBandwidthPlanning(final boolean enable) {
+            if (DEBUG) Log.d(TAG, LOG_PREFIX + "setAutoBandwidthPlanning:" + enable);
+            mAutoBandwidthPlanning = enable;
+        }
+
+        @Override
+        public void setStandbyBudget(final int maxCameras, final long maxBytes) {
+            if (DEBUG) Log.d(TAG, LOG_PREFIX + "setStandbyBudget:" + maxCameras + "," + maxBytes);
+            CameraConnectionService.this.setStandbyBudget(maxCameras, maxBytes);
+        }
+
         @Override
         public UVCControl getUVCControl(UsbDevice device) {
             final CameraInternal cameraInternal = getCamera(device);
@@ -447,6 +885,7 @@ class CameraConnectionService {
             synchronized (mConnectionSync) {
                 for (CameraInternal cameraInternal : mCameras.values()) {
                     if (cameraInternal != null) {
+                        unregisterCamera(cameraInternal);
                         cameraInternal.release();
                     }
                 }
@@ -497,8 +936,7 @@ class CameraConnectionService {
                 mUSBMonitor = null;
             }
 
-//            Watchdog.getInstance().removeThread(mListenerHandler);
-            mListenerHandlerThread.quitSafely();
+            // callbacks already posted still run, like quitSafely() of a dedicated thread
 
             if (mWeakStateCallback != null) {
                 mWeakStateCallback.clear();
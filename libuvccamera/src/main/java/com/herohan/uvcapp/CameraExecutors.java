@@ -0,0 +1,259 @@
+package com.herohan.uvcapp;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.serenegiant.uvccamera.BuildConfig;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads shared by all cameras, instead of threads and pools of each camera and each use case.
+ * <p>
+ * Background tasks of helpers, image saving, recording housekeeping, stream renegotiation and
+ * frame set delivery run on a bounded pool, serialized per owner with {@link SerialExecutor}.
+ * Encoder drain loops and MJPEG audio loops, which block for the whole recording, run on a separate
+ * bounded pool so that they can not starve the background tasks.
+ * Listener callbacks, delayed tasks and periodic device checks are dispatched on one shared looper.
+ * Idle pool threads exit after a while.
+ * <p>
+ * These threads are not shared through this class:
+ * GL threads of renderers and native streaming threads, which are dedicated to a camera;
+ * the thread of {@link com.serenegiant.usb.ControlQueue}, which is started on the first queued control
+ * and lives until the camera is closed; and the thread that prefetches control limits
+ * of all cameras in {@link com.serenegiant.usb.UVCCamera}, which exits when idle.
+ * <p>
+ * Set another {@link Provider} with {@link #setProvider(Provider)} before the first
+ * {@link CameraHelper} is created to use the executors of the app.
+ */
+public final class CameraExecutors {
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final String TAG = CameraExecutors.class.getSimpleName();
+
+    /**
+     * Two encoder loops (video and audio) for each of 8 cameras recording at the same time.
+     * Loops beyond the limit wait in the queue, so a recording started while all of them run
+     * does not encode anything until another recording stops; apps that record more cameras
+     * should set a {@link DefaultProvider} with a larger limit.
+     * Idle encoder threads exit, so the limit costs nothing while few cameras record.
+     */
+    public static final int DEFAULT_MAX_ENCODER_THREADS = 16;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    public interface Provider {
+        /**
+         * @return executor for short background tasks, tasks of an owner are serialized on it
+         */
+        @NonNull
+        Executor getBackgroundExecutor();
+
+        /**
+         * @return executor for encoder drain loops that block until recording stops,
+         * it should run at least two loops for each recording camera at the same time
+         */
+        @NonNull
+        Executor getEncoderExecutor();
+
+        /**
+         * @return looper that dispatches listener callbacks and delayed tasks,
+         * tasks on it must not block
+         */
+        @NonNull
+        Looper getCallbackLooper();
+    }
+
+    /**
+     * Bounded pools whose idle threads exit after some seconds
+     * and a callback thread started on first use
+     */
+    public static class DefaultProvider implements Provider {
+        private final ThreadPoolExecutor mBackgroundExecutor;
+        private final ThreadPoolExecutor mEncoderExecutor;
+        private HandlerThread mCallbackThread;
+
+        /**
+         * @param maxBackgroundThreads upper limit of threads for background tasks
+         * @param maxEncoderThreads    upper limit of encoder loops running at the same time,
+         *                             more loops wait until a recording stops
+         */
+        public DefaultProvider(final int maxBackgroundThreads, final int maxEncoderThreads) {
+            mBackgroundExecutor = newPool("uvc-background-", maxBackgroundThreads);
+            mEncoderExecutor = newPool("uvc-encoder-", maxEncoderThreads);
+        }
+
+        public DefaultProvider() {
+            this(Math.max(2, Runtime.getRuntime().availableProcessors()), DEFAULT_MAX_ENCODER_THREADS);
+        }
+
+        @NonNull
+        @Override
+        public Executor getBackgroundExecutor() {
+            return mBackgroundExecutor;
+        }
+
+        @NonNull
+        @Override
+        public Executor getEncoderExecutor() {
+            return mEncoderExecutor;
+        }
+
+        @NonNull
+        @Override
+        public synchronized Looper getCallbackLooper() {
+            if (mCallbackThread == null) {
+                mCallbackThread = new HandlerThread("uvc-callback");
+                mCallbackThread.start();
+            }
+            return mCallbackThread.getLooper();
+        }
+
+        /**
+         * @return number of threads alive in the background and encoder pools
+         */
+        public int getPoolSize() {
+            return mBackgroundExecutor.getPoolSize() + mEncoderExecutor.getPoolSize();
+        }
+
+        private static ThreadPoolExecutor newPool(final String prefix, final int maxThreads) {
+            final int threads = Math.max(1, maxThreads);
+            // core == max so that the pool grows before queueing, core threads time out when idle
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger mId = new AtomicInteger(0);
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            return new Thread(r, prefix + mId.getAndIncrement());
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    /**
+     * Runs tasks one after another in submission order on a shared executor,
+     * like a HandlerThread but without its own thread
+     */
+    public static final class SerialExecutor implements Executor {
+        private final Executor mExecutor;
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+        private boolean mIsRunning;
+        private boolean mIsQuit;
+
+        SerialExecutor(@NonNull final Executor executor) {
+            mExecutor = executor;
+        }
+
+        /**
+         * tasks are silently dropped after {@link #quitSafely()}
+         */
+        @Override
+        public void execute(@NonNull final Runnable task) {
+            synchronized (mTasks) {
+                if (mIsQuit) {
+                    if (DEBUG) Log.w(TAG, "execute:already quit");
+                    return;
+                }
+                mTasks.add(task);
+                if (!mIsRunning) {
+                    mIsRunning = true;
+                    mExecutor.execute(mDrainTask);
+                }
+            }
+        }
+
+        /**
+         * reject new tasks, the tasks already submitted still run
+         */
+        public void quitSafely() {
+            synchronized (mTasks) {
+                mIsQuit = true;
+            }
+        }
+
+        private final Runnable mDrainTask = new Runnable() {
+            @Override
+            public void run() {
+                // run a single task per turn so that one owner can not hold a pool thread forever
+                final Runnable task;
+                synchronized (mTasks) {
+                    task = mTasks.poll();
+                    if (task == null) {
+                        mIsRunning = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (final Exception e) {
+                    Log.e(TAG, "SerialExecutor:", e);
+                }
+                synchronized (mTasks) {
+                    if (mTasks.isEmpty()) {
+                        mIsRunning = false;
+                        return;
+                    }
+                }
+                mExecutor.execute(this);
+            }
+        };
+    }
+
+    private static Provider sProvider;
+
+    private CameraExecutors() {
+    }
+
+    /**
+     * Replace the executors, components created afterwards use the new provider
+     */
+    public static synchronized void setProvider(@NonNull final Provider provider) {
+        if (DEBUG) Log.d(TAG, "setProvider:" + provider);
+        sProvider = provider;
+    }
+
+    @NonNull
+    public static synchronized Provider getProvider() {
+        if (sProvider == null) {
+            sProvider = new DefaultProvider();
+        }
+        return sProvider;
+    }
+
+    /**
+     * @return executor that serializes the tasks of an owner on the background executor
+     */
+    @NonNull
+    static SerialExecutor newSerialExecutor() {
+        return new SerialExecutor(getProvider().getBackgroundExecutor());
+    }
+
+    /**
+     * @return executor that serializes the encoding loops of an owner on the encoder executor
+     */
+    @NonNull
+    static SerialExecutor newEncoderExecutor() {
+        return new SerialExecutor(getProvider().getEncoderExecutor());
+    }
+
+    /**
+     * @return new handler on the shared callback looper,
+     * remove its callbacks instead of quitting the looper when the owner is released
+     */
+    @NonNull
+    static Handler newCallbackHandler() {
+        return new Handler(getProvider().getCallbackLooper());
+    }
+}
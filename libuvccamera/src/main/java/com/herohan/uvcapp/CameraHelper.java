@@ -7,7 +7,6 @@ import android.content.Context;
 import android.graphics.SurfaceTexture;
 import android.hardware.usb.UsbDevice;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
 import android.view.Surface;
@@ -15,9 +14,15 @@ import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
 import com.herohan.uvcapp.utils.Watchdog;
+import com.serenegiant.usb.BandwidthInfo;
 import com.serenegiant.usb.Format;
+import com.serenegiant.usb.FrameMemoryBudget;
 import com.serenegiant.usb.IButtonCallback;
 import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.IFrameStatsCallback;
+import com.serenegiant.usb.ITensorCallback;
+import com.serenegiant.usb.InferenceTapConfig;
+import com.serenegiant.usb.MosaicCompositor;
 import com.serenegiant.usb.Size;
 import com.serenegiant.usb.UVCControl;
 import com.serenegiant.usb.UVCParam;
@@ -25,6 +30,7 @@ import com.serenegiant.utils.UVCUtils;
 import com.serenegiant.uvccamera.BuildConfig;
 
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.WeakHashMap;
 
@@ -34,8 +40,7 @@ public class CameraHelper implements ICameraHelper {
 
     protected final WeakReference<Context> mWeakContext;
 
-    private HandlerThread mAsyncHandlerThread;
-    private Handler mAsyncHandler;
+    private final CameraExecutors.SerialExecutor mAsyncExecutor;
 
     private Handler mMainHandler = new Handler(Looper.getMainLooper());
 
@@ -53,14 +58,21 @@ public class CameraHelper implements ICameraHelper {
         if (DEBUG) Log.d(TAG, "Constructor:");
         mWeakContext = new WeakReference<Context>(UVCUtils.getApplication());
 
-        mAsyncHandlerThread = new HandlerThread(TAG);
-        mAsyncHandlerThread.start();
-        mAsyncHandler = new Handler(mAsyncHandlerThread.getLooper());
-//        Watchdog.getInstance().addThread(mAsyncHandler);
+        // operations of each helper are serialized on the shared background executor
+        mAsyncExecutor = CameraExecutors.newSerialExecutor();
 
         mService = CameraConnectionService.getInstance().newConnection();
     }
 
+    /**
+     * Use the executors of the app for all cameras, call it before the first helper is created
+     *
+     * @see CameraExecutors
+     */
+    public static void setExecutorProvider(CameraExecutors.Provider provider) {
+        CameraExecutors.setProvider(provider);
+    }
+
     @Override
     public void setStateCallback(StateCallback callback) {
         if (callback != null) {
@@ -93,7 +105,7 @@ public class CameraHelper implements ICameraHelper {
     public void selectDevice(final UsbDevice device) {
         if (DEBUG)
             Log.d(TAG, "selectDevice:device=" + (device != null ? device.getDeviceName() : null) + " " + this);
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (mService != null && !isDetached(device)) {
                 mUsbDevice = device;
                 try {
@@ -147,7 +159,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void setPreviewSize(final Size size) {
         if (DEBUG) Log.d(TAG, "setPreviewSize:" + size);
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (mService != null && mUsbDevice != null) {
                 try {
                     mService.setPreviewSize(mUsbDevice, size);
@@ -185,7 +197,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void addSurface(final Object surface, final boolean isRecordable) {
         if (DEBUG) Log.d(TAG, "addSurface:surface=" + surface + ",isRecordable=" + isRecordable);
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             Object sur = fetchSurface(surface);
             if (sur != null) {
                 if (mService != null && mUsbDevice != null) {
@@ -202,7 +214,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void removeSurface(final Object surface) {
         if (DEBUG) Log.d(TAG, "removeSurface:surface=" + surface);
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             Object sur = fetchSurface(surface);
             if (sur != null) {
                 if (mService != null && mUsbDevice != null) {
@@ -219,7 +231,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void setButtonCallback(IButtonCallback callback) {
         if (DEBUG) Log.d(TAG, "setButtonCallback:" + callback);
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (mService != null && mUsbDevice != null) {
                 try {
                     mService.setButtonCallback(mUsbDevice, callback);
@@ -233,7 +245,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void setFrameCallback(IFrameCallback callback, int pixelFormat) {
         if (DEBUG) Log.d(TAG, "setFrameCallback:" + pixelFormat);
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (mService != null && mUsbDevice != null) {
                 try {
                     mService.setFrameCallback(mUsbDevice, callback, pixelFormat);
@@ -244,6 +256,118 @@ public class CameraHelper implements ICameraHelper {
         });
     }
 
+    @Override
+    public void setInferenceTap(InferenceTapConfig config, ByteBuffer tensor, ITensorCallback callback) {
+        if (DEBUG) Log.d(TAG, "setInferenceTap:" + config);
+        // copy now, the caller may modify the config before the handler runs
+        final InferenceTapConfig tapConfig = config != null ? config.clone() : null;
+        mAsyncExecutor.execute(() -> {
+            if (mService != null && mUsbDevice != null) {
+                try {
+                    mService.setInferenceTap(mUsbDevice, tapConfig, tensor, callback);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "setInferenceTap:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setMosaicTile(MosaicCompositor mosaic, int index) {
+        if (DEBUG) Log.d(TAG, "setMosaicTile:" + mosaic + "," + index);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null && mUsbDevice != null) {
+                try {
+                    mService.setMosaicTile(mUsbDevice, mosaic, index);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "setMosaicTile:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setFrameStatsCallback(IFrameStatsCallback callback, int maxFps) {
+        if (DEBUG) Log.d(TAG, "setFrameStatsCallback:" + maxFps);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null && mUsbDevice != null) {
+                try {
+                    mService.setFrameStatsCallback(mUsbDevice, callback, maxFps);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "setFrameStatsCallback:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setStaticSceneSkip(int threshold, int maxIntervalMs) {
+        if (DEBUG) Log.d(TAG, "setStaticSceneSkip:" + threshold + "," + maxIntervalMs);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null && mUsbDevice != null) {
+                try {
+                    mService.setStaticSceneSkip(mUsbDevice, threshold, maxIntervalMs);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "setStaticSceneSkip:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setAutoStreamNegotiation(boolean enable) {
+        if (DEBUG) Log.d(TAG, "setAutoStreamNegotiation:" + enable);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null && mUsbDevice != null) {
+                try {
+                    mService.setAutoStreamNegotiation(mUsbDevice, enable);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "setAutoStreamNegotiation:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setStreamDemand(String consumerId, int maxFps, int width, int height) {
+        if (DEBUG) Log.d(TAG, "setStreamDemand:" + consumerId + "," + maxFps + "," + width + "x" + height);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null && mUsbDevice != null) {
+                try {
+                    mService.setStreamDemand(mUsbDevice, consumerId, maxFps, width, height);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "setStreamDemand:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void removeStreamDemand(String consumerId) {
+        if (DEBUG) Log.d(TAG, "removeStreamDemand:" + consumerId);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null && mUsbDevice != null) {
+                try {
+                    mService.removeStreamDemand(mUsbDevice, consumerId);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "removeStreamDemand:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public int getFrameChangeScore() {
+        if (mService != null && mUsbDevice != null) {
+            try {
+                return mService.getFrameChangeScore(mUsbDevice);
+            } catch (final Exception e) {
+                if (DEBUG) Log.e(TAG, "getFrameChangeScore:", e);
+            }
+        }
+        return -1;
+    }
+
     @Override
     public void openCamera() {
         openCamera(new UVCParam());
@@ -257,10 +381,11 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void openCamera(UVCParam param) {
         if (DEBUG) Log.d(TAG, "openCamera: " + this);
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (mService != null && mUsbDevice != null && !isDetached(mUsbDevice)) {
                 try {
-                    if (!mService.isCameraOpened(mUsbDevice)) {
+                    // a camera in standby is still opened but needs onCameraOpen to be resumed
+                    if (!mService.isCameraOpened(mUsbDevice) || mService.isStandby(mUsbDevice)) {
                         mService.openCamera(mUsbDevice, param,
                                 mCameraPreviewConfig,
                                 mImageCaptureConfig,
@@ -278,7 +403,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void closeCamera() {
         if (DEBUG) Log.d(TAG, "closeCamera: " + this);
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (mService != null && mUsbDevice != null) {
                 try {
                     if (mService.isCameraOpened(mUsbDevice)) {
@@ -296,7 +421,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void startPreview() {
         if (DEBUG) Log.d(TAG, "startPreview: " + this);
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (mService != null && mUsbDevice != null) {
                 try {
                     mService.startPreview(mUsbDevice);
@@ -310,7 +435,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void stopPreview() {
         if (DEBUG) Log.d(TAG, "stopPreview: " + this);
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (mService != null && mUsbDevice != null) {
                 try {
                     mService.stopPreview(mUsbDevice);
@@ -321,6 +446,143 @@ public class CameraHelper implements ICameraHelper {
         });
     }
 
+    @Override
+    public void standbyCamera() {
+        if (DEBUG) Log.d(TAG, "standbyCamera: " + this);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null && mUsbDevice != null) {
+                try {
+                    if (mService.isCameraOpened(mUsbDevice)) {
+                        mService.standbyCamera(mUsbDevice);
+                    }
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "standbyCamera:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setStandbyBudget(int maxCameras, long maxBytes) {
+        if (DEBUG) Log.d(TAG, "setStandbyBudget:" + maxCameras + "," + maxBytes);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null) {
+                try {
+                    mService.setStandbyBudget(maxCameras, maxBytes);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "setStandbyBudget:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public BandwidthInfo getBandwidthInfo() {
+        if (mService != null && mUsbDevice != null) {
+            try {
+                return mService.getBandwidthInfo(mUsbDevice);
+            } catch (final Exception e) {
+                if (DEBUG) Log.e(TAG, "getBandwidthInfo:", e);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public BandwidthPlan planBandwidth(boolean apply) {
+        if (DEBUG) Log.d(TAG, "planBandwidth:" + apply);
+        if (mService != null) {
+            try {
+                return mService.planBandwidth(apply);
+            } catch (final Exception e) {
+                if (DEBUG) Log.e(TAG, "planBandwidth:", e);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void setAutoBandwidthPlanning(boolean enable) {
+        if (DEBUG) Log.d(TAG, "setAutoBandwidthPlanning:" + enable);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null) {
+                try {
+                    mService.setAutoBandwidthPlanning(enable);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "setAutoBandwidthPlanning:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setFrameMemoryLimit(long bytes) {
+        if (DEBUG) Log.d(TAG, "setFrameMemoryLimit:" + bytes);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null) {
+                try {
+                    mService.setFrameMemoryLimit(bytes);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "setFrameMemoryLimit:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setFrameMemoryPriority(int priority) {
+        if (DEBUG) Log.d(TAG, "setFrameMemoryPriority:" + priority);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null && mUsbDevice != null) {
+                try {
+                    mService.setFrameMemoryPriority(mUsbDevice, priority);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "setFrameMemoryPriority:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setYuvPreview(boolean enable) {
+        if (DEBUG) Log.d(TAG, "setYuvPreview:" + enable);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null && mUsbDevice != null) {
+                try {
+                    mService.setYuvPreview(mUsbDevice, enable);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "setYuvPreview:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setYuvColorSpace(int colorSpace, boolean fullRange) {
+        if (DEBUG) Log.d(TAG, "setYuvColorSpace:" + colorSpace + ",fullRange=" + fullRange);
+        mAsyncExecutor.execute(() -> {
+            if (mService != null && mUsbDevice != null) {
+                try {
+                    mService.setYuvColorSpace(mUsbDevice, colorSpace, fullRange);
+                } catch (final Exception e) {
+                    if (DEBUG) Log.e(TAG, "setYuvColorSpace:", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public FrameMemoryBudget.Stats getFrameMemoryStats() {
+        if (mService != null && mUsbDevice != null) {
+            try {
+                return mService.getFrameMemoryStats(mUsbDevice);
+            } catch (final Exception e) {
+                if (DEBUG) Log.e(TAG, "getFrameMemoryStats:", e);
+            }
+        }
+        return null;
+    }
+
     @Override
     public UVCControl getUVCControl() {
         if (DEBUG) Log.d(TAG, "getUVCControl:");
@@ -337,7 +599,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void takePicture(ImageCapture.OutputFileOptions options, ImageCapture.OnImageCaptureCallback callback) {
         if (DEBUG) Log.d(TAG, "takePicture");
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (mService != null && mUsbDevice != null) {
                 try {
                     mService.takePicture(mUsbDevice, options, callback);
@@ -372,7 +634,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void startRecording(VideoCapture.OutputFileOptions options, VideoCapture.OnVideoCaptureCallback callback) {
         if (DEBUG) Log.d(TAG, "startRecording");
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (mService != null && mUsbDevice != null) {
                 try {
                     mService.startRecording(mUsbDevice, options, callback);
@@ -386,7 +648,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void stopRecording() {
         if (DEBUG) Log.d(TAG, "stopRecording:");
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (isRecording()) {
                 if (mService != null && mUsbDevice != null) {
                     try {
@@ -415,7 +677,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void release() {
         if (DEBUG) Log.d(TAG, "release: " + this);
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (mService != null) {
                 try {
                     if (mUsbDevice != null) {
@@ -431,8 +693,7 @@ public class CameraHelper implements ICameraHelper {
             }
 
             mUsbDevice = null;
-//            Watchdog.getInstance().removeThread(mAsyncHandler);
-            mAsyncHandlerThread.quitSafely();
+            mAsyncExecutor.quitSafely();
             mDetachedDeviceMap.clear();
         });
     }
@@ -440,7 +701,7 @@ public class CameraHelper implements ICameraHelper {
     @Override
     public void releaseAll() {
         if (DEBUG) Log.d(TAG, "releaseAll: " + this);
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (mService != null) {
                 try {
                     mService.releaseAllCamera();
@@ -454,8 +715,7 @@ public class CameraHelper implements ICameraHelper {
             }
 
             mUsbDevice = null;
-//            Watchdog.getInstance().removeThread(mAsyncHandler);
-            mAsyncHandlerThread.quitSafely();
+            mAsyncExecutor.quitSafely();
             mDetachedDeviceMap.clear();
         });
     }
@@ -479,7 +739,7 @@ public class CameraHelper implements ICameraHelper {
     public void setPreviewConfig(CameraPreviewConfig config) {
         if (DEBUG) Log.d(TAG, "setCameraPreviewConfig:");
         mCameraPreviewConfig = config;
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (isCameraOpened()) {
                 if (mService != null && mUsbDevice != null) {
                     try {
@@ -511,7 +771,7 @@ public class CameraHelper implements ICameraHelper {
     public void setImageCaptureConfig(ImageCaptureConfig config) {
         if (DEBUG) Log.d(TAG, "setImageCaptureConfig:");
         mImageCaptureConfig = config;
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (isCameraOpened()) {
                 if (mService != null && mUsbDevice != null) {
                     try {
@@ -543,7 +803,7 @@ public class CameraHelper implements ICameraHelper {
     public void setVideoCaptureConfig(VideoCaptureConfig config) {
         if (DEBUG) Log.d(TAG, "setVideoCaptureConfig:");
         mVideoCaptureConfig = config;
-        mAsyncHandler.post(() -> {
+        mAsyncExecutor.execute(() -> {
             if (isCameraOpened()) {
                 if (mService != null && mUsbDevice != null) {
                     try {
@@ -1,13 +1,24 @@
 package com.herohan.uvcapp;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.serenegiant.opengl.GLYuvTexture;
 import com.serenegiant.opengl.renderer.RendererHolderCallback;
+import com.serenegiant.usb.BandwidthInfo;
 import com.serenegiant.usb.Format;
+import com.serenegiant.usb.FrameMemoryBudget;
 import com.serenegiant.usb.IButtonCallback;
 import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.IFrameStatsCallback;
+import com.serenegiant.usb.ITensorCallback;
+import com.serenegiant.usb.InferenceTapConfig;
+import com.serenegiant.usb.MosaicCompositor;
 import com.serenegiant.usb.Size;
 import com.serenegiant.usb.USBMonitor.UsbControlBlock;
 import com.serenegiant.usb.UVCCamera;
@@ -18,8 +29,15 @@ import com.serenegiant.uvccamera.BuildConfig;
 import com.serenegiant.uvccamera.R;
 
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 final class CameraInternal implements ICameraInternal {
     private static final boolean DEBUG = BuildConfig.DEBUG;
@@ -30,27 +48,97 @@ final class CameraInternal implements ICameraInternal {
 
     private static final int DEFAULT_WIDTH = 640;
     private static final int DEFAULT_HEIGHT = 480;
+    /**
+     * RGBA buffers of the preview size that the renderer keeps while the camera is in standby
+     */
+    private static final int STANDBY_RENDERER_BUFFERS = 3;
+    /**
+     * Longest wait for the stream switches queued before, restarting a stream takes about a second
+     */
+    private static final long STREAM_SWITCH_TIMEOUT_MS = 5000;
+
+    /**
+     * Lifecycle of this camera, changed only with mSync locked
+     */
+    private static final int STATE_CLOSED = 0;
+    private static final int STATE_OPENED = 1;
+    private static final int STATE_PREVIEWING = 2;
+    private static final int STATE_STANDBY = 3;
+    private static final int STATE_RELEASED = 4;
 
     private int mFrameWidth = DEFAULT_WIDTH;
     private int mFrameHeight = DEFAULT_HEIGHT;
 
+    /**
+     * Serializes open/close/preview/reconfiguration of this camera only,
+     * other cameras open and stream in parallel. The libusb context that all cameras share
+     * is guarded natively, so nothing else needs a process-wide lock here.
+     */
     private final Object mSync = new Object();
 
     private final WeakReference<Context> mWeakContext;
     private final UsbControlBlock mCtrlBlock;
 
     private ICameraRendererHolder mRendererHolder;
-    private volatile boolean mIsPreviewing = false;
+    private volatile int mState = STATE_CLOSED;
+    /**
+     * Uptime when the camera entered standby, 0 if it is not in standby
+     */
+    private volatile long mStandbySinceMs = 0;
 
     /**
      * for accessing UVC camera
      */
     private volatile UVCCamera mUVCCamera;
+    private volatile boolean mControlLimitsPending;
+    /**
+     * Size the app chose, the bandwidth planner and the frame memory budget may switch
+     * the stream to a cheaper mode for a while but always derive it from this size
+     */
+    private volatile Size mRequestedSize;
+    /**
+     * kept while the camera is closed, UVCCamera is created again on every open
+     */
+    private volatile int mFrameMemoryPriority = FrameMemoryBudget.DEFAULT_PRIORITY;
+
+    /**
+     * Draw raw YUV frames with a shader instead of the RGBX frames converted natively, see {@link #setYuvPreview}
+     */
+    private volatile boolean mYuvPreviewEnabled;
+    /**
+     * Whether the stream format has been examined for the YUV preview since the preview started
+     */
+    private volatile boolean mYuvPreviewChecked;
+    /**
+     * Frames go to the renderer through the frame callback instead of the primary surface, changed only with mSync locked
+     */
+    private volatile boolean mIsYuvPreview;
+    private volatile boolean mHasAppFrameCallback;
+    /**
+     * the switch needs mSync, which can not be taken on the GL thread of the renderer
+     */
+    private final CameraExecutors.SerialExecutor mYuvPreviewExecutor = CameraExecutors.newSerialExecutor();
+    /**
+     * Stream switches of the app, the bandwidth planner, the frame memory budget and
+     * StreamDemandAggregator run one after another on this executor
+     */
+    private final CameraExecutors.SerialExecutor mStreamExecutor = CameraExecutors.newSerialExecutor();
+    /**
+     * Thread running a switch on mStreamExecutor, a switch that it starts runs at once
+     */
+    private volatile Thread mStreamThread;
 
     private final List<StateCallback> mCallbacks = new ArrayList<>();
 
     private IImageCapture mImageCapture;
     private VideoCapture mVideoCapture;
+    private MjpegVideoCapture mMjpegVideoCapture;
+
+    private final StreamDemandAggregator mStreamDemand;
+    /**
+     * Surfaces added by the app, they need the full mode unless the app declared their demand
+     */
+    private final Set<Integer> mSurfaceIds = new HashSet<>();
 
     public CameraInternal(final Context context, final UsbControlBlock ctrlBlock, final int vid, final int pid) {
         if (DEBUG) Log.d(TAG, "Constructor:");
@@ -61,14 +149,26 @@ final class CameraInternal implements ICameraInternal {
             @Override
             public void onPrimarySurfaceCreate(Surface surface) {
                 // After primary surface has been created during previewing, invoking startPreview method again.
-                if (mIsPreviewing) {
+                if (mState == STATE_PREVIEWING) {
                     startPreview();
                 }
             }
 
             @Override
             public void onFrameAvailable() {
-
+                // control limits are queried after the first frame is on the screen
+                if (mControlLimitsPending) {
+                    mControlLimitsPending = false;
+                    final UVCCamera camera = mUVCCamera;
+                    if (camera != null) {
+                        camera.prefetchControlLimits();
+                    }
+                }
+                // the stream format is known after the first frame
+                if (mYuvPreviewEnabled && !mYuvPreviewChecked && !mHasAppFrameCallback) {
+                    mYuvPreviewChecked = true;
+                    mYuvPreviewExecutor.execute(CameraInternal.this::enterYuvPreview);
+                }
             }
 
             @Override
@@ -76,6 +176,7 @@ final class CameraInternal implements ICameraInternal {
 
             }
         });
+        mStreamDemand = new StreamDemandAggregator(mStreamExecutor, this::applyNegotiatedSize);
     }
 
     @Override
@@ -120,28 +221,118 @@ final class CameraInternal implements ICameraInternal {
         return null;
     }
 
+    /**
+     * @return size the app chose, the current preview size if it did not choose one
+     */
+    Size getRequestedSize() {
+        final Size requested = mRequestedSize;
+        return requested != null ? requested : getPreviewSize();
+    }
+
     @Override
     public void setPreviewSize(Size size) {
         if (DEBUG) Log.d(TAG, "setPreviewSize:" + size);
+        mRequestedSize = size;
+        runStreamSwitch(() -> switchPreviewSize(size, null));
+    }
+
+    /**
+     * Switch the stream without changing the size the app requested,
+     * used when the size is lowered for the bandwidth or the frame memory and restored later
+     */
+    void switchPreviewSize(final Size size) {
+        runStreamSwitch(() -> switchPreviewSize(size, size));
+    }
+
+    /**
+     * Run a stream switch on mStreamExecutor and wait until it finished,
+     * so that switches of different callers never reconfigure the stream at the same time.
+     * The wait is bounded because the executor shares its threads with the caller,
+     * the switch still runs later if it times out.
+     */
+    private void runStreamSwitch(@NonNull final Runnable task) {
+        if (Thread.currentThread() == mStreamThread) {
+            task.run();
+            return;
+        }
+        if (mState == STATE_RELEASED) {
+            return;
+        }
+        final FutureTask<Void> future = new FutureTask<>(() -> {
+            mStreamThread = Thread.currentThread();
+            try {
+                task.run();
+            } finally {
+                mStreamThread = null;
+            }
+        }, null);
+        mStreamExecutor.execute(future);
         try {
-            if (mUVCCamera != null) {
+            future.get(STREAM_SWITCH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            Log.w(TAG, "runStreamSwitch:previous switches are still running, continue without waiting");
+        } catch (final InterruptedException | ExecutionException e) {
+            Log.w(TAG, "runStreamSwitch:", e);
+        }
+    }
+
+    /**
+     * @param limit the most expensive mode demand based negotiation may use instead of the requested size,
+     *              null if not limited
+     */
+    private void switchPreviewSize(final Size size, @Nullable final Size limit) {
+        if (DEBUG) Log.d(TAG, "switchPreviewSize:" + size);
+        try {
+            boolean switched = false;
+            synchronized (mSync) {
+                // switch on the fly while previewing, the encoder can not follow while recording
+                if (mUVCCamera != null && mState == STATE_PREVIEWING && !isRecording()) {
+                    switched = reconfigurePreview(size);
+                }
+            }
+            if (!switched && mUVCCamera != null) {
                 mUVCCamera.setPreviewSize(size);
             }
 
             // Preview size may changed, so set the resolution and reinitialize video encoder and audio encoder of VideoCapture
             mVideoCapture.setResolution(getPreviewSize());
+            // the requested size, or the limit, is the most expensive mode that demand based negotiation may use
+            mStreamDemand.setBaseSize(getRequestedSize(), limit, getPreviewSize(), getSupportedSizeList());
         } catch (final Exception e) {
-            Log.e(TAG, "setPreviewSize:", e);
+            Log.e(TAG, "switchPreviewSize:", e);
             // unexpectedly #setPreviewSize failed
-            synchronized (CameraInternal.class) {
+            synchronized (mSync) {
                 if (mUVCCamera != null) {
                     mUVCCamera.destroy();
                     mUVCCamera = null;
                 }
+                setState(STATE_CLOSED);
             }
         }
     }
 
+    /**
+     * Try to switch the stream without stopping preview,
+     * should be called with mSync locked while previewing.
+     *
+     * @return false if the camera could not switch on the fly
+     */
+    private boolean reconfigurePreview(final Size size) {
+        // frames of the YUV preview have the size of the stream, it is examined again with the new stream
+        leaveYuvPreview();
+        try {
+            mUVCCamera.reconfigure(size);
+        } catch (final Exception e) {
+            Log.w(TAG, "reconfigurePreview:" + size, e);
+            return false;
+        }
+        final Size current = mUVCCamera.getPreviewSize();
+        if (current != null) {
+            updateRendererSize(current.width, current.height);
+        }
+        return true;
+    }
+
     private void updateRendererSize(final int width, final int height) {
         if (DEBUG) Log.d(TAG, "updateRendererSize:");
         mFrameWidth = width;
@@ -156,6 +347,7 @@ final class CameraInternal implements ICameraInternal {
         if (DEBUG) Log.d(TAG, "addSurface:surface=" + surface);
         if (mRendererHolder != null) {
             mRendererHolder.addSlaveSurface(surface.hashCode(), surface, isRecordable);
+            updateSurfaceDemand(surface.hashCode(), true);
         }
     }
 
@@ -164,9 +356,28 @@ final class CameraInternal implements ICameraInternal {
         if (DEBUG) Log.d(TAG, "removeSurface:surface=" + surface);
         if (mRendererHolder != null) {
             mRendererHolder.removeSlaveSurface(surface.hashCode());
+            updateSurfaceDemand(surface.hashCode(), false);
         }
     }
 
+    /**
+     * @param id hash code of the surface, all surfaces if 0 and not added
+     */
+    private void updateSurfaceDemand(final int id, final boolean added) {
+        final boolean hasSurface;
+        synchronized (mSurfaceIds) {
+            if (added) {
+                mSurfaceIds.add(id);
+            } else if (id != 0) {
+                mSurfaceIds.remove(id);
+            } else {
+                mSurfaceIds.clear();
+            }
+            hasSurface = !mSurfaceIds.isEmpty();
+        }
+        mStreamDemand.setUndeclaredConsumer(ICameraHelper.STREAM_CONSUMER_PREVIEW, hasSurface);
+    }
+
     @Override
     public void setButtonCallback(IButtonCallback callback) {
         if (DEBUG) Log.d(TAG, "setButtonCallback:callback=" + callback);
@@ -183,6 +394,18 @@ final class CameraInternal implements ICameraInternal {
     public void setFrameCallback(final IFrameCallback callback, final int pixelFormat) {
         if (DEBUG) Log.d(TAG, "setFrameCallback:surface=" + callback);
         try {
+            mStreamDemand.setUndeclaredConsumer(ICameraHelper.STREAM_CONSUMER_FRAME_CALLBACK, callback != null);
+            synchronized (mSync) {
+                mHasAppFrameCallback = callback != null;
+                if (callback != null) {
+                    // the frame callback of the app replaces the one that feeds the YUV preview
+                    leaveYuvPreview();
+                } else if (mIsYuvPreview) {
+                    return;
+                } else {
+                    mYuvPreviewChecked = false;
+                }
+            }
             if (mUVCCamera != null) {
                 mUVCCamera.setFrameCallback(callback, pixelFormat);
             }
@@ -191,46 +414,143 @@ final class CameraInternal implements ICameraInternal {
         }
     }
 
+    @Override
+    public void setInferenceTap(final InferenceTapConfig config, final ByteBuffer tensor, final ITensorCallback callback) {
+        if (DEBUG) Log.d(TAG, "setInferenceTap:" + config);
+        try {
+            if (mUVCCamera != null) {
+                mUVCCamera.setInferenceTap(config, tensor, callback);
+            }
+        } catch (final Exception e) {
+            Log.e(TAG, "setInferenceTap:", e);
+        }
+    }
+
+    @Override
+    public void setMosaicTile(final MosaicCompositor mosaic, final int index) {
+        if (DEBUG) Log.d(TAG, "setMosaicTile:" + mosaic + "," + index);
+        try {
+            if (mUVCCamera != null) {
+                mUVCCamera.setMosaicTile(mosaic, index);
+            }
+        } catch (final Exception e) {
+            Log.e(TAG, "setMosaicTile:", e);
+        }
+    }
+
+    @Override
+    public void setFrameStatsCallback(final IFrameStatsCallback callback, final int maxFps) {
+        if (DEBUG) Log.d(TAG, "setFrameStatsCallback:" + maxFps);
+        try {
+            if (mUVCCamera != null) {
+                mUVCCamera.setFrameStatsCallback(callback, maxFps);
+            }
+        } catch (final Exception e) {
+            Log.e(TAG, "setFrameStatsCallback:", e);
+        }
+    }
+
+    @Override
+    public void setStaticSceneSkip(final int threshold, final int maxIntervalMs) {
+        if (DEBUG) Log.d(TAG, "setStaticSceneSkip:" + threshold + "," + maxIntervalMs);
+        try {
+            if (mUVCCamera != null) {
+                mUVCCamera.setStaticSceneSkip(threshold, maxIntervalMs);
+            }
+        } catch (final Exception e) {
+            Log.e(TAG, "setStaticSceneSkip:", e);
+        }
+    }
+
+    @Override
+    public int getFrameChangeScore() {
+        final UVCCamera camera = mUVCCamera;
+        return camera != null ? camera.getFrameChangeScore() : -1;
+    }
+
+    /**
+     * Capture time of the frame being delivered, valid only inside IFrameCallback#onFrame
+     */
+    long getFrameTimestampNs() {
+        final UVCCamera camera = mUVCCamera;
+        return camera != null ? camera.getFrameTimestampNs() : 0;
+    }
+
+    int getFrameSequence() {
+        final UVCCamera camera = mUVCCamera;
+        return camera != null ? camera.getFrameSequence() : 0;
+    }
+
     @Override
     public void openCamera(UVCParam param,
                            CameraPreviewConfig previewConfig,
                            ImageCaptureConfig imageCaptureConfig,
                            VideoCaptureConfig videoCaptureConfig) {
         if (DEBUG) Log.d(TAG, "openCamera:");
-        if (!isCameraOpened()) {
-            openUVCCamera(param,
-                    previewConfig, imageCaptureConfig, videoCaptureConfig);
-        } else {
-            if (DEBUG) Log.d(TAG, "have already opened camera, just call callback");
+        final CameraException error;
+        synchronized (mSync) {
+            if (mState == STATE_RELEASED) {
+                Log.w(TAG, "openCamera:already released");
+                return;
+            }
+            if (!isCameraOpened()) {
+                error = openUVCCamera(param,
+                        previewConfig, imageCaptureConfig, videoCaptureConfig);
+            } else {
+                if (DEBUG) Log.d(TAG, "have already opened camera, just call callback");
+                if (mState == STATE_STANDBY) {
+                    setState(STATE_OPENED);
+                }
+                error = null;
+            }
+        }
+        // callbacks may call back into this camera, so they are called without mSync
+        if (error == null) {
             processOnCameraOpen();
+        } else {
+            processOnError(error);
         }
     }
 
+    /**
+     * should be called with mSync locked
+     */
+    private void setState(final int state) {
+        if (DEBUG) Log.v(TAG, "setState:" + mState + "=>" + state);
+        mState = state;
+        mStandbySinceMs = state == STATE_STANDBY ? SystemClock.uptimeMillis() : 0;
+    }
+
     private void resetUVCCamera() {
         if (DEBUG) Log.d(TAG, "resetUVCCamera: " + this);
         stopRecording();
-        synchronized (CameraInternal.class) {
+        synchronized (mSync) {
             if (mUVCCamera != null) {
                 mUVCCamera.stopPreview();
                 mUVCCamera.destroy(true);
                 mUVCCamera = null;
             }
             mRendererHolder.removeSlaveSurfaceAll();
+            updateSurfaceDemand(0, false);
+            setState(STATE_CLOSED);
         }
     }
 
-    private void openUVCCamera(UVCParam param,
+    /**
+     * should be called with mSync locked
+     *
+     * @return null if the camera is opened, error to report otherwise
+     */
+    @Nullable
+    private CameraException openUVCCamera(UVCParam param,
                                CameraPreviewConfig previewConfig,
                                ImageCaptureConfig imageCaptureConfig,
                                VideoCaptureConfig videoCaptureConfig) {
         resetUVCCamera();
         if (DEBUG) Log.d(TAG, "openUVCCamera: " + this);
         try {
-            int result = 0;
-            synchronized (CameraInternal.class) {
-                mUVCCamera = new UVCCamera(param);
-                result = mUVCCamera.open(mCtrlBlock);
-            }
+            mUVCCamera = new UVCCamera(param);
+            final int result = mUVCCamera.open(mCtrlBlock);
             if (result != 0) {
                 Context context = UVCUtils.getApplication();
                 switch (result) {
@@ -241,13 +561,21 @@ final class CameraInternal implements ICameraInternal {
                 }
             }
             if (DEBUG) Log.i(TAG, "supportedSize:" + mUVCCamera.getSupportedSize());
+            mUVCCamera.setFrameMemoryPriority(mFrameMemoryPriority);
 
             setPreviewConfig(previewConfig);
+            mRequestedSize = getPreviewSize();
 
             createImageCapture(imageCaptureConfig);
             mVideoCapture = new VideoCapture(mRendererHolder, videoCaptureConfig, getPreviewSize());
+            if (mMjpegVideoCapture != null) {
+                mMjpegVideoCapture.release();
+            }
+            mMjpegVideoCapture = new MjpegVideoCapture(mUVCCamera, videoCaptureConfig);
+            mStreamDemand.setBaseSize(mRequestedSize, null, getPreviewSize(), getSupportedSizeList());
 
-            processOnCameraOpen();
+            setState(STATE_OPENED);
+            return null;
         } catch (Exception e) {
             if (DEBUG) Log.e(TAG, "openUVCCamera:", e);
             CameraException ex = null;
@@ -256,7 +584,7 @@ final class CameraInternal implements ICameraInternal {
             } else {
                 ex = new CameraException(CameraException.CAMERA_OPEN_ERROR_UNKNOWN, e);
             }
-            processOnError(ex);
+            return ex;
         }
     }
 
@@ -279,36 +607,45 @@ final class CameraInternal implements ICameraInternal {
     @Override
     public void closeCamera() {
         if (DEBUG) Log.d(TAG, "closeCamera: " + this);
+        mStreamDemand.setBaseSize(null, null, null, null);
         stopRecording();
         boolean closed = false;
-        synchronized (CameraInternal.class) {
+        synchronized (mSync) {
+            if (mMjpegVideoCapture != null) {
+                // MJPEG recording should be finalized before the camera is destroyed
+                mMjpegVideoCapture.release();
+                mMjpegVideoCapture = null;
+            }
+            leaveYuvPreview();
             if (mUVCCamera != null) {
                 mUVCCamera.stopPreview();
                 mUVCCamera.destroy();
                 mUVCCamera = null;
                 closed = true;
             }
-
-            if (closed) {
-                processOnCameraClose();
+            if (mState != STATE_RELEASED) {
+                setState(STATE_CLOSED);
             }
-        }
 
-        if (mImageCapture != null) {
-            mImageCapture.release();
-            mImageCapture = null;
+            if (mImageCapture != null) {
+                mImageCapture.release();
+                mImageCapture = null;
+            }
+            if (mVideoCapture != null) {
+                mVideoCapture.release();
+                mVideoCapture = null;
+            }
         }
-        if (mVideoCapture != null) {
-            mVideoCapture.release();
-            mVideoCapture = null;
+        if (closed) {
+            processOnCameraClose();
         }
     }
 
     @Override
     public void startPreview() {
         if (DEBUG) Log.d(TAG, "startPreview: " + this);
-        synchronized (CameraInternal.class) {
-            if (mUVCCamera == null) return;
+        synchronized (mSync) {
+            if (mUVCCamera == null || mState == STATE_RELEASED) return;
 
 //				mUVCCamera.setFrameCallback(mIFrameCallback, UVCCamera.PIXEL_FORMAT_YUV);
 
@@ -318,24 +655,230 @@ final class CameraInternal implements ICameraInternal {
             }
 
             mUVCCamera.setPreviewDisplay(mRendererHolder.getPrimarySurface());
+            mIsYuvPreview = false;
+            mYuvPreviewChecked = false;
             mUVCCamera.startPreview();
 
-            mIsPreviewing = true;
+            setState(STATE_PREVIEWING);
+            mControlLimitsPending = true;
         }
     }
 
     @Override
     public void stopPreview() {
         if (DEBUG) Log.d(TAG, "stopPreview: " + this);
-        synchronized (CameraInternal.class) {
+        synchronized (mSync) {
+            leaveYuvPreview();
             if (mUVCCamera != null) {
                 mUVCCamera.stopPreview();
             }
 
-            mIsPreviewing = false;
+            if (mState == STATE_PREVIEWING) {
+                setState(STATE_OPENED);
+            }
         }
     }
 
+    /**
+     * Stop streaming but keep the device open with its stream control negotiated,
+     * the app sees the camera closed and opening it again only starts streaming.
+     */
+    @Override
+    public void standby() {
+        if (DEBUG) Log.d(TAG, "standby: " + this);
+        stopRecording();
+        synchronized (mSync) {
+            if (mUVCCamera == null || mState == STATE_STANDBY || mState == STATE_RELEASED) {
+                return;
+            }
+            leaveYuvPreview();
+            mUVCCamera.stopPreview();
+            // surfaces belong to the app and will be added to the camera that is activated next
+            mRendererHolder.removeSlaveSurfaceAll();
+            updateSurfaceDemand(0, false);
+            final int result = mUVCCamera.prepareStandby();
+            if (result != 0) {
+                Log.w(TAG, "standby:failed to prepare stream(" + result + ")");
+            }
+            setState(STATE_STANDBY);
+        }
+        processOnCameraClose();
+    }
+
+    @Override
+    public boolean isStandby() {
+        return mState == STATE_STANDBY;
+    }
+
+    long getStandbySinceMs() {
+        return mStandbySinceMs;
+    }
+
+    /**
+     * Rough estimate of memory kept while in standby,
+     * buffers of the renderer and frames still held by the native frame pools
+     */
+    long getStandbyMemoryBytes() {
+        final Size size = getPreviewSize();
+        final long renderer = size != null ? (long) size.width * size.height * 4 * STANDBY_RENDERER_BUFFERS : 0;
+        final FrameMemoryBudget.Stats stats = getFrameMemoryStats();
+        return renderer + (stats != null ? stats.getUsedBytes() : 0);
+    }
+
+    /**
+     * @return bandwidth that the camera reserves on its bus, null if it is not opened
+     */
+    @Nullable
+    BandwidthInfo getBandwidthInfo() {
+        synchronized (mSync) {
+            return mUVCCamera != null ? mUVCCamera.getBandwidthInfo() : null;
+        }
+    }
+
+    /**
+     * Set how important this camera is when the frame memory budget is under pressure,
+     * see {@link FrameMemoryBudget}
+     */
+    void setFrameMemoryPriority(final int priority) {
+        if (DEBUG) Log.d(TAG, "setFrameMemoryPriority:" + priority);
+        mFrameMemoryPriority = priority;
+        synchronized (mSync) {
+            if (mUVCCamera != null) {
+                mUVCCamera.setFrameMemoryPriority(priority);
+            }
+        }
+    }
+
+    /**
+     * Draw the preview of YUYV/NV12/NV21 streams from the raw frames with a GL shader,
+     * the frames then skip the RGBX conversion and copy on the native preview thread.
+     * The preview switches after its first frame, when the stream format is known,
+     * and stays on the RGBX path for other formats or while the app sets a frame callback.
+     */
+    void setYuvPreview(final boolean enable) {
+        if (DEBUG) Log.d(TAG, "setYuvPreview:" + enable);
+        mYuvPreviewEnabled = enable;
+        synchronized (mSync) {
+            if (!enable) {
+                leaveYuvPreview();
+            } else if (!mIsYuvPreview) {
+                // examined on the next frame
+                mYuvPreviewChecked = false;
+            }
+        }
+    }
+
+    /**
+     * @param colorSpace GLYuvDrawer2D.COLOR_SPACE_XXX, UVC cameras usually use BT.601
+     * @param fullRange  true if the camera sends full range YUV
+     */
+    void setYuvColorSpace(final int colorSpace, final boolean fullRange) {
+        if (DEBUG) Log.d(TAG, "setYuvColorSpace:" + colorSpace + ",fullRange=" + fullRange);
+        final ICameraRendererHolder rendererHolder = mRendererHolder;
+        if (rendererHolder != null) {
+            rendererHolder.setYuvColorSpace(colorSpace, fullRange);
+        }
+    }
+
+    private void enterYuvPreview() {
+        synchronized (mSync) {
+            if (mUVCCamera == null || mRendererHolder == null || mState != STATE_PREVIEWING
+                    || !mYuvPreviewEnabled || mHasAppFrameCallback || mIsYuvPreview) {
+                return;
+            }
+            final int pixelFormat = mUVCCamera.getStreamPixelFormat();
+            final int textureFormat;
+            switch (pixelFormat) {
+                case UVCCamera.PIXEL_FORMAT_YUV:
+                    textureFormat = GLYuvTexture.FORMAT_YUYV;
+                    break;
+                case UVCCamera.PIXEL_FORMAT_NV12:
+                    textureFormat = GLYuvTexture.FORMAT_NV12;
+                    break;
+                case UVCCamera.PIXEL_FORMAT_NV21:
+                    textureFormat = GLYuvTexture.FORMAT_NV21;
+                    break;
+                default:
+                    if (DEBUG) Log.d(TAG, "enterYuvPreview:stream is not YUV," + pixelFormat);
+                    return;
+            }
+            final Size size = mUVCCamera.getPreviewSize();
+            if (size == null) {
+                return;
+            }
+            final int width = size.width;
+            final int height = size.height;
+            final ICameraRendererHolder rendererHolder = mRendererHolder;
+            // the frame callback of the same format as the stream receives the raw frames without conversion
+            mUVCCamera.setFrameCallback(frame ->
+                    rendererHolder.queueYuvFrame(frame, textureFormat, width, height), pixelFormat);
+            mUVCCamera.setPreviewDisplay((Surface) null);
+            mIsYuvPreview = true;
+            if (DEBUG) Log.d(TAG, "enterYuvPreview:format=" + textureFormat + "," + width + "x" + height);
+        }
+    }
+
+    /**
+     * back to the RGBX frames on the primary surface, should be called with mSync locked
+     */
+    private void leaveYuvPreview() {
+        mYuvPreviewChecked = false;
+        if (!mIsYuvPreview) {
+            return;
+        }
+        mIsYuvPreview = false;
+        if (mUVCCamera != null) {
+            mUVCCamera.setFrameCallback(null, 0);
+            if (mRendererHolder != null) {
+                mUVCCamera.setPreviewDisplay(mRendererHolder.getPrimarySurface());
+            }
+        }
+    }
+
+    /**
+     * @return frame memory the camera uses, null if it is not opened
+     */
+    @Nullable
+    FrameMemoryBudget.Stats getFrameMemoryStats() {
+        synchronized (mSync) {
+            return mUVCCamera != null ? mUVCCamera.getFrameMemoryStats() : null;
+        }
+    }
+
+    /**
+     * Apply the mode and the payload limit planned by {@link BandwidthPlanner}.
+     * While previewing the stream is switched on the fly, also when only the limit changed
+     * because libuvc selects the alt-setting when streaming starts.
+     * The mode is not changed while recording, the encoder can not follow.
+     */
+    void applyBandwidthPlan(@NonNull final Size size, final int maxPayloadSize) {
+        if (DEBUG) Log.d(TAG, "applyBandwidthPlan:" + size + ",payload=" + maxPayloadSize);
+        runStreamSwitch(() -> {
+            final boolean sameMode;
+            synchronized (mSync) {
+                if (mUVCCamera == null || mState == STATE_RELEASED) {
+                    return;
+                }
+                sameMode = BandwidthPlan.isSameMode(mUVCCamera.getPreviewSize(), size);
+                if (!sameMode && isRecording()) {
+                    Log.i(TAG, "applyBandwidthPlan:keep the mode while recording," + size);
+                    return;
+                }
+                final BandwidthInfo before = mUVCCamera.getBandwidthInfo();
+                mUVCCamera.setMaxPayloadSize(maxPayloadSize);
+                final BandwidthInfo after = mUVCCamera.getBandwidthInfo();
+                if (sameMode && (before != null) && (after != null)
+                        && (before.getAltSetting() != after.getAltSetting())
+                        && (mState == STATE_PREVIEWING) && !isRecording()) {
+                    reconfigurePreview(size);
+                }
+            }
+            if (!sameMode) {
+                switchPreviewSize(size, size);
+            }
+        });
+    }
+
     @Override
     public UVCControl getUVCControl() {
         if (mUVCCamera != null) {
@@ -364,24 +907,64 @@ final class CameraInternal implements ICameraInternal {
 
     @Override
     public boolean isRecording() {
-        return mVideoCapture != null && mVideoCapture.isRecording();
+        return (mVideoCapture != null && mVideoCapture.isRecording())
+                || (mMjpegVideoCapture != null && mMjpegVideoCapture.isRecording());
     }
 
     @Override
     public void startRecording(VideoCapture.OutputFileOptions options, VideoCapture.OnVideoCaptureCallback callback) {
-        if (isCameraOpened() && mVideoCapture != null) {
-            mVideoCapture.startRecording(options, callback);
+        if (isCameraOpened() && mMjpegVideoCapture != null && mMjpegVideoCapture.isEnabled()) {
+            mMjpegVideoCapture.startRecording(options, callback);
+        } else if (isCameraOpened() && mVideoCapture != null) {
+            final int timelapseInterval = mVideoCapture.getTimelapseInterval();
+            if (timelapseInterval > 0) {
+                // drop frames natively before decoding, VideoCapture rewrites timestamps of the rest
+                setTimelapseInterval(timelapseInterval);
+                mVideoCapture.startRecording(options, new VideoCapture.OnVideoCaptureCallback() {
+                    @Override
+                    public void onStart() {
+                        callback.onStart();
+                    }
+
+                    @Override
+                    public void onVideoSaved(@NonNull VideoCapture.OutputFileResults outputFileResults) {
+                        setTimelapseInterval(0);
+                        callback.onVideoSaved(outputFileResults);
+                    }
+
+                    @Override
+                    public void onError(int videoCaptureError, @NonNull String message, @Nullable Throwable cause) {
+                        setTimelapseInterval(0);
+                        callback.onError(videoCaptureError, message, cause);
+                    }
+                });
+            } else {
+                mVideoCapture.startRecording(options, callback);
+            }
         } else {
             String message = "Not bound to a Camera";
             callback.onError(VideoCapture.ERROR_INVALID_CAMERA, message, new IllegalStateException(message));
         }
     }
 
+    private void setTimelapseInterval(final int intervalMs) {
+        final UVCCamera camera = mUVCCamera;
+        if (camera != null) {
+            camera.setTimelapseInterval(intervalMs);
+        }
+    }
+
     @Override
     public void stopRecording() {
         if (mVideoCapture != null) {
+            if (mVideoCapture.isRecording() && mVideoCapture.getTimelapseInterval() > 0) {
+                setTimelapseInterval(0);
+            }
             mVideoCapture.stopRecording();
         }
+        if (mMjpegVideoCapture != null) {
+            mMjpegVideoCapture.stopRecording();
+        }
     }
 
     @Override
@@ -395,7 +978,78 @@ final class CameraInternal implements ICameraInternal {
         if (isCameraOpened()) {
             closeCamera();
         }
-        releaseResource();
+        mStreamDemand.release();
+        synchronized (mSync) {
+            setState(STATE_RELEASED);
+            releaseResource();
+        }
+    }
+
+    @Override
+    public void setAutoStreamNegotiation(final boolean enable) {
+        if (DEBUG) Log.d(TAG, "setAutoStreamNegotiation:" + enable);
+        mStreamDemand.setEnabled(enable);
+    }
+
+    @Override
+    public void setStreamDemand(final String consumerId, final int maxFps, final int width, final int height) {
+        if (DEBUG) Log.d(TAG, "setStreamDemand:" + consumerId + "," + maxFps + "," + width + "x" + height);
+        mStreamDemand.setDemand(consumerId, maxFps, width, height);
+    }
+
+    @Override
+    public void removeStreamDemand(final String consumerId) {
+        if (DEBUG) Log.d(TAG, "removeStreamDemand:" + consumerId);
+        mStreamDemand.removeDemand(consumerId);
+    }
+
+    /**
+     * Switch the stream to the mode that StreamDemandAggregator selected,
+     * called on the background executor of StreamDemandAggregator.
+     *
+     * @return the mode the camera streams after this call, null to retry later
+     */
+    private Size applyNegotiatedSize(final Size size) {
+        if (isRecording()) {
+            // the encoder can not change its resolution while recording
+            return null;
+        }
+        synchronized (mSync) {
+            if (mUVCCamera == null) {
+                return size;
+            }
+            if (mState == STATE_PREVIEWING && reconfigurePreview(size)) {
+                if (mVideoCapture != null) {
+                    mVideoCapture.setResolution(getPreviewSize());
+                }
+                return getPreviewSize();
+            }
+            // fall back to restarting preview
+            final Size previous = mUVCCamera.getPreviewSize();
+            final boolean previewing = mState == STATE_PREVIEWING;
+            if (previewing) {
+                mUVCCamera.stopPreview();
+            }
+            try {
+                mUVCCamera.setPreviewSize(size);
+            } catch (final Exception e) {
+                Log.w(TAG, "applyNegotiatedSize:" + size, e);
+                if (previous != null) {
+                    try {
+                        mUVCCamera.setPreviewSize(previous);
+                    } catch (final Exception e1) {
+                        Log.e(TAG, "applyNegotiatedSize:failed to restore " + previous, e1);
+                    }
+                }
+            }
+            if (mVideoCapture != null) {
+                mVideoCapture.setResolution(getPreviewSize());
+            }
+            if (previewing) {
+                startPreview();
+            }
+            return getPreviewSize();
+        }
     }
 
     @Override
@@ -429,17 +1083,20 @@ final class CameraInternal implements ICameraInternal {
         if (mVideoCapture != null) {
             mVideoCapture.setConfig(config);
         }
+        if (mMjpegVideoCapture != null) {
+            mMjpegVideoCapture.setConfig(config);
+        }
     }
 
     private void releaseResource() {
         if (DEBUG) Log.d(TAG, "releaseResource: " + this);
-        synchronized (CameraInternal.class) {
-            clearCallbacks();
+        clearCallbacks();
+        mYuvPreviewExecutor.quitSafely();
+        mStreamExecutor.quitSafely();
 
-            if (mRendererHolder != null) {
-                mRendererHolder.release();
-                mRendererHolder = null;
-            }
+        if (mRendererHolder != null) {
+            mRendererHolder.release();
+            mRendererHolder = null;
         }
     }
 
@@ -1,7 +1,9 @@
 package com.herohan.uvcapp;
 
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.Matrix;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 
@@ -10,6 +12,7 @@ import androidx.annotation.Nullable;
 import com.serenegiant.opengl.EGLBase;
 import com.serenegiant.opengl.EGLTask;
 import com.serenegiant.opengl.GLDrawer2D;
+import com.serenegiant.opengl.GLYuvDrawer2D;
 import com.serenegiant.opengl.renderer.MirrorMode;
 import com.serenegiant.opengl.renderer.RendererHolder;
 import com.serenegiant.opengl.renderer.RendererHolderCallback;
@@ -17,6 +20,7 @@ import com.serenegiant.uvccamera.BuildConfig;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 
 class CameraRendererHolder extends RendererHolder implements ICameraRendererHolder {
@@ -57,18 +61,79 @@ class CameraRendererHolder extends RendererHolder implements ICameraRendererHold
         mRendererHandler.post(() -> {
             // Capture still image
             try {
-                ImageRawData data = mCaptureHolder.captureImageRawData();
-                callback.onCaptureSuccess(data);
+                if (!mCaptureHolder.captureImageAsync(callback)) {
+                    ImageRawData data = mCaptureHolder.captureImageRawData();
+                    callback.onCaptureSuccess(data);
+                }
             } catch (Exception e) {
                 callback.onError(e);
             }
         });
     }
 
+    /**
+     * Pixel arrays of captured images, {@link ImageSaver} returns them after encoding
+     * so that capturing repeatedly does not allocate an array of the whole frame every time
+     */
+    private static class ImageBufferPool implements ImageRawData.Recycler {
+        private static final int MAX_POOLED = 2;
+        private final ArrayDeque<byte[]> mPool = new ArrayDeque<>(MAX_POOLED);
+
+        synchronized byte[] obtain(int bytes) {
+            byte[] result = mPool.poll();
+            while ((result != null) && (result.length != bytes)) {
+                // arrays of the previous size are dropped
+                result = mPool.poll();
+            }
+            return result != null ? result : new byte[bytes];
+        }
+
+        @Override
+        public synchronized void recycle(byte[] data) {
+            if (mPool.size() < MAX_POOLED) {
+                mPool.add(data);
+            }
+        }
+    }
+
+    /**
+     * Pixel buffer object that a capture is read back into without waiting for the GPU
+     */
+    private static class PixelBuffer {
+        static final int STATE_IDLE = 0;
+        // glReadPixels is queued, waiting for the fence
+        static final int STATE_READING = 1;
+        // mapped, the pixels are copied on the worker thread
+        static final int STATE_COPYING = 2;
+
+        // the fields are accessed on the renderer thread, id also on the worker thread with this locked
+        int id;
+        int bytes;
+        int width;
+        int height;
+        int state = STATE_IDLE;
+        long fence;
+        long startNs;
+        // time spent on the renderer thread for this capture
+        long stallNs;
+        OnImageCapturedCallback callback;
+    }
+
     private class CaptureHolder {
+        // a capture that is still pending after this is reported as an error
+        private static final long READBACK_TIMEOUT_NS = 1000000000L;
+        private static final long READBACK_POLL_MS = 2;
+
         EGLBase mCaptureEglBase;
         EGLBase.IEglSurface mCaptureSurface;
         GLDrawer2D mCaptureDrawer;
+        // created on the first capture of a raw YUV frame, drawers can not be shared between contexts
+        GLYuvDrawer2D mCaptureYuvDrawer;
+        // two buffers so that the next capture can be read back while the previous one is copied,
+        // null on GLES2, captures are then read back synchronously
+        PixelBuffer[] mPixelBuffers;
+        CameraExecutors.SerialExecutor mCopyExecutor;
+        final ImageBufferPool mImageBuffers = new ImageBufferPool();
 
         int mWidth = -1;
         int mHeight = -1;
@@ -80,61 +145,256 @@ class CameraRendererHolder extends RendererHolder implements ICameraRendererHold
             mCaptureSurface = mCaptureEglBase.createOffscreen(
                     mVideoWidth, mVideoHeight);
             mCaptureDrawer = new GLDrawer2D(true);
+            if (mCaptureEglBase.getGlVersion() > 2) {
+                mPixelBuffers = new PixelBuffer[]{new PixelBuffer(), new PixelBuffer()};
+                mCopyExecutor = CameraExecutors.newSerialExecutor();
+            }
         }
 
-        public ImageRawData captureImageRawData() {
-            if (DEBUG) Log.v(TAG, "#captureImageData:start");
-            ImageRawData data = null;
-            if ((mBuf == null)
+        /**
+         * draw the latest frame to the offscreen surface, which stays current on return
+         *
+         * @return false if the size of the frame is not known yet
+         */
+        private boolean drawCaptureFrame() {
+            if ((mCaptureSurface == null)
                     || (mWidth != mVideoWidth)
                     || (mHeight != mVideoHeight)) {
 
                 mWidth = mVideoWidth;
                 mHeight = mVideoHeight;
-                mBuf = ByteBuffer.allocateDirect(mWidth * mHeight * 4);
-                mBuf.order(ByteOrder.LITTLE_ENDIAN);
+                mBuf = null;
                 if (mCaptureSurface != null) {
                     mCaptureSurface.release();
                     mCaptureSurface = null;
                 }
                 mCaptureSurface = mCaptureEglBase.createOffscreen(mWidth, mHeight);
             }
-            if ((mWidth > 0) && (mHeight > 0)) {
-                float[] mvpMatrix = Arrays.copyOf(mMvpMatrix, 16);
-                float[] mirrorMatrix = new float[16];
-                Matrix.setIdentityM(mirrorMatrix, 0);
-                //Must flip up-side down otherwise our output will look upside down relative to what appears on screen
-                RendererHolder.setMirrorMode(mirrorMatrix, MirrorMode.MIRROR_VERTICAL);
+            if ((mWidth <= 0) || (mHeight <= 0)) {
+                Log.w(TAG, "#captureImageData:unexpectedly width/height is zero");
+                return false;
+            }
+            float[] mvpMatrix = Arrays.copyOf(mMvpMatrix, 16);
+            float[] mirrorMatrix = new float[16];
+            Matrix.setIdentityM(mirrorMatrix, 0);
+            //Must flip up-side down otherwise our output will look upside down relative to what appears on screen
+            RendererHolder.setMirrorMode(mirrorMatrix, MirrorMode.MIRROR_VERTICAL);
 
-                Matrix.multiplyMM(mvpMatrix, 0, mirrorMatrix, 0, mvpMatrix, 0);
-                mCaptureDrawer.setMvpMatrix(mvpMatrix, 0);
+            Matrix.multiplyMM(mvpMatrix, 0, mirrorMatrix, 0, mvpMatrix, 0);
 
-                mCaptureSurface.makeCurrent();
+            mCaptureSurface.makeCurrent();
+            if (isYuvFrame()) {
+                if (mCaptureYuvDrawer == null) {
+                    mCaptureYuvDrawer = new GLYuvDrawer2D();
+                }
+                setupYuvDrawer(mCaptureYuvDrawer);
+                mCaptureYuvDrawer.setMvpMatrix(mvpMatrix, 0);
+                mCaptureYuvDrawer.draw(0, mTexMatrix, 0);
+            } else {
+                mCaptureDrawer.setMvpMatrix(mvpMatrix, 0);
                 mCaptureDrawer.draw(mTexId, mTexMatrix, 0);
-                mCaptureSurface.swap();
+            }
+            mCaptureSurface.swap();
+            return true;
+        }
+
+        public ImageRawData captureImageRawData() {
+            if (DEBUG) Log.v(TAG, "#captureImageData:start");
+            final long start = SystemClock.elapsedRealtimeNanos();
+            ImageRawData data = null;
+            if (drawCaptureFrame()) {
+                if (mBuf == null) {
+                    mBuf = ByteBuffer.allocateDirect(mWidth * mHeight * 4);
+                    mBuf.order(ByteOrder.LITTLE_ENDIAN);
+                }
                 mBuf.clear();
                 GLES20.glReadPixels(0, 0, mWidth, mHeight,
                         GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mBuf);
 
                 makeCurrent();
 
-                byte[] bytes = new byte[mBuf.capacity()];
+                byte[] bytes = mImageBuffers.obtain(mBuf.capacity());
                 mBuf.rewind();
                 mBuf.get(bytes);
 
-                data = new ImageRawData(bytes, mWidth, mHeight);
-            } else {
-                Log.w(TAG, "#captureImageData:unexpectedly width/height is zero");
+                data = new ImageRawData(bytes, mWidth, mHeight, mImageBuffers);
             }
-            if (DEBUG) Log.i(TAG, "#captureImageData:end");
+            if (DEBUG) Log.i(TAG, "#captureImageData:end,renderer stall="
+                    + (SystemClock.elapsedRealtimeNanos() - start) / 1000 + "us(glReadPixels)");
             return data;
         }
 
+        /**
+         * Read back into a pixel buffer object, the renderer thread only queues the readback
+         * and polls its fence between frames, the pixels are copied on a worker thread.
+         *
+         * @return false if the capture should be read back synchronously,
+         * on GLES2, before the size is known or while both pixel buffers are busy
+         */
+        public boolean captureImageAsync(OnImageCapturedCallback callback) {
+            if ((mPixelBuffers == null) || (mVideoWidth <= 0) || (mVideoHeight <= 0)) {
+                return false;
+            }
+            PixelBuffer pixelBuffer = null;
+            for (PixelBuffer buffer : mPixelBuffers) {
+                if (buffer.state == PixelBuffer.STATE_IDLE) {
+                    pixelBuffer = buffer;
+                    break;
+                }
+            }
+            if (pixelBuffer == null) {
+                if (DEBUG) Log.v(TAG, "#captureImageAsync:pixel buffers are busy");
+                return false;
+            }
+            if (DEBUG) Log.v(TAG, "#captureImageAsync:start");
+            final long start = SystemClock.elapsedRealtimeNanos();
+            drawCaptureFrame();
+            if (pixelBuffer.id == 0) {
+                final int[] ids = new int[1];
+                GLES30.glGenBuffers(1, ids, 0);
+                pixelBuffer.id = ids[0];
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffer.id);
+            final int bytes = mWidth * mHeight * 4;
+            if (pixelBuffer.bytes != bytes) {
+                GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, bytes, null, GLES30.GL_STREAM_READ);
+                pixelBuffer.bytes = bytes;
+            }
+            pixelBuffer.width = mWidth;
+            pixelBuffer.height = mHeight;
+            // returns immediately, the pixels are written into the buffer when the GPU gets there
+            GLES30.glReadPixels(0, 0, mWidth, mHeight,
+                    GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            pixelBuffer.fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            GLES30.glFlush();
+
+            makeCurrent();
+
+            pixelBuffer.state = PixelBuffer.STATE_READING;
+            pixelBuffer.callback = callback;
+            pixelBuffer.startNs = start;
+            pixelBuffer.stallNs = SystemClock.elapsedRealtimeNanos() - start;
+            final PixelBuffer target = pixelBuffer;
+            mRendererHandler.post(() -> pollReadback(target));
+            return true;
+        }
+
+        /**
+         * check the fence of the readback without blocking and map the buffer once it is signaled,
+         * called on the renderer thread, the buffer and the fence are shared with the capture context
+         */
+        private void pollReadback(PixelBuffer pixelBuffer) {
+            if (pixelBuffer.state != PixelBuffer.STATE_READING) {
+                // released
+                return;
+            }
+            final long start = SystemClock.elapsedRealtimeNanos();
+            final int status = GLES30.glClientWaitSync(pixelBuffer.fence, 0, 0);
+            if ((status == GLES30.GL_TIMEOUT_EXPIRED)
+                    && (start - pixelBuffer.startNs < READBACK_TIMEOUT_NS)) {
+                mRendererHandler.postDelayed(() -> pollReadback(pixelBuffer), READBACK_POLL_MS);
+                return;
+            }
+            GLES30.glDeleteSync(pixelBuffer.fence);
+            pixelBuffer.fence = 0;
+            final OnImageCapturedCallback callback = pixelBuffer.callback;
+            pixelBuffer.callback = null;
+            ByteBuffer mapped = null;
+            if ((status == GLES30.GL_ALREADY_SIGNALED) || (status == GLES30.GL_CONDITION_SATISFIED)) {
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffer.id);
+                mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER,
+                        0, pixelBuffer.bytes, GLES30.GL_MAP_READ_BIT);
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            }
+            if (mapped == null) {
+                pixelBuffer.state = PixelBuffer.STATE_IDLE;
+                callback.onError(new IllegalStateException("failed to read back the captured image:" + status));
+                return;
+            }
+            pixelBuffer.state = PixelBuffer.STATE_COPYING;
+            final long stallNs = pixelBuffer.stallNs + SystemClock.elapsedRealtimeNanos() - start;
+            if (DEBUG) Log.i(TAG, "#captureImageAsync:renderer stall=" + stallNs / 1000
+                    + "us(pbo),latency=" + (SystemClock.elapsedRealtimeNanos() - pixelBuffer.startNs) / 1000 + "us");
+            final ByteBuffer pixels = mapped;
+            mCopyExecutor.execute(() -> {
+                ImageRawData data = null;
+                synchronized (pixelBuffer) {
+                    // the buffer stays mapped until the renderer thread unmaps it, unless it was released
+                    if (pixelBuffer.id != 0) {
+                        final byte[] bytes = mImageBuffers.obtain(pixelBuffer.bytes);
+                        pixels.order(ByteOrder.LITTLE_ENDIAN);
+                        pixels.rewind();
+                        pixels.get(bytes);
+                        data = new ImageRawData(bytes, pixelBuffer.width, pixelBuffer.height, mImageBuffers);
+                    }
+                }
+                mRendererHandler.post(() -> unmap(pixelBuffer));
+                if (data != null) {
+                    callback.onCaptureSuccess(data);
+                } else {
+                    callback.onError(new IllegalStateException("camera was released while capturing"));
+                }
+            });
+        }
+
+        private void unmap(PixelBuffer pixelBuffer) {
+            synchronized (pixelBuffer) {
+                if (pixelBuffer.id != 0) {
+                    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffer.id);
+                    GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+                    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+                    pixelBuffer.state = PixelBuffer.STATE_IDLE;
+                }
+            }
+        }
+
+        private void releasePixelBuffers() {
+            if (mCopyExecutor != null) {
+                mCopyExecutor.quitSafely();
+                mCopyExecutor = null;
+            }
+            if (mPixelBuffers == null) {
+                return;
+            }
+            for (PixelBuffer pixelBuffer : mPixelBuffers) {
+                OnImageCapturedCallback callback;
+                // waits for the copy on the worker thread if it is running
+                synchronized (pixelBuffer) {
+                    if (pixelBuffer.fence != 0) {
+                        GLES30.glDeleteSync(pixelBuffer.fence);
+                        pixelBuffer.fence = 0;
+                    }
+                    if (pixelBuffer.id != 0) {
+                        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffer.id);
+                        if (pixelBuffer.state == PixelBuffer.STATE_COPYING) {
+                            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+                        }
+                        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+                        GLES30.glDeleteBuffers(1, new int[]{pixelBuffer.id}, 0);
+                        pixelBuffer.id = 0;
+                    }
+                    pixelBuffer.state = PixelBuffer.STATE_IDLE;
+                    callback = pixelBuffer.callback;
+                    pixelBuffer.callback = null;
+                }
+                if (callback != null) {
+                    callback.onError(new IllegalStateException("camera was released while capturing"));
+                }
+            }
+            mPixelBuffers = null;
+        }
+
         public void release() {
+            releasePixelBuffers();
             if (mCaptureDrawer != null) {
                 mCaptureDrawer.release();
                 mCaptureDrawer = null;
             }
+            if (mCaptureYuvDrawer != null) {
+                mCaptureYuvDrawer.release();
+                mCaptureYuvDrawer = null;
+            }
             if (mCaptureSurface != null) {
                 mCaptureSurface.makeCurrent();
                 mCaptureSurface.release();
@@ -1,14 +1,21 @@
 package com.herohan.uvcapp;
 
+import com.serenegiant.usb.BandwidthInfo;
 import com.serenegiant.usb.Format;
+import com.serenegiant.usb.FrameMemoryBudget;
 import com.serenegiant.usb.IButtonCallback;
 import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.IFrameStatsCallback;
+import com.serenegiant.usb.ITensorCallback;
+import com.serenegiant.usb.InferenceTapConfig;
+import com.serenegiant.usb.MosaicCompositor;
 import com.serenegiant.usb.Size;
 import com.serenegiant.usb.UVCControl;
 import com.serenegiant.usb.UVCParam;
 
 import android.hardware.usb.UsbDevice;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -42,6 +49,22 @@ interface ICameraConnection {
 
     void setFrameCallback(UsbDevice device, IFrameCallback callback, int pixelFormat);
 
+    void setInferenceTap(UsbDevice device, InferenceTapConfig config, ByteBuffer tensor, ITensorCallback callback);
+
+    void setMosaicTile(UsbDevice device, MosaicCompositor mosaic, int index);
+
+    void setStaticSceneSkip(UsbDevice device, int threshold, int maxIntervalMs);
+
+    void setAutoStreamNegotiation(UsbDevice device, boolean enable);
+
+    void setStreamDemand(UsbDevice device, String consumerId, int maxFps, int width, int height);
+
+    void removeStreamDemand(UsbDevice device, String consumerId);
+
+    void setFrameStatsCallback(UsbDevice device, IFrameStatsCallback callback, int maxFps);
+
+    int getFrameChangeScore(UsbDevice device);
+
     void openCamera(UsbDevice device, UVCParam param,
                     CameraPreviewConfig previewConfig,
                     ImageCaptureConfig imageCaptureConfig,
@@ -53,6 +76,28 @@ interface ICameraConnection {
 
     void stopPreview(UsbDevice device);
 
+    void standbyCamera(UsbDevice device);
+
+    boolean isStandby(UsbDevice device);
+
+    void setStandbyBudget(int maxCameras, long maxBytes);
+
+    BandwidthInfo getBandwidthInfo(UsbDevice device);
+
+    BandwidthPlan planBandwidth(boolean apply);
+
+    void setAutoBandwidthPlanning(boolean enable);
+
+    void setFrameMemoryLimit(long bytes);
+
+    void setFrameMemoryPriority(UsbDevice device, int priority);
+
+    void setYuvPreview(UsbDevice device, boolean enable);
+
+    void setYuvColorSpace(UsbDevice device, int colorSpace, boolean fullRange);
+
+    FrameMemoryBudget.Stats getFrameMemoryStats(UsbDevice device);
+
     UVCControl getUVCControl(UsbDevice device);
 
     void takePicture(UsbDevice device,
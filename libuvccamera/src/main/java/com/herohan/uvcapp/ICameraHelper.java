@@ -4,15 +4,22 @@ import android.content.Context;
 import android.hardware.usb.UsbDevice;
 import android.widget.Toast;
 
+import com.serenegiant.usb.BandwidthInfo;
+import com.serenegiant.usb.FrameMemoryBudget;
 import com.serenegiant.usb.Format;
 import com.serenegiant.usb.IButtonCallback;
 import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.IFrameStatsCallback;
+import com.serenegiant.usb.ITensorCallback;
+import com.serenegiant.usb.InferenceTapConfig;
+import com.serenegiant.usb.MosaicCompositor;
 import com.serenegiant.usb.Size;
 import com.serenegiant.usb.UVCControl;
 import com.serenegiant.usb.UVCParam;
 import com.serenegiant.utils.UVCUtils;
 import com.serenegiant.uvccamera.R;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public interface ICameraHelper {
@@ -39,6 +46,59 @@ public interface ICameraHelper {
 
     void setFrameCallback(IFrameCallback callback, int pixelFormat);
 
+    /**
+     * Set a native consumer that writes a resized, normalized tensor of each frame
+     * into the direct ByteBuffer, pass null callback to clear it
+     */
+    void setInferenceTap(InferenceTapConfig config, ByteBuffer tensor, ITensorCallback callback);
+
+    /**
+     * Attach the camera to a tile of the native mosaic compositor, pass null mosaic to detach it
+     */
+    void setMosaicTile(MosaicCompositor mosaic, int index);
+
+    /**
+     * Skip IFrameCallback for frames that hardly changed since the last delivered frame,
+     * threshold 0 disables skipping
+     */
+    void setStaticSceneSkip(int threshold, int maxIntervalMs);
+
+    /**
+     * Renegotiate the stream to the cheapest mode that satisfies the demands of all consumers
+     * declared by {@link #setStreamDemand}, the preview size set by the app is the upper bound
+     */
+    void setAutoStreamNegotiation(boolean enable);
+
+    /**
+     * Consumer id of the surfaces added by {@link #addSurface}, they need the full mode
+     * unless a demand is declared with this id
+     */
+    String STREAM_CONSUMER_PREVIEW = "preview";
+    /**
+     * Consumer id of the frame callback set by {@link #setFrameCallback}, it needs the full mode
+     * unless a demand is declared with this id
+     */
+    String STREAM_CONSUMER_FRAME_CALLBACK = "frameCallback";
+
+    /**
+     * Declare the fps and size a consumer needs at most, 0 means the full rate or size,
+     * see {@link #STREAM_CONSUMER_PREVIEW} and {@link #STREAM_CONSUMER_FRAME_CALLBACK}
+     */
+    void setStreamDemand(String consumerId, int maxFps, int width, int height);
+
+    void removeStreamDemand(String consumerId);
+
+    /**
+     * Set a listener of luma histogram, mean and clipped ratios computed natively,
+     * pass null callback to clear it
+     */
+    void setFrameStatsCallback(IFrameStatsCallback callback, int maxFps);
+
+    /**
+     * Change score(0-1000) of the frame being delivered, valid only inside IFrameCallback#onFrame
+     */
+    int getFrameChangeScore();
+
     void openCamera();
 
     void openCamera(Size size);
@@ -51,6 +111,77 @@ public interface ICameraHelper {
 
     void stopPreview();
 
+    /**
+     * Stop streaming but keep the camera open with its stream pre-negotiated,
+     * {@link StateCallback#onCameraClose} is called and next {@link #openCamera()}
+     * of the same device only starts the stream again.
+     * Cameras in standby beyond the budget set by {@link #setStandbyBudget} are closed, oldest first.
+     */
+    void standbyCamera();
+
+    /**
+     * Number of cameras and estimated bytes that may be kept in standby.
+     * The budget is shared by the cameras of all helpers, the last value set applies to all of them.
+     * The estimate includes renderer buffers and frames held by the native frame pools.
+     */
+    void setStandbyBudget(int maxCameras, long maxBytes);
+
+    /**
+     * Bandwidth that the selected camera reserves on its USB bus, null if it is not opened
+     */
+    BandwidthInfo getBandwidthInfo();
+
+    /**
+     * Plan formats, resolutions and fps of all opened cameras, also of other helpers,
+     * so that their isochronous bandwidth fits into each USB bus.
+     * This blocks while the cameras are switched, do not call it on the UI thread with apply.
+     *
+     * @param apply true to switch the cameras to the planned modes, false only to report
+     * @return the plan and the remaining headroom of each bus
+     */
+    BandwidthPlan planBandwidth(boolean apply);
+
+    /**
+     * Plan bandwidth of streaming cameras and apply it every time a camera starts preview
+     */
+    void setAutoBandwidthPlanning(boolean enable);
+
+    /**
+     * Limit frame memory of all cameras, also of other helpers, see {@link FrameMemoryBudget}.
+     * Cameras the budget degrades to {@link FrameMemoryBudget#LEVEL_REDUCE_RESOLUTION} are switched
+     * to a smaller resolution of the same aspect ratio while not recording,
+     * and back after the budget recovered.
+     *
+     * @param bytes 0 for unlimited
+     */
+    void setFrameMemoryLimit(long bytes);
+
+    /**
+     * Set how important the selected camera is when the frame memory budget is under pressure,
+     * larger value is more important, less important cameras are degraded first
+     */
+    void setFrameMemoryPriority(int priority);
+
+    /**
+     * Draw the preview of YUYV/NV12/NV21 streams of the selected camera from the raw frames
+     * with a GL shader instead of converting them to RGBX on the CPU.
+     * It takes effect from the first frame of the preview and is not used while a frame callback is set.
+     */
+    void setYuvPreview(boolean enable);
+
+    /**
+     * Color space of the YUV preview, see {@link #setYuvPreview(boolean)}
+     *
+     * @param colorSpace GLYuvDrawer2D.COLOR_SPACE_XXX, UVC cameras usually use BT.601
+     * @param fullRange  true if the camera sends full range YUV
+     */
+    void setYuvColorSpace(int colorSpace, boolean fullRange);
+
+    /**
+     * Frame memory the selected camera uses and how far it is degraded, null if it is not opened
+     */
+    FrameMemoryBudget.Stats getFrameMemoryStats();
+
     UVCControl getUVCControl();
 
     void takePicture(ImageCapture.OutputFileOptions options,
@@ -3,10 +3,15 @@ package com.herohan.uvcapp;
 import com.serenegiant.usb.Format;
 import com.serenegiant.usb.IButtonCallback;
 import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.IFrameStatsCallback;
+import com.serenegiant.usb.ITensorCallback;
+import com.serenegiant.usb.InferenceTapConfig;
+import com.serenegiant.usb.MosaicCompositor;
 import com.serenegiant.usb.Size;
 import com.serenegiant.usb.UVCControl;
 import com.serenegiant.usb.UVCParam;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 interface ICameraInternal {
@@ -33,6 +38,22 @@ interface ICameraInternal {
 
     void setFrameCallback(final IFrameCallback callback, final int pixelFormat);
 
+    void setInferenceTap(final InferenceTapConfig config, final ByteBuffer tensor, final ITensorCallback callback);
+
+    void setMosaicTile(final MosaicCompositor mosaic, final int index);
+
+    void setStaticSceneSkip(final int threshold, final int maxIntervalMs);
+
+    void setAutoStreamNegotiation(final boolean enable);
+
+    void setStreamDemand(final String consumerId, final int maxFps, final int width, final int height);
+
+    void removeStreamDemand(final String consumerId);
+
+    void setFrameStatsCallback(final IFrameStatsCallback callback, final int maxFps);
+
+    int getFrameChangeScore();
+
     void openCamera(UVCParam param,
                     CameraPreviewConfig previewConfig,
                     ImageCaptureConfig imageCaptureConfig,
@@ -44,6 +65,10 @@ interface ICameraInternal {
 
     void stopPreview();
 
+    void standby();
+
+    boolean isStandby();
+
     UVCControl getUVCControl();
 
     void takePicture(ImageCapture.OutputFileOptions options,
@@ -24,10 +24,6 @@ import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.ref.WeakReference;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class ImageCapture implements IImageCapture {
 
@@ -38,21 +34,14 @@ public class ImageCapture implements IImageCapture {
 
     private Handler mMainHandler;
 
-    private ExecutorService mExecutor;
+    private CameraExecutors.SerialExecutor mExecutor;
 
     ImageCapture(ICameraRendererHolder rendererHolder,
                  ImageCaptureConfig config) {
         this.mRendererHolderWeak = new WeakReference<>(rendererHolder);
         this.mConfig = (ImageCaptureConfig) config.clone();
         this.mMainHandler = new Handler(Looper.getMainLooper());
-        this.mExecutor = Executors.newFixedThreadPool(1, new ThreadFactory() {
-            private final AtomicInteger mId = new AtomicInteger(0);
-
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, TAG + "image_capture" + mId.getAndIncrement());
-            }
-        });
+        this.mExecutor = CameraExecutors.newSerialExecutor();
     }
 
     @Override
@@ -166,7 +155,7 @@ public class ImageCapture implements IImageCapture {
     @Override
     public void release() {
         if (mExecutor != null) {
-            mExecutor.shutdown();
+            mExecutor.quitSafely();
             mExecutor = null;
         }
     }
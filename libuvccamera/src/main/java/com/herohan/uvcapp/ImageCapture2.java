@@ -30,10 +30,6 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class ImageCapture2 implements IImageCapture {
 
@@ -45,7 +41,7 @@ public class ImageCapture2 implements IImageCapture {
 
     private Handler mMainHandler;
 
-    private ExecutorService mExecutor;
+    private CameraExecutors.SerialExecutor mExecutor;
 
     private ImageReader mImageReader;
 
@@ -56,14 +52,7 @@ public class ImageCapture2 implements IImageCapture {
         this.mConfig = (ImageCaptureConfig) config.clone();
         this.mResolution = resolution;
         this.mMainHandler = new Handler(Looper.getMainLooper());
-        this.mExecutor = Executors.newFixedThreadPool(1, new ThreadFactory() {
-            private final AtomicInteger mId = new AtomicInteger(0);
-
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, TAG + "image_capture" + mId.getAndIncrement());
-            }
-        });
+        this.mExecutor = CameraExecutors.newSerialExecutor();
 
         initImageReader();
     }
@@ -239,7 +228,7 @@ public class ImageCapture2 implements IImageCapture {
     @Override
     public void release() {
         if (mExecutor != null) {
-            mExecutor.shutdown();
+            mExecutor.quitSafely();
             mExecutor = null;
         }
     }
@@ -1,14 +1,27 @@
 package com.herohan.uvcapp;
 
 class ImageRawData {
+    /**
+     * takes back the pixel array of a released image so that the next capture can reuse it
+     */
+    interface Recycler {
+        void recycle(byte[] data);
+    }
+
     private byte[] mData;
     private int mWidth;
     private int mHeight;
+    private final Recycler mRecycler;
 
     public ImageRawData(byte[] data, int width, int height) {
+        this(data, width, height, null);
+    }
+
+    public ImageRawData(byte[] data, int width, int height, Recycler recycler) {
         this.mData = data;
         this.mWidth = width;
         this.mHeight = height;
+        this.mRecycler = recycler;
     }
 
     public byte[] getData() {
@@ -22,4 +35,14 @@ class ImageRawData {
     public int getHeight() {
         return mHeight;
     }
+
+    /**
+     * return the pixel array to the pool it came from, {@link #getData()} must not be used after this
+     */
+    public void release() {
+        if ((mRecycler != null) && (mData != null)) {
+            mRecycler.recycle(mData);
+        }
+        mData = null;
+    }
 }
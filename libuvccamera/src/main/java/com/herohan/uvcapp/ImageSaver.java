@@ -54,6 +54,10 @@ public class ImageSaver implements Runnable {
 
         try {
             byte[] data = imageToJpegByteArray(mImage, mJpegQuality);
+            if (mImage != null) {
+                // pixels are in the JPEG now, the next capture can reuse them
+                mImage.release();
+            }
             if (data == null) {
                 saveError = SaveError.ENCODE_FAILED;
                 errorMessage = "Failed to encode mImage";
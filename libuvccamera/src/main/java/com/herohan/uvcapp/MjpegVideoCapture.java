@@ -0,0 +1,358 @@
+package com.herohan.uvcapp;
+
+import android.Manifest;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresPermission;
+
+import com.serenegiant.usb.UVCCamera;
+import com.serenegiant.utils.UVCUtils;
+import com.serenegiant.utils.UriHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Records the camera's MJPEG frames into AVI(OpenDML) or Matroska without transcoding.
+ * Frames are muxed on the native side, this class only opens the output file
+ * and feeds 16bit PCM audio from {@link AudioRecord}.
+ */
+class MjpegVideoCapture {
+    private static final String TAG = MjpegVideoCapture.class.getSimpleName();
+
+    private final WeakReference<UVCCamera> mCameraWeak;
+    private VideoCaptureConfig mConfig;
+
+    /**
+     * Opening, audio reading and finalizing run one after another on this executor,
+     * it is on the encoder executor because audio is read until the recording stops
+     */
+    private final CameraExecutors.SerialExecutor mRecordingExecutor;
+    private final Handler mMainHandler;
+
+    private final Object mSync = new Object();
+    /**
+     * true from {@link #startRecording} until {@link #stopRecording()}, also while the file is opened,
+     * changed only with mSync locked
+     */
+    private volatile boolean mIsRecording;
+    /**
+     * incremented by every {@link #startRecording}, a start task of an older recording is stale
+     */
+    private int mSession;
+
+    private AudioRecord mAudioRecorder;
+    private ByteBuffer mAudioBuffer;
+    private int mAudioBytesPerSecond;
+
+    @Nullable
+    private Uri mSavedVideoUri;
+    @Nullable
+    private VideoCapture.OnVideoCaptureCallback mCallback;
+
+    MjpegVideoCapture(UVCCamera camera, VideoCaptureConfig config) {
+        this.mCameraWeak = new WeakReference<>(camera);
+        this.mConfig = (VideoCaptureConfig) config.clone();
+        this.mMainHandler = new Handler(Looper.getMainLooper());
+        this.mRecordingExecutor = CameraExecutors.newEncoderExecutor();
+    }
+
+    void setConfig(VideoCaptureConfig config) {
+        this.mConfig = (VideoCaptureConfig) config.clone();
+    }
+
+    /**
+     * Returns true if the current config requests MJPEG recording.
+     */
+    boolean isEnabled() {
+        return mConfig.isMjpegOutputFormat();
+    }
+
+    public boolean isRecording() {
+        return mIsRecording;
+    }
+
+    /**
+     * Starts recording the camera's MJPEG frames, which continues until {@link #stopRecording()} is
+     * called. The camera should be previewing with MJPEG frame format.
+     *
+     * @param outputFileOptions Location to save the video capture
+     * @param callback          Callback for when the recorded video saving completion or failure.
+     */
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    public void startRecording(
+            @NonNull VideoCapture.OutputFileOptions outputFileOptions,
+            @NonNull VideoCapture.OnVideoCaptureCallback callback) {
+        Log.i(TAG, "startRecording");
+        final int session;
+        synchronized (mSync) {
+            if (mIsRecording) {
+                postError(callback, VideoCapture.ERROR_RECORDING_IN_PROGRESS,
+                        "It is still in video recording!", null);
+                return;
+            }
+            mIsRecording = true;
+            session = ++mSession;
+        }
+        final VideoCaptureConfig config = mConfig;
+        mRecordingExecutor.execute(() -> {
+            synchronized (mSync) {
+                if (!mIsRecording || (mSession != session)) {
+                    postError(callback, VideoCapture.ERROR_RECORDING_TOO_SHORT,
+                            "Recording was stopped before it started", null);
+                    return;
+                }
+            }
+            final UVCCamera camera = mCameraWeak.get();
+            if (camera == null) {
+                abortRecording(session);
+                postError(callback, VideoCapture.ERROR_INVALID_CAMERA, "Not bound to a Camera", null);
+                return;
+            }
+            final ParcelFileDescriptor pfd;
+            try {
+                pfd = openOutputFile(outputFileOptions);
+            } catch (IOException | RuntimeException e) {
+                abortRecording(session);
+                postError(callback, VideoCapture.ERROR_FILE_IO, "Failed to open the output file", e);
+                return;
+            }
+
+            int sampleRate = 0;
+            int channels = 0;
+            if (config.getAudioCaptureEnable() && setupAudioRecord(config)) {
+                sampleRate = config.getAudioSampleRate();
+                channels = config.getAudioChannelCount();
+            }
+            // the file descriptor is owned by native side from here
+            final int result = camera.startMjpegRecording(pfd.detachFd(),
+                    config.getOutputFormat(), config.getVideoFrameRate(), sampleRate, channels);
+            if (result != 0) {
+                abortRecording(session);
+                releaseAudioRecord();
+                deleteOutputFile(outputFileOptions);
+                postError(callback, VideoCapture.ERROR_MUXER,
+                        "Failed to start MJPEG recording, is the camera streaming MJPEG?(" + result + ")", null);
+                return;
+            }
+            // if stopRecording was called meanwhile, its finishing task runs next and saves the file
+            mCallback = callback;
+            mMainHandler.post(callback::onStart);
+            if (mAudioRecorder != null) {
+                mRecordingExecutor.execute(mAudioTask);
+            }
+        });
+    }
+
+    /**
+     * Stops recording video, the file is finalized asynchronously and
+     * {@link VideoCapture.OnVideoCaptureCallback#onVideoSaved} or
+     * {@link VideoCapture.OnVideoCaptureCallback#onError} is called.
+     */
+    public void stopRecording() {
+        Log.i(TAG, "stopRecording");
+        synchronized (mSync) {
+            if (!mIsRecording) {
+                return;
+            }
+            mIsRecording = false;
+        }
+        // this runs after the start and audio tasks because all of them are on the same serial executor
+        mRecordingExecutor.execute(this::finishRecording);
+    }
+
+    /**
+     * clear the recording state when the recording of the session could not start,
+     * a recording started after it is kept
+     */
+    private void abortRecording(final int session) {
+        synchronized (mSync) {
+            if (mSession == session) {
+                mIsRecording = false;
+            }
+        }
+    }
+
+    /**
+     * Stops recording if it is in progress and waits until the file is finalized.
+     * This should be called before the camera is destroyed.
+     */
+    public void release() {
+        stopRecording();
+        final CountDownLatch finished = new CountDownLatch(1);
+        mRecordingExecutor.execute(finished::countDown);
+        mRecordingExecutor.quitSafely();
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Log.w(TAG, "release:", e);
+        }
+    }
+
+    private final Runnable mAudioTask = new Runnable() {
+        @Override
+        public void run() {
+            final AudioRecord recorder = mAudioRecorder;
+            final UVCCamera camera = mCameraWeak.get();
+            if (!mIsRecording || recorder == null || camera == null) {
+                return;
+            }
+            mAudioBuffer.clear();
+            final int bytes = recorder.read(mAudioBuffer, mAudioBuffer.capacity());
+            if (bytes > 0) {
+                // AudioRecord#read returns when the buffer is filled, so the first sample is older
+                final long ptsUs = System.nanoTime() / 1000
+                        - bytes * 1000000L / mAudioBytesPerSecond;
+                camera.writeMjpegRecordingAudio(mAudioBuffer, bytes, ptsUs);
+            }
+            mRecordingExecutor.execute(this);
+        }
+    };
+
+    private void finishRecording() {
+        releaseAudioRecord();
+        final VideoCapture.OnVideoCaptureCallback callback = mCallback;
+        mCallback = null;
+        if (callback == null) {
+            return;
+        }
+        final UVCCamera camera = mCameraWeak.get();
+        final int result = camera != null ? camera.stopMjpegRecording() : -1;
+        final Uri savedUri = mSavedVideoUri;
+        mSavedVideoUri = null;
+        if (result == 0) {
+            scanMediaFile(savedUri);
+            mMainHandler.post(() -> callback.onVideoSaved(
+                    new VideoCapture.OutputFileResults(savedUri)));
+        } else {
+            postError(callback, VideoCapture.ERROR_FILE_IO,
+                    "Failed to write MJPEG recording(" + result + ")", null);
+        }
+    }
+
+    @RequiresPermission(Manifest.permission.RECORD_AUDIO)
+    private boolean setupAudioRecord(VideoCaptureConfig config) {
+        final int sampleRate = config.getAudioSampleRate();
+        final int channelCount = config.getAudioChannelCount();
+        final int channelConfig = channelCount == 1
+                ? AudioFormat.CHANNEL_IN_MONO
+                : AudioFormat.CHANNEL_IN_STEREO;
+        try {
+            int bufferSize = AudioRecord.getMinBufferSize(sampleRate, channelConfig,
+                    AudioFormat.ENCODING_PCM_16BIT);
+            if (bufferSize <= 0) {
+                bufferSize = config.getAudioMinBufferSize();
+            }
+            final AudioRecord recorder = new AudioRecord(
+                    MediaRecorder.AudioSource.CAMCORDER,
+                    sampleRate,
+                    channelConfig,
+                    AudioFormat.ENCODING_PCM_16BIT,
+                    bufferSize * 2);
+            if (recorder.getState() != AudioRecord.STATE_INITIALIZED) {
+                recorder.release();
+                return false;
+            }
+            recorder.startRecording();
+            if (recorder.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+                Log.i(TAG, "AudioRecorder startRecording failed, disable audio.");
+                recorder.release();
+                return false;
+            }
+            mAudioRecorder = recorder;
+            mAudioBuffer = ByteBuffer.allocateDirect(bufferSize);
+            mAudioBytesPerSecond = sampleRate * channelCount * 2;
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "AudioRecord cannot start recording, disable audio.", e);
+        }
+        return false;
+    }
+
+    private void releaseAudioRecord() {
+        if (mAudioRecorder != null) {
+            try {
+                mAudioRecorder.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "releaseAudioRecord:", e);
+            }
+            mAudioRecorder.release();
+            mAudioRecorder = null;
+        }
+        mAudioBuffer = null;
+    }
+
+    @NonNull
+    private ParcelFileDescriptor openOutputFile(
+            @NonNull VideoCapture.OutputFileOptions outputFileOptions) throws IOException {
+        mSavedVideoUri = null;
+        if (outputFileOptions.isSavingToFile()) {
+            final File file = outputFileOptions.getFile();
+            mSavedVideoUri = Uri.fromFile(file);
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_CREATE
+                    | ParcelFileDescriptor.MODE_TRUNCATE | ParcelFileDescriptor.MODE_READ_WRITE);
+        } else if (outputFileOptions.isSavingToFileDescriptor()) {
+            return ParcelFileDescriptor.dup(outputFileOptions.getFileDescriptor());
+        } else if (outputFileOptions.isSavingToMediaStore()) {
+            final ContentResolver contentResolver = outputFileOptions.getContentResolver();
+            final ContentValues values = outputFileOptions.getContentValues() != null
+                    ? new ContentValues(outputFileOptions.getContentValues())
+                    : new ContentValues();
+            mSavedVideoUri = contentResolver.insert(outputFileOptions.getSaveCollection(), values);
+            if (mSavedVideoUri == null) {
+                throw new IOException("Invalid Uri!");
+            }
+            final ParcelFileDescriptor pfd = contentResolver.openFileDescriptor(mSavedVideoUri, "rw");
+            if (pfd == null) {
+                throw new IOException("Failed to open " + mSavedVideoUri);
+            }
+            return pfd;
+        }
+        throw new IllegalArgumentException("The OutputFileOptions should assign before recording");
+    }
+
+    private void deleteOutputFile(@NonNull VideoCapture.OutputFileOptions outputFileOptions) {
+        if (outputFileOptions.isSavingToFile()) {
+            outputFileOptions.getFile().delete();
+        } else if (outputFileOptions.isSavingToMediaStore() && mSavedVideoUri != null) {
+            outputFileOptions.getContentResolver().delete(mSavedVideoUri, null, null);
+        }
+        mSavedVideoUri = null;
+    }
+
+    private void postError(@NonNull VideoCapture.OnVideoCaptureCallback callback,
+                           int videoCaptureError, @NonNull String message, @Nullable Throwable cause) {
+        mMainHandler.post(() -> callback.onError(videoCaptureError, message, cause));
+    }
+
+    private void scanMediaFile(final Uri uri) {
+        if (uri == null) {
+            return;
+        }
+        final Context context = UVCUtils.getApplication();
+        String path = UriHelper.getPath(context, uri);
+
+        try {
+            // invoke scanFile to update size of media file in MediaStore
+            MediaScannerConnection.scanFile(context, new String[]{path}, null, null);
+        } catch (final Exception e) {
+            Log.e(TAG, "MediaScannerConnection:", e);
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package com.herohan.uvcapp;
+
+import android.hardware.usb.UsbDevice;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.uvccamera.BuildConfig;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Groups frames of several opened cameras into frame sets by their capture time.
+ * <p>
+ * Each frame is stamped with the time its last transfer completed on the host
+ * (CLOCK_MONOTONIC, same as {@link System#nanoTime()}), see {@link com.serenegiant.usb.UVCCamera#getFrameTimestampNs()}.
+ * Frames are queued per camera, and whenever every camera has a frame queued, the oldest frames
+ * are emitted as a set if their timestamps are within the tolerance; otherwise the oldest of them
+ * can not be matched any more and is dropped. Queues are bounded, so a camera that stops delivering
+ * only costs the frames that pile up on the other ones.
+ * <p>
+ * While running, the synchronizer owns the frame callbacks of the cameras,
+ * so do not call {@link ICameraHelper#setFrameCallback} for them until {@link #stop()}.
+ */
+public class MultiCameraSynchronizer {
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final String TAG = MultiCameraSynchronizer.class.getSimpleName();
+
+    public static final long DEFAULT_TOLERANCE_NS = 15 * 1000000L;
+    public static final int DEFAULT_MAX_PENDING_FRAMES = 4;
+    public static final int DEFAULT_MAX_PENDING_SETS = 2;
+
+    public interface FrameSetCallback {
+        /**
+         * called on a background thread of {@link CameraExecutors}, one frame set at a time,
+         * the frame buffers are reused after this returns
+         */
+        void onFrameSet(@NonNull FrameSet frameSet);
+    }
+
+    /**
+     * A frame of a camera, copied out of the capture thread
+     */
+    public static class Frame {
+        private final UsbDevice mDevice;
+        private final ByteBuffer mData;
+        private final long mTimestampNs;
+        private final int mSequence;
+
+        Frame(final UsbDevice device, final ByteBuffer data, final long timestampNs, final int sequence) {
+            mDevice = device;
+            mData = data;
+            mTimestampNs = timestampNs;
+            mSequence = sequence;
+        }
+
+        public UsbDevice getDevice() {
+            return mDevice;
+        }
+
+        /**
+         * @return frame data in the pixel format given to the synchronizer,
+         * only valid in {@link FrameSetCallback#onFrameSet}
+         */
+        public ByteBuffer getData() {
+            return mData;
+        }
+
+        public long getTimestampNs() {
+            return mTimestampNs;
+        }
+
+        /**
+         * @return sequence number of the frame on its camera, gaps mean the camera dropped frames
+         */
+        public int getSequence() {
+            return mSequence;
+        }
+    }
+
+    /**
+     * Frames of all cameras that were captured at about the same time
+     */
+    public static class FrameSet {
+        private final List<Frame> mFrames;
+        private final long mTimestampNs;
+        private final long mSkewNs;
+
+        FrameSet(@NonNull final List<Frame> frames, final long timestampNs, final long skewNs) {
+            mFrames = Collections.unmodifiableList(frames);
+            mTimestampNs = timestampNs;
+            mSkewNs = skewNs;
+        }
+
+        /**
+         * @return frames in the same order as the devices given to the synchronizer
+         */
+        @NonNull
+        public List<Frame> getFrames() {
+            return mFrames;
+        }
+
+        @Nullable
+        public Frame getFrame(final UsbDevice device) {
+            for (Frame frame : mFrames) {
+                if (frame.mDevice.equals(device)) {
+                    return frame;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return average timestamp of the frames
+         */
+        public long getTimestampNs() {
+            return mTimestampNs;
+        }
+
+        /**
+         * @return difference between the latest and the earliest timestamp of the frames
+         */
+        public long getSkewNs() {
+            return mSkewNs;
+        }
+    }
+
+    /**
+     * Statistics since {@link #start()} or {@link #resetStats()}
+     */
+    public static class SyncStats {
+        private final long mFrameSets;
+        private final long mDroppedSets;
+        private final long mMeanSkewNs;
+        private final long mMaxSkewNs;
+        private final long[] mReceivedFrames;
+        private final long[] mUnmatchedFrames;
+
+        SyncStats(final long frameSets, final long droppedSets,
+                  final long meanSkewNs, final long maxSkewNs,
+                  final long[] receivedFrames, final long[] unmatchedFrames) {
+            mFrameSets = frameSets;
+            mDroppedSets = droppedSets;
+            mMeanSkewNs = meanSkewNs;
+            mMaxSkewNs = maxSkewNs;
+            mReceivedFrames = receivedFrames;
+            mUnmatchedFrames = unmatchedFrames;
+        }
+
+        /**
+         * @return number of matched frame sets, including dropped ones
+         */
+        public long getFrameSets() {
+            return mFrameSets;
+        }
+
+        /**
+         * @return number of matched frame sets dropped because the callback could not keep up
+         */
+        public long getDroppedSets() {
+            return mDroppedSets;
+        }
+
+        public long getMeanSkewNs() {
+            return mMeanSkewNs;
+        }
+
+        public long getMaxSkewNs() {
+            return mMaxSkewNs;
+        }
+
+        /**
+         * @param index index of the device given to the synchronizer
+         */
+        public long getReceivedFrames(final int index) {
+            return mReceivedFrames[index];
+        }
+
+        /**
+         * @param index index of the device given to the synchronizer
+         * @return number of frames of the camera that were dropped without a match
+         */
+        public long getUnmatchedFrames(final int index) {
+            return mUnmatchedFrames[index];
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                    "SyncStats{sets=%d,dropped=%d,skew=%.2f/%.2fms",
+                    mFrameSets, mDroppedSets, mMeanSkewNs / 1000000.0f, mMaxSkewNs / 1000000.0f));
+            for (int i = 0; i < mReceivedFrames.length; i++) {
+                sb.append(String.format(Locale.US, ",cam%d=%d/%d", i, mUnmatchedFrames[i], mReceivedFrames[i]));
+            }
+            return sb.append("}").toString();
+        }
+    }
+
+    private final Object mSync = new Object();
+    private final Track[] mTracks;
+    private final int mPixelFormat;
+    private final FrameSetCallback mCallback;
+    private final ArrayDeque<FrameSet> mReadySets = new ArrayDeque<>();
+
+    private long mToleranceNs = DEFAULT_TOLERANCE_NS;
+    private int mMaxPendingFrames = DEFAULT_MAX_PENDING_FRAMES;
+    private int mMaxPendingSets = DEFAULT_MAX_PENDING_SETS;
+
+    private boolean mIsRunning;
+    private CameraExecutors.SerialExecutor mDeliveryExecutor;
+
+    private long mFrameSets;
+    private long mDroppedSets;
+    private long mSkewSumNs;
+    private long mMaxSkewNs;
+
+    /**
+     * @param devices     2 or more devices, their cameras must be opened before {@link #start()}
+     * @param pixelFormat pixel format of the frames, same as {@link ICameraHelper#setFrameCallback}
+     * @param callback    called with every matched frame set
+     */
+    public MultiCameraSynchronizer(@NonNull final List<UsbDevice> devices, final int pixelFormat,
+                                   @NonNull final FrameSetCallback callback) {
+        if (devices.size() < 2) {
+            throw new IllegalArgumentException("at least 2 devices are required:" + devices.size());
+        }
+        mTracks = new Track[devices.size()];
+        for (int i = 0; i < mTracks.length; i++) {
+            mTracks[i] = new Track(devices.get(i));
+        }
+        mPixelFormat = pixelFormat;
+        mCallback = callback;
+    }
+
+    /**
+     * @param toleranceNs largest difference of timestamps of the frames of a set
+     */
+    public MultiCameraSynchronizer setTolerance(final long toleranceNs) {
+        synchronized (mSync) {
+            mToleranceNs = Math.max(0, toleranceNs);
+        }
+        return this;
+    }
+
+    /**
+     * @param maxPendingFrames number of frames queued per camera while waiting for the others
+     * @param maxPendingSets   number of matched sets queued for the callback,
+     *                         the oldest one is dropped if the callback can not keep up
+     */
+    public MultiCameraSynchronizer setBuffering(final int maxPendingFrames, final int maxPendingSets) {
+        synchronized (mSync) {
+            if (mIsRunning) {
+                throw new IllegalStateException("already started");
+            }
+            mMaxPendingFrames = Math.max(1, maxPendingFrames);
+            mMaxPendingSets = Math.max(1, maxPendingSets);
+        }
+        return this;
+    }
+
+    /**
+     * start grouping frames, takes over the frame callbacks of the cameras
+     *
+     * @throws IllegalStateException if the camera of some device is not opened
+     */
+    public void start() {
+        if (DEBUG) Log.d(TAG, "start:");
+        final CameraConnectionService service = CameraConnectionService.getInstance();
+        synchronized (mSync) {
+            if (mIsRunning) {
+                return;
+            }
+            for (Track track : mTracks) {
+                final CameraInternal camera = service.findCamera(track.mDevice);
+                if (camera == null) {
+                    throw new IllegalStateException("camera is not opened:" + track.mDevice.getDeviceName());
+                }
+                track.mCamera = camera;
+            }
+            mDeliveryExecutor = CameraExecutors.newSerialExecutor();
+            resetStatsLocked();
+            mIsRunning = true;
+        }
+        for (Track track : mTracks) {
+            track.mCamera.setFrameCallback(track, mPixelFormat);
+        }
+    }
+
+    /**
+     * stop grouping frames and clear the frame callbacks of the cameras,
+     * pending frames and sets are discarded
+     */
+    public void stop() {
+        if (DEBUG) Log.d(TAG, "stop:");
+        final CameraExecutors.SerialExecutor executor;
+        synchronized (mSync) {
+            if (!mIsRunning) {
+                return;
+            }
+            mIsRunning = false;
+            executor = mDeliveryExecutor;
+            mDeliveryExecutor = null;
+        }
+        for (Track track : mTracks) {
+            track.mCamera.setFrameCallback(null, 0);
+        }
+        executor.quitSafely();
+        synchronized (mSync) {
+            mReadySets.clear();
+            for (Track track : mTracks) {
+                track.mPending.clear();
+                track.mFreeBuffers.clear();
+                track.mAllocatedBuffers = 0;
+                track.mCamera = null;
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        synchronized (mSync) {
+            return mIsRunning;
+        }
+    }
+
+    @NonNull
+    public SyncStats getStats() {
+        synchronized (mSync) {
+            final long[] received = new long[mTracks.length];
+            final long[] unmatched = new long[mTracks.length];
+            for (int i = 0; i < mTracks.length; i++) {
+                received[i] = mTracks[i].mReceivedFrames;
+                unmatched[i] = mTracks[i].mUnmatchedFrames;
+            }
+            return new SyncStats(mFrameSets, mDroppedSets,
+                    mFrameSets > 0 ? mSkewSumNs / mFrameSets : 0, mMaxSkewNs,
+                    received, unmatched);
+        }
+    }
+
+    public void resetStats() {
+        synchronized (mSync) {
+            resetStatsLocked();
+        }
+    }
+
+    private void resetStatsLocked() {
+        mFrameSets = mDroppedSets = mSkewSumNs = mMaxSkewNs = 0;
+        for (Track track : mTracks) {
+            track.mReceivedFrames = track.mUnmatchedFrames = 0;
+        }
+    }
+
+    /**
+     * emit sets while every camera has a frame queued, must be called while holding mSync
+     */
+    private void matchLocked() {
+        while (true) {
+            Track earliest = null;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (Track track : mTracks) {
+                final Frame head = track.mPending.peek();
+                if (head == null) {
+                    return;
+                }
+                if (head.mTimestampNs < min) {
+                    min = head.mTimestampNs;
+                    earliest = track;
+                }
+                max = Math.max(max, head.mTimestampNs);
+            }
+            if (max - min > mToleranceNs) {
+                // the other cameras already moved past this frame
+                earliest.recycle(earliest.mPending.poll());
+                earliest.mUnmatchedFrames++;
+                continue;
+            }
+            final List<Frame> frames = new ArrayList<>(mTracks.length);
+            long sum = 0;
+            for (Track track : mTracks) {
+                final Frame frame = track.mPending.poll();
+                frames.add(frame);
+                sum += frame.mTimestampNs - min;
+            }
+            final long skew = max - min;
+            mFrameSets++;
+            mSkewSumNs += skew;
+            mMaxSkewNs = Math.max(mMaxSkewNs, skew);
+            mReadySets.add(new FrameSet(frames, min + sum / mTracks.length, skew));
+            if (mReadySets.size() > mMaxPendingSets) {
+                recycle(mReadySets.poll());
+                mDroppedSets++;
+            }
+            mDeliveryExecutor.execute(mDeliveryTask);
+        }
+    }
+
+    private void recycle(final FrameSet frameSet) {
+        for (int i = 0; i < mTracks.length; i++) {
+            mTracks[i].recycle(frameSet.mFrames.get(i));
+        }
+    }
+
+    private final Runnable mDeliveryTask = new Runnable() {
+        @Override
+        public void run() {
+            final FrameSet frameSet;
+            synchronized (mSync) {
+                frameSet = mReadySets.poll();
+            }
+            if (frameSet == null) {
+                // already dropped or discarded by stop
+                return;
+            }
+            try {
+                mCallback.onFrameSet(frameSet);
+            } catch (final Exception e) {
+                Log.w(TAG, "onFrameSet:", e);
+            }
+            synchronized (mSync) {
+                recycle(frameSet);
+            }
+        }
+    };
+
+    /**
+     * Frames of a camera waiting for a match and the buffers to copy them into
+     */
+    private final class Track implements IFrameCallback {
+        private final UsbDevice mDevice;
+        private final ArrayDeque<Frame> mPending = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> mFreeBuffers = new ArrayDeque<>();
+        private int mAllocatedBuffers;
+        private CameraInternal mCamera;
+        private long mReceivedFrames;
+        private long mUnmatchedFrames;
+
+        Track(final UsbDevice device) {
+            mDevice = device;
+        }
+
+        @Override
+        public void onFrame(final ByteBuffer frame) {
+            // called on the capture thread of the camera
+            final CameraInternal camera;
+            final ByteBuffer buffer;
+            synchronized (mSync) {
+                camera = mCamera;
+                if (!mIsRunning || camera == null) {
+                    return;
+                }
+                mReceivedFrames++;
+                buffer = obtain(frame.remaining());
+                if (buffer == null) {
+                    // every buffer is still held by queued sets or the callback
+                    mUnmatchedFrames++;
+                    return;
+                }
+            }
+            long timestampNs = camera.getFrameTimestampNs();
+            if (timestampNs == 0) {
+                timestampNs = System.nanoTime();
+            }
+            final int sequence = camera.getFrameSequence();
+            buffer.clear();
+            buffer.put(frame);
+            buffer.flip();
+            synchronized (mSync) {
+                if (!mIsRunning) {
+                    return;
+                }
+                mPending.add(new Frame(mDevice, buffer, timestampNs, sequence));
+                if (mPending.size() > mMaxPendingFrames) {
+                    recycle(mPending.poll());
+                    mUnmatchedFrames++;
+                }
+                matchLocked();
+            }
+        }
+
+        /**
+         * must be called while holding mSync
+         *
+         * @return null if all buffers of the camera are in use
+         */
+        @Nullable
+        private ByteBuffer obtain(final int size) {
+            ByteBuffer buffer = mFreeBuffers.poll();
+            if (buffer == null) {
+                // a frame is queued, copied, held by up to every pending set and by the callback
+                if (mAllocatedBuffers >= mMaxPendingFrames + mMaxPendingSets + 2) {
+                    return null;
+                }
+                mAllocatedBuffers++;
+            } else if (buffer.capacity() >= size) {
+                return buffer;
+            }
+            // first frame or frame size changed
+            return ByteBuffer.allocateDirect(size);
+        }
+
+        /**
+         * must be called while holding mSync
+         */
+        private void recycle(final Frame frame) {
+            if (frame != null) {
+                mFreeBuffers.add(frame.mData);
+            }
+        }
+    }
+}
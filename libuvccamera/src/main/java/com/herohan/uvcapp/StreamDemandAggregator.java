@@ -0,0 +1,335 @@
+package com.herohan.uvcapp;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.serenegiant.usb.Size;
+import com.serenegiant.uvccamera.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Aggregates the frame rate and resolution that the consumers of a camera actually need
+ * and picks the cheapest supported stream mode that still satisfies all of them.
+ * The mode requested by the app is the upper bound and is used while any consumer
+ * needs the full rate/size or no consumer has declared its demand.
+ * The preview surfaces and the frame callback of the app are consumers too, they need
+ * the full mode unless a demand is declared with their id, see {@link ICameraHelper#STREAM_CONSUMER_PREVIEW}.
+ * <p>
+ * A mode that satisfies more demand is applied at once, a cheaper one only after
+ * the demand stayed low for {@link #DOWNGRADE_DELAY_MS} and the saving is significant,
+ * so that the stream does not flap when consumers come and go.
+ */
+class StreamDemandAggregator {
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final String TAG = StreamDemandAggregator.class.getSimpleName();
+
+    /**
+     * Demand should stay low for this time before the stream is renegotiated to a cheaper mode
+     */
+    static final long DOWNGRADE_DELAY_MS = 3000;
+    /**
+     * Renegotiation to a cheaper mode needs to save at least this ratio of pixels per second
+     */
+    private static final float MIN_DOWNGRADE_SAVING = 0.2f;
+    /**
+     * Retry interval when the camera can not be renegotiated now, e.g. while recording
+     */
+    private static final long RETRY_DELAY_MS = 1000;
+
+    interface Callback {
+        /**
+         * Called on the executor given to this class to switch the stream.
+         *
+         * @return the mode the camera is streaming after this call,
+         * null if the camera can not switch now and it should be retried later
+         */
+        @Nullable
+        Size onRenegotiate(@NonNull Size size);
+    }
+
+    private static final class Demand {
+        final int maxFps;
+        final int width;
+        final int height;
+
+        Demand(final int maxFps, final int width, final int height) {
+            this.maxFps = maxFps;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final Object mSync = new Object();
+    private final Map<String, Demand> mDemands = new HashMap<>();
+    /**
+     * Consumers that are active without declaring their demand
+     */
+    private final Set<String> mUndeclared = new HashSet<>();
+    private final Callback mCallback;
+    /**
+     * Delays updates on the shared callback looper, the updates themselves run on the executor
+     * because renegotiation blocks until the stream restarts
+     */
+    private final Handler mHandler;
+    private final Executor mExecutor;
+
+    private boolean mEnabled;
+    @Nullable
+    private Size mBaseSize;
+    /**
+     * Mode the bandwidth planner or the frame memory budget allows at most, null if not limited
+     */
+    @Nullable
+    private Size mLimitSize;
+    @Nullable
+    private Size mCurrentSize;
+    @NonNull
+    private List<Size> mSupportedSizes = new ArrayList<>();
+    /**
+     * Uptime when the demand dropped below the current mode, 0 if it does not
+     */
+    private long mLowDemandSinceMs;
+
+    /**
+     * @param executor serial executor of the camera that its other stream switches run on too
+     */
+    StreamDemandAggregator(@NonNull final Executor executor, @NonNull final Callback callback) {
+        mExecutor = executor;
+        mCallback = callback;
+        mHandler = CameraExecutors.newCallbackHandler();
+    }
+
+    void release() {
+        mHandler.removeCallbacks(mScheduleTask);
+    }
+
+    /**
+     * Enables or disables automatic renegotiation, the base mode is restored when disabled.
+     */
+    void setEnabled(final boolean enabled) {
+        synchronized (mSync) {
+            mEnabled = enabled;
+        }
+        requestUpdate();
+    }
+
+    boolean isEnabled() {
+        synchronized (mSync) {
+            return mEnabled;
+        }
+    }
+
+    /**
+     * Sets the mode requested by the app and the modes the camera supports.
+     *
+     * @param base    the mode the app requested, the most expensive mode that may be used
+     * @param limit   the mode the camera was lowered to for the bandwidth or the frame memory,
+     *                which is used instead of base, null if not lowered
+     * @param current the mode the camera is streaming now
+     */
+    void setBaseSize(@Nullable final Size base, @Nullable final Size limit, @Nullable final Size current,
+                     @Nullable final List<Size> supportedSizes) {
+        synchronized (mSync) {
+            mBaseSize = base != null ? base.clone() : null;
+            mLimitSize = limit != null ? limit.clone() : null;
+            mCurrentSize = current != null ? current.clone() : null;
+            mSupportedSizes = supportedSizes != null ? supportedSizes : new ArrayList<>();
+            mLowDemandSinceMs = 0;
+        }
+        requestUpdate();
+    }
+
+    @Nullable
+    Size getBaseSize() {
+        synchronized (mSync) {
+            return mBaseSize;
+        }
+    }
+
+    /**
+     * Declares what a consumer needs from the stream.
+     *
+     * @param consumerId unique id of the consumer, e.g. "ndi"
+     * @param maxFps     frame rate the consumer uses at most, 0 for the full rate
+     * @param width      width the consumer uses at most, 0 for the full size
+     * @param height     height the consumer uses at most, 0 for the full size
+     */
+    void setDemand(@NonNull final String consumerId, final int maxFps, final int width, final int height) {
+        synchronized (mSync) {
+            mDemands.put(consumerId, new Demand(maxFps, width, height));
+        }
+        requestUpdate();
+    }
+
+    void removeDemand(@NonNull final String consumerId) {
+        synchronized (mSync) {
+            mDemands.remove(consumerId);
+        }
+        requestUpdate();
+    }
+
+    /**
+     * Sets whether a consumer that the app may not declare, e.g. the preview surfaces, is active,
+     * it needs the full mode unless a demand is declared with the same id.
+     */
+    void setUndeclaredConsumer(@NonNull final String consumerId, final boolean active) {
+        synchronized (mSync) {
+            final boolean changed = active ? mUndeclared.add(consumerId) : mUndeclared.remove(consumerId);
+            if (!changed) {
+                return;
+            }
+        }
+        requestUpdate();
+    }
+
+    private void requestUpdate() {
+        mHandler.removeCallbacks(mScheduleTask);
+        mHandler.post(mScheduleTask);
+    }
+
+    private final Runnable mScheduleTask = new Runnable() {
+        @Override
+        public void run() {
+            mExecutor.execute(mUpdateTask);
+        }
+    };
+
+    private final Runnable mUpdateTask = new Runnable() {
+        @Override
+        public void run() {
+            final Size target;
+            final Size current;
+            synchronized (mSync) {
+                if (mBaseSize == null || mCurrentSize == null) {
+                    return;
+                }
+                final Size base = mLimitSize != null ? mLimitSize : mBaseSize;
+                final int[] need = mEnabled ? getNeed(base, mDemands, mUndeclared) : null;
+                target = need != null ? selectSize(base, mSupportedSizes, need) : base;
+                current = mCurrentSize;
+                if (isSameMode(target, current)) {
+                    mLowDemandSinceMs = 0;
+                    return;
+                }
+                if (need != null && satisfies(current, need)) {
+                    // cheaper mode, apply only after the demand stayed low and if it is worth it
+                    if (cost(target) > cost(current) * (1.0f - MIN_DOWNGRADE_SAVING)) {
+                        mLowDemandSinceMs = 0;
+                        return;
+                    }
+                    final long now = SystemClock.uptimeMillis();
+                    if (mLowDemandSinceMs == 0) {
+                        mLowDemandSinceMs = now;
+                    }
+                    final long remaining = mLowDemandSinceMs + DOWNGRADE_DELAY_MS - now;
+                    if (remaining > 0) {
+                        mHandler.postDelayed(mScheduleTask, remaining);
+                        return;
+                    }
+                }
+            }
+            if (DEBUG) Log.d(TAG, "renegotiate:" + current + "=>" + target);
+            final Size result = mCallback.onRenegotiate(target);
+            if (result != null) {
+                synchronized (mSync) {
+                    mCurrentSize = result.clone();
+                    mLowDemandSinceMs = 0;
+                }
+            } else {
+                mHandler.postDelayed(mScheduleTask, RETRY_DELAY_MS);
+            }
+        }
+    };
+
+    /**
+     * @return fps, width and height that all consumers need at most, capped by base,
+     * null if no consumer has declared its demand
+     */
+    @Nullable
+    private static int[] getNeed(@NonNull final Size base, @NonNull final Map<String, Demand> declared,
+                                 @NonNull final Set<String> undeclared) {
+        if (declared.isEmpty()) {
+            return null;
+        }
+        final List<Demand> demands = new ArrayList<>(declared.values());
+        for (final String consumerId : undeclared) {
+            if (!declared.containsKey(consumerId)) {
+                demands.add(new Demand(0, 0, 0));
+            }
+        }
+        int[] need = null;
+        for (final Demand demand : demands) {
+            if (need == null) {
+                need = new int[3];
+            }
+            need[0] = Math.max(need[0], demand.maxFps > 0 ? Math.min(demand.maxFps, base.fps) : base.fps);
+            need[1] = Math.max(need[1], demand.width > 0 ? Math.min(demand.width, base.width) : base.width);
+            need[2] = Math.max(need[2], demand.height > 0 ? Math.min(demand.height, base.height) : base.height);
+        }
+        return need;
+    }
+
+    /**
+     * @param need fps, width and height to satisfy
+     * @return the cheapest mode with the same frame type and aspect ratio as base
+     * that satisfies need, base itself if nothing cheaper fits
+     */
+    @NonNull
+    static Size selectSize(@NonNull final Size base, @NonNull final List<Size> supportedSizes,
+                           @NonNull final int[] need) {
+        final int needFps = need[0];
+        final int needWidth = need[1];
+        final int needHeight = need[2];
+        Size best = base;
+        long bestCost = cost(base);
+        for (final Size size : supportedSizes) {
+            if (size.type != base.type
+                    || size.width > base.width || size.height > base.height
+                    || size.width < needWidth || size.height < needHeight
+                    || (long) size.width * base.height != (long) size.height * base.width) {
+                continue;
+            }
+            int fps = 0;
+            final List<Integer> fpsList = new ArrayList<>(size.fpsList != null ? size.fpsList : new ArrayList<>());
+            fpsList.add(size.fps);
+            for (final int candidate : fpsList) {
+                if (candidate >= needFps && candidate <= base.fps && (fps == 0 || candidate < fps)) {
+                    fps = candidate;
+                }
+            }
+            if (fps == 0) {
+                continue;
+            }
+            final long cost = (long) size.width * size.height * fps;
+            if (cost < bestCost) {
+                best = new Size(size.type, size.width, size.height, fps,
+                        size.fpsList != null ? new ArrayList<>(size.fpsList) : new ArrayList<>());
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    private static long cost(@NonNull final Size size) {
+        return (long) size.width * size.height * size.fps;
+    }
+
+    private static boolean satisfies(@NonNull final Size size, @NonNull final int[] need) {
+        return size.fps >= need[0] && size.width >= need[1] && size.height >= need[2];
+    }
+
+    private static boolean isSameMode(@NonNull final Size a, @NonNull final Size b) {
+        return a.type == b.type && a.width == b.width && a.height == b.height && a.fps == b.fps;
+    }
+}
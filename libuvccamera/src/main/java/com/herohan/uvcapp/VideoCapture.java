@@ -16,7 +16,6 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
@@ -46,12 +45,8 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class VideoCapture {
     private static final String TAG = VideoCapture.class.getSimpleName();
@@ -114,15 +109,13 @@ public class VideoCapture {
     public final AtomicBoolean mIsFirstAudioSampleWrite = new AtomicBoolean(false);
 
     /**
-     * Thread on which all encoding occurs.
+     * Executor on which all encoding occurs.
      */
-    private HandlerThread mVideoHandlerThread;
-    private Handler mVideoHandler;
+    private CameraExecutors.SerialExecutor mVideoExecutor;
     /**
-     * Thread on which audio encoding occurs.
+     * Executor on which audio encoding occurs.
      */
-    private HandlerThread mAudioHandlerThread;
-    private Handler mAudioHandler;
+    private CameraExecutors.SerialExecutor mAudioExecutor;
 
     MediaCodec mVideoEncoder;
     private MediaCodec mAudioEncoder;
@@ -178,10 +171,15 @@ public class VideoCapture {
     private WeakReference<ICameraRendererHolder> mRendererHolderWeak;
     private VideoCaptureConfig mConfig;
     private Size mResolution;
+    /**
+     * Encoder timestamp of the first frame in timelapse mode, -1 until it arrives
+     */
+    private long mTimelapseBaseUs = -1;
+    private long mTimelapseLastUs = -1;
 
     private Handler mMainHandler;
 
-    private ExecutorService mExecutor;
+    private final CameraExecutors.SerialExecutor mExecutor;
 
     VideoCapture(ICameraRendererHolder rendererHolder,
                  VideoCaptureConfig config,
@@ -191,14 +189,7 @@ public class VideoCapture {
         this.mResolution = resolution;
         this.mMainHandler = new Handler(Looper.getMainLooper());
 
-        this.mExecutor = Executors.newFixedThreadPool(1, new ThreadFactory() {
-            private final AtomicInteger mId = new AtomicInteger(0);
-
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, TAG + "video_capture" + mId.getAndIncrement());
-            }
-        });
+        this.mExecutor = CameraExecutors.newSerialExecutor();
 
         initVideoAudioHandler();
         initVideoAudioEncoder();
@@ -215,16 +206,9 @@ public class VideoCapture {
     }
 
     private void initVideoAudioHandler() {
-        mVideoHandlerThread = new HandlerThread(TAG + "video encoding thread");
-        mAudioHandlerThread = new HandlerThread(TAG + "audio encoding thread");
-
-        // video thread start
-        mVideoHandlerThread.start();
-        mVideoHandler = new Handler(mVideoHandlerThread.getLooper());
-
-        // audio thread start
-        mAudioHandlerThread.start();
-        mAudioHandler = new Handler(mAudioHandlerThread.getLooper());
+        // encoding loops block until the recording stops, so they run on the encoder executor
+        mVideoExecutor = CameraExecutors.newEncoderExecutor();
+        mAudioExecutor = CameraExecutors.newEncoderExecutor();
     }
 
     /**
@@ -238,7 +222,15 @@ public class VideoCapture {
         format.setInteger(MediaFormat.KEY_BIT_RATE,
                 mConfig.hasBitRate() ? mConfig.getBitRate() : 8 * mResolution.width * mResolution.height);
         format.setInteger(MediaFormat.KEY_FRAME_RATE, mConfig.getVideoFrameRate());
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, mConfig.getIFrameInterval());
+        if (mConfig.isTimelapse()) {
+            // encoder sees timestamps of capture time, scale I-frame interval from playback time to it
+            final long captureSeconds = (long) mConfig.getIFrameInterval()
+                    * mConfig.getVideoFrameRate() * mConfig.getTimelapseInterval() / 1000;
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL,
+                    (int) Math.min(Integer.MAX_VALUE, Math.max(1, captureSeconds)));
+        } else {
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, mConfig.getIFrameInterval());
+        }
 
         return format;
     }
@@ -275,6 +267,13 @@ public class VideoCapture {
         return mIsRecording;
     }
 
+    /**
+     * Returns the timelapse interval of the current config in milliseconds, 0 if disabled.
+     */
+    int getTimelapseInterval() {
+        return mConfig.getTimelapseInterval();
+    }
+
     /**
      * Starts recording video, which continues until {@link VideoCapture#stopRecording()} is
      * called.
@@ -293,6 +292,7 @@ public class VideoCapture {
         Log.i(TAG, "startRecording");
         mIsFirstVideoKeyFrameWrite.set(false);
         mIsFirstAudioSampleWrite.set(false);
+        mTimelapseBaseUs = mTimelapseLastUs = -1;
 
         OnVideoCaptureCallback postListener = new VideoCaptureListenerWrapper(callback);
 
@@ -428,10 +428,10 @@ public class VideoCapture {
         mRendererHolderWeak.get().addSlaveSurface(mCameraSurface.hashCode(), mCameraSurface, true);
 
         if (mIsAudioEnabled.get()) {
-            mAudioHandler.post(() -> audioEncode(postListener));
+            mAudioExecutor.execute(() -> audioEncode(postListener));
         }
 
-        mVideoHandler.post(
+        mVideoExecutor.execute(
                 () -> {
                     boolean errorOccurred = videoEncode(postListener, outputFileOptions);
                     if (!errorOccurred) {
@@ -478,7 +478,7 @@ public class VideoCapture {
     }
 
     private void releaseResources() {
-        mVideoHandlerThread.quitSafely();
+        mVideoExecutor.quitSafely();
 
         // audio encoder release
         releaseAudioInputResource();
@@ -489,7 +489,7 @@ public class VideoCapture {
     }
 
     private void releaseAudioInputResource() {
-        mAudioHandlerThread.quitSafely();
+        mAudioExecutor.quitSafely();
         if (mAudioEncoder != null) {
             mAudioEncoder.release();
             mAudioEncoder = null;
@@ -548,7 +548,8 @@ public class VideoCapture {
 
         // audio encoder setup
         // reset audio inout flag
-        mIsAudioEnabled.set(mConfig.getAudioCaptureEnable());
+        // audio does not fit the playback speed of timelapse
+        mIsAudioEnabled.set(mConfig.getAudioCaptureEnable() && !mConfig.isTimelapse());
 
         if (mIsAudioEnabled.get()) {
             setAudioParameters();
@@ -657,7 +658,9 @@ public class VideoCapture {
             if (mVideoBufferInfo.size > 0) {
                 outputBuffer.position(mVideoBufferInfo.offset);
                 outputBuffer.limit(mVideoBufferInfo.offset + mVideoBufferInfo.size);
-                mVideoBufferInfo.presentationTimeUs = (System.nanoTime() / 1000);
+                mVideoBufferInfo.presentationTimeUs = mConfig.isTimelapse()
+                        ? getTimelapsePresentationTimeUs(mVideoBufferInfo.presentationTimeUs)
+                        : (System.nanoTime() / 1000);
 
                 synchronized (mMuxerLock) {
 
@@ -692,6 +695,25 @@ public class VideoCapture {
         return (mVideoBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
     }
 
+    /**
+     * Rewrite capture time of a timelapse frame to the playback time,
+     * frames are placed on the slot of the schedule that is nearest to the capture time.
+     */
+    private long getTimelapsePresentationTimeUs(long encoderTimeUs) {
+        if (mTimelapseBaseUs < 0) {
+            mTimelapseBaseUs = encoderTimeUs;
+        }
+        final long intervalUs = mConfig.getTimelapseInterval() * 1000L;
+        final long index = (encoderTimeUs - mTimelapseBaseUs + intervalUs / 2) / intervalUs;
+        long ptsUs = index * 1000000L / mConfig.getVideoFrameRate();
+        if (ptsUs <= mTimelapseLastUs) {
+            // two frames fell into the same slot because of jitter
+            ptsUs = mTimelapseLastUs + 1;
+        }
+        mTimelapseLastUs = ptsUs;
+        return ptsUs;
+    }
+
     private boolean writeAudioEncodedBuffer(int bufferIndex) {
         ByteBuffer buffer = getOutputBuffer(mAudioEncoder, bufferIndex);
         buffer.position(mAudioBufferInfo.offset);
@@ -4,7 +4,22 @@ import android.os.Bundle;
 
 import androidx.annotation.NonNull;
 
+import com.serenegiant.usb.UVCCamera;
+
 public class VideoCaptureConfig implements Cloneable {
+    /**
+     * H.264 encoded by MediaCodec and AAC audio in MP4(default)
+     */
+    public static final int OUTPUT_FORMAT_MPEG_4 = 0;
+    /**
+     * Camera's MJPEG frames as is and 16bit PCM audio in AVI(OpenDML), MJPEG stream only
+     */
+    public static final int OUTPUT_FORMAT_AVI_MJPEG = UVCCamera.MJPEG_CONTAINER_AVI;
+    /**
+     * Camera's MJPEG frames as is and 16bit PCM audio in Matroska, MJPEG stream only
+     */
+    public static final int OUTPUT_FORMAT_MKV_MJPEG = UVCCamera.MJPEG_CONTAINER_MKV;
+
     private static final String OPTION_VIDEO_FRAME_RATE =
             "imageCapture.recordingFrameRate";
     private static final String OPTION_BIT_RATE =
@@ -21,6 +36,10 @@ public class VideoCaptureConfig implements Cloneable {
             "imageCapture.audioChannelCount";
     private static final String OPTION_AUDIO_MIN_BUFFER_SIZE =
             "imageCapture.audioMinBufferSize";
+    private static final String OPTION_OUTPUT_FORMAT =
+            "imageCapture.outputFormat";
+    private static final String OPTION_TIMELAPSE_INTERVAL =
+            "imageCapture.timelapseInterval";
 
     private static final int DEFAULT_VIDEO_FRAME_RATE = 30;
     /**
@@ -51,6 +70,14 @@ public class VideoCaptureConfig implements Cloneable {
      * audio default minimum buffer size
      */
     private static final int DEFAULT_AUDIO_MIN_BUFFER_SIZE = 1024;
+    /**
+     * output file format
+     */
+    private static final int DEFAULT_OUTPUT_FORMAT = OUTPUT_FORMAT_MPEG_4;
+    /**
+     * timelapse disabled
+     */
+    private static final int DEFAULT_TIMELAPSE_INTERVAL = 0;
 
     private Bundle mMutableConfig = new Bundle();
 
@@ -220,6 +247,66 @@ public class VideoCaptureConfig implements Cloneable {
         return getMutableConfig().getInt(OPTION_AUDIO_MIN_BUFFER_SIZE, DEFAULT_AUDIO_MIN_BUFFER_SIZE);
     }
 
+    /**
+     * Sets the output file format.
+     * <p>{@link #OUTPUT_FORMAT_AVI_MJPEG} and {@link #OUTPUT_FORMAT_MKV_MJPEG} write the camera's
+     * MJPEG frames without transcoding, the video frame rate is used as the nominal rate of the file
+     * and bit rate and I-frame interval are ignored.
+     *
+     * @param outputFormat {@link #OUTPUT_FORMAT_MPEG_4}, {@link #OUTPUT_FORMAT_AVI_MJPEG}
+     *                     or {@link #OUTPUT_FORMAT_MKV_MJPEG}
+     * @return The current Config.
+     */
+    @NonNull
+    public VideoCaptureConfig setOutputFormat(int outputFormat) {
+        getMutableConfig().putInt(OPTION_OUTPUT_FORMAT, outputFormat);
+        return this;
+    }
+
+    /**
+     * Get the output file format.
+     */
+    public int getOutputFormat() {
+        return getMutableConfig().getInt(OPTION_OUTPUT_FORMAT, DEFAULT_OUTPUT_FORMAT);
+    }
+
+    /**
+     * Returns true if the camera's MJPEG frames are recorded without transcoding.
+     */
+    public boolean isMjpegOutputFormat() {
+        final int format = getOutputFormat();
+        return format == OUTPUT_FORMAT_AVI_MJPEG || format == OUTPUT_FORMAT_MKV_MJPEG;
+    }
+
+    /**
+     * Sets the timelapse interval.
+     * <p>While recording in timelapse mode the camera passes only one frame per interval
+     * to the pipeline, and the selected frames are encoded at the video frame rate,
+     * e.g. 5000ms interval at 30fps plays 150 times faster. Audio is not recorded.
+     *
+     * @param intervalMs The interval between recorded frames in milliseconds, 0 disables timelapse.
+     * @return The current Config.
+     */
+    @NonNull
+    public VideoCaptureConfig setTimelapseInterval(int intervalMs) {
+        getMutableConfig().putInt(OPTION_TIMELAPSE_INTERVAL, intervalMs);
+        return this;
+    }
+
+    /**
+     * Get the timelapse interval in milliseconds, 0 if timelapse is disabled.
+     */
+    public int getTimelapseInterval() {
+        return getMutableConfig().getInt(OPTION_TIMELAPSE_INTERVAL, DEFAULT_TIMELAPSE_INTERVAL);
+    }
+
+    /**
+     * Returns true if frames are recorded in timelapse mode.
+     */
+    public boolean isTimelapse() {
+        return getTimelapseInterval() > 0;
+    }
+
     @NonNull
     @Override
     protected Object clone() {
@@ -49,6 +49,20 @@ public class NdiSender {
         }
     }
 
+    /**
+     * Send a video frame in UYVY format (16-bit, 8 bits per channel, no alpha).
+     * UYVY is the native format of NDI, so no conversion is required on the NDI side.
+     * Use {@link com.serenegiant.usb.UVCCamera#PIXEL_FORMAT_UYVY} as frame callback format to get it.
+     * @param width frame width in pixels
+     * @param height frame height in pixels
+     * @param data UYVY frame data as byte array
+     */
+    public void sendVideoUYVY(int width, int height, byte[] data) {
+        if (!closed && instancePointer != 0) {
+            nSendVideoUYVY(instancePointer, width, height, data);
+        }
+    }
+
     /**
      * Send a video frame in NV12 format (12-bit, 8 bits per channel)
      * NV12 is commonly used by 4K capture cards like Cam Link 4K.
@@ -145,6 +159,7 @@ public class NdiSender {
     private static native void nSendDestroy(long pSend);
     private static native void nSendVideo(long pSend, int width, int height, ByteBuffer buffer);
     private static native void nSendVideoYUYV(long pSend, int w, int h, byte[] data);
+    private static native void nSendVideoUYVY(long pSend, int w, int h, byte[] data);
     private static native void nSendVideoNV12(long pSend, int w, int h, byte[] data);
     private static native void nConvertYuyvToRgba(byte[] yuyv, ByteBuffer rgba, int w, int h);
     private static native void nConvertNv12ToRgba(byte[] nv12, ByteBuffer rgba, int w, int h);
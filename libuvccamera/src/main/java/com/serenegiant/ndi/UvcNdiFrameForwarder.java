@@ -6,6 +6,7 @@ package com.serenegiant.ndi;
 
 import android.util.Log;
 
+import com.serenegiant.usb.FrameMemoryBudget;
 import com.serenegiant.usb.IFrameCallback;
 
 import java.nio.ByteBuffer;
@@ -43,6 +44,9 @@ public class UvcNdiFrameForwarder implements IFrameCallback {
     // Reusable frame buffer to reduce per-frame allocations (especially for 4K)
     private byte[] reusableFrameData = null;
 
+    // optional share of the frame memory budget that the reusable buffers are charged against
+    private FrameMemoryBudget.Consumer memoryConsumer = null;
+
     /**
      * Create a frame forwarder from UVC to NDI
      * @param ndiSender the NDI sender instance
@@ -53,7 +57,7 @@ public class UvcNdiFrameForwarder implements IFrameCallback {
      * The initial NDI output format will be the same; you can change it
      * later with {@link #setNdiFormat(String)}.
      * @param ndiSender the NDI sender instance
-     * @param cameraFormat one of "nv12","nv21","yuyv","yuv422"
+     * @param cameraFormat one of "nv12","nv21","yuyv","yuv422","uyvy"
      */
     public UvcNdiFrameForwarder(NdiSender ndiSender, String cameraFormat) {
         this(ndiSender, cameraFormat, null);
@@ -98,6 +102,12 @@ public class UvcNdiFrameForwarder implements IFrameCallback {
 
             frameCount++;
 
+            final FrameMemoryBudget.Consumer consumer = memoryConsumer;
+            if (consumer != null && consumer.shouldDropFrame()) {
+                // the budget asks to lower the frame rate of this forwarder
+                return;
+            }
+
             if (targetFps > 0) {
                 final long nowNs = System.nanoTime();
                 if (lastNdiSendTimeNs > 0 && (nowNs - lastNdiSendTimeNs) < minFrameIntervalNs) {
@@ -116,6 +126,10 @@ public class UvcNdiFrameForwarder implements IFrameCallback {
             if (frame != null && frame.remaining() > 0) {
                 int size = frame.remaining();
                 if (reusableFrameData == null || reusableFrameData.length < size) {
+                    if (!reserve(reusableFrameData != null ? reusableFrameData.length : 0, size)) {
+                        // does not fit into the frame memory budget
+                        return;
+                    }
                     reusableFrameData = new byte[size];
                 }
                 frameData = reusableFrameData;
@@ -150,10 +164,18 @@ public class UvcNdiFrameForwarder implements IFrameCallback {
                     case "yuv422":
                         ndiSender.sendVideoYUYV(width, height, frameData);
                         break;
+                    case "uyvy":
+                        // NDI native format, camera frame callback should use PIXEL_FORMAT_UYVY
+                        ndiSender.sendVideoUYVY(width, height, frameData);
+                        break;
                     case "rgba":
                     case "bgra": {
                         // convert camera data (nv12/yuyv) to RGBA/BGRA
                         rgbaBuf = ensureRgbaBuffer(width, height);
+                        if (rgbaBuf == null) {
+                            // does not fit into the frame memory budget
+                            return;
+                        }
                         if ("nv12".equals(cameraFormat) || "nv21".equals(cameraFormat)) {
                             convertToRgba(cameraFormat, frameData, rgbaBuf, width, height);
                         } else {
@@ -205,6 +227,42 @@ public class UvcNdiFrameForwarder implements IFrameCallback {
         }
     }
 
+    /**
+     * Charge the reusable buffers of this forwarder against the frame memory budget,
+     * frames are dropped when the budget asks to lower the frame rate or a buffer does not fit.
+     * The caller owns the consumer and closes it when the forwarder is no longer used.
+     * @param consumer null to stop charging
+     */
+    public void setFrameMemoryConsumer(FrameMemoryBudget.Consumer consumer) {
+        final long held = (reusableFrameData != null ? reusableFrameData.length : 0)
+                + (rgbaBuffer != null ? rgbaBuffer.capacity() : 0);
+        if (memoryConsumer != null) {
+            memoryConsumer.release(held);
+        }
+        memoryConsumer = consumer;
+        if (consumer != null && held > 0 && !consumer.tryReserve(held)) {
+            // drop the buffers so that they are allocated again within the budget
+            reusableFrameData = null;
+            rgbaBuffer = null;
+        }
+    }
+
+    /**
+     * reserve a buffer that replaces one of releasedBytes
+     * @return false if it does not fit into the frame memory budget
+     */
+    private boolean reserve(long releasedBytes, long requiredBytes) {
+        final FrameMemoryBudget.Consumer consumer = memoryConsumer;
+        if (consumer == null) {
+            return true;
+        }
+        if (!consumer.tryReserve(requiredBytes)) {
+            return false;
+        }
+        consumer.release(releasedBytes);
+        return true;
+    }
+
     /**
      * Get the total number of frames forwarded
      * @return frame count
@@ -255,11 +313,14 @@ public class UvcNdiFrameForwarder implements IFrameCallback {
 
     /**
      * convert src (nv12 or yuyv) into \"rgba\" stored in direct buffer
-     * returns direct buffer ready for sending.
+     * returns direct buffer ready for sending, null if it does not fit into the frame memory budget.
      */
     private ByteBuffer ensureRgbaBuffer(int w, int h) {
         final int required = w * h * 4;
         if (rgbaBuffer == null || rgbaBuffer.capacity() < required) {
+            if (!reserve(rgbaBuffer != null ? rgbaBuffer.capacity() : 0, required)) {
+                return null;
+            }
             rgbaBuffer = ByteBuffer.allocateDirect(required);
         }
         rgbaBuffer.clear();
@@ -295,7 +356,7 @@ public class UvcNdiFrameForwarder implements IFrameCallback {
 
     /**
      * change the format that will be transmitted over NDI
-     * @param format one of "nv12","nv21","yuyv","yuv422","rgba","bgra"
+     * @param format one of "nv12","nv21","yuyv","yuv422","uyvy","rgba","bgra"
      */
     public void setNdiFormat(final String format) {
         ndiFormat = (format != null) ? format.toLowerCase() : cameraFormat;
@@ -316,6 +377,7 @@ public class UvcNdiFrameForwarder implements IFrameCallback {
                 return (width * height * 3) / 2;
             case "yuyv":
             case "yuv422":
+            case "uyvy":
                 return width * height * 2;
             case "rgba":
             case "bgra":
@@ -0,0 +1,134 @@
+package com.serenegiant.opengl;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+*/
+
+import android.opengl.GLES20;
+
+import static com.serenegiant.opengl.ShaderConst.FRAGMENT_SHADER_YUV_NV12;
+import static com.serenegiant.opengl.ShaderConst.FRAGMENT_SHADER_YUV_NV21;
+import static com.serenegiant.opengl.ShaderConst.FRAGMENT_SHADER_YUV_YUYV;
+import static com.serenegiant.opengl.ShaderConst.VERTEX_SHADER;
+import static com.serenegiant.opengl.ShaderConst.YUV_MATRIX_BT601_FULL;
+import static com.serenegiant.opengl.ShaderConst.YUV_MATRIX_BT601_LIMITED;
+import static com.serenegiant.opengl.ShaderConst.YUV_MATRIX_BT709_FULL;
+import static com.serenegiant.opengl.ShaderConst.YUV_MATRIX_BT709_LIMITED;
+import static com.serenegiant.opengl.ShaderConst.YUV_OFFSET_FULL;
+import static com.serenegiant.opengl.ShaderConst.YUV_OFFSET_LIMITED;
+
+/**
+ * Drawer that converts a {@link GLYuvTexture} to RGB in the fragment shader,
+ * so that frames of YUV cameras need no RGBX conversion on the CPU.
+ * The texture id passed to {@link #draw(int, float[], int)} is ignored,
+ * the textures of the attached {@link GLYuvTexture} are drawn instead.
+ * Create an instance for each GL context, the textures can be shared.
+ */
+public class GLYuvDrawer2D extends GLDrawer2D {
+	public static final int COLOR_SPACE_BT601 = 0;
+	public static final int COLOR_SPACE_BT709 = 1;
+
+	private GLYuvTexture mTexture;
+	private int mFormat = -1;
+	private int mColorSpace = COLOR_SPACE_BT601;
+	private boolean mFullRange;
+	private int muUVTextureLoc;
+	private int muYuvMatrixLoc;
+	private int muYuvOffsetLoc;
+	private int muHalfWidthLoc;
+
+	/**
+	 * call this in a valid GL/EGL rendering context
+	 */
+	public GLYuvDrawer2D() {
+		super(false);
+	}
+
+	/**
+	 * @param colorSpace COLOR_SPACE_BT601 or COLOR_SPACE_BT709,
+	 * 					UVC cameras usually use BT.601
+	 * @param fullRange true if Y/UV use [0-255], false for Y[16-235]/UV[16-240]
+	 */
+	public synchronized void setColorSpace(final int colorSpace, final boolean fullRange) {
+		mColorSpace = colorSpace;
+		mFullRange = fullRange;
+	}
+
+	/**
+	 * attach the textures to draw, the shader is switched when the format of the frame changes
+	 */
+	public synchronized void setTexture(final GLYuvTexture texture) {
+		mTexture = texture;
+		final int format = texture != null ? texture.getFormat() : -1;
+		if ((format >= 0) && (format != mFormat)) {
+			switch (format) {
+			case GLYuvTexture.FORMAT_NV12:
+				updateShader(VERTEX_SHADER, FRAGMENT_SHADER_YUV_NV12);
+				break;
+			case GLYuvTexture.FORMAT_NV21:
+				updateShader(VERTEX_SHADER, FRAGMENT_SHADER_YUV_NV21);
+				break;
+			default:
+				updateShader(VERTEX_SHADER, FRAGMENT_SHADER_YUV_YUYV);
+				break;
+			}
+			// updateShader releases the previous program, which resets mFormat
+			mFormat = format;
+			muUVTextureLoc = glGetUniformLocation("sUVTexture");
+			muYuvMatrixLoc = glGetUniformLocation("uYuvMatrix");
+			muYuvOffsetLoc = glGetUniformLocation("uYuvOffset");
+			muHalfWidthLoc = glGetUniformLocation("uHalfWidth");
+			if (muUVTextureLoc >= 0) {
+				GLES20.glUniform1i(muUVTextureLoc, 1);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void draw(final int texId,
+		final float[] tex_matrix, final int offset) {
+
+		final GLYuvTexture texture = mTexture;
+		if ((texture == null) || (texture.getFormat() != mFormat)) return;
+		glUseProgram();
+		final float[] matrix;
+		if (mColorSpace == COLOR_SPACE_BT709) {
+			matrix = mFullRange ? YUV_MATRIX_BT709_FULL : YUV_MATRIX_BT709_LIMITED;
+		} else {
+			matrix = mFullRange ? YUV_MATRIX_BT601_FULL : YUV_MATRIX_BT601_LIMITED;
+		}
+		GLES20.glUniformMatrix3fv(muYuvMatrixLoc, 1, false, matrix, 0);
+		GLES20.glUniform3fv(muYuvOffsetLoc, 1, mFullRange ? YUV_OFFSET_FULL : YUV_OFFSET_LIMITED, 0);
+		if (muHalfWidthLoc >= 0) {
+			GLES20.glUniform1f(muHalfWidthLoc, texture.getWidth() / 2.0f);
+		}
+		if (texture.getUVTexture() != 0) {
+			GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture.getUVTexture());
+		}
+		super.draw(texture.getTexture(), tex_matrix, offset);
+		if (texture.getUVTexture() != 0) {
+			GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+			GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+		}
+	}
+
+	@Override
+	public void release() {
+		super.release();
+		mFormat = -1;
+	}
+}
@@ -0,0 +1,149 @@
+package com.serenegiant.opengl;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+*/
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Textures that hold a raw YUV frame as it arrives from the camera, converted by {@link GLYuvDrawer2D}.
+ * Packed YUYV is uploaded as a GL_RGBA texture of half width,
+ * NV12/NV21 as a GL_LUMINANCE texture of Y and a GL_LUMINANCE_ALPHA texture of UV.
+ * Only GLES2 formats are used, so that this also works on software GLES implementations.
+ * Call all methods in the GL context that the textures belong to or share with.
+ */
+public class GLYuvTexture {
+	public static final int FORMAT_YUYV = 0;
+	public static final int FORMAT_NV12 = 1;
+	public static final int FORMAT_NV21 = 2;
+
+	private final int[] mTexIds = new int[2];
+	private int mFormat = -1;
+	private int mWidth, mHeight;
+
+	/**
+	 * @return bytes of a frame, 0 if the size is not supported by the format
+	 */
+	public static int getFrameBytes(final int format, final int width, final int height) {
+		if ((width <= 0) || (height <= 0) || ((width & 1) != 0)) {
+			return 0;
+		}
+		switch (format) {
+		case FORMAT_YUYV:
+			return width * height * 2;
+		case FORMAT_NV12:
+		case FORMAT_NV21:
+			return (height & 1) == 0 ? width * height * 3 / 2 : 0;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * upload a frame, the textures are (re)allocated when the format or size changes
+	 * @param frame direct buffer that starts with the frame, its position is not changed
+	 * @return false if the frame is too small for the format and size
+	 */
+	public boolean upload(final ByteBuffer frame, final int format, final int width, final int height) {
+		final int bytes = getFrameBytes(format, width, height);
+		if ((bytes == 0) || (frame.limit() < bytes)) {
+			return false;
+		}
+		final boolean reallocate = (mFormat != format) || (mWidth != width) || (mHeight != height);
+		if (reallocate) {
+			release();
+			mFormat = format;
+			mWidth = width;
+			mHeight = height;
+		}
+		final int position = frame.position();
+		GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+		if (format == FORMAT_YUYV) {
+			frame.position(0);
+			upload(0, reallocate, GLES20.GL_RGBA, width / 2, height, frame);
+		} else {
+			frame.position(0);
+			upload(0, reallocate, GLES20.GL_LUMINANCE, width, height, frame);
+			frame.position(width * height);
+			upload(1, reallocate, GLES20.GL_LUMINANCE_ALPHA, width / 2, height / 2, frame);
+		}
+		frame.position(position);
+		GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+		return true;
+	}
+
+	private void upload(final int index, final boolean reallocate,
+		final int glFormat, final int width, final int height, final ByteBuffer data) {
+
+		if (mTexIds[index] == 0) {
+			// nearest so that the shader can pick the Y of even/odd pixels from packed YUYV
+			mTexIds[index] = GLHelper.initTex(GLES20.GL_TEXTURE_2D, GLES20.GL_NEAREST);
+		} else {
+			GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexIds[index]);
+		}
+		if (reallocate) {
+			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, glFormat, width, height, 0,
+				glFormat, GLES20.GL_UNSIGNED_BYTE, data);
+		} else {
+			GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+				glFormat, GLES20.GL_UNSIGNED_BYTE, data);
+		}
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+	}
+
+	/**
+	 * @return one of FORMAT_XXX, -1 if nothing has been uploaded
+	 */
+	public int getFormat() {
+		return mFormat;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * @return texture of Y, or of YUYV for FORMAT_YUYV
+	 */
+	public int getTexture() {
+		return mTexIds[0];
+	}
+
+	/**
+	 * @return texture of UV, 0 for FORMAT_YUYV
+	 */
+	public int getUVTexture() {
+		return mTexIds[1];
+	}
+
+	public void release() {
+		for (int i = 0; i < mTexIds.length; i++) {
+			if (mTexIds[i] != 0) {
+				GLHelper.deleteTex(mTexIds[i]);
+				mTexIds[i] = 0;
+			}
+		}
+		mFormat = -1;
+		mWidth = mHeight = 0;
+	}
+}
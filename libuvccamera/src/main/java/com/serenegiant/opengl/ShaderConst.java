@@ -418,4 +418,82 @@ public class ShaderConst {
 	public static final String FRAGMENT_SHADER_EXT_FILT3x3
 		= String.format(FRAGMENT_SHADER_FILT3x3_BASE, HEADER_OES, SAMPLER_OES);
 
+// YUV => RGB
+	/**
+	 * YUVからRGBへの変換行列(列優先, 列の順にY, U, V)とオフセット
+	 * rgb = uYuvMatrix * (yuv - uYuvOffset)
+	 * limitedはY[16-235]/UV[16-240], fullはY/UV共に[0-255]
+	 */
+	public static final float[] YUV_MATRIX_BT601_LIMITED = {
+		1.164384f, 1.164384f, 1.164384f,
+		0.0f, -0.391762f, 2.017232f,
+		1.596027f, -0.812968f, 0.0f,
+	};
+	public static final float[] YUV_MATRIX_BT601_FULL = {
+		1.0f, 1.0f, 1.0f,
+		0.0f, -0.344136f, 1.772f,
+		1.402f, -0.714136f, 0.0f,
+	};
+	public static final float[] YUV_MATRIX_BT709_LIMITED = {
+		1.164384f, 1.164384f, 1.164384f,
+		0.0f, -0.213249f, 2.112402f,
+		1.792741f, -0.532909f, 0.0f,
+	};
+	public static final float[] YUV_MATRIX_BT709_FULL = {
+		1.0f, 1.0f, 1.0f,
+		0.0f, -0.187324f, 1.8556f,
+		1.5748f, -0.468124f, 0.0f,
+	};
+	public static final float[] YUV_OFFSET_LIMITED = { 16f / 255f, 0.5f, 0.5f, };
+	public static final float[] YUV_OFFSET_FULL = { 0.0f, 0.5f, 0.5f, };
+
+	/**
+	 * Y/UVを別テクスチャで受け取ってRGBへ変換するフラグメントシェーダーのベース
+	 * sTextureはY(GL_LUMINANCE), sUVTextureはUV(GL_LUMINANCE_ALPHA, 幅と高さは1/2)
+	 * %sでUVの取り出し方を指定する
+	 */
+	private static final String FRAGMENT_SHADER_YUV_SEMI_PLANAR_BASE = SHADER_VERSION +
+		"precision mediump float;\n" +
+		"varying highp vec2 vTextureCoord;\n" +
+		"uniform sampler2D sTexture;\n" +
+		"uniform sampler2D sUVTexture;\n" +
+		"uniform mat3 uYuvMatrix;\n" +
+		"uniform vec3 uYuvOffset;\n" +
+		"void main() {\n" +
+		"    float y = texture2D(sTexture, vTextureCoord).r;\n" +
+		"    vec2 uv = texture2D(sUVTexture, vTextureCoord).%s;\n" +
+		"    vec3 rgb = uYuvMatrix * (vec3(y, uv) - uYuvOffset);\n" +
+		"    gl_FragColor = vec4(clamp(rgb, 0.0, 1.0), 1.0);\n" +
+		"}\n";
+	/**
+	 * NV12(Yの後にUVがU,Vの順に並ぶ)
+	 */
+	public static final String FRAGMENT_SHADER_YUV_NV12
+		= String.format(FRAGMENT_SHADER_YUV_SEMI_PLANAR_BASE, "ra");
+	/**
+	 * NV21(Yの後にUVがV,Uの順に並ぶ)
+	 */
+	public static final String FRAGMENT_SHADER_YUV_NV21
+		= String.format(FRAGMENT_SHADER_YUV_SEMI_PLANAR_BASE, "ar");
+
+	/**
+	 * YUYV(Y0,U,Y1,V)を幅1/2のGL_RGBAテクスチャで受け取ってRGBへ変換するフラグメントシェーダー
+	 * 偶数/奇数ピクセルでY0/Y1を切り替えるのでテクスチャはGL_NEARESTにすること
+	 * uHalfWidthはテクスチャの幅(=映像の幅/2)
+	 */
+	public static final String FRAGMENT_SHADER_YUV_YUYV = SHADER_VERSION +
+		"precision mediump float;\n" +
+		"varying highp vec2 vTextureCoord;\n" +
+		"uniform sampler2D sTexture;\n" +
+		"uniform mat3 uYuvMatrix;\n" +
+		"uniform vec3 uYuvOffset;\n" +
+		"uniform highp float uHalfWidth;\n" +
+		"void main() {\n" +
+		"    vec4 yuyv = texture2D(sTexture, vTextureCoord);\n" +
+		"    float odd = step(0.5, fract(vTextureCoord.x * uHalfWidth));\n" +
+		"    float y = mix(yuyv.r, yuyv.b, odd);\n" +
+		"    vec3 rgb = uYuvMatrix * (vec3(y, yuyv.g, yuyv.a) - uYuvOffset);\n" +
+		"    gl_FragColor = vec4(clamp(rgb, 0.0, 1.0), 1.0);\n" +
+		"}\n";
+
 }
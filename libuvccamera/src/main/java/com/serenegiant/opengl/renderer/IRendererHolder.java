@@ -7,6 +7,8 @@ import androidx.annotation.NonNull;
 import android.net.Uri;
 import android.view.Surface;
 
+import java.nio.ByteBuffer;
+
 /**
  * Hold shared texture that receive camera frame and draw them to registered surface if needs
  */
@@ -133,4 +135,25 @@ public interface IRendererHolder {
      * Update all slave surface based on master surface immediately
      */
     void requestFrame();
+
+    /**
+     * Draw a raw YUV frame to all slave surfaces instead of the frames of the primary surface,
+     * the frame is converted to RGB by a shader. The frame is copied, so the buffer can be reused
+     * after this returns. Frames of the primary surface are drawn again when they arrive.
+     * Call from a single thread, e.g. IFrameCallback#onFrame.
+     *
+     * @param frame  the frame starts at the position of the buffer
+     * @param format one of GLYuvTexture.FORMAT_XXX
+     * @return false if the frame is too small for the format and size
+     */
+    boolean queueYuvFrame(@NonNull final ByteBuffer frame, final int format,
+                          final int width, final int height);
+
+    /**
+     * Set how raw YUV frames are converted to RGB
+     *
+     * @param colorSpace GLYuvDrawer2D.COLOR_SPACE_BT601 or GLYuvDrawer2D.COLOR_SPACE_BT709
+     * @param fullRange  true if Y/UV use [0-255], false for Y[16-235]/UV[16-240]
+     */
+    void setYuvColorSpace(final int colorSpace, final boolean fullRange);
 }
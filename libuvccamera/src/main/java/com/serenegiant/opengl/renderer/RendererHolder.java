@@ -21,9 +21,12 @@ import com.serenegiant.opengl.EGLBase;
 import com.serenegiant.opengl.EGLTask;
 import com.serenegiant.opengl.GLDrawer2D;
 import com.serenegiant.opengl.GLHelper;
+import com.serenegiant.opengl.GLYuvDrawer2D;
+import com.serenegiant.opengl.GLYuvTexture;
 import com.serenegiant.utils.UVCUtils;
 import com.serenegiant.uvccamera.BuildConfig;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.locks.Condition;
@@ -45,6 +48,7 @@ public class RendererHolder extends EGLTask implements IRendererHolder {
     protected static final int REQUEST_ADD_SLAVE_SURFACE = 4;
     protected static final int REQUEST_REMOVE_SLAVE_SURFACE = 5;
     protected static final int REQUEST_RECREATE_PRIMARY_SURFACE = 6;
+    protected static final int REQUEST_DRAW_YUV = 7;
     protected static final int REQUEST_CLEAR_SLAVE_SURFACE = 11;
     protected static final int REQUEST_CLEAR_SLAVE_SURFACE_ALL = 12;
     protected static final int REQUEST_REMOVE_SLAVE_SURFACE_ALL = 13;
@@ -77,6 +81,28 @@ public class RendererHolder extends EGLTask implements IRendererHolder {
     private int mMirrorMode = MirrorMode.MIRROR_NORMAL;
     private volatile boolean mIsFirstFrameRendered;
 
+    /**
+     * Raw YUV frame copied from the camera, waiting to be uploaded to {@link #mYuvTexture}
+     */
+    private static class YuvFrame {
+        ByteBuffer buffer;
+        int format;
+        int width;
+        int height;
+    }
+
+    private final Object mYuvSync = new Object();
+    // three frames so that neither the frame being uploaded nor the latest one is overwritten
+    private final YuvFrame[] mYuvFrames = {new YuvFrame(), new YuvFrame(), new YuvFrame()};
+    private YuvFrame mPendingYuvFrame;    // guarded by mYuvSync
+    private YuvFrame mUploadingYuvFrame;    // guarded by mYuvSync
+    private final GLYuvTexture mYuvTexture = new GLYuvTexture();
+    private GLYuvDrawer2D mYuvDrawer;
+    private volatile int mYuvColorSpace = GLYuvDrawer2D.COLOR_SPACE_BT601;
+    private volatile boolean mYuvFullRange;
+    // whether the latest frame drawn is a raw YUV frame instead of a frame of the primary surface
+    private volatile boolean mIsYuvFrame;
+
     protected final RendererHandler mRendererHandler;
 
     public RendererHolder(final int width, final int height,
@@ -372,6 +398,69 @@ public class RendererHolder extends EGLTask implements IRendererHolder {
         mRendererHandler.sendEmptyMessage(REQUEST_DRAW);
     }
 
+    @Override
+    public boolean queueYuvFrame(@NonNull final ByteBuffer frame, final int format,
+                                 final int width, final int height) {
+        final int bytes = GLYuvTexture.getFrameBytes(format, width, height);
+        if ((bytes == 0) || (frame.remaining() < bytes)) {
+            return false;
+        }
+        YuvFrame target = null;
+        synchronized (mYuvSync) {
+            for (final YuvFrame yuvFrame : mYuvFrames) {
+                if ((yuvFrame != mPendingYuvFrame) && (yuvFrame != mUploadingYuvFrame)) {
+                    target = yuvFrame;
+                    break;
+                }
+            }
+        }
+        // the renderer thread only touches the pending and uploading frames, so target is copied without lock
+        if ((target.buffer == null) || (target.buffer.capacity() < bytes)) {
+            target.buffer = ByteBuffer.allocateDirect(bytes);
+        }
+        final int position = frame.position();
+        final int limit = frame.limit();
+        target.buffer.clear();
+        frame.limit(position + bytes);
+        target.buffer.put(frame);
+        frame.limit(limit);
+        frame.position(position);
+        target.buffer.flip();
+        target.format = format;
+        target.width = width;
+        target.height = height;
+        synchronized (mYuvSync) {
+            // an older frame that is still pending is dropped
+            mPendingYuvFrame = target;
+        }
+        mRendererHandler.removeMessages(REQUEST_DRAW_YUV);
+        mRendererHandler.sendEmptyMessage(REQUEST_DRAW_YUV);
+        return true;
+    }
+
+    @Override
+    public void setYuvColorSpace(final int colorSpace, final boolean fullRange) {
+        mYuvColorSpace = colorSpace;
+        mYuvFullRange = fullRange;
+    }
+
+    /**
+     * @return true if the latest frame is a raw YUV frame, draw it with {@link #setupYuvDrawer}
+     * instead of drawing {@link #mTexId}
+     */
+    protected boolean isYuvFrame() {
+        return mIsYuvFrame;
+    }
+
+    /**
+     * Attach the textures of the latest raw YUV frame and the color space to a drawer,
+     * call on the renderer thread with the GL context of the drawer current
+     */
+    protected void setupYuvDrawer(@NonNull final GLYuvDrawer2D drawer) {
+        drawer.setColorSpace(mYuvColorSpace, mYuvFullRange);
+        drawer.setTexture(mYuvTexture);
+    }
+
     //--------------------------------------------------------------------------------
 
     /**
@@ -384,7 +473,7 @@ public class RendererHolder extends EGLTask implements IRendererHolder {
     protected void onDrawSlaveSurface(
             @NonNull final RendererSurface surface,
             final int texId, final float[] texMatrix, final float[] mvpMatrix) {
-        surface.draw(mDrawer, texId, texMatrix, mvpMatrix);
+        surface.draw(mIsYuvFrame ? mYuvDrawer : mDrawer, texId, texMatrix, mvpMatrix);
     }
 
     protected void onPrimarySurfaceCreate(Surface surface) {
@@ -436,6 +525,9 @@ public class RendererHolder extends EGLTask implements IRendererHolder {
                 case REQUEST_DRAW:
                     handleDraw();
                     break;
+                case REQUEST_DRAW_YUV:
+                    handleDrawYuv();
+                    break;
                 case REQUEST_UPDATE_SIZE:
                     handleUpdateSize(msg.arg1, msg.arg2);
                     break;
@@ -482,6 +574,11 @@ public class RendererHolder extends EGLTask implements IRendererHolder {
                 mDrawer.release();
                 mDrawer = null;
             }
+            if (mYuvDrawer != null) {
+                mYuvDrawer.release();
+                mYuvDrawer = null;
+            }
+            mYuvTexture.release();
 
             handleReleasePrimarySurface();
             handleRemoveSlaveSurfaceAll();
@@ -503,6 +600,7 @@ public class RendererHolder extends EGLTask implements IRendererHolder {
 //                        makeCurrent();
                     mPrimaryTexture.updateTexImage();
                     mPrimaryTexture.getTransformMatrix(mTexMatrix);
+                    mIsYuvFrame = false;
                 } catch (final Exception e) {
                     Log.e(TAG, "draw:thread id =" + Thread.currentThread().getId(), e);
                     sendEmptyMessage(REQUEST_RECREATE_PRIMARY_SURFACE);
@@ -516,6 +614,42 @@ public class RendererHolder extends EGLTask implements IRendererHolder {
             GLES20.glFlush();
         }
 
+        /**
+         * upload the latest raw YUV frame and draw it to each slave surface
+         */
+        protected void handleDrawYuv() {
+            final YuvFrame frame;
+            synchronized (mYuvSync) {
+                frame = mPendingYuvFrame;
+                mPendingYuvFrame = null;
+                mUploadingYuvFrame = frame;
+            }
+            if (frame == null) {
+                return;
+            }
+            makeCurrent();
+            final boolean uploaded = mYuvTexture.upload(frame.buffer, frame.format, frame.width, frame.height);
+            synchronized (mYuvSync) {
+                mUploadingYuvFrame = null;
+            }
+            if (!uploaded) {
+                return;
+            }
+            if (mYuvDrawer == null) {
+                mYuvDrawer = new GLYuvDrawer2D();
+            }
+            setupYuvDrawer(mYuvDrawer);
+            // the first row of the frame is at t=0, flip vertically like the transform of SurfaceTexture
+            Matrix.setIdentityM(mTexMatrix, 0);
+            mTexMatrix[5] = -1.0f;
+            mTexMatrix[13] = 1.0f;
+            mIsYuvFrame = true;
+            handleDrawSlaveSurfaces();
+            onFrameAvailable();
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            GLES20.glFlush();
+        }
+
         /**
          * handle drawing each slave surface
          */
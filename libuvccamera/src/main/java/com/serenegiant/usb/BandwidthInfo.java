@@ -0,0 +1,139 @@
+package com.serenegiant.usb;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * USB bandwidth that the negotiated stream of a camera reserves on its bus,
+ * see {@link UVCCamera#getBandwidthInfo()}.
+ * Isochronous bandwidth is reserved per (micro)frame by the alt-setting that libuvc selects
+ * when streaming starts, which is the smallest one whose packets can carry the payload
+ * of a (micro)frame (dwMaxPayloadTransferSize).
+ */
+public class BandwidthInfo {
+
+    /**
+     * speed of the device, same values as enum libusb_speed
+     */
+    public static final int SPEED_UNKNOWN = 0;
+    public static final int SPEED_LOW = 1;
+    public static final int SPEED_FULL = 2;
+    public static final int SPEED_HIGH = 3;
+    public static final int SPEED_SUPER = 4;
+    public static final int SPEED_SUPER_PLUS = 5;
+
+    private final int mBusNum;
+    private final boolean mIsochronous;
+    private final int mSpeed;
+    private final int mNegotiatedPayloadSize;
+    private final int mPayloadSize;
+    private final int mAltSetting;
+    private final int mReservedBytes;
+    private final boolean mStreaming;
+    private final int mMeasuredPayloadSize;
+    private final int[] mAltSettingBytes;
+
+    /**
+     * @param busNum bus number of the device, -1 if unknown
+     * @param values values from native side, see UVCPreview::getBandwidthInfo
+     */
+    BandwidthInfo(final int busNum, @NonNull final int[] values) {
+        mBusNum = busNum;
+        mIsochronous = values[0] != 0;
+        mSpeed = values[1];
+        mNegotiatedPayloadSize = values[2];
+        mPayloadSize = values[3];
+        mAltSetting = values[4];
+        mReservedBytes = values[5];
+        mStreaming = values[6] != 0;
+        mMeasuredPayloadSize = values[7];
+        mAltSettingBytes = Arrays.copyOfRange(values, 9, 9 + Math.min(values[8], values.length - 9));
+    }
+
+    /**
+     * @return bus number of the device, cameras on the same bus share its bandwidth
+     */
+    public int getBusNum() {
+        return mBusNum;
+    }
+
+    /**
+     * @return true if the stream uses isochronous transfers,
+     * bulk streams do not reserve bandwidth
+     */
+    public boolean isIsochronous() {
+        return mIsochronous;
+    }
+
+    /**
+     * @return one of SPEED_XXX
+     */
+    public int getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * @return dwMaxPayloadTransferSize that the device asked for the current mode
+     */
+    public int getNegotiatedPayloadSize() {
+        return mNegotiatedPayloadSize;
+    }
+
+    /**
+     * @return dwMaxPayloadTransferSize that is used to select the alt-setting,
+     * smaller than the negotiated one if it is limited by {@link UVCCamera#setMaxPayloadSize(int)}
+     */
+    public int getPayloadSize() {
+        return mPayloadSize;
+    }
+
+    /**
+     * @return index of the alt-setting that is selected, -1 if no alt-setting fits or bulk
+     */
+    public int getAltSetting() {
+        return mAltSetting;
+    }
+
+    /**
+     * @return bytes per (micro)frame that the selected alt-setting reserves, 0 if bulk
+     */
+    public int getReservedBytes() {
+        return mReservedBytes;
+    }
+
+    /**
+     * @return true if the camera is streaming now, otherwise the bandwidth is reserved
+     * when streaming starts next time
+     */
+    public boolean isStreaming() {
+        return mStreaming;
+    }
+
+    /**
+     * @return largest payload of a (micro)frame measured by calibration or taken from its cache,
+     * 0 if not known, see {@link UVCCamera#setPayloadCalibration(int, int)}
+     */
+    public int getMeasuredPayloadSize() {
+        return mMeasuredPayloadSize;
+    }
+
+    /**
+     * @return bytes per (micro)frame of each alt-setting of the streaming interface,
+     * empty if bulk
+     */
+    @NonNull
+    public int[] getAltSettingBytes() {
+        return mAltSettingBytes.clone();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "BandwidthInfo{bus=%d,speed=%d,iso=%b,payload=%d/%d,measured=%d,alt=%d,reserved=%d,streaming=%b,alts=%s}",
+                mBusNum, mSpeed, mIsochronous, mPayloadSize, mNegotiatedPayloadSize, mMeasuredPayloadSize,
+                mAltSetting, mReservedBytes, mStreaming, Arrays.toString(mAltSettingBytes));
+    }
+}
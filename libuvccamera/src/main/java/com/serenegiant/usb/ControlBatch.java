@@ -0,0 +1,130 @@
+package com.serenegiant.usb;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Control values to set by {@link UVCControl#apply(ControlBatch)} in a single JNI call.
+ * Controls are set in the order they were added, so add auto modes before the values they
+ * affect, e.g. {@link UVCControl#CONTROL_AE_MODE} before {@link UVCControl#CONTROL_EXPOSURE_TIME_ABSOLUTE}.
+ * The result of each control is available after it was applied.
+ */
+public final class ControlBatch {
+    private static final int INITIAL_CAPACITY = 16;
+
+    int[] mControls;
+    int[] mValues;
+    int[] mResults;
+    int mCount;
+
+    public ControlBatch() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public ControlBatch(final int capacity) {
+        final int n = Math.max(capacity, 1);
+        mControls = new int[n];
+        mValues = new int[n];
+        mResults = new int[n];
+    }
+
+    /**
+     * add a control to set, the value is replaced if the control was added already
+     *
+     * @param control one of UVCControl#CONTROL_XXX
+     * @param value   value of the control, 1/0 for auto modes and other on/off controls
+     * @return this instance to chain calls
+     */
+    @NonNull
+    public ControlBatch set(final int control, final int value) {
+        final int index = indexOf(control);
+        if (index >= 0) {
+            mValues[index] = value;
+            mResults[index] = 0;
+            return this;
+        }
+        if (mCount == mControls.length) {
+            final int n = mCount * 2;
+            mControls = Arrays.copyOf(mControls, n);
+            mValues = Arrays.copyOf(mValues, n);
+            mResults = Arrays.copyOf(mResults, n);
+        }
+        mControls[mCount] = control;
+        mValues[mCount] = value;
+        mResults[mCount] = 0;
+        mCount++;
+        return this;
+    }
+
+    @NonNull
+    public ControlBatch set(final int control, final boolean value) {
+        return set(control, value ? 1 : 0);
+    }
+
+    public void clear() {
+        mCount = 0;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public int getControl(final int index) {
+        return mControls[checkIndex(index)];
+    }
+
+    public int getValue(final int index) {
+        return mValues[checkIndex(index)];
+    }
+
+    /**
+     * @return 0 if the control was set, negative error code otherwise
+     */
+    public int getResult(final int index) {
+        return mResults[checkIndex(index)];
+    }
+
+    /**
+     * @return index of the control, -1 if it was not added
+     */
+    public int indexOf(final int control) {
+        for (int i = 0; i < mCount; i++) {
+            if (mControls[i] == control) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if all controls were set at the last apply
+     */
+    public boolean isSuccess() {
+        for (int i = 0; i < mCount; i++) {
+            if (mResults[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int checkIndex(final int index) {
+        if ((index < 0) || (index >= mCount)) {
+            throw new IndexOutOfBoundsException("index=" + index + ",size=" + mCount);
+        }
+        return index;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("ControlBatch{");
+        for (int i = 0; i < mCount; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(mControls[i]).append('=').append(mValues[i]);
+            if (mResults[i] != 0) sb.append('(').append(mResults[i]).append(')');
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,318 @@
+package com.serenegiant.usb;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.serenegiant.uvccamera.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Applies control values of a camera asynchronously on its own thread so that
+ * slider drags or remote control messages never block the caller with USB control transfers.
+ * Only the latest pending value of each control is applied, intermediate values that were
+ * replaced before they were sent are dropped, and each control is sent at most once
+ * in its minimum interval.
+ * Controls are independent of each other, so values of different controls
+ * may be applied in a different order than they were set.
+ */
+public final class ControlQueue {
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final String TAG = ControlQueue.class.getSimpleName();
+
+    /**
+     * default minimum interval of sending the same control, about a frame at 30fps
+     */
+    public static final long DEFAULT_MIN_INTERVAL_MS = 33;
+
+    public interface OnControlAppliedListener {
+        /**
+         * Called on the thread of the queue after a value was sent to the camera
+         *
+         * @param result 0 if the control was set, negative error code otherwise
+         */
+        void onControlApplied(int control, int value, int result);
+    }
+
+    private static final class Pending {
+        int value;
+        final List<Request> requests = new ArrayList<>();
+    }
+
+    private final Object mSync = new Object();
+    private final UVCControl mControl;
+    private final SparseArray<Pending> mPending = new SparseArray<>();
+    private final SparseLongArray mLastAppliedMs = new SparseLongArray();
+    private final SparseLongArray mMinIntervalMs = new SparseLongArray();
+    private long mDefaultMinIntervalMs = DEFAULT_MIN_INTERVAL_MS;
+    @Nullable
+    private OnControlAppliedListener mListener;
+    @Nullable
+    private HandlerThread mThread;
+    @Nullable
+    private Handler mHandler;
+    private boolean mReleased;
+
+    ControlQueue(@NonNull final UVCControl control) {
+        mControl = control;
+    }
+
+    /**
+     * Queues a control value, a pending value of the same control is replaced.
+     *
+     * @param control one of UVCControl#CONTROL_XXX
+     * @return future that completes with the result of the value that was actually sent,
+     * which is a later value of the same control if this one was replaced
+     */
+    @NonNull
+    public Future<Integer> set(final int control, final int value) {
+        final Request request = new Request();
+        synchronized (mSync) {
+            if (mReleased) {
+                request.cancel(false);
+                return request;
+            }
+            Pending pending = mPending.get(control);
+            if (pending == null) {
+                pending = new Pending();
+                mPending.put(control, pending);
+            }
+            pending.value = value;
+            pending.requests.add(request);
+            final Handler handler = getHandler();
+            if (!handler.hasMessages(control)) {
+                final long last = mLastAppliedMs.get(control, 0);
+                final long delay = last > 0
+                        ? last + getMinInterval(control) - SystemClock.uptimeMillis() : 0;
+                handler.sendEmptyMessageDelayed(control, Math.max(delay, 0));
+            }
+        }
+        return request;
+    }
+
+    @NonNull
+    public Future<Integer> set(final int control, final boolean value) {
+        return set(control, value ? 1 : 0);
+    }
+
+    /**
+     * Drops pending values of the controls and runs the task on the thread of the queue,
+     * for writes that a value queued before must not overwrite, e.g. resetting a control
+     * before its auto mode is enabled. The futures of the dropped values are cancelled.
+     *
+     * @param controls UVCControl#CONTROL_XXX that the task writes
+     */
+    public void execute(@NonNull final int[] controls, @NonNull final Runnable task) {
+        final List<Request> dropped = new ArrayList<>();
+        synchronized (mSync) {
+            if (mReleased) {
+                return;
+            }
+            for (final int control : controls) {
+                final Pending pending = mPending.get(control);
+                if (pending != null) {
+                    dropped.addAll(pending.requests);
+                    mPending.remove(control);
+                }
+            }
+            getHandler().post(() -> {
+                try {
+                    task.run();
+                } catch (final Exception e) {
+                    Log.w(TAG, e);
+                }
+            });
+        }
+        for (final Request request : dropped) {
+            request.cancel(false);
+        }
+    }
+
+    /**
+     * @param control     one of UVCControl#CONTROL_XXX
+     * @param intervalMs minimum interval of sending this control, 0 to send without delay
+     */
+    public void setMinInterval(final int control, final long intervalMs) {
+        synchronized (mSync) {
+            mMinIntervalMs.put(control, Math.max(intervalMs, 0));
+        }
+    }
+
+    /**
+     * @param intervalMs minimum interval of sending controls without their own interval
+     */
+    public void setDefaultMinInterval(final long intervalMs) {
+        synchronized (mSync) {
+            mDefaultMinIntervalMs = Math.max(intervalMs, 0);
+        }
+    }
+
+    public void setOnControlAppliedListener(@Nullable final OnControlAppliedListener listener) {
+        synchronized (mSync) {
+            mListener = listener;
+        }
+    }
+
+    /**
+     * @return true if a value of the control is waiting to be sent
+     */
+    public boolean isPending(final int control) {
+        synchronized (mSync) {
+            return mPending.get(control) != null;
+        }
+    }
+
+    /**
+     * drop all pending values and stop the thread, the futures of dropped values are cancelled
+     */
+    void release() {
+        final List<Request> dropped = new ArrayList<>();
+        synchronized (mSync) {
+            mReleased = true;
+            for (int i = 0; i < mPending.size(); i++) {
+                dropped.addAll(mPending.valueAt(i).requests);
+            }
+            mPending.clear();
+            if (mThread != null) {
+                mHandler.removeCallbacksAndMessages(null);
+                mThread.quitSafely();
+                mThread = null;
+                mHandler = null;
+            }
+        }
+        for (final Request request : dropped) {
+            request.cancel(false);
+        }
+    }
+
+    /**
+     * should be called with mSync locked
+     */
+    @NonNull
+    private Handler getHandler() {
+        if (mHandler == null) {
+            mThread = new HandlerThread(TAG);
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper(), mCallback);
+        }
+        return mHandler;
+    }
+
+    /**
+     * should be called with mSync locked
+     */
+    private long getMinInterval(final int control) {
+        return mMinIntervalMs.get(control, mDefaultMinIntervalMs);
+    }
+
+    private final Handler.Callback mCallback = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(@NonNull final Message msg) {
+            final int control = msg.what;
+            final Pending pending;
+            final OnControlAppliedListener listener;
+            synchronized (mSync) {
+                pending = mPending.get(control);
+                if (pending == null) {
+                    return true;
+                }
+                mPending.remove(control);
+                mLastAppliedMs.put(control, SystemClock.uptimeMillis());
+                listener = mListener;
+            }
+            final ControlBatch batch = new ControlBatch(1).set(control, pending.value);
+            mControl.apply(batch);
+            final int result = batch.getResult(0);
+            if (DEBUG && (result != 0)) Log.d(TAG, "control " + control + "=" + pending.value + ":err=" + result);
+            for (final Request request : pending.requests) {
+                request.complete(result);
+            }
+            if (listener != null) {
+                try {
+                    listener.onControlApplied(control, pending.value, result);
+                } catch (final Exception e) {
+                    Log.w(TAG, e);
+                }
+            }
+            return true;
+        }
+    };
+
+    private static final class Request implements Future<Integer> {
+        private boolean mDone;
+        private boolean mCancelled;
+        private int mResult;
+
+        synchronized void complete(final int result) {
+            if (!mDone) {
+                mResult = result;
+                mDone = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * the value may still be sent if it has been taken from the queue already
+         */
+        @Override
+        public synchronized boolean cancel(final boolean mayInterruptIfRunning) {
+            if (mDone) {
+                return false;
+            }
+            mCancelled = mDone = true;
+            notifyAll();
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return mDone;
+        }
+
+        @Override
+        public synchronized Integer get() throws InterruptedException {
+            while (!mDone) {
+                wait();
+            }
+            if (mCancelled) {
+                throw new CancellationException();
+            }
+            return mResult;
+        }
+
+        @Override
+        public synchronized Integer get(final long timeout, @NonNull final TimeUnit unit)
+                throws InterruptedException, TimeoutException {
+            final long deadline = SystemClock.uptimeMillis() + unit.toMillis(timeout);
+            while (!mDone) {
+                final long remaining = deadline - SystemClock.uptimeMillis();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                wait(remaining);
+            }
+            if (mCancelled) {
+                throw new CancellationException();
+            }
+            return mResult;
+        }
+    }
+}
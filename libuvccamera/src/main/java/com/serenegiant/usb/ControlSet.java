@@ -0,0 +1,130 @@
+package com.serenegiant.usb;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Controls to get by {@link UVCControl#read(ControlSet)} in a single JNI call.
+ * The value and the result of each control are available after it was read.
+ */
+public final class ControlSet {
+    private static final int INITIAL_CAPACITY = 16;
+
+    int[] mControls;
+    int[] mValues;
+    int[] mResults;
+    int mCount;
+
+    public ControlSet() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public ControlSet(final int capacity) {
+        final int n = Math.max(capacity, 1);
+        mControls = new int[n];
+        mValues = new int[n];
+        mResults = new int[n];
+    }
+
+    /**
+     * @param controls UVCControl#CONTROL_XXX
+     */
+    public ControlSet(@NonNull final int... controls) {
+        this(controls.length);
+        for (final int control : controls) {
+            add(control);
+        }
+    }
+
+    /**
+     * add a control to get, ignored if the control was added already
+     *
+     * @param control one of UVCControl#CONTROL_XXX
+     * @return this instance to chain calls
+     */
+    @NonNull
+    public ControlSet add(final int control) {
+        if (indexOf(control) >= 0) {
+            return this;
+        }
+        if (mCount == mControls.length) {
+            final int n = mCount * 2;
+            mControls = Arrays.copyOf(mControls, n);
+            mValues = Arrays.copyOf(mValues, n);
+            mResults = Arrays.copyOf(mResults, n);
+        }
+        mControls[mCount] = control;
+        mValues[mCount] = 0;
+        mResults[mCount] = UVCControl.CONTROL_RESULT_NOT_READ;
+        mCount++;
+        return this;
+    }
+
+    public void clear() {
+        mCount = 0;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public int getControl(final int index) {
+        if ((index < 0) || (index >= mCount)) {
+            throw new IndexOutOfBoundsException("index=" + index + ",size=" + mCount);
+        }
+        return mControls[index];
+    }
+
+    /**
+     * @return index of the control, -1 if it was not added
+     */
+    public int indexOf(final int control) {
+        for (int i = 0; i < mCount; i++) {
+            if (mControls[i] == control) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the control was read successfully
+     */
+    public boolean has(final int control) {
+        final int index = indexOf(control);
+        return (index >= 0) && (mResults[index] == 0);
+    }
+
+    /**
+     * @return value of the control, defaultValue if it was not read successfully
+     */
+    public int getValue(final int control, final int defaultValue) {
+        final int index = indexOf(control);
+        return (index >= 0) && (mResults[index] == 0) ? mValues[index] : defaultValue;
+    }
+
+    /**
+     * @return 0 if the control was read, negative error code otherwise
+     */
+    public int getResult(final int control) {
+        final int index = indexOf(control);
+        return index >= 0 ? mResults[index] : UVCControl.CONTROL_RESULT_NOT_READ;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("ControlSet{");
+        for (int i = 0; i < mCount; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(mControls[i]).append('=');
+            if (mResults[i] == 0) {
+                sb.append(mValues[i]);
+            } else {
+                sb.append('(').append(mResults[i]).append(')');
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,271 @@
+package com.serenegiant.usb;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.serenegiant.utils.UVCUtils;
+import com.serenegiant.uvccamera.BuildConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of the supported formats and control flags/limits of cameras seen before,
+ * keyed by vid/pid/bcdDevice/serial. An entry is used only while the raw USB descriptors
+ * of the device are unchanged, so a firmware update invalidates it without any USB traffic.
+ */
+final class DeviceCapabilityCache {
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final String TAG = DeviceCapabilityCache.class.getSimpleName();
+
+    private static final int MAGIC = 0x55564343;    // "UVCC"
+    /**
+     * should be incremented when the file layout or the order of control limits changes
+     */
+    private static final int VERSION = 1;
+    private static final String DIR_NAME = "uvc_capabilities";
+
+    static final class Entry {
+        @NonNull
+        final List<Format> formats;
+        final long cameraTerminalControls;
+        final long processingUnitControls;
+        @NonNull
+        final int[] controlLimits;
+
+        Entry(@NonNull final List<Format> formats,
+              final long cameraTerminalControls, final long processingUnitControls,
+              @NonNull final int[] controlLimits) {
+            this.formats = formats;
+            this.cameraTerminalControls = cameraTerminalControls;
+            this.processingUnitControls = processingUnitControls;
+            this.controlLimits = controlLimits;
+        }
+    }
+
+    private static DeviceCapabilityCache sInstance;
+
+    /**
+     * entries already read in this process and checksum of the descriptors they were read from
+     */
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private final Map<String, Long> mChecksums = new HashMap<>();
+
+    static synchronized DeviceCapabilityCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new DeviceCapabilityCache();
+        }
+        return sInstance;
+    }
+
+    private DeviceCapabilityCache() {
+    }
+
+    /**
+     * @return cached capabilities, null if this device is not cached or its descriptors changed
+     */
+    @Nullable
+    synchronized Entry get(@NonNull final USBMonitor.UsbControlBlock ctrlBlock,
+                           @Nullable final byte[] rawDescriptors) {
+        if (rawDescriptors == null) {
+            return null;
+        }
+        final String key = getKey(ctrlBlock);
+        final long checksum = checksum(rawDescriptors);
+        final Long cachedChecksum = mChecksums.get(key);
+        if (cachedChecksum != null) {
+            return cachedChecksum == checksum ? mEntries.get(key) : null;
+        }
+        final File file = getFile(key);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        try (final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            final long fileChecksum = in.readLong();
+            final Entry entry = readEntry(in);
+            mEntries.put(key, entry);
+            mChecksums.put(key, fileChecksum);
+            if (fileChecksum != checksum) {
+                if (DEBUG) Log.d(TAG, "descriptors changed:" + key);
+                return null;
+            }
+            return entry;
+        } catch (final IOException | RuntimeException e) {
+            Log.w(TAG, "failed to read " + file, e);
+            file.delete();
+        }
+        return null;
+    }
+
+    synchronized void put(@NonNull final USBMonitor.UsbControlBlock ctrlBlock,
+                          @Nullable final byte[] rawDescriptors, @NonNull final Entry entry) {
+        if (rawDescriptors == null) {
+            return;
+        }
+        final String key = getKey(ctrlBlock);
+        final long checksum = checksum(rawDescriptors);
+        mEntries.put(key, entry);
+        mChecksums.put(key, checksum);
+        final File file = getFile(key);
+        if (file == null) {
+            return;
+        }
+        // write into a temporary file and rename so that a crash never leaves a broken entry
+        final File temp = new File(file.getPath() + ".tmp");
+        try (final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeLong(checksum);
+            writeEntry(out, entry);
+        } catch (final IOException e) {
+            Log.w(TAG, "failed to write " + file, e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+
+    /**
+     * remove all cached entries, e.g. to re-probe cameras after a library update
+     */
+    synchronized void clear() {
+        mEntries.clear();
+        mChecksums.clear();
+        final File dir = getDir();
+        final File[] files = dir != null ? dir.listFiles() : null;
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return file name safe key of the device, also used by {@link PayloadCalibrationCache}
+     */
+    @NonNull
+    static String getKey(@NonNull final USBMonitor.UsbControlBlock ctrlBlock) {
+        final String serial = ctrlBlock.getSerial();
+        final String version = ctrlBlock.getVersion();
+        final String key = String.format(Locale.US, "%04x_%04x_%s_%s",
+                ctrlBlock.getVendorId(), ctrlBlock.getProductId(),
+                TextUtils.isEmpty(version) ? "0" : version,
+                TextUtils.isEmpty(serial) ? "0" : serial);
+        // serial number is an arbitrary string
+        return key.replaceAll("[^0-9A-Za-z_.-]", "_");
+    }
+
+    private static long checksum(@NonNull final byte[] rawDescriptors) {
+        final CRC32 crc = new CRC32();
+        crc.update(rawDescriptors);
+        return (crc.getValue() << 32) | rawDescriptors.length;
+    }
+
+    @Nullable
+    private static File getDir() {
+        final Context context = UVCUtils.getApplication();
+        if (context == null) {
+            return null;
+        }
+        final File dir = new File(context.getCacheDir(), DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return null;
+        }
+        return dir;
+    }
+
+    @Nullable
+    private static File getFile(@NonNull final String key) {
+        final File dir = getDir();
+        return dir != null ? new File(dir, key + ".bin") : null;
+    }
+
+    private static void writeEntry(@NonNull final DataOutputStream out,
+                                   @NonNull final Entry entry) throws IOException {
+        out.writeInt(entry.formats.size());
+        for (final Format format : entry.formats) {
+            out.writeInt(format.index);
+            out.writeInt(format.type);
+            out.writeInt(format.frameDescriptors.size());
+            for (final Format.Descriptor descriptor : format.frameDescriptors) {
+                out.writeInt(descriptor.index);
+                out.writeInt(descriptor.type);
+                out.writeInt(descriptor.width);
+                out.writeInt(descriptor.height);
+                out.writeInt(descriptor.fps);
+                out.writeInt(descriptor.frameInterval);
+                out.writeInt(descriptor.intervals.size());
+                for (final Format.Interval interval : descriptor.intervals) {
+                    out.writeInt(interval.index);
+                    out.writeInt(interval.value);
+                    out.writeInt(interval.fps);
+                }
+            }
+        }
+        out.writeLong(entry.cameraTerminalControls);
+        out.writeLong(entry.processingUnitControls);
+        out.writeInt(entry.controlLimits.length);
+        for (final int limit : entry.controlLimits) {
+            out.writeInt(limit);
+        }
+    }
+
+    @NonNull
+    private static Entry readEntry(@NonNull final DataInputStream in) throws IOException {
+        final int formatCount = in.readInt();
+        final List<Format> formats = new ArrayList<>(formatCount);
+        for (int i = 0; i < formatCount; i++) {
+            final int index = in.readInt();
+            final int type = in.readInt();
+            final int descriptorCount = in.readInt();
+            final List<Format.Descriptor> descriptors = new ArrayList<>(descriptorCount);
+            for (int j = 0; j < descriptorCount; j++) {
+                final int descIndex = in.readInt();
+                final int descType = in.readInt();
+                final int width = in.readInt();
+                final int height = in.readInt();
+                final int fps = in.readInt();
+                final int frameInterval = in.readInt();
+                final int intervalCount = in.readInt();
+                final List<Format.Interval> intervals = new ArrayList<>(intervalCount);
+                for (int k = 0; k < intervalCount; k++) {
+                    intervals.add(new Format.Interval(in.readInt(), in.readInt(), in.readInt()));
+                }
+                descriptors.add(new Format.Descriptor(descIndex, descType, width, height,
+                        fps, frameInterval, intervals));
+            }
+            formats.add(new Format(index, type, descriptors));
+        }
+        final long cameraTerminalControls = in.readLong();
+        final long processingUnitControls = in.readLong();
+        final int[] limits = new int[in.readInt()];
+        for (int i = 0; i < limits.length; i++) {
+            limits[i] = in.readInt();
+        }
+        return new Entry(formats, cameraTerminalControls, processingUnitControls, limits);
+    }
+}
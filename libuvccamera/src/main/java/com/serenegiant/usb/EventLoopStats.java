@@ -0,0 +1,81 @@
+package com.serenegiant.usb;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Statistics of the USB event thread that is shared by all open cameras,
+ * see {@link UVCCamera#getEventLoopStats()}.
+ * All values are counted since the event thread started with the first open camera,
+ * so the difference of two snapshots gives the load in that period.
+ */
+public class EventLoopStats {
+
+    private final int mOpenCameras;
+    private final long mWakeups;
+    private final long mCpuTimeNs;
+    private final long mWallTimeNs;
+
+    EventLoopStats(final int openCameras, final long wakeups,
+                   final long cpuTimeNs, final long wallTimeNs) {
+        mOpenCameras = openCameras;
+        mWakeups = wakeups;
+        mCpuTimeNs = cpuTimeNs;
+        mWallTimeNs = wallTimeNs;
+    }
+
+    /**
+     * @return number of cameras served by the event thread, 0 if it is not running
+     */
+    public int getOpenCameras() {
+        return mOpenCameras;
+    }
+
+    /**
+     * @return number of times the event thread woke up to handle USB transfers
+     */
+    public long getWakeups() {
+        return mWakeups;
+    }
+
+    /**
+     * @return cpu time used by the event thread in nanoseconds
+     */
+    public long getCpuTimeNs() {
+        return mCpuTimeNs;
+    }
+
+    /**
+     * @return time since the event thread started in nanoseconds
+     */
+    public long getWallTimeNs() {
+        return mWallTimeNs;
+    }
+
+    /**
+     * @return ratio of cpu time to wall time of the event thread, 0-1
+     */
+    public float getUtilization() {
+        return mWallTimeNs > 0 ? (float) mCpuTimeNs / mWallTimeNs : 0.0f;
+    }
+
+    /**
+     * @param previous snapshot taken earlier by the same event thread
+     * @return ratio of cpu time to wall time of the event thread since previous, 0-1
+     */
+    public float getUtilizationSince(@NonNull final EventLoopStats previous) {
+        final long wall = mWallTimeNs - previous.mWallTimeNs;
+        final long cpu = mCpuTimeNs - previous.mCpuTimeNs;
+        return (wall > 0) && (cpu >= 0) ? (float) cpu / wall : getUtilization();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "EventLoopStats{cameras=%d,wakeups=%d,cpu=%dms,wall=%dms,utilization=%.3f}",
+                mOpenCameras, mWakeups, mCpuTimeNs / 1000000, mWallTimeNs / 1000000,
+                getUtilization());
+    }
+}
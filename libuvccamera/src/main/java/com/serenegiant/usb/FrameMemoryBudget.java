@@ -0,0 +1,202 @@
+package com.serenegiant.usb;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Process-wide budget of frame memory shared by all cameras and other frame consumers.
+ * <p>
+ * Frame pools of the cameras charge their frames against the budget before they allocate them,
+ * and a frame that does not fit is dropped instead of being allocated.
+ * When the usage exceeds 90% of the limit, the consumer with the lowest priority that holds memory
+ * is degraded one level: half frame rate, quarter frame rate, and then
+ * {@link #LEVEL_REDUCE_RESOLUTION}, which asks its owner to lower the resolution.
+ * Degraded consumers are restored one level at a time while the usage stays below 70%.
+ * <p>
+ * Frame consumers in Java, e.g. buffers of frame callbacks, can take part with {@link Consumer}.
+ */
+public final class FrameMemoryBudget {
+
+    public static final int LEVEL_NORMAL = 0;
+    public static final int LEVEL_HALF_RATE = 1;
+    public static final int LEVEL_QUARTER_RATE = 2;
+    /**
+     * frame rate is still a quarter, the owner should also switch to a smaller resolution
+     */
+    public static final int LEVEL_REDUCE_RESOLUTION = 3;
+
+    /**
+     * priority of cameras unless set, larger value is more important
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private FrameMemoryBudget() {
+    }
+
+    /**
+     * @param bytes limit of frame memory of all consumers, 0 for unlimited,
+     *              which also restores all degraded consumers
+     */
+    public static void setLimit(final long bytes) {
+        UVCCamera.nativeSetFrameMemoryLimit(Math.max(0, bytes));
+    }
+
+    /**
+     * @return limit of frame memory in bytes, 0 if unlimited
+     */
+    public static long getLimit() {
+        return getTotal(0);
+    }
+
+    /**
+     * @return frame memory all consumers use now in bytes
+     */
+    public static long getUsedBytes() {
+        return getTotal(1);
+    }
+
+    /**
+     * @return highest usage of all consumers in bytes since the last {@link #resetHighWaterMarks()}
+     */
+    public static long getHighWaterBytes() {
+        return getTotal(2);
+    }
+
+    /**
+     * Reset high-water marks of the budget and all consumers to their current usage
+     */
+    public static void resetHighWaterMarks() {
+        UVCCamera.nativeResetFrameMemoryHighWater();
+    }
+
+    private static long getTotal(final int index) {
+        final long[] values = UVCCamera.nativeGetFrameMemoryTotals();
+        return (values != null) && (values.length > index) ? values[index] : 0;
+    }
+
+    /**
+     * Usage of a consumer, see {@link UVCCamera#getFrameMemoryStats()}
+     */
+    public static class Stats {
+        private final int mPriority;
+        private final int mLevel;
+        private final long mUsedBytes;
+        private final long mHighWaterBytes;
+        private final long mDroppedFrames;
+        private final long mRejectedAllocations;
+
+        Stats(@NonNull final long[] values) {
+            mPriority = values.length > 0 ? (int) values[0] : DEFAULT_PRIORITY;
+            mLevel = values.length > 1 ? (int) values[1] : LEVEL_NORMAL;
+            mUsedBytes = values.length > 2 ? values[2] : 0;
+            mHighWaterBytes = values.length > 3 ? values[3] : 0;
+            mDroppedFrames = values.length > 4 ? values[4] : 0;
+            mRejectedAllocations = values.length > 5 ? values[5] : 0;
+        }
+
+        public int getPriority() {
+            return mPriority;
+        }
+
+        /**
+         * @return one of LEVEL_XXX
+         */
+        public int getLevel() {
+            return mLevel;
+        }
+
+        public long getUsedBytes() {
+            return mUsedBytes;
+        }
+
+        /**
+         * @return highest usage since the consumer was created or {@link #resetHighWaterMarks()}
+         */
+        public long getHighWaterBytes() {
+            return mHighWaterBytes;
+        }
+
+        /**
+         * @return number of frames dropped to lower the frame rate
+         */
+        public long getDroppedFrames() {
+            return mDroppedFrames;
+        }
+
+        /**
+         * @return number of allocations refused because the budget was exhausted
+         */
+        public long getRejectedAllocations() {
+            return mRejectedAllocations;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "FrameMemoryBudget.Stats{priority=%d,level=%d,used=%d,highWater=%d,dropped=%d,rejected=%d}",
+                    mPriority, mLevel, mUsedBytes, mHighWaterBytes, mDroppedFrames, mRejectedAllocations);
+        }
+    }
+
+    /**
+     * Share of the budget for frame memory that is allocated in Java,
+     * e.g. direct buffers that frame callbacks copy frames into.
+     * Reserve before allocating and release after the buffer is dropped.
+     */
+    public static class Consumer {
+        private long mNativePtr;
+
+        /**
+         * @param priority larger value is more important, less important consumers are degraded first
+         */
+        public Consumer(final int priority) {
+            mNativePtr = UVCCamera.nativeCreateFrameMemoryConsumer(priority);
+        }
+
+        /**
+         * @return false if the bytes do not fit into the budget and should not be allocated
+         */
+        public synchronized boolean tryReserve(final long bytes) {
+            return mNativePtr != 0 && UVCCamera.nativeChargeFrameMemory(mNativePtr, bytes);
+        }
+
+        public synchronized void release(final long bytes) {
+            if (mNativePtr != 0) {
+                UVCCamera.nativeDischargeFrameMemory(mNativePtr, bytes);
+            }
+        }
+
+        /**
+         * call for each incoming frame before copying it
+         *
+         * @return true if the frame should be dropped to lower the frame rate
+         */
+        public synchronized boolean shouldDropFrame() {
+            return mNativePtr != 0 && UVCCamera.nativeShouldDropFrame(mNativePtr);
+        }
+
+        public synchronized void setPriority(final int priority) {
+            if (mNativePtr != 0) {
+                UVCCamera.nativeSetFrameMemoryPriority(mNativePtr, priority);
+            }
+        }
+
+        @NonNull
+        public synchronized Stats getStats() {
+            final long[] values = mNativePtr != 0 ? UVCCamera.nativeGetFrameMemoryStats(mNativePtr) : null;
+            return new Stats(values != null ? values : new long[0]);
+        }
+
+        /**
+         * Leave the budget, bytes that are still reserved are returned to it
+         */
+        public synchronized void close() {
+            if (mNativePtr != 0) {
+                UVCCamera.nativeReleaseFrameMemoryConsumer(mNativePtr);
+                mNativePtr = 0;
+            }
+        }
+    }
+}
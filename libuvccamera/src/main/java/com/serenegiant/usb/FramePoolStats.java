@@ -0,0 +1,114 @@
+package com.serenegiant.usb;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Counters of the native frame pools of a camera, see {@link UVCCamera#getFramePoolStats()}.
+ * <p>
+ * Frames are pooled by size class so that raw, preview and callback frames do not reallocate
+ * each other's buffers. A healthy stream has hits for almost every frame
+ * and reallocations stop once the classes have settled after the stream starts.
+ */
+public final class FramePoolStats {
+
+    /**
+     * frames as they arrive from the camera
+     */
+    public static final int POOL_RAW = 0;
+    /**
+     * RGBX frames for the preview and capture surfaces
+     */
+    public static final int POOL_PREVIEW = 1;
+    /**
+     * frames converted for {@link IFrameCallback}
+     */
+    public static final int POOL_CALLBACK = 2;
+    public static final int NUM_POOLS = 3;
+
+    private static final int NUM_VALUES = 7;
+
+    private final long[] mValues;
+
+    FramePoolStats(@NonNull final long[] values) {
+        mValues = values;
+    }
+
+    private long get(final int pool, final int index) {
+        final int i = pool * NUM_VALUES + index;
+        return (pool >= 0) && (pool < NUM_POOLS) && (i < mValues.length) ? mValues[i] : 0;
+    }
+
+    /**
+     * @param pool one of POOL_XXX
+     * @return number of frames taken from the pool
+     */
+    public long getHits(final int pool) {
+        return get(pool, 0);
+    }
+
+    /**
+     * @param pool one of POOL_XXX
+     * @return number of frames allocated because the pool was empty
+     */
+    public long getMisses(final int pool) {
+        return get(pool, 1);
+    }
+
+    /**
+     * @param pool one of POOL_XXX
+     * @return number of frames dropped because they were too small for the size class
+     * or had to be reallocated by a conversion
+     */
+    public long getReallocations(final int pool) {
+        return get(pool, 2);
+    }
+
+    /**
+     * @param pool one of POOL_XXX
+     * @return size in bytes of the frames the pool allocates now, 0 if not known yet
+     */
+    public long getClassBytes(final int pool) {
+        return get(pool, 3);
+    }
+
+    /**
+     * @param pool one of POOL_XXX
+     * @return number of frames of the pool that are alive, pooled or in use
+     */
+    public int getAllocatedFrames(final int pool) {
+        return (int) get(pool, 4);
+    }
+
+    /**
+     * @param pool one of POOL_XXX
+     */
+    public long getAllocatedBytes(final int pool) {
+        return get(pool, 5);
+    }
+
+    /**
+     * @param pool one of POOL_XXX
+     * @return highest allocated bytes since the camera was opened
+     */
+    public long getPeakBytes(final int pool) {
+        return get(pool, 6);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("FramePoolStats{");
+        for (int i = 0; i < NUM_POOLS; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(String.format(Locale.US,
+                    "[%d]hits=%d,misses=%d,realloc=%d,class=%d,frames=%d,bytes=%d,peak=%d",
+                    i, getHits(i), getMisses(i), getReallocations(i), getClassBytes(i),
+                    getAllocatedFrames(i), getAllocatedBytes(i), getPeakBytes(i)));
+        }
+        return sb.append('}').toString();
+    }
+}
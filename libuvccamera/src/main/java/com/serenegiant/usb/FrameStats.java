@@ -0,0 +1,124 @@
+package com.serenegiant.usb;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Luma statistics of a frame, computed natively on a subsampled grid
+ * (at most 160x90 samples) of the frame before any pixel format conversion.
+ * Luma of YUV frames is taken as is, RGB frames use BT.601 weights.
+ */
+public class FrameStats {
+
+    /**
+     * Samples at or below this level are counted as clipped to black
+     */
+    public static final int CLIP_LOW_LEVEL = 4;
+    /**
+     * Samples at or above this level are counted as clipped to white
+     */
+    public static final int CLIP_HIGH_LEVEL = 251;
+
+    private final long mCaptureTimeUs;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mSampleCount;
+    private final float mMean;
+    private final float mLowClipRatio;
+    private final float mHighClipRatio;
+    private final int[] mHistogram;
+
+    /**
+     * called from native code
+     */
+    FrameStats(final long captureTimeUs, final int width, final int height, final int sampleCount,
+               final float mean, final float lowClipRatio, final float highClipRatio,
+               @NonNull final int[] histogram) {
+        mCaptureTimeUs = captureTimeUs;
+        mWidth = width;
+        mHeight = height;
+        mSampleCount = sampleCount;
+        mMean = mean;
+        mLowClipRatio = lowClipRatio;
+        mHighClipRatio = highClipRatio;
+        mHistogram = histogram;
+    }
+
+    /**
+     * @return capture time of the source frame in microseconds
+     */
+    public long getCaptureTimeUs() {
+        return mCaptureTimeUs;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return number of luma samples, sum of all histogram bins
+     */
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * @return mean luma, 0-255
+     */
+    public float getMean() {
+        return mMean;
+    }
+
+    /**
+     * @return ratio of samples at or below {@link #CLIP_LOW_LEVEL}, 0-1
+     */
+    public float getLowClipRatio() {
+        return mLowClipRatio;
+    }
+
+    /**
+     * @return ratio of samples at or above {@link #CLIP_HIGH_LEVEL}, 0-1
+     */
+    public float getHighClipRatio() {
+        return mHighClipRatio;
+    }
+
+    /**
+     * @return 256 bins of luma histogram, the caller must not modify it
+     */
+    @NonNull
+    public int[] getHistogram() {
+        return mHistogram;
+    }
+
+    /**
+     * @param percent 0-100
+     * @return the lowest luma level at or below which the given percent of samples fall
+     */
+    public int getPercentile(final float percent) {
+        final int target = (int) Math.ceil(mSampleCount * Math.max(0f, Math.min(100f, percent)) / 100f);
+        int count = 0;
+        for (int i = 0; i < mHistogram.length; i++) {
+            count += mHistogram[i];
+            if (count >= target) {
+                return i;
+            }
+        }
+        return mHistogram.length - 1;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "FrameStats{" +
+                "captureTimeUs=" + mCaptureTimeUs +
+                ", size=" + mWidth + "x" + mHeight +
+                ", mean=" + mMean +
+                ", lowClip=" + mLowClipRatio +
+                ", highClip=" + mHighClipRatio +
+                '}';
+    }
+}
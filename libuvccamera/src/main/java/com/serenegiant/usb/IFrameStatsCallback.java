@@ -0,0 +1,17 @@
+package com.serenegiant.usb;
+
+/**
+ * Callback interface for the luma statistics of UVCCamera
+ *
+ * @see UVCCamera#setFrameStatsCallback(IFrameStatsCallback, int)
+ */
+public interface IFrameStatsCallback {
+    /**
+     * This method is called from native library via JNI on the capture thread
+     * at most the max rate that was passed to UVCCamera#setFrameStatsCallback.
+     * Do not block here, frames are not delivered to IFrameCallback while this method runs.
+     *
+     * @param stats statistics of the latest frame, this instance is not reused by the library
+     */
+    void onFrameStats(FrameStats stats);
+}
@@ -0,0 +1,21 @@
+package com.serenegiant.usb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callback interface for the output of MosaicCompositor
+ *
+ * @see MosaicCompositor
+ */
+public interface IMosaicCallback {
+    /**
+     * This method is called from native library via JNI on the output thread of the compositor
+     * once per tick of its frame rate.
+     * The same buffer is overwritten on the next tick, so copy or consume it before returning.
+     * Ticks that pass while this method runs are skipped.
+     *
+     * @param frame       the composited frame in the pixel format of the compositor
+     * @param timestampNs tick time in nanoseconds, same clock as {@link System#nanoTime()}
+     */
+    void onMosaicFrame(ByteBuffer frame, long timestampNs);
+}
@@ -0,0 +1,23 @@
+package com.serenegiant.usb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callback interface for the inference tap of UVCCamera
+ *
+ * @see UVCCamera#setInferenceTap(InferenceTapConfig, ByteBuffer, ITensorCallback)
+ */
+public interface ITensorCallback {
+    /**
+     * This method is called from native library via JNI on the capture thread
+     * after the tensor buffer has been filled with the latest frame.
+     * The same buffer is overwritten by the next tensor, so copy or consume it before returning.
+     * Frames arriving while this method runs are not queued for the tap.
+     *
+     * @param tensor        the direct ByteBuffer that was passed to UVCCamera#setInferenceTap.
+     *                      Float tensors are written in native byte order, so set
+     *                      {@link java.nio.ByteOrder#nativeOrder()} before reading it as a FloatBuffer.
+     * @param captureTimeUs capture time of the source frame in microseconds
+     */
+    void onTensor(ByteBuffer tensor, long captureTimeUs);
+}
@@ -0,0 +1,218 @@
+package com.serenegiant.usb;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Configuration of the inference tap, which converts camera frames natively
+ * into a model input tensor of fixed size.
+ */
+public class InferenceTapConfig implements Cloneable {
+
+    /**
+     * Scale the whole frame to the tensor size, ignoring aspect ratio
+     */
+    public static final int SCALE_MODE_STRETCH = 0;
+    /**
+     * Keep aspect ratio and fill the borders with the pad value
+     */
+    public static final int SCALE_MODE_LETTERBOX = 1;
+    /**
+     * Keep aspect ratio and crop the center of the frame
+     */
+    public static final int SCALE_MODE_CROP = 2;
+
+    public static final int CHANNEL_ORDER_RGB = 0;
+    public static final int CHANNEL_ORDER_BGR = 1;
+
+    /**
+     * One unsigned byte per element, normalization is not applied
+     */
+    public static final int DATA_TYPE_UINT8 = 0;
+    /**
+     * One float per element, (value * scale - mean) / std
+     */
+    public static final int DATA_TYPE_FLOAT32 = 1;
+
+    public static final int LAYOUT_NHWC = 0;
+    public static final int LAYOUT_NCHW = 1;
+
+    private int width;
+    private int height;
+    private int scaleMode = SCALE_MODE_STRETCH;
+    private int channelOrder = CHANNEL_ORDER_RGB;
+    private int dataType = DATA_TYPE_UINT8;
+    private int layout = LAYOUT_NHWC;
+    private float[] mean = {0f, 0f, 0f};
+    private float[] std = {1f, 1f, 1f};
+    private float scale = 1f / 255f;
+    private int padValue = 0;
+    private int maxFps = 0;
+
+    public InferenceTapConfig(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public InferenceTapConfig setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    public int getScaleMode() {
+        return scaleMode;
+    }
+
+    /**
+     * @param scaleMode {@link #SCALE_MODE_STRETCH}, {@link #SCALE_MODE_LETTERBOX} or {@link #SCALE_MODE_CROP}
+     */
+    public InferenceTapConfig setScaleMode(int scaleMode) {
+        this.scaleMode = scaleMode;
+        return this;
+    }
+
+    public int getChannelOrder() {
+        return channelOrder;
+    }
+
+    /**
+     * @param channelOrder {@link #CHANNEL_ORDER_RGB} or {@link #CHANNEL_ORDER_BGR}
+     */
+    public InferenceTapConfig setChannelOrder(int channelOrder) {
+        this.channelOrder = channelOrder;
+        return this;
+    }
+
+    public int getDataType() {
+        return dataType;
+    }
+
+    /**
+     * @param dataType {@link #DATA_TYPE_UINT8} or {@link #DATA_TYPE_FLOAT32}
+     */
+    public InferenceTapConfig setDataType(int dataType) {
+        this.dataType = dataType;
+        return this;
+    }
+
+    public int getLayout() {
+        return layout;
+    }
+
+    /**
+     * @param layout {@link #LAYOUT_NHWC} or {@link #LAYOUT_NCHW}
+     */
+    public InferenceTapConfig setLayout(int layout) {
+        this.layout = layout;
+        return this;
+    }
+
+    public float[] getMean() {
+        return mean.clone();
+    }
+
+    public float[] getStd() {
+        return std.clone();
+    }
+
+    /**
+     * Per channel normalization for {@link #DATA_TYPE_FLOAT32}, in tensor channel order
+     *
+     * @param mean 3 values subtracted after scaling
+     * @param std  3 values the result is divided by
+     */
+    public InferenceTapConfig setNormalization(@NonNull float[] mean, @NonNull float[] std) {
+        if (mean.length != 3 || std.length != 3) {
+            throw new IllegalArgumentException("mean and std must have 3 elements");
+        }
+        this.mean = mean.clone();
+        this.std = std.clone();
+        return this;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * @param scale multiplier applied to 0-255 value before mean/std, default is 1/255
+     */
+    public InferenceTapConfig setScale(float scale) {
+        this.scale = scale;
+        return this;
+    }
+
+    public int getPadValue() {
+        return padValue;
+    }
+
+    /**
+     * @param padValue 0-255, value of letterbox borders before normalization
+     */
+    public InferenceTapConfig setPadValue(int padValue) {
+        this.padValue = padValue;
+        return this;
+    }
+
+    public int getMaxFps() {
+        return maxFps;
+    }
+
+    /**
+     * @param maxFps maximum tensor rate, frames over this rate are skipped before conversion.
+     *               0 means every frame.
+     */
+    public InferenceTapConfig setMaxFps(int maxFps) {
+        this.maxFps = maxFps;
+        return this;
+    }
+
+    /**
+     * @return required capacity of the tensor buffer in bytes
+     */
+    public int getTensorBytes() {
+        final int elements = width * height * 3;
+        return dataType == DATA_TYPE_FLOAT32 ? elements * 4 : elements;
+    }
+
+    @NonNull
+    @Override
+    public InferenceTapConfig clone() {
+        try {
+            final InferenceTapConfig result = (InferenceTapConfig) super.clone();
+            result.mean = mean.clone();
+            result.std = std.clone();
+            return result;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "InferenceTapConfig{" +
+                "width=" + width +
+                ", height=" + height +
+                ", scaleMode=" + scaleMode +
+                ", channelOrder=" + channelOrder +
+                ", dataType=" + dataType +
+                ", layout=" + layout +
+                ", mean=" + Arrays.toString(mean) +
+                ", std=" + Arrays.toString(std) +
+                ", scale=" + scale +
+                ", padValue=" + padValue +
+                ", maxFps=" + maxFps +
+                '}';
+    }
+}
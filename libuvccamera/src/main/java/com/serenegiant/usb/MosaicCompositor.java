@@ -0,0 +1,189 @@
+package com.serenegiant.usb;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Native sink that composites several cameras into one frame of columns x rows tiles,
+ * see {@link UVCCamera#setMosaicTile(MosaicCompositor, int)}.
+ * Capture threads of the attached cameras scale their frames straight into their tiles
+ * with libyuv, and the composited frame is emitted at a fixed frame rate,
+ * so a tile repeats the latest frame of its camera when the camera is late.
+ * Tiles are stretched to the tile size, tiles without camera stay black.
+ */
+public class MosaicCompositor {
+
+    public static final int MAX_TILES = 16;
+
+    /**
+     * Statistics of the compositor since it was created
+     */
+    public static class Stats {
+        private final long mEmittedFrames;
+        private final long mMissedTicks;
+        private final long[] mTileUpdates;
+        private final long[] mTileRepeats;
+
+        Stats(@NonNull final long[] values, final int tiles) {
+            mEmittedFrames = values.length > 0 ? values[0] : 0;
+            mMissedTicks = values.length > 1 ? values[1] : 0;
+            mTileUpdates = new long[tiles];
+            mTileRepeats = new long[tiles];
+            for (int i = 0; i < tiles && 3 + i * 2 < values.length; i++) {
+                mTileUpdates[i] = values[2 + i * 2];
+                mTileRepeats[i] = values[3 + i * 2];
+            }
+        }
+
+        public long getEmittedFrames() {
+            return mEmittedFrames;
+        }
+
+        /**
+         * @return number of ticks skipped because {@link IMosaicCallback#onMosaicFrame} took too long
+         */
+        public long getMissedTicks() {
+            return mMissedTicks;
+        }
+
+        /**
+         * @return number of frames written into the tile
+         */
+        public long getTileUpdates(final int index) {
+            return mTileUpdates[index];
+        }
+
+        /**
+         * @return number of emitted frames that repeated the previous frame of the tile
+         * because its camera was late
+         */
+        public long getTileRepeats(final int index) {
+            return mTileRepeats[index];
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                    "MosaicStats{emitted=%d,missed=%d", mEmittedFrames, mMissedTicks));
+            for (int i = 0; i < mTileUpdates.length; i++) {
+                sb.append(String.format(Locale.US, ",tile%d=%d/%d", i, mTileUpdates[i], mTileRepeats[i]));
+            }
+            return sb.append("}").toString();
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mColumns;
+    private final int mRows;
+    private final int mPixelFormat;
+    private final int mFps;
+    private long mNativePtr;
+
+    /**
+     * create the compositor and start emitting frames
+     *
+     * @param width       width of the composited frame, must be even
+     * @param height      height of the composited frame, must be even
+     * @param columns     number of tiles in a row
+     * @param rows        number of tiles in a column, columns x rows must not exceed {@link #MAX_TILES}
+     * @param pixelFormat {@link UVCCamera#PIXEL_FORMAT_NV12} or {@link UVCCamera#PIXEL_FORMAT_UYVY}
+     * @param fps         frame rate of the output
+     * @param callback    called with every composited frame
+     * @throws IllegalArgumentException if the parameters are not supported
+     */
+    public MosaicCompositor(final int width, final int height, final int columns, final int rows,
+                            final int pixelFormat, final int fps, @NonNull final IMosaicCallback callback) {
+        if ((width <= 0) || (height <= 0) || ((width & 1) != 0) || ((height & 1) != 0)) {
+            throw new IllegalArgumentException("invalid size:" + width + "x" + height);
+        }
+        if ((columns <= 0) || (rows <= 0) || (columns * rows > MAX_TILES)) {
+            throw new IllegalArgumentException("invalid grid:" + columns + "x" + rows);
+        }
+        if ((pixelFormat != UVCCamera.PIXEL_FORMAT_NV12) && (pixelFormat != UVCCamera.PIXEL_FORMAT_UYVY)) {
+            throw new IllegalArgumentException("unsupported pixel format:" + pixelFormat);
+        }
+        if (fps <= 0) {
+            throw new IllegalArgumentException("invalid fps:" + fps);
+        }
+        mWidth = width;
+        mHeight = height;
+        mColumns = columns;
+        mRows = rows;
+        mPixelFormat = pixelFormat;
+        mFps = fps;
+        mNativePtr = UVCCamera.nativeCreateMosaic(width, height, columns, rows, pixelFormat, fps, callback);
+        if (mNativePtr == 0) {
+            throw new IllegalArgumentException("failed to create mosaic:" + width + "x" + height
+                    + "," + columns + "x" + rows);
+        }
+    }
+
+    /**
+     * stop emitting frames, cameras that are still attached keep writing into their tiles
+     * until they are detached or closed
+     */
+    public synchronized void release() {
+        if (mNativePtr != 0) {
+            UVCCamera.nativeReleaseMosaic(mNativePtr);
+            mNativePtr = 0;
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    public int getTileCount() {
+        return mColumns * mRows;
+    }
+
+    public int getPixelFormat() {
+        return mPixelFormat;
+    }
+
+    public int getFps() {
+        return mFps;
+    }
+
+    /**
+     * @return bytes of a composited frame
+     */
+    public int getFrameBytes() {
+        return mPixelFormat == UVCCamera.PIXEL_FORMAT_NV12 ? mWidth * mHeight * 3 / 2 : mWidth * mHeight * 2;
+    }
+
+    /**
+     * @return statistics, all zero after {@link #release()}
+     */
+    @NonNull
+    public synchronized Stats getStats() {
+        final long[] values = mNativePtr != 0 ? UVCCamera.nativeGetMosaicStats(mNativePtr) : null;
+        return new Stats(values != null ? values : new long[0], getTileCount());
+    }
+
+    synchronized long getNativePtr() {
+        return mNativePtr;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "MosaicCompositor{%dx%d,tiles=%dx%d,format=%d,fps=%d}",
+                mWidth, mHeight, mColumns, mRows, mPixelFormat, mFps);
+    }
+}
@@ -0,0 +1,164 @@
+package com.serenegiant.usb;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.serenegiant.utils.UVCUtils;
+import com.serenegiant.uvccamera.BuildConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * On-disk cache of the payload sizes measured by calibration(see {@link UVCCamera#setPayloadCalibration}),
+ * per device and stream mode, so that a camera seen before starts streaming
+ * on the calibrated alt-setting without measuring again.
+ * Devices are keyed same as {@link DeviceCapabilityCache}.
+ */
+final class PayloadCalibrationCache {
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final String TAG = PayloadCalibrationCache.class.getSimpleName();
+
+    private static final int MAGIC = 0x55564350;    // "UVCP"
+    private static final int VERSION = 1;
+    private static final String DIR_NAME = "uvc_payload_calibration";
+
+    private static PayloadCalibrationCache sInstance;
+
+    /**
+     * payload sizes of each mode of devices already read in this process
+     */
+    private final Map<String, Map<Long, Integer>> mEntries = new HashMap<>();
+
+    static synchronized PayloadCalibrationCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new PayloadCalibrationCache();
+        }
+        return sInstance;
+    }
+
+    private PayloadCalibrationCache() {
+    }
+
+    /**
+     * @return measured payload size of the mode, 0 if not cached
+     */
+    synchronized int get(@NonNull final USBMonitor.UsbControlBlock ctrlBlock, @NonNull final Size size) {
+        final Integer bytes = load(DeviceCapabilityCache.getKey(ctrlBlock)).get(getModeKey(size));
+        return bytes != null ? bytes : 0;
+    }
+
+    synchronized void put(@NonNull final USBMonitor.UsbControlBlock ctrlBlock,
+                          @NonNull final Size size, final int bytes) {
+        final String key = DeviceCapabilityCache.getKey(ctrlBlock);
+        final Map<Long, Integer> modes = load(key);
+        final Integer prev = modes.put(getModeKey(size), bytes);
+        if ((prev != null) && (prev == bytes)) {
+            return;
+        }
+        if (DEBUG) Log.d(TAG, "put:" + key + "," + size + "=" + bytes);
+        final File file = getFile(key);
+        if (file == null) {
+            return;
+        }
+        // write into a temporary file and rename so that a crash never leaves a broken entry
+        final File temp = new File(file.getPath() + ".tmp");
+        try (final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeInt(modes.size());
+            for (final Map.Entry<Long, Integer> mode : modes.entrySet()) {
+                out.writeLong(mode.getKey());
+                out.writeInt(mode.getValue());
+            }
+        } catch (final IOException e) {
+            Log.w(TAG, "failed to write " + file, e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+
+    /**
+     * remove all cached payload sizes, e.g. after the scene of cameras changed a lot
+     */
+    synchronized void clear() {
+        mEntries.clear();
+        final File dir = getDir();
+        final File[] files = dir != null ? dir.listFiles() : null;
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @NonNull
+    private Map<Long, Integer> load(@NonNull final String key) {
+        Map<Long, Integer> modes = mEntries.get(key);
+        if (modes != null) {
+            return modes;
+        }
+        modes = new HashMap<>();
+        mEntries.put(key, modes);
+        final File file = getFile(key);
+        if (file == null || !file.exists()) {
+            return modes;
+        }
+        try (final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                return modes;
+            }
+            final int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                final long mode = in.readLong();
+                modes.put(mode, in.readInt());
+            }
+        } catch (final IOException | RuntimeException e) {
+            Log.w(TAG, "failed to read " + file, e);
+            modes.clear();
+            file.delete();
+        }
+        return modes;
+    }
+
+    private static long getModeKey(@NonNull final Size size) {
+        return ((long) size.type << 56) | ((long) size.fps << 40)
+                | ((long) size.width << 20) | size.height;
+    }
+
+    @Nullable
+    private static File getDir() {
+        final Context context = UVCUtils.getApplication();
+        if (context == null) {
+            return null;
+        }
+        final File dir = new File(context.getCacheDir(), DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return null;
+        }
+        return dir;
+    }
+
+    @Nullable
+    private static File getFile(@NonNull final String key) {
+        final File dir = getDir();
+        return dir != null ? new File(dir, key + ".bin") : null;
+    }
+}
@@ -101,6 +101,10 @@ public final class USBMonitor {
      * Handler that is on worker thread
      */
     private final Handler mAsyncHandler;
+    /**
+     * whether the looper of mAsyncHandler was created by this instance
+     */
+    private final boolean mOwnsAsyncLooper;
     private volatile boolean mDestroyed;
 
     /**
@@ -150,7 +154,14 @@ public final class USBMonitor {
         }
     }
 
-    public USBMonitor(final Context context, final OnDeviceConnectListener listener, final Handler handler) {
+    /**
+     * @param handler      Handler for OnDeviceConnectListener
+     * @param asyncHandler Handler for USB events and periodic device checks,
+     *                     its looper is not quit by {@link #destroy()}.
+     *                     If null, a dedicated worker thread is created
+     */
+    public USBMonitor(final Context context, final OnDeviceConnectListener listener,
+                      final Handler handler, final Handler asyncHandler) {
         if (DEBUG) Log.v(TAG, "USBMonitor:Constructor");
         if (listener == null) {
             throw new IllegalArgumentException("OnDeviceConnectListener should not null.");
@@ -159,11 +170,16 @@ public final class USBMonitor {
         mUsbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
         mOnDeviceConnectListener = listener;
         mListenerHandler = handler;
-        mAsyncHandler = HandlerThreadHandler.createHandler(TAG);
+        mOwnsAsyncLooper = asyncHandler == null;
+        mAsyncHandler = mOwnsAsyncLooper ? HandlerThreadHandler.createHandler(TAG) : asyncHandler;
         mDestroyed = false;
         if (DEBUG) Log.v(TAG, "USBMonitor:mUsbManager=" + mUsbManager);
     }
 
+    public USBMonitor(final Context context, final OnDeviceConnectListener listener, final Handler handler) {
+        this(context, listener, handler, null);
+    }
+
     public USBMonitor(final Context context, final OnDeviceConnectListener listener) {
         this(context, listener, new Handler(Looper.getMainLooper()));
     }
@@ -198,7 +214,11 @@ public final class USBMonitor {
             }
 
             try {
-                mAsyncHandler.getLooper().quit();
+                if (mOwnsAsyncLooper) {
+                    mAsyncHandler.getLooper().quit();
+                } else {
+                    mAsyncHandler.removeCallbacksAndMessages(null);
+                }
             } catch (final Exception e) {
                 Log.e(TAG, "destroy:", e);
             }
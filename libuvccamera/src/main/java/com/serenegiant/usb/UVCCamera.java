@@ -23,9 +23,14 @@
 
 package com.serenegiant.usb;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -72,6 +77,63 @@ public class UVCCamera {
     public static final int PIXEL_FORMAT_RGB565 = 5;
     public static final int PIXEL_FORMAT_RGBX = 6;
     public static final int PIXEL_FORMAT_BGR = 7;
+    public static final int PIXEL_FORMAT_I420 = 8;        // one format of YUV420Planar
+    /**
+     * packed YUV422 (U0 Y0 V0 Y1), native format of NDI
+     */
+    public static final int PIXEL_FORMAT_UYVY = 9;
+    /**
+     * 8 bit luma(Y) plane only
+     */
+    public static final int PIXEL_FORMAT_GRAY8 = 10;
+    /**
+     * I420 whose rows start on 16 bytes boundary.
+     * Y plane stride is align16(width) and U/V plane stride is align16(width / 2)
+     */
+    public static final int PIXEL_FORMAT_I420_ALIGN16 = 11;
+    /**
+     * NV12 whose rows start on 16 bytes boundary.
+     * Both Y and UV plane stride is align16(width)
+     */
+    public static final int PIXEL_FORMAT_NV12_ALIGN16 = 12;
+    /**
+     * I420 whose rows start on 64 bytes boundary.
+     * Y plane stride is align64(width) and U/V plane stride is align64(width / 2)
+     */
+    public static final int PIXEL_FORMAT_I420_ALIGN64 = 13;
+    /**
+     * NV12 whose rows start on 64 bytes boundary.
+     * Both Y and UV plane stride is align64(width)
+     */
+    public static final int PIXEL_FORMAT_NV12_ALIGN64 = 14;
+    /**
+     * The camera's original JPEG payload of each frame, without decoding.
+     * Only delivered while streaming MJPEG and no capture surface is set.
+     * Frame size varies, use ByteBuffer#remaining() of the callback buffer.
+     */
+    public static final int PIXEL_FORMAT_MJPEG = 15;
+
+    /**
+     * Deliver MJPEG frames as is
+     */
+    public static final int MJPEG_VALIDATION_NONE = 0;
+    /**
+     * Drop frames without SOI/EOI markers and trim the padding after EOI(default)
+     */
+    public static final int MJPEG_VALIDATION_MARKERS = 1;
+    /**
+     * {@link #MJPEG_VALIDATION_MARKERS} and also parse the JPEG header and check the frame size
+     */
+    public static final int MJPEG_VALIDATION_HEADER = 2;
+
+    /**
+     * AVI 2.0(OpenDML) container for {@link #startMjpegRecording}
+     */
+    public static final int MJPEG_CONTAINER_AVI = 1;
+    /**
+     * Matroska container for {@link #startMjpegRecording}
+     */
+    public static final int MJPEG_CONTAINER_MKV = 2;
 
     /**
      * This quirk makes the assumption that the device calculated bandwidth is wrong
@@ -79,6 +141,26 @@ public class UVCCamera {
      */
     public static final int UVC_QUIRK_FIX_BANDWIDTH = 0x00000080;
 
+    /**
+     * statusClass of {@link IStatusCallback#onStatus}
+     */
+    public static final int STATUS_CLASS_CONTROL = 0x10;
+    public static final int STATUS_CLASS_CONTROL_CAMERA = 0x11;
+    public static final int STATUS_CLASS_CONTROL_PROCESSING = 0x12;
+
+    /**
+     * statusAttribute of {@link IStatusCallback#onStatus}
+     */
+    public static final int STATUS_ATTRIBUTE_VALUE_CHANGE = 0x00;
+    public static final int STATUS_ATTRIBUTE_INFO_CHANGE = 0x01;
+    public static final int STATUS_ATTRIBUTE_FAILURE_CHANGE = 0x02;
+
+    /**
+     * default duration and margin of payload calibration, see {@link #setPayloadCalibration}
+     */
+    public static final int DEFAULT_CALIBRATION_MS = 2000;
+    public static final int DEFAULT_CALIBRATION_MARGIN_PERCENT = 25;
+
     static {
         System.loadLibrary("jpeg-turbo212");
         System.loadLibrary("usb1.0");
@@ -87,7 +169,32 @@ public class UVCCamera {
     }
 
     private UsbControlBlock mCtrlBlock;
-    private UVCControl mControl = null;
+    private volatile UVCControl mControl = null;
+    private volatile IStatusCallback mStatusCallback;
+    /**
+     * raw descriptors of the camera while its capabilities are not cached yet
+     */
+    private byte[] mUncachedDescriptors;
+    /**
+     * duration of payload calibration, 0 if disabled
+     */
+    private int mCalibrationMs;
+
+    /**
+     * control limits of all cameras are queried on this thread one camera at a time,
+     * the thread exits when nothing has been queried for a while
+     */
+    private static final ThreadPoolExecutor sControlExecutor = new ThreadPoolExecutor(1, 1,
+            10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, TAG + " control");
+        }
+    });
+
+    static {
+        sControlExecutor.allowCoreThreadTimeOut(true);
+    }
 
     // these fields from here are accessed from native code and do not change name and remove
     protected long mNativePtr;
@@ -128,7 +235,23 @@ public class UVCCamera {
             return result;
         }
 
-        updateSupportedFormats();
+        // formats and control limits of a camera seen before are read from the cache
+        // instead of the JSON round trip and dozens of control queries
+        final DeviceCapabilityCache cache = DeviceCapabilityCache.getInstance();
+        byte[] rawDescriptors = null;
+        try {
+            rawDescriptors = mCtrlBlock.getRawDescriptors();
+        } catch (final IllegalStateException e) {
+            Log.w(TAG, e);
+        }
+        final DeviceCapabilityCache.Entry cached = cache.get(mCtrlBlock, rawDescriptors);
+        if (cached != null) {
+            if (DEBUG) Log.d(TAG, "open:use cached capabilities");
+            mSupportedFormatList = cached.formats;
+            mSupportedSizeList = fetchSupportedSizeList(mSupportedFormatList);
+        } else {
+            updateSupportedFormats();
+        }
 
         Size size = mParam.getPreviewSize();
         if (size == null || !checkSizeValid(size.width, size.height, size.type, size.fps)) {
@@ -143,25 +266,101 @@ public class UVCCamera {
             }
         }
 
+        if (mParam.getPayloadCalibrationMs() > 0) {
+            nativeSetPayloadCalibration(mNativePtr,
+                    mParam.getPayloadCalibrationMs(), mParam.getPayloadCalibrationMarginPercent());
+            mCalibrationMs = mParam.getPayloadCalibrationMs();
+        }
+        presetMeasuredPayloadSize(size);
         int r = nativeSetPreviewSize(mNativePtr, size.width, size.height, size.type, size.fps);
         if (DEBUG) Log.d(TAG, "setPreviewSize:" + r + ":" + size);
 
         mCurrentSize = size;
 
-        mControl = new UVCControl(nativeGetControl(mNativePtr));
+        if (cached != null) {
+            mControl = new UVCControl(nativeGetControl(mNativePtr),
+                    cached.cameraTerminalControls, cached.processingUnitControls, cached.controlLimits);
+            mUncachedDescriptors = null;
+        } else {
+            // control limits are queried by #prefetchControlLimits after the first frame
+            mControl = new UVCControl(nativeGetControl(mNativePtr));
+            mUncachedDescriptors = rawDescriptors;
+        }
+        nativeSetStatusCallback(mNativePtr, mControlStatusCallback);
 
         return result;
     }
 
+    /**
+     * Forgets control limits when the camera reports that the info of a control changed,
+     * and forwards all status to the callback set by {@link #setStatusCallback}
+     */
+    private final IStatusCallback mControlStatusCallback = new IStatusCallback() {
+        @Override
+        public void onStatus(int statusClass, int event, int selector, int statusAttribute, ByteBuffer data) {
+            if ((statusClass >= STATUS_CLASS_CONTROL) && (statusClass <= STATUS_CLASS_CONTROL_PROCESSING)
+                    && (statusAttribute != STATUS_ATTRIBUTE_VALUE_CHANGE)) {
+                final UVCControl control = mControl;
+                if (control != null) {
+                    control.invalidateLimits();
+                }
+            }
+            final IStatusCallback callback = mStatusCallback;
+            if (callback != null) {
+                callback.onStatus(statusClass, event, selector, statusAttribute, data);
+            }
+        }
+    };
+
+    /**
+     * Queries min/max/def of the camera controls in background unless they are known already.
+     * This runs dozens of control transfers, so call this after the first frame was shown
+     * instead of while opening. Control methods that need the limits query them if they are not ready yet.
+     * This does not block and can be called on the rendering thread.
+     */
+    public void prefetchControlLimits() {
+        sControlExecutor.execute(mPrefetchControlLimitsTask);
+    }
+
+    private final Runnable mPrefetchControlLimitsTask = new Runnable() {
+        @Override
+        public void run() {
+            final UVCControl control;
+            final UsbControlBlock ctrlBlock;
+            final byte[] rawDescriptors;
+            final List<Format> formats;
+            synchronized (UVCCamera.this) {
+                control = mControl;
+                ctrlBlock = mCtrlBlock;
+                rawDescriptors = mUncachedDescriptors;
+                formats = getSupportedFormatList();
+            }
+            // the lock of this instance is not held while querying so that preview can be stopped
+            if ((control == null) || !control.ensureLimits()) {
+                return;
+            }
+            if ((rawDescriptors != null) && (ctrlBlock != null) && !formats.isEmpty()) {
+                synchronized (UVCCamera.this) {
+                    if (mUncachedDescriptors != rawDescriptors) {
+                        return;
+                    }
+                    mUncachedDescriptors = null;
+                }
+                DeviceCapabilityCache.getInstance().put(ctrlBlock, rawDescriptors,
+                        new DeviceCapabilityCache.Entry(formats,
+                                control.getCameraTerminalControls(), control.getProcessingUnitControls(),
+                                control.getLimits()));
+            }
+        }
+    };
+
     /**
      * set status callback
      *
      * @param callback
      */
     public void setQuirks(final IStatusCallback callback) {
-        if (mNativePtr != 0) {
-            nativeSetStatusCallback(mNativePtr, callback);
-        }
+        setStatusCallback(callback);
     }
 
     /**
@@ -170,9 +369,7 @@ public class UVCCamera {
      * @param callback
      */
     public void setStatusCallback(final IStatusCallback callback) {
-        if (mNativePtr != 0) {
-            nativeSetStatusCallback(mNativePtr, callback);
-        }
+        mStatusCallback = callback;
     }
 
     /**
@@ -199,6 +396,12 @@ public class UVCCamera {
     public synchronized void close(boolean isSilent) {
         if (DEBUG) Log.v(TAG, "close");
         stopPreview();
+        if (mControl != null) {
+            // this waits for the control limits being queried in background
+            mControl.release();
+            mControl = null;
+        }
+        mUncachedDescriptors = null;
         if (mNativePtr != 0) {
             nativeRelease(mNativePtr);
 //    		mNativePtr = 0;	// nativeDestroyを呼ぶのでここでクリアしちゃダメ
@@ -212,11 +415,6 @@ public class UVCCamera {
         mSupportedFormatList = null;
         mSupportedSizeList = null;
         mCurrentSize = null;
-
-        if (mControl != null) {
-            mControl.release();
-            mControl = null;
-        }
     }
 
     public UsbDevice getDevice() {
@@ -239,6 +437,14 @@ public class UVCCamera {
         }
     }
 
+    /**
+     * remove cached formats and control limits of all cameras,
+     * they are queried from the cameras again on next open
+     */
+    public static void clearCapabilityCache() {
+        DeviceCapabilityCache.getInstance().clear();
+    }
+
     public synchronized String getSupportedSize() {
         if (TextUtils.isEmpty(mSupportedFormats)) {
             updateSupportedFormats();
@@ -455,6 +661,8 @@ public class UVCCamera {
                 throw new IllegalArgumentException("invalid preview size");
             }
 
+            storeMeasuredPayloadSize();
+            presetMeasuredPayloadSize(size);
             //set preview size
             int result = nativeSetPreviewSize(mNativePtr, size.width, size.height, size.type, size.fps);
             if (result != 0) {
@@ -464,6 +672,7 @@ public class UVCCamera {
             }
 
             if (result != 0) {
+                presetMeasuredPayloadSize(mCurrentSize);
                 throw new IllegalArgumentException("Failed to set preview size");
             }
 
@@ -471,6 +680,41 @@ public class UVCCamera {
         }
     }
 
+    /**
+     * Switch preview size and preview mode while previewing.
+     * Only USB streaming is restarted, preview/capture surfaces and frame callback are kept
+     * so that the output continues with the new mode after a short gap.
+     * This works same as {@link #setPreviewSize(Size)} when the camera is not previewing.
+     *
+     * @param size
+     */
+    public void reconfigure(Size size) {
+        if ((size.width == 0) || (size.height == 0)) {
+            throw new IllegalArgumentException("invalid preview size");
+        }
+
+        if (mNativePtr != 0) {
+            if (!checkSizeValid(size.width, size.height, size.type, size.fps)) {
+                throw new IllegalArgumentException("invalid preview size");
+            }
+
+            storeMeasuredPayloadSize();
+            presetMeasuredPayloadSize(size);
+            int result = nativeReconfigure(mNativePtr, size.width, size.height, size.type, size.fps);
+            if (result != 0) {
+                // probing may fail once when frameType is changed, see setPreviewSize
+                result = nativeReconfigure(mNativePtr, size.width, size.height, size.type, size.fps);
+            }
+
+            if (result != 0) {
+                presetMeasuredPayloadSize(mCurrentSize);
+                throw new IllegalStateException("Failed to reconfigure stream(" + result + ")");
+            }
+
+            mCurrentSize = size;
+        }
+    }
+
     /**
      * set preview surface with SurfaceHolder</br>
      * you can use SurfaceHolder came from SurfaceView/GLSurfaceView
@@ -506,7 +750,13 @@ public class UVCCamera {
      *
      * @param callback    The callback that receive frame data in pixelFormat
      * @param pixelFormat The frame format of callback.
-     *                    Can be {@link #PIXEL_FORMAT_RAW}, {@link #PIXEL_FORMAT_YUV}, {@link #PIXEL_FORMAT_NV12}, {@link #PIXEL_FORMAT_NV21}, {@link #PIXEL_FORMAT_RGB}, {@link #PIXEL_FORMAT_RGB565}, {@link #PIXEL_FORMAT_BGR}.
+     *                    Can be {@link #PIXEL_FORMAT_RAW}, {@link #PIXEL_FORMAT_YUV}, {@link #PIXEL_FORMAT_NV12}, {@link #PIXEL_FORMAT_NV21}, {@link #PIXEL_FORMAT_RGB}, {@link #PIXEL_FORMAT_RGB565}, {@link #PIXEL_FORMAT_BGR},
+     *                    {@link #PIXEL_FORMAT_I420}, {@link #PIXEL_FORMAT_UYVY}, {@link #PIXEL_FORMAT_GRAY8},
+     *                    {@link #PIXEL_FORMAT_I420_ALIGN16}, {@link #PIXEL_FORMAT_NV12_ALIGN16}, {@link #PIXEL_FORMAT_I420_ALIGN64}, {@link #PIXEL_FORMAT_NV12_ALIGN64}.
+     *                    UYVY, GRAY8 and the aligned formats are converted directly from the camera's
+     *                    uncompressed frame in a single pass.
+     *                    {@link #PIXEL_FORMAT_MJPEG} passes the camera's JPEG data through, and the decoder
+     *                    is skipped entirely while no preview surface is set.
      */
     public void setFrameCallback(final IFrameCallback callback, final int pixelFormat) {
         if (mNativePtr != 0) {
@@ -514,6 +764,368 @@ public class UVCCamera {
         }
     }
 
+    /**
+     * set inference tap, a native consumer that scales/crops/letterboxes each frame to a fixed size,
+     * converts it to RGB/BGR uint8 or normalized float32 in NHWC/NCHW layout
+     * and writes it into the given direct ByteBuffer on the capture thread.
+     * It runs independently of {@link #setFrameCallback}.
+     *
+     * @param config   tensor format, this is copied
+     * @param tensor   direct ByteBuffer of at least {@link InferenceTapConfig#getTensorBytes()} bytes
+     * @param callback called every time the tensor buffer is filled, null to clear the inference tap
+     * @throws IllegalArgumentException if tensor buffer is not direct or too small
+     */
+    public synchronized void setInferenceTap(final InferenceTapConfig config,
+                                             final ByteBuffer tensor, final ITensorCallback callback) {
+        if (mNativePtr == 0) {
+            return;
+        }
+        if (callback == null || config == null) {
+            nativeSetInferenceTap(mNativePtr, null, null,
+                    0, 0, 0, 0, 0, 0, null, null, 0f, 0, 0);
+            return;
+        }
+        if (config.getWidth() <= 0 || config.getHeight() <= 0) {
+            throw new IllegalArgumentException("invalid tensor size:" + config.getWidth() + "x" + config.getHeight());
+        }
+        if (tensor == null || !tensor.isDirect()) {
+            throw new IllegalArgumentException("tensor buffer should be a direct ByteBuffer");
+        }
+        if (tensor.capacity() < config.getTensorBytes()) {
+            throw new IllegalArgumentException("tensor buffer is too small, capacity="
+                    + tensor.capacity() + ", required=" + config.getTensorBytes());
+        }
+        final int result = nativeSetInferenceTap(mNativePtr, callback, tensor,
+                config.getWidth(), config.getHeight(), config.getScaleMode(),
+                config.getChannelOrder(), config.getDataType(), config.getLayout(),
+                config.getMean(), config.getStd(), config.getScale(),
+                config.getPadValue(), config.getMaxFps());
+        if (result != 0) {
+            Log.w(TAG, "setInferenceTap:failed " + result + "," + config);
+        }
+    }
+
+    /**
+     * set a listener of luma histogram, mean and clipped ratios computed natively on the capture thread.
+     * Statistics are sampled from the camera's frame before pixel format conversion
+     * and run independently of {@link #setFrameCallback}. MJPEG payload frames have no statistics.
+     *
+     * @param callback null to clear the listener
+     * @param maxFps   upper limit of the callback rate, 0 for every frame
+     */
+    public synchronized void setFrameStatsCallback(final IFrameStatsCallback callback, final int maxFps) {
+        if (mNativePtr != 0) {
+            final int result = nativeSetFrameStatsCallback(mNativePtr, callback, maxFps);
+            if (result != 0) {
+                Log.w(TAG, "setFrameStatsCallback:failed " + result);
+            }
+        }
+    }
+
+    /**
+     * attach this camera to a tile of the mosaic compositor, or detach it.
+     * Frames are scaled into the tile on the capture thread, independently of {@link #setFrameCallback}.
+     * Raw YUV frames are scaled without RGBX conversion while no frame callback or capture surface is set.
+     *
+     * @param mosaic null to detach from current compositor
+     * @param index  index of the tile, row-major
+     * @throws IllegalArgumentException if the index is out of the grid
+     * @throws IllegalStateException    if the compositor is already released
+     */
+    public synchronized void setMosaicTile(final MosaicCompositor mosaic, final int index) {
+        if (mNativePtr == 0) {
+            return;
+        }
+        if (mosaic == null) {
+            nativeSetMosaicTile(mNativePtr, 0, 0);
+            return;
+        }
+        if ((index < 0) || (index >= mosaic.getTileCount())) {
+            throw new IllegalArgumentException("invalid tile index:" + index);
+        }
+        // the compositor can not be released while this camera takes its reference
+        synchronized (mosaic) {
+            final long mosaicPtr = mosaic.getNativePtr();
+            if (mosaicPtr == 0) {
+                throw new IllegalStateException("mosaic is already released");
+            }
+            final int result = nativeSetMosaicTile(mNativePtr, mosaicPtr, index);
+            if (result != 0) {
+                Log.w(TAG, "setMosaicTile:failed " + result);
+            }
+        }
+    }
+
+    /**
+     * set validation level of the frames delivered with {@link #PIXEL_FORMAT_MJPEG}
+     *
+     * @param level {@link #MJPEG_VALIDATION_NONE}, {@link #MJPEG_VALIDATION_MARKERS} or {@link #MJPEG_VALIDATION_HEADER}
+     */
+    public synchronized void setMjpegValidation(final int level) {
+        if (mNativePtr != 0) {
+            nativeSetMjpegValidation(mNativePtr, level);
+        }
+    }
+
+    /**
+     * @return number of MJPEG frames dropped by validation since the camera was opened
+     */
+    public synchronized int getMjpegDroppedFrames() {
+        return mNativePtr != 0 ? nativeGetMjpegDroppedFrames(mNativePtr) : 0;
+    }
+
+    /**
+     * All open cameras share a libusb context and a single event thread
+     * that reaps and resubmits their USB transfers.
+     *
+     * @return statistics of the shared event thread, all zero while no camera is open
+     */
+    public static EventLoopStats getEventLoopStats() {
+        final long[] values = nativeGetEventLoopStats();
+        if (values == null || values.length < 4) {
+            return new EventLoopStats(0, 0, 0, 0);
+        }
+        return new EventLoopStats((int) values[0], values[1], values[2], values[3]);
+    }
+
+    /**
+     * Set how important the frames of this camera are when the frame memory budget is under pressure,
+     * see {@link FrameMemoryBudget}. The priority is kept while the camera is closed.
+     *
+     * @param priority larger value is more important, less important cameras are degraded first
+     */
+    public synchronized void setFrameMemoryPriority(final int priority) {
+        if (mNativePtr != 0) {
+            nativeSetFrameMemoryPriority(nativeGetFrameMemoryConsumer(mNativePtr), priority);
+        }
+    }
+
+    /**
+     * @return frame memory this camera uses and how far it is degraded, all zero after {@link #destroy()}
+     */
+    public synchronized FrameMemoryBudget.Stats getFrameMemoryStats() {
+        final long[] values = mNativePtr != 0
+                ? nativeGetFrameMemoryStats(nativeGetFrameMemoryConsumer(mNativePtr)) : null;
+        return new FrameMemoryBudget.Stats(values != null ? values : new long[0]);
+    }
+
+    /**
+     * @return counters of the native frame pools of this camera, all zero while it is not opened
+     */
+    public synchronized FramePoolStats getFramePoolStats() {
+        final long[] values = mNativePtr != 0 ? nativeGetFramePoolStats(mNativePtr) : null;
+        return new FramePoolStats(values != null ? values : new long[0]);
+    }
+
+    /**
+     * Format of the frames the camera actually sends, which is only known after the first frame arrived.
+     * A frame callback of this format receives the frames without conversion.
+     *
+     * @return PIXEL_FORMAT_YUV for YUYV, PIXEL_FORMAT_NV12, PIXEL_FORMAT_NV21, PIXEL_FORMAT_I420 or PIXEL_FORMAT_MJPEG,
+     * -1 if no frame has arrived yet
+     */
+    public synchronized int getStreamPixelFormat() {
+        return mNativePtr != 0 ? nativeGetStreamPixelFormat(mNativePtr) : -1;
+    }
+
+    /**
+     * start recording camera's MJPEG frames into AVI(OpenDML) or Matroska file without transcoding.
+     * Preview should be running with MJPEG frame format.
+     * The file is written on a native writer thread and stays playable even if recording is interrupted.
+     *
+     * @param fd              seekable file descriptor opened for writing,
+     *                        the ownership is transferred to this method even if it fails(e.g. ParcelFileDescriptor#detachFd)
+     * @param container       {@link #MJPEG_CONTAINER_AVI} or {@link #MJPEG_CONTAINER_MKV}
+     * @param fps             nominal frame rate of the file, 0 uses the requested preview fps
+     * @param audioSampleRate sample rate of 16bit PCM audio passed by {@link #writeMjpegRecordingAudio}
+     * @param audioChannels   channel count of audio, 0 records video only
+     * @return 0 on success
+     */
+    public synchronized int startMjpegRecording(final int fd, final int container, final int fps,
+                                                final int audioSampleRate, final int audioChannels) {
+        if (mNativePtr == 0) {
+            return -1;
+        }
+        return nativeStartMjpegRecording(mNativePtr, fd, container, fps, audioSampleRate, audioChannels);
+    }
+
+    /**
+     * stop MJPEG recording, this blocks until all queued frames are written and the file is closed.
+     * The file is finalized without holding this camera, so other calls are not blocked meanwhile.
+     *
+     * @return 0 if the file was written without error
+     */
+    public int stopMjpegRecording() {
+        final long recorder;
+        synchronized (this) {
+            if (mNativePtr == 0) {
+                return -1;
+            }
+            recorder = nativeDetachMjpegRecording(mNativePtr);
+        }
+        return nativeFinishMjpegRecording(recorder);
+    }
+
+    /**
+     * pass 16bit little endian PCM audio to MJPEG recording
+     *
+     * @param buffer direct ByteBuffer that holds audio data from position 0
+     * @param bytes  number of bytes to write
+     * @param ptsUs  capture time of the first sample in micro seconds, same time base as {@link System#nanoTime()}
+     * @return 0 on success, negative value if the audio was dropped
+     */
+    public synchronized int writeMjpegRecordingAudio(final ByteBuffer buffer, final int bytes, final long ptsUs) {
+        return mNativePtr != 0 ? nativeWriteMjpegRecordingAudio(mNativePtr, buffer, bytes, ptsUs) : -1;
+    }
+
+    /**
+     * skip {@link IFrameCallback} for frames that hardly changed since the last delivered frame.
+     * Change is measured on a subsampled luma grid before the pixel format conversion,
+     * so skipped frames cost neither conversion nor the JNI call.
+     * Frames delivered with {@link #PIXEL_FORMAT_MJPEG} are not measured and never skipped.
+     *
+     * @param threshold     frames whose change score(see {@link #getFrameChangeScore()}) is lower than this are skipped,
+     *                      0 disables skipping
+     * @param maxIntervalMs a static frame is still delivered when this time passed since the last delivered frame,
+     *                      0 never delivers static frames
+     */
+    public synchronized void setStaticSceneSkip(final int threshold, final int maxIntervalMs) {
+        if (mNativePtr != 0) {
+            nativeSetStaticSceneSkip(mNativePtr, threshold, maxIntervalMs);
+        }
+    }
+
+    /**
+     * pass only one frame per interval to the native pipeline for timelapse capture.
+     * Other frames are dropped as soon as they are assembled from USB transfers,
+     * so neither preview, frame callback nor decoding sees them.
+     *
+     * @param intervalMs interval between selected frames, 0 passes every frame
+     */
+    public synchronized void setTimelapseInterval(final int intervalMs) {
+        if (mNativePtr != 0) {
+            nativeSetTimelapseInterval(mNativePtr, intervalMs);
+        }
+    }
+
+    /**
+     * limit the isochronous payload size of a (micro)frame so that libuvc selects a smaller alt-setting
+     * than the device asks for, and the camera reserves less bandwidth of the bus.
+     * This is applied when streaming starts next time. Frames may be broken if the limit is
+     * smaller than the actual payload, mostly usable with MJPEG whose payload is far less than negotiated.
+     *
+     * @param bytes maximum bytes per (micro)frame, 0 uses the negotiated value
+     */
+    public synchronized void setMaxPayloadSize(final int bytes) {
+        if (mNativePtr != 0) {
+            nativeSetMaxPayloadSize(mNativePtr, bytes);
+        }
+    }
+
+    /**
+     * Stream briefly on the alt-setting the device asks for and measure the largest payload
+     * it actually sends in a (micro)frame, then restart streaming on the smallest alt-setting
+     * that covers it with the margin. Many cameras ask for the largest alt-setting even for
+     * low bit rate MJPEG, which blocks other cameras on the same bus.
+     * Measured sizes are cached per device and mode, so a mode calibrated before
+     * starts on the small alt-setting at once.
+     * The payload of MJPEG depends on the scene, a larger margin is safer for scenes
+     * that may get much more detailed than while calibrating.
+     *
+     * @param durationMs    time to measure after streaming starts, 0 to disable calibration
+     * @param marginPercent margin added to the measured payload size
+     */
+    public synchronized void setPayloadCalibration(final int durationMs, final int marginPercent) {
+        if (mNativePtr != 0) {
+            nativeSetPayloadCalibration(mNativePtr, durationMs, marginPercent);
+            mCalibrationMs = durationMs;
+            presetMeasuredPayloadSize(mCurrentSize);
+        }
+    }
+
+    /**
+     * @return largest payload of a (micro)frame measured for the current preview size,
+     * 0 if not calibrated yet
+     */
+    public synchronized int getMeasuredPayloadSize() {
+        return mNativePtr != 0 ? nativeGetMeasuredPayloadSize(mNativePtr) : 0;
+    }
+
+    /**
+     * put the payload size measured for the current preview size into the cache
+     */
+    private void storeMeasuredPayloadSize() {
+        if ((mCalibrationMs > 0) && (mNativePtr != 0) && (mCtrlBlock != null) && (mCurrentSize != null)) {
+            final int bytes = nativeGetMeasuredPayloadSize(mNativePtr);
+            if (bytes > 0) {
+                PayloadCalibrationCache.getInstance().put(mCtrlBlock, mCurrentSize, bytes);
+            }
+        }
+    }
+
+    /**
+     * pass the cached payload size of the preview size that is applied next to native side,
+     * calibration runs when streaming starts if nothing is cached
+     */
+    private void presetMeasuredPayloadSize(final Size size) {
+        if (mNativePtr == 0) {
+            return;
+        }
+        int bytes = 0;
+        if ((mCalibrationMs > 0) && (mCtrlBlock != null) && (size != null)) {
+            bytes = PayloadCalibrationCache.getInstance().get(mCtrlBlock, size);
+        }
+        nativeSetMeasuredPayloadSize(mNativePtr, bytes);
+    }
+
+    /**
+     * @return bandwidth that the current preview size reserves on the bus,
+     * null if the camera is not opened or no preview size is negotiated yet
+     */
+    public synchronized BandwidthInfo getBandwidthInfo() {
+        if (mNativePtr == 0) {
+            return null;
+        }
+        final int[] values = nativeGetBandwidthInfo(mNativePtr);
+        if (values == null || values.length < 9) {
+            return null;
+        }
+        return new BandwidthInfo(mCtrlBlock != null ? mCtrlBlock.getBusNum() : -1, values);
+    }
+
+    /**
+     * change score of the frame that is being delivered, valid only inside {@link IFrameCallback#onFrame}.
+     * This is not synchronized so that it can be called from the callback thread while stopping preview.
+     *
+     * @return per mille(0-1000) of luma samples that changed since the previous delivered frame,
+     * -1 if the frame could not be measured
+     */
+    public int getFrameChangeScore() {
+        final long nativePtr = mNativePtr;
+        return nativePtr != 0 ? nativeGetFrameChangeScore(nativePtr) : -1;
+    }
+
+    /**
+     * capture time of the frame that is being delivered, valid only inside {@link IFrameCallback#onFrame}.
+     * This is when the last payload of the frame arrived on the host,
+     * so frames of different cameras can be compared with each other.
+     *
+     * @return time in nanoseconds, same time base as {@link System#nanoTime()}, 0 if not known
+     */
+    public long getFrameTimestampNs() {
+        final long nativePtr = mNativePtr;
+        return nativePtr != 0 ? nativeGetFrameTimestamp(nativePtr) : 0;
+    }
+
+    /**
+     * sequence number of the frame that is being delivered, valid only inside {@link IFrameCallback#onFrame}.
+     * Frames dropped before the callback leave gaps in the sequence.
+     */
+    public int getFrameSequence() {
+        final long nativePtr = mNativePtr;
+        return nativePtr != 0 ? nativeGetFrameSequence(nativePtr) : 0;
+    }
+
     /**
      * start preview
      */
@@ -530,7 +1142,22 @@ public class UVCCamera {
 //        setFrameCallback(null, 0);
         if (mCtrlBlock != null) {
             nativeStopPreview(mNativePtr);
+            storeMeasuredPayloadSize();
+        }
+    }
+
+    /**
+     * put stopped camera into warm standby, the device stays open and stream control
+     * is negotiated in advance so that next {@link #startPreview()} only starts streaming.
+     * Frame buffers that are only needed while streaming are released.
+     *
+     * @return 0 on success
+     */
+    public synchronized int prepareStandby() {
+        if (mNativePtr != 0) {
+            return nativePrepareStandby(mNativePtr);
         }
+        return -1;
     }
 
     /**
@@ -580,6 +1207,49 @@ public class UVCCamera {
         return mControl;
     }
 
+    /**
+     * Returns the size in bytes of a callback frame
+     *
+     * @param pixelFormat one of PIXEL_FORMAT_XXX
+     * @param width
+     * @param height
+     * @return frame bytes, or 0 if pixelFormat is unknown or has variable size like {@link #PIXEL_FORMAT_MJPEG}
+     */
+    public static int getCallbackFrameBytes(final int pixelFormat, final int width, final int height) {
+        switch (pixelFormat) {
+            case PIXEL_FORMAT_RAW:
+            case PIXEL_FORMAT_YUV:
+            case PIXEL_FORMAT_RGB565:
+            case PIXEL_FORMAT_UYVY:
+                return width * height * 2;
+            case PIXEL_FORMAT_NV12:
+            case PIXEL_FORMAT_NV21:
+            case PIXEL_FORMAT_I420:
+                return width * height * 3 / 2;
+            case PIXEL_FORMAT_RGB:
+            case PIXEL_FORMAT_BGR:
+                return width * height * 3;
+            case PIXEL_FORMAT_RGBX:
+                return width * height * 4;
+            case PIXEL_FORMAT_GRAY8:
+                return width * height;
+            case PIXEL_FORMAT_I420_ALIGN16:
+                return align(width, 16) * height + align(width / 2, 16) * height;
+            case PIXEL_FORMAT_I420_ALIGN64:
+                return align(width, 64) * height + align(width / 2, 64) * height;
+            case PIXEL_FORMAT_NV12_ALIGN16:
+                return align(width, 16) * height * 3 / 2;
+            case PIXEL_FORMAT_NV12_ALIGN64:
+                return align(width, 64) * height * 3 / 2;
+            default:
+                return 0;
+        }
+    }
+
+    private static int align(final int value, final int alignment) {
+        return (value + alignment - 1) & ~(alignment - 1);
+    }
+
     public boolean isOpened() {
         return mControl != null;
     }
@@ -600,6 +1270,10 @@ public class UVCCamera {
 
     private native int nativeSetPreviewSize(final long id_camera, final int width, final int height, final int frameType, final int fps);
 
+    private native int nativeReconfigure(final long id_camera, final int width, final int height, final int frameType, final int fps);
+
+    private native int nativePrepareStandby(final long id_camera);
+
     private native String nativeGetSupportedFormats(final long id_camera);
 
     private native int nativeStartPreview(final long id_camera);
@@ -610,6 +1284,87 @@ public class UVCCamera {
 
     private native int nativeSetFrameCallback(final long id_camera, final IFrameCallback callback, final int pixelFormat);
 
+    private native int nativeSetMjpegValidation(final long id_camera, final int level);
+
+    private native int nativeGetMjpegDroppedFrames(final long id_camera);
+
+    private native int nativeSetInferenceTap(final long id_camera,
+                                             final ITensorCallback callback, final ByteBuffer tensor,
+                                             final int width, final int height, final int scaleMode,
+                                             final int channelOrder, final int dataType, final int layout,
+                                             final float[] mean, final float[] std, final float scale,
+                                             final int padValue, final int maxFps);
+
+    private native int nativeSetFrameStatsCallback(final long id_camera,
+                                                   final IFrameStatsCallback callback, final int maxFps);
+
+    private native int nativeStartMjpegRecording(final long id_camera, final int fd, final int container,
+                                                 final int fps, final int audioSampleRate, final int audioChannels);
+
+    private native long nativeDetachMjpegRecording(final long id_camera);
+
+    private static native int nativeFinishMjpegRecording(final long id_recorder);
+
+    private native int nativeWriteMjpegRecordingAudio(final long id_camera,
+                                                      final ByteBuffer buffer, final int bytes, final long ptsUs);
+
+    private native int nativeSetStaticSceneSkip(final long id_camera, final int threshold, final int maxIntervalMs);
+
+    private native int nativeGetFrameChangeScore(final long id_camera);
+
+    private native long nativeGetFrameTimestamp(final long id_camera);
+
+    private native int nativeGetFrameSequence(final long id_camera);
+
+    private native int nativeSetTimelapseInterval(final long id_camera, final int intervalMs);
+
+    private native int nativeSetMaxPayloadSize(final long id_camera, final int bytes);
+
+    private native int[] nativeGetBandwidthInfo(final long id_camera);
+
+    private native int nativeSetPayloadCalibration(final long id_camera, final int durationMs, final int marginPercent);
+
+    private native int nativeSetMeasuredPayloadSize(final long id_camera, final int bytes);
+
+    private native int nativeGetMeasuredPayloadSize(final long id_camera);
+
     private native int nativeSetCaptureDisplay(final long id_camera, final Surface surface);
 
+    private static native long[] nativeGetEventLoopStats();
+
+    static native long nativeCreateMosaic(final int width, final int height, final int columns, final int rows,
+                                          final int pixelFormat, final int fps, final IMosaicCallback callback);
+
+    static native void nativeReleaseMosaic(final long id_mosaic);
+
+    static native long[] nativeGetMosaicStats(final long id_mosaic);
+
+    private native int nativeSetMosaicTile(final long id_camera, final long id_mosaic, final int index);
+
+    static native void nativeSetFrameMemoryLimit(final long bytes);
+
+    static native long[] nativeGetFrameMemoryTotals();
+
+    static native void nativeResetFrameMemoryHighWater();
+
+    static native long nativeCreateFrameMemoryConsumer(final int priority);
+
+    static native void nativeReleaseFrameMemoryConsumer(final long id_consumer);
+
+    static native boolean nativeChargeFrameMemory(final long id_consumer, final long bytes);
+
+    static native void nativeDischargeFrameMemory(final long id_consumer, final long bytes);
+
+    static native boolean nativeShouldDropFrame(final long id_consumer);
+
+    static native void nativeSetFrameMemoryPriority(final long id_consumer, final int priority);
+
+    static native long[] nativeGetFrameMemoryStats(final long id_consumer);
+
+    private native long nativeGetFrameMemoryConsumer(final long id_camera);
+
+    private native long[] nativeGetFramePoolStats(final long id_camera);
+
+    private native int nativeGetStreamPixelFormat(final long id_camera);
+
 }
@@ -2,6 +2,11 @@ package com.serenegiant.usb;
 
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class UVCControl {
 
     private static final String TAG = UVCControl.class.getSimpleName();
@@ -52,6 +57,82 @@ public class UVCControl {
     public static final int UVC_AUTO_EXPOSURE_MODE_SHUTTER_PRIORITY = 4; // manual exposure time, auto iris
     public static final int UVC_AUTO_EXPOSURE_MODE_APERTURE_PRIORITY = 8; // auto exposure time, manual iris
 
+    /**
+     * ids of the controls for {@link ControlBatch} and {@link ControlSet},
+     * these should be same as enum uvc_control_id in UVCControl.h
+     */
+    public static final int CONTROL_SCANNING_MODE = 1;
+    public static final int CONTROL_AE_MODE = 2;
+    public static final int CONTROL_AE_PRIORITY = 3;
+    public static final int CONTROL_EXPOSURE_TIME_ABSOLUTE = 4;
+    public static final int CONTROL_FOCUS_ABSOLUTE = 5;
+    public static final int CONTROL_IRIS_ABSOLUTE = 6;
+    public static final int CONTROL_ZOOM_ABSOLUTE = 7;
+    public static final int CONTROL_PAN_ABSOLUTE = 8;
+    public static final int CONTROL_TILT_ABSOLUTE = 9;
+    public static final int CONTROL_ROLL_ABSOLUTE = 10;
+    public static final int CONTROL_FOCUS_AUTO = 11;
+    public static final int CONTROL_PRIVACY = 12;
+    public static final int CONTROL_BRIGHTNESS = 13;
+    public static final int CONTROL_CONTRAST = 14;
+    public static final int CONTROL_CONTRAST_AUTO = 15;
+    public static final int CONTROL_HUE = 16;
+    public static final int CONTROL_HUE_AUTO = 17;
+    public static final int CONTROL_SATURATION = 18;
+    public static final int CONTROL_SHARPNESS = 19;
+    public static final int CONTROL_GAMMA = 20;
+    public static final int CONTROL_WHITE_BALANCE = 21;
+    public static final int CONTROL_WHITE_BALANCE_AUTO = 22;
+    public static final int CONTROL_WHITE_BALANCE_COMPONENT = 23;
+    public static final int CONTROL_WHITE_BALANCE_COMPONENT_AUTO = 24;
+    public static final int CONTROL_BACKLIGHT_COMPENSATION = 25;
+    public static final int CONTROL_GAIN = 26;
+    public static final int CONTROL_POWER_LINE_FREQUENCY = 27;
+    public static final int CONTROL_DIGITAL_MULTIPLIER = 28;
+    public static final int CONTROL_DIGITAL_MULTIPLIER_LIMIT = 29;
+    public static final int CONTROL_ANALOG_VIDEO_STANDARD = 30;
+
+    /**
+     * results of a control in {@link ControlBatch} and {@link ControlSet}, 0 is success
+     */
+    public static final int UVC_ERROR_NOT_SUPPORTED = -12;
+    public static final int UVC_ERROR_INVALID_DEVICE = -50;
+    public static final int CONTROL_RESULT_NOT_READ = -100;
+
+    /**
+     * controls of {@link #snapshot()} in the order they should be restored,
+     * auto modes come before the values they affect
+     */
+    private static final int[] PROFILE_CONTROLS = {
+            CONTROL_AE_MODE,
+            CONTROL_AE_PRIORITY,
+            CONTROL_EXPOSURE_TIME_ABSOLUTE,
+            CONTROL_IRIS_ABSOLUTE,
+            CONTROL_FOCUS_AUTO,
+            CONTROL_FOCUS_ABSOLUTE,
+            CONTROL_ZOOM_ABSOLUTE,
+            CONTROL_PAN_ABSOLUTE,
+            CONTROL_TILT_ABSOLUTE,
+            CONTROL_ROLL_ABSOLUTE,
+            CONTROL_WHITE_BALANCE_AUTO,
+            CONTROL_WHITE_BALANCE,
+            CONTROL_WHITE_BALANCE_COMPONENT_AUTO,
+            CONTROL_WHITE_BALANCE_COMPONENT,
+            CONTROL_HUE_AUTO,
+            CONTROL_HUE,
+            CONTROL_CONTRAST_AUTO,
+            CONTROL_CONTRAST,
+            CONTROL_BRIGHTNESS,
+            CONTROL_SATURATION,
+            CONTROL_SHARPNESS,
+            CONTROL_GAMMA,
+            CONTROL_GAIN,
+            CONTROL_BACKLIGHT_COMPENSATION,
+            CONTROL_POWER_LINE_FREQUENCY,
+            CONTROL_DIGITAL_MULTIPLIER_LIMIT,
+            CONTROL_DIGITAL_MULTIPLIER,
+    };
+
     /**
      * description array of camera terminal
      */
@@ -121,10 +202,119 @@ public class UVCControl {
         System.loadLibrary("UVCCamera");
     }
 
+    /**
+     * number of values returned by {@link #getLimits()}
+     */
+    private static final int LIMITS_LENGTH = 39 * 3;
+
     protected long mNativePtr;
 
     protected long mCameraTerminalControls;            // bmControls ( a entry of bit set ) , indicating the availability of certain camera controls for the video stream.
     protected long mProcessingUnitControls;              // bmControls ( a entry of bit set ) , indicating the availability of certain processing controls for the video stream.
+    /**
+     * support flags of the controls whose min/max/def {@link #ensureLimits()} queries,
+     * in the same order as mLimitQueries
+     */
+    private static final long[] LIMIT_FLAGS = {
+            CT_SCANNING_MODE_CONTROL,
+            CT_AE_MODE_CONTROL,
+            CT_AE_PRIORITY_CONTROL,
+            CT_EXPOSURE_TIME_ABSOLUTE_CONTROL,
+            CT_EXPOSURE_TIME_RELATIVE_CONTROL,
+            CT_FOCUS_ABSOLUTE_CONTROL,
+            CT_FOCUS_RELATIVE_CONTROL,
+            CT_IRIS_ABSOLUTE_CONTROL,
+            CT_IRIS_RELATIVE_CONTROL,
+            CT_ZOOM_ABSOLUTE_CONTROL,
+            CT_ZOOM_RELATIVE_CONTROL,
+            CT_PANTILT_ABSOLUTE_CONTROL,
+            CT_PANTILT_ABSOLUTE_CONTROL,
+            CT_PANTILT_RELATIVE_CONTROL,
+            CT_PANTILT_RELATIVE_CONTROL,
+            CT_ROLL_ABSOLUTE_CONTROL,
+            CT_ROLL_RELATIVE_CONTROL,
+            CT_FOCUS_AUTO_CONTROL,
+            CT_PRIVACY_CONTROL,
+            PU_BRIGHTNESS_CONTROL,
+            PU_CONTRAST_CONTROL,
+            PU_HUE_CONTROL,
+            PU_SATURATION_CONTROL,
+            PU_SHARPNESS_CONTROL,
+            PU_GAMMA_CONTROL,
+            PU_WHITE_BALANCE_TEMPERATURE_CONTROL,
+            PU_WHITE_BALANCE_COMPONENT_CONTROL,
+            PU_BACKLIGHT_COMPENSATION_CONTROL,
+            PU_GAIN_CONTROL,
+            PU_POWER_LINE_FREQUENCY_CONTROL,
+            PU_HUE_AUTO_CONTROL,
+            PU_WHITE_BALANCE_TEMPERATURE_AUTO_CONTROL,
+            PU_WHITE_BALANCE_COMPONENT_AUTO_CONTROL,
+            PU_DIGITAL_MULTIPLIER_CONTROL,
+            PU_DIGITAL_MULTIPLIER_LIMIT_CONTROL,
+            PU_ANALOG_VIDEO_STANDARD_CONTROL,
+            PU_ANALOG_LOCK_STATUS_CONTROL,
+            PU_CONTRAST_AUTO_CONTROL,
+    };
+    private static final long ALL_LIMITS = (1L << LIMIT_FLAGS.length) - 1;
+
+    private interface LimitQuery {
+        /**
+         * @return min/max/def, null if the query failed
+         */
+        int[] update();
+    }
+
+    private final LimitQuery[] mLimitQueries = {
+            this::updateScanningModeLimit,
+            this::updateAutoExposureModeLimit,
+            this::updateAutoExposurePriorityLimit,
+            this::updateExposureTimeAbsoluteLimit,
+            this::updateExposureTimeRelativeLimit,
+            this::updateFocusAbsoluteLimit,
+            this::updateFocusRelativeLimit,
+            this::updateIrisAbsoluteLimit,
+            this::updateIrisRelativeLimit,
+            this::updateZoomAbsoluteLimit,
+            this::updateZoomRelativeLimit,
+            this::updatePanAbsoluteLimit,
+            this::updateTiltAbsoluteLimit,
+            this::updatePanRelativeLimit,
+            this::updateTiltRelativeLimit,
+            this::updateRollAbsoluteLimit,
+            this::updateRollRelativeLimit,
+            this::updateFocusAutoLimit,
+            this::updatePrivacyLimit,
+            this::updateBrightnessLimit,
+            this::updateContrastLimit,
+            this::updateHueLimit,
+            this::updateSaturationLimit,
+            this::updateSharpnessLimit,
+            this::updateGammaLimit,
+            this::updateWhiteBalanceLimit,
+            this::updateWhiteBalanceCompoLimit,
+            this::updateBacklightCompLimit,
+            this::updateGainLimit,
+            this::updatePowerlineFrequencyLimit,
+            this::updateHueAutoLimit,
+            this::updateWhiteBalanceAutoLimit,
+            this::updateWhiteBalanceCompoAutoLimit,
+            this::updateDigitalMultiplierLimit,
+            this::updateDigitalMultiplierLimitLimit,
+            this::updateAnalogVideoStandardLimit,
+            this::updateAnalogVideoLockStateLimit,
+            this::updateContrastAutoLimit,
+    };
+    /**
+     * bit of each entry of LIMIT_FLAGS whose min/max/def are known or that is not supported,
+     * valid only while mValidLimitsGeneration equals mLimitsGeneration
+     */
+    private long mValidLimits;
+    private int mValidLimitsGeneration;
+    /**
+     * incremented when the camera reports that the info of a control changed
+     */
+    private final AtomicInteger mLimitsGeneration = new AtomicInteger();
+    private ControlQueue mQueue;
 
     protected int mScanningModeMin, mScanningModeMax, mScanningModeDef;
     protected int mAutoExposureModeMin, mAutoExposureModeMax, mAutoExposureModeDef;
@@ -166,15 +356,231 @@ public class UVCControl {
     protected int mAnalogVideoLockStateMin, mAnalogVideoLockStateMax, mAnalogVideoLockStateDef;
     protected int mContrastAutoMin, mContrastAutoMax, mContrastAutoDef;
 
+    /**
+     * only the control flags are read here, min/max/def of the controls are queried
+     * when one of them is needed first or by {@link #ensureLimits()} in background
+     */
     public UVCControl(long ptr) {
         mNativePtr = ptr;
-        updateCameraParams();
+        updateControlFlags();
+    }
+
+    /**
+     * create with control flags and limits cached from a previous open of the same device
+     * instead of querying all of them from the camera
+     *
+     * @param limits values returned by {@link #getLimits()}, ignored if the layout does not match
+     */
+    UVCControl(long ptr, long cameraTerminalControls, long processingUnitControls, int[] limits) {
+        mNativePtr = ptr;
+        if ((cameraTerminalControls != 0) && (processingUnitControls != 0) && setLimits(limits)) {
+            mCameraTerminalControls = cameraTerminalControls;
+            mProcessingUnitControls = processingUnitControls;
+            mValidLimits = ALL_LIMITS;
+            mValidLimitsGeneration = mLimitsGeneration.get();
+        }
+        updateControlFlags();
+    }
+
+    /**
+     * @return true if control flags and limits were obtained and can be cached
+     */
+    synchronized boolean hasCameraParams() {
+        return isLimitsValid() && (mCameraTerminalControls != 0) && (mProcessingUnitControls != 0);
+    }
+
+    /**
+     * should be called with this instance locked
+     */
+    private boolean isLimitsValid() {
+        return (mValidLimits == ALL_LIMITS) && (mValidLimitsGeneration == mLimitsGeneration.get());
+    }
+
+    synchronized long getCameraTerminalControls() {
+        return mCameraTerminalControls;
+    }
+
+    synchronized long getProcessingUnitControls() {
+        return mProcessingUnitControls;
+    }
+
+    /**
+     * min/max/def of all controls in fixed order, for caching
+     */
+    synchronized int[] getLimits() {
+        ensureLimits();
+        return new int[]{
+                mScanningModeMin, mScanningModeMax, mScanningModeDef,
+                mAutoExposureModeMin, mAutoExposureModeMax, mAutoExposureModeDef,
+                mAutoExposurePriorityMin, mAutoExposurePriorityMax, mAutoExposurePriorityDef,
+                mExposureTimeMin, mExposureTimeMax, mExposureTimeDef,
+                mExposureTimeRelativeMin, mExposureTimeRelativeMax, mExposureTimeRelativeDef,
+                mFocusAbsoluteMin, mFocusAbsoluteMax, mFocusAbsoluteDef,
+                mFocusRelativeMin, mFocusRelativeMax, mFocusRelativeDef,
+                mIrisAbsoluteMin, mIrisAbsoluteMax, mIrisAbsoluteDef,
+                mIrisRelativeMin, mIrisRelativeMax, mIrisRelativeDef,
+                mZoomAbsoluteMin, mZoomAbsoluteMax, mZoomAbsoluteDef,
+                mZoomRelativeMin, mZoomRelativeMax, mZoomRelativeDef,
+                mPanAbsoluteMin, mPanAbsoluteMax, mPanAbsoluteDef,
+                mTiltAbsoluteMin, mTiltAbsoluteMax, mTiltAbsoluteDef,
+                mPanRelativeMin, mPanRelativeMax, mPanRelativeDef,
+                mTiltRelativeMin, mTiltRelativeMax, mTiltRelativeDef,
+                mRollMin, mRollMax, mRollDef,
+                mRollRelativeMin, mRollRelativeMax, mRollRelativeDef,
+                mFocusAutoMin, mFocusAutoMax, mFocusAutoDef,
+                mPrivacyMin, mPrivacyMax, mPrivacyDef,
+                mFocusSimpleMin, mFocusSimpleMax, mFocusSimpleDef,
+                mBrightnessMin, mBrightnessMax, mBrightnessDef,
+                mContrastMin, mContrastMax, mContrastDef,
+                mHueMin, mHueMax, mHueDef,
+                mSaturationMin, mSaturationMax, mSaturationDef,
+                mSharpnessMin, mSharpnessMax, mSharpnessDef,
+                mGammaMin, mGammaMax, mGammaDef,
+                mWhiteBalanceMin, mWhiteBalanceMax, mWhiteBalanceDef,
+                mWhiteBalanceCompoMin, mWhiteBalanceCompoMax, mWhiteBalanceCompoDef,
+                mBacklightCompMin, mBacklightCompMax, mBacklightCompDef,
+                mGainMin, mGainMax, mGainDef,
+                mPowerlineFrequencyMin, mPowerlineFrequencyMax, mPowerlineFrequencyDef,
+                mHueAutoMin, mHueAutoMax, mHueAutoDef,
+                mWhiteBalanceAutoMin, mWhiteBalanceAutoMax, mWhiteBalanceAutoDef,
+                mWhiteBalanceCompoAutoMin, mWhiteBalanceCompoAutoMax, mWhiteBalanceCompoAutoDef,
+                mDigitalMultiplierMin, mDigitalMultiplierMax, mDigitalMultiplierDef,
+                mDigitalMultiplierLimitMin, mDigitalMultiplierLimitMax, mDigitalMultiplierLimitDef,
+                mAnalogVideoStandardMin, mAnalogVideoStandardMax, mAnalogVideoStandardDef,
+                mAnalogVideoLockStateMin, mAnalogVideoLockStateMax, mAnalogVideoLockStateDef,
+                mContrastAutoMin, mContrastAutoMax, mContrastAutoDef,
+        };
+    }
+
+    private boolean setLimits(final int[] limits) {
+        if ((limits == null) || (limits.length != LIMITS_LENGTH)) {
+            return false;
+        }
+        int i = 0;
+        mScanningModeMin = limits[i++];
+        mScanningModeMax = limits[i++];
+        mScanningModeDef = limits[i++];
+        mAutoExposureModeMin = limits[i++];
+        mAutoExposureModeMax = limits[i++];
+        mAutoExposureModeDef = limits[i++];
+        mAutoExposurePriorityMin = limits[i++];
+        mAutoExposurePriorityMax = limits[i++];
+        mAutoExposurePriorityDef = limits[i++];
+        mExposureTimeMin = limits[i++];
+        mExposureTimeMax = limits[i++];
+        mExposureTimeDef = limits[i++];
+        mExposureTimeRelativeMin = limits[i++];
+        mExposureTimeRelativeMax = limits[i++];
+        mExposureTimeRelativeDef = limits[i++];
+        mFocusAbsoluteMin = limits[i++];
+        mFocusAbsoluteMax = limits[i++];
+        mFocusAbsoluteDef = limits[i++];
+        mFocusRelativeMin = limits[i++];
+        mFocusRelativeMax = limits[i++];
+        mFocusRelativeDef = limits[i++];
+        mIrisAbsoluteMin = limits[i++];
+        mIrisAbsoluteMax = limits[i++];
+        mIrisAbsoluteDef = limits[i++];
+        mIrisRelativeMin = limits[i++];
+        mIrisRelativeMax = limits[i++];
+        mIrisRelativeDef = limits[i++];
+        mZoomAbsoluteMin = limits[i++];
+        mZoomAbsoluteMax = limits[i++];
+        mZoomAbsoluteDef = limits[i++];
+        mZoomRelativeMin = limits[i++];
+        mZoomRelativeMax = limits[i++];
+        mZoomRelativeDef = limits[i++];
+        mPanAbsoluteMin = limits[i++];
+        mPanAbsoluteMax = limits[i++];
+        mPanAbsoluteDef = limits[i++];
+        mTiltAbsoluteMin = limits[i++];
+        mTiltAbsoluteMax = limits[i++];
+        mTiltAbsoluteDef = limits[i++];
+        mPanRelativeMin = limits[i++];
+        mPanRelativeMax = limits[i++];
+        mPanRelativeDef = limits[i++];
+        mTiltRelativeMin = limits[i++];
+        mTiltRelativeMax = limits[i++];
+        mTiltRelativeDef = limits[i++];
+        mRollMin = limits[i++];
+        mRollMax = limits[i++];
+        mRollDef = limits[i++];
+        mRollRelativeMin = limits[i++];
+        mRollRelativeMax = limits[i++];
+        mRollRelativeDef = limits[i++];
+        mFocusAutoMin = limits[i++];
+        mFocusAutoMax = limits[i++];
+        mFocusAutoDef = limits[i++];
+        mPrivacyMin = limits[i++];
+        mPrivacyMax = limits[i++];
+        mPrivacyDef = limits[i++];
+        mFocusSimpleMin = limits[i++];
+        mFocusSimpleMax = limits[i++];
+        mFocusSimpleDef = limits[i++];
+        mBrightnessMin = limits[i++];
+        mBrightnessMax = limits[i++];
+        mBrightnessDef = limits[i++];
+        mContrastMin = limits[i++];
+        mContrastMax = limits[i++];
+        mContrastDef = limits[i++];
+        mHueMin = limits[i++];
+        mHueMax = limits[i++];
+        mHueDef = limits[i++];
+        mSaturationMin = limits[i++];
+        mSaturationMax = limits[i++];
+        mSaturationDef = limits[i++];
+        mSharpnessMin = limits[i++];
+        mSharpnessMax = limits[i++];
+        mSharpnessDef = limits[i++];
+        mGammaMin = limits[i++];
+        mGammaMax = limits[i++];
+        mGammaDef = limits[i++];
+        mWhiteBalanceMin = limits[i++];
+        mWhiteBalanceMax = limits[i++];
+        mWhiteBalanceDef = limits[i++];
+        mWhiteBalanceCompoMin = limits[i++];
+        mWhiteBalanceCompoMax = limits[i++];
+        mWhiteBalanceCompoDef = limits[i++];
+        mBacklightCompMin = limits[i++];
+        mBacklightCompMax = limits[i++];
+        mBacklightCompDef = limits[i++];
+        mGainMin = limits[i++];
+        mGainMax = limits[i++];
+        mGainDef = limits[i++];
+        mPowerlineFrequencyMin = limits[i++];
+        mPowerlineFrequencyMax = limits[i++];
+        mPowerlineFrequencyDef = limits[i++];
+        mHueAutoMin = limits[i++];
+        mHueAutoMax = limits[i++];
+        mHueAutoDef = limits[i++];
+        mWhiteBalanceAutoMin = limits[i++];
+        mWhiteBalanceAutoMax = limits[i++];
+        mWhiteBalanceAutoDef = limits[i++];
+        mWhiteBalanceCompoAutoMin = limits[i++];
+        mWhiteBalanceCompoAutoMax = limits[i++];
+        mWhiteBalanceCompoAutoDef = limits[i++];
+        mDigitalMultiplierMin = limits[i++];
+        mDigitalMultiplierMax = limits[i++];
+        mDigitalMultiplierDef = limits[i++];
+        mDigitalMultiplierLimitMin = limits[i++];
+        mDigitalMultiplierLimitMax = limits[i++];
+        mDigitalMultiplierLimitDef = limits[i++];
+        mAnalogVideoStandardMin = limits[i++];
+        mAnalogVideoStandardMax = limits[i++];
+        mAnalogVideoStandardDef = limits[i++];
+        mAnalogVideoLockStateMin = limits[i++];
+        mAnalogVideoLockStateMax = limits[i++];
+        mAnalogVideoLockStateDef = limits[i++];
+        mContrastAutoMin = limits[i++];
+        mContrastAutoMax = limits[i++];
+        mContrastAutoDef = limits[i++];
+        return true;
     }
 
     // wrong result may return when you call this just after camera open.
     // it is better to wait several hundreds milliseconds.
     public boolean checkSupportFlag(final long flag) {
-        updateCameraParams();
+        updateControlFlags();
         if ((flag & 0x80000000) == 0x80000000) {
             return ((mProcessingUnitControls & flag) == (flag & 0x7ffffffF));
         } else {
@@ -217,6 +623,7 @@ public class UVCControl {
     }
 
     public synchronized void resetScanningMode() {
+        ensureLimits();
         nativeSetScanningMode(mNativePtr, mScanningModeDef);
     }
 
@@ -259,6 +666,7 @@ public class UVCControl {
     }
 
     public synchronized void resetAutoExposureMode() {
+        ensureLimits();
         nativeSetAutoExposureMode(mNativePtr, mAutoExposureModeDef);
     }
 
@@ -334,6 +742,7 @@ public class UVCControl {
     }
 
     public synchronized void resetAutoExposurePriority() {
+        ensureLimits();
         nativeSetAutoExposurePriority(mNativePtr, mAutoExposurePriorityDef);
     }
 
@@ -374,6 +783,7 @@ public class UVCControl {
     }
 
     public synchronized void resetExposureTimeAbsolute() {
+        ensureLimits();
         nativeSetExposureTimeAbsolute(mNativePtr, mExposureTimeDef);
     }
 
@@ -410,6 +820,7 @@ public class UVCControl {
     }
 
     public synchronized void resetExposureTimeRelative() {
+        ensureLimits();
         nativeSetExposureTimeRelative(mNativePtr, mExposureTimeRelativeDef);
     }
 
@@ -446,6 +857,7 @@ public class UVCControl {
     }
 
     public synchronized void resetFocusAbsolute() {
+        ensureLimits();
         nativeSetFocusAbsolute(mNativePtr, mFocusAbsoluteDef);
     }
 
@@ -455,6 +867,7 @@ public class UVCControl {
      * @param percent
      */
     public synchronized void setFocusAbsolutePercent(final int percent) {
+        ensureLimits();
         final float range = Math.abs(mFocusAbsoluteMax - mFocusAbsoluteMin);
         if (range > 0) {
             // focus focal target distance in millimeters
@@ -466,10 +879,8 @@ public class UVCControl {
      * @return focus[%]
      */
     public synchronized int getFocusAbsolutePercent() {
+        ensureLimits();
         int result = 0;
-
-        updateFocusAbsoluteLimit();
-
         final float range = Math.abs(mFocusAbsoluteMax - mFocusAbsoluteMin);
         if (range > 0) {
             result = (int) ((nativeGetFocusAbsolute(mNativePtr) - mFocusAbsoluteMin) * 100.f / range);
@@ -511,6 +922,7 @@ public class UVCControl {
     }
 
     public synchronized void resetFocusRelative() {
+        ensureLimits();
         nativeSetFocusRelative(mNativePtr, mFocusAbsoluteDef);
     }
 
@@ -547,6 +959,7 @@ public class UVCControl {
     }
 
     public synchronized void resetIrisAbsolute() {
+        ensureLimits();
         nativeSetIrisAbsolute(mNativePtr, mIrisAbsoluteDef);
     }
 
@@ -583,6 +996,7 @@ public class UVCControl {
     }
 
     public synchronized void resetIrisRelative() {
+        ensureLimits();
         nativeSetIrisRelative(mNativePtr, mIrisRelativeDef);
     }
 
@@ -620,6 +1034,7 @@ public class UVCControl {
     }
 
     public synchronized void resetZoomAbsolute() {
+        ensureLimits();
         nativeSetZoomAbsolute(mNativePtr, mZoomAbsoluteDef);
     }
 
@@ -630,6 +1045,7 @@ public class UVCControl {
      * @param percent
      */
     public synchronized void setZoomAbsolutePercent(final int percent) {
+        ensureLimits();
         final float range = Math.abs(mZoomAbsoluteMax - mZoomAbsoluteMin);
         if (range > 0) {
             final int z = (int) (percent / 100.f * range) + mZoomAbsoluteMin;
@@ -642,8 +1058,8 @@ public class UVCControl {
      * @return zoom[%]
      */
     public synchronized int getZoomAbsolutePercent() {
+        ensureLimits();
         int result = 0;
-        updateZoomAbsoluteLimit();
         final float range = Math.abs(mZoomAbsoluteMax - mZoomAbsoluteMin);
         if (range > 0) {
             result = (int) ((nativeGetZoomAbsolute(mNativePtr) - mZoomAbsoluteMin) * 100.f / range);
@@ -685,6 +1101,7 @@ public class UVCControl {
     }
 
     public synchronized void resetZoomRelative() {
+        ensureLimits();
         nativeSetZoomRelative(mNativePtr, mZoomRelativeDef);
     }
 
@@ -718,6 +1135,7 @@ public class UVCControl {
     }
 
     public synchronized void resetPanAbsolute() {
+        ensureLimits();
         nativeSetPanAbsolute(mNativePtr, mPanAbsoluteDef);
     }
 
@@ -751,6 +1169,7 @@ public class UVCControl {
     }
 
     public synchronized void resetTiltAbsolute() {
+        ensureLimits();
         nativeSetTiltAbsolute(mNativePtr, mTiltAbsoluteDef);
     }
 
@@ -784,6 +1203,7 @@ public class UVCControl {
     }
 
     public synchronized void resetPanRelative() {
+        ensureLimits();
         nativeSetPanRelative(mNativePtr, mPanRelativeDef);
     }
 
@@ -817,6 +1237,7 @@ public class UVCControl {
     }
 
     public synchronized void resetTiltRelative() {
+        ensureLimits();
         nativeSetTiltRelative(mNativePtr, mTiltRelativeDef);
     }
 
@@ -850,6 +1271,7 @@ public class UVCControl {
     }
 
     public synchronized void resetRollAbsolute() {
+        ensureLimits();
         nativeSetRollAbsolute(mNativePtr, mRollDef);
     }
 
@@ -883,6 +1305,7 @@ public class UVCControl {
     }
 
     public synchronized void resetRollRelative() {
+        ensureLimits();
         nativeSetRollRelative(mNativePtr, mRollRelativeDef);
     }
 
@@ -916,6 +1339,7 @@ public class UVCControl {
     }
 
     public synchronized void resetFocusAuto() {
+        ensureLimits();
         nativeSetFocusAuto(mNativePtr, mFocusAutoDef > 0);
     }
 
@@ -949,6 +1373,7 @@ public class UVCControl {
     }
 
     public synchronized void resetPrivacy() {
+        ensureLimits();
         nativeSetPrivacy(mNativePtr, mPrivacyDef > 0);
     }
 
@@ -986,6 +1411,7 @@ public class UVCControl {
     }
 
     public synchronized void resetBrightness() {
+        ensureLimits();
         nativeSetBrightness(mNativePtr, mBrightnessDef);
     }
 
@@ -993,6 +1419,7 @@ public class UVCControl {
      * @param percent
      */
     public synchronized void setBrightnessPercent(final int percent) {
+        ensureLimits();
         final float range = Math.abs(mBrightnessMax - mBrightnessMin);
         if (range > 0) {
             nativeSetBrightness(mNativePtr, (int) (percent / 100.f * range) + mBrightnessMin);
@@ -1003,10 +1430,8 @@ public class UVCControl {
      * @return brightness[%]
      */
     public synchronized int getBrightnessPercent() {
+        ensureLimits();
         int result = 0;
-
-        updateBrightnessLimit();
-
         final float range = Math.abs(mBrightnessMax - mBrightnessMin);
         if (range > 0) {
             result = (int) ((nativeGetBrightness(mNativePtr) - mBrightnessMin) * 100.f / range);
@@ -1045,6 +1470,7 @@ public class UVCControl {
     }
 
     public synchronized void resetContrast() {
+        ensureLimits();
         nativeSetContrast(mNativePtr, mContrastDef);
     }
 
@@ -1052,8 +1478,7 @@ public class UVCControl {
      * @param percent
      */
     public synchronized void setContrastPercent(final int percent) {
-        updateContrastLimit();
-
+        ensureLimits();
         final float range = Math.abs(mContrastMax - mContrastMin);
         if (range > 0) {
             nativeSetContrast(mNativePtr, (int) (percent / 100.f * range) + mContrastMin);
@@ -1064,6 +1489,7 @@ public class UVCControl {
      * @return contrast[%]
      */
     public synchronized int getContrastPercent() {
+        ensureLimits();
         int result = 0;
         final float range = Math.abs(mContrastMax - mContrastMin);
         if (range > 0) {
@@ -1103,6 +1529,7 @@ public class UVCControl {
     }
 
     public synchronized void resetHue() {
+        ensureLimits();
         nativeSetHue(mNativePtr, mHueDef);
     }
 
@@ -1110,6 +1537,7 @@ public class UVCControl {
      * @param percent
      */
     public synchronized void setHuePercent(final int percent) {
+        ensureLimits();
         final float range = Math.abs(mHueMax - mHueMin);
         if (range > 0) {
             nativeSetHue(mNativePtr, (int) (percent / 100.f * range) + mHueMin);
@@ -1120,6 +1548,7 @@ public class UVCControl {
      * @return hue[%]
      */
     public synchronized int getHuePercent() {
+        ensureLimits();
         int result = 0;
         nativeObtainHueLimit(mNativePtr);
         final float range = Math.abs(mHueMax - mHueMin);
@@ -1160,6 +1589,7 @@ public class UVCControl {
     }
 
     public synchronized void resetSaturation() {
+        ensureLimits();
         nativeSetSaturation(mNativePtr, mSaturationDef);
     }
 
@@ -1167,6 +1597,7 @@ public class UVCControl {
      * @param percent
      */
     public synchronized void setSaturationPercent(final int percent) {
+        ensureLimits();
         final float range = Math.abs(mSaturationMax - mSaturationMin);
         if (range > 0) {
             nativeSetSaturation(mNativePtr, (int) (percent / 100.f * range) + mSaturationMin);
@@ -1177,8 +1608,8 @@ public class UVCControl {
      * @return saturation[%]
      */
     public synchronized int getSaturationPercent() {
+        ensureLimits();
         int result = 0;
-        updateSaturationLimit();
         final float range = Math.abs(mSaturationMax - mSaturationMin);
         if (range > 0) {
             result = (int) ((nativeGetSaturation(mNativePtr) - mSaturationMin) * 100.f / range);
@@ -1217,6 +1648,7 @@ public class UVCControl {
     }
 
     public synchronized void resetSharpness() {
+        ensureLimits();
         nativeSetSharpness(mNativePtr, mSharpnessDef);
     }
 
@@ -1224,6 +1656,7 @@ public class UVCControl {
      * @param percent
      */
     public synchronized void setSharpnessPercent(final int percent) {
+        ensureLimits();
         final float range = Math.abs(mSharpnessMax - mSharpnessMin);
         if (range > 0) {
             nativeSetSharpness(mNativePtr, (int) (percent / 100.f * range) + mSharpnessMin);
@@ -1234,8 +1667,8 @@ public class UVCControl {
      * @return sharpness[%]
      */
     public synchronized int getSharpnessPercent() {
+        ensureLimits();
         int result = 0;
-        updateSharpnessLimit();
         final float range = Math.abs(mSharpnessMax - mSharpnessMin);
         if (range > 0) {
             result = (int) ((nativeGetSharpness(mNativePtr) - mSharpnessMin) * 100.f / range);
@@ -1274,6 +1707,7 @@ public class UVCControl {
     }
 
     public synchronized void resetGamma() {
+        ensureLimits();
         nativeSetGamma(mNativePtr, mGammaDef);
     }
 
@@ -1281,6 +1715,7 @@ public class UVCControl {
      * @param percent
      */
     public synchronized void setGammaPercent(final int percent) {
+        ensureLimits();
         final float range = Math.abs(mGammaMax - mGammaMin);
         if (range > 0) {
             nativeSetGamma(mNativePtr, (int) (percent / 100.f * range) + mGammaMin);
@@ -1291,8 +1726,8 @@ public class UVCControl {
      * @return gamma[%]
      */
     public synchronized int getGammaPercent() {
+        ensureLimits();
         int result = 0;
-        updateGammaLimit();
         final float range = Math.abs(mGammaMax - mGammaMin);
         if (range > 0) {
             result = (int) ((nativeGetGamma(mNativePtr) - mGammaMin) * 100.f / range);
@@ -1333,6 +1768,7 @@ public class UVCControl {
     }
 
     public synchronized void resetWhiteBalance() {
+        ensureLimits();
         nativeSetWhiteBalance(mNativePtr, mWhiteBalanceDef);
     }
 
@@ -1342,6 +1778,7 @@ public class UVCControl {
      * @param percent
      */
     public synchronized void setWhiteBalancePercent(final int percent) {
+        ensureLimits();
         final float range = Math.abs(mWhiteBalanceMax - mWhiteBalanceMin);
         if (range > 0) {
             nativeSetWhiteBalance(mNativePtr, (int) (percent / 100.f * range) + mWhiteBalanceMin);
@@ -1352,8 +1789,8 @@ public class UVCControl {
      * @return whiteBalance[%]
      */
     public synchronized int getWhiteBalancePercent() {
+        ensureLimits();
         int result = 0;
-        updateWhiteBalanceLimit();
         final float range = Math.abs(mWhiteBalanceMax - mWhiteBalanceMin);
         if (range > 0) {
             result = (int) ((nativeGetWhiteBalance(mNativePtr) - mWhiteBalanceMin) * 100.f / range);
@@ -1395,6 +1832,7 @@ public class UVCControl {
     }
 
     public synchronized void resetWhiteBalanceCompo() {
+        ensureLimits();
         nativeSetZoomRelative(mNativePtr, mWhiteBalanceCompoDef);
     }
 
@@ -1431,6 +1869,7 @@ public class UVCControl {
     }
 
     public synchronized void resetBacklightComp() {
+        ensureLimits();
         nativeSetBacklightComp(mNativePtr, mBacklightCompDef);
     }
 
@@ -1465,6 +1904,7 @@ public class UVCControl {
     }
 
     public synchronized void resetGain() {
+        ensureLimits();
         nativeSetGain(mNativePtr, mGainDef);
     }
 
@@ -1472,6 +1912,7 @@ public class UVCControl {
      * @param percent [%]
      */
     public synchronized void setGainPercent(final int percent) {
+        ensureLimits();
         final float range = Math.abs(mGainMax - mGainMin);
         if (range > 0) {
             nativeSetGain(mNativePtr, (int) (percent / 100.f * range) + mGainMin);
@@ -1482,8 +1923,8 @@ public class UVCControl {
      * @return gain[%]
      */
     public synchronized int getGainPercent() {
+        ensureLimits();
         int result = 0;
-        updateGainLimit();
         final float range = Math.abs(mGainMax - mGainMin);
         if (range > 0) {
             result = (int) ((nativeGetGain(mNativePtr) - mGainMin) * 100.f / range);
@@ -1521,6 +1962,7 @@ public class UVCControl {
     }
 
     public synchronized void resetPowerlineFrequency() {
+        ensureLimits();
         nativeSetPowerlineFrequency(mNativePtr, mPowerlineFrequencyDef);
     }
 
@@ -1554,6 +1996,7 @@ public class UVCControl {
     }
 
     public synchronized void resetHueAuto() {
+        ensureLimits();
         nativeSetHueAuto(mNativePtr, mHueAutoDef > 0);
     }
 
@@ -1582,6 +2025,7 @@ public class UVCControl {
     }
 
     public synchronized void resetWhiteBalanceAuto() {
+        ensureLimits();
         nativeSetWhiteBalanceAuto(mNativePtr, mWhiteBalanceAutoDef > 0);
     }
 
@@ -1610,6 +2054,7 @@ public class UVCControl {
     }
 
     public synchronized void resetWhiteBalanceCompoAuto() {
+        ensureLimits();
         nativeSetWhiteBalanceCompoAuto(mNativePtr, mWhiteBalanceCompoAutoDef > 0);
     }
 
@@ -1643,6 +2088,7 @@ public class UVCControl {
     }
 
     public synchronized void resetDigitalMultiplier() {
+        ensureLimits();
         nativeSetDigitalMultiplier(mNativePtr, mDigitalMultiplierDef);
     }
 
@@ -1676,6 +2122,7 @@ public class UVCControl {
     }
 
     public synchronized void resetDigitalMultiplierLimit() {
+        ensureLimits();
         nativeSetDigitalMultiplierLimit(mNativePtr, mDigitalMultiplierLimitDef);
     }
 
@@ -1709,6 +2156,7 @@ public class UVCControl {
     }
 
     public synchronized void resetAnalogVideoStandard() {
+        ensureLimits();
         nativeSetAnalogVideoStandard(mNativePtr, mAnalogVideoStandardDef);
     }
 
@@ -1742,6 +2190,7 @@ public class UVCControl {
     }
 
     public synchronized void resetAnalogVideoLockState() {
+        ensureLimits();
         nativeSetAnalogVideoLockState(mNativePtr, mAnalogVideoLockStateDef);
     }
 
@@ -1775,87 +2224,229 @@ public class UVCControl {
     }
 
     public synchronized void resetContrastAuto() {
+        ensureLimits();
         nativeSetContrastAuto(mNativePtr, mContrastAutoDef > 0);
     }
 
     //================================================================================
+
+    /**
+     * Sets all controls of the batch back to back with a single JNI call
+     * instead of a call and a lock for each control.
+     * The result of each control is set into the batch.
+     *
+     * @return true if all controls were set
+     */
+    public synchronized boolean apply(@NonNull final ControlBatch batch) {
+        final int n = batch.mCount;
+        if (n == 0) {
+            return true;
+        }
+        if (mNativePtr == 0) {
+            Arrays.fill(batch.mResults, 0, n, UVC_ERROR_INVALID_DEVICE);
+            return false;
+        }
+        return nativeApplyControls(mNativePtr, batch.mControls, batch.mValues, batch.mResults, n) == 0;
+    }
+
+    /**
+     * Gets all controls of the set back to back with a single JNI call.
+     * Controls the camera does not support or that failed to read have a negative result
+     * and no value, see {@link ControlSet#getResult(int)}.
+     *
+     * @return true if all controls were read
+     */
+    public synchronized boolean read(@NonNull final ControlSet set) {
+        final int n = set.mCount;
+        if (n == 0) {
+            return true;
+        }
+        if (mNativePtr == 0) {
+            Arrays.fill(set.mResults, 0, n, UVC_ERROR_INVALID_DEVICE);
+            return false;
+        }
+        return nativeReadControls(mNativePtr, set.mControls, set.mValues, set.mResults, n) == 0;
+    }
+
+    /**
+     * Reads the current values of all supported controls of a camera profile
+     * (exposure, focus, zoom, PTZ, white balance, image controls, etc.).
+     * Manual values that are controlled by an enabled auto mode are not included
+     * because the camera rejects them while the auto mode is enabled,
+     * neither are controls that failed to read nor ones whose auto mode failed to read.
+     *
+     * @return batch to pass to {@link #restore(ControlBatch)}
+     */
+    @NonNull
+    public synchronized ControlBatch snapshot() {
+        final ControlSet set = new ControlSet(PROFILE_CONTROLS);
+        read(set);
+        final int aeResult = set.getResult(CONTROL_AE_MODE);
+        final int aeMode = set.getValue(CONTROL_AE_MODE, UVC_AUTO_EXPOSURE_MODE_MANUAL);
+        final boolean aeUnknown = (aeResult != 0) && (aeResult != UVC_ERROR_NOT_SUPPORTED);
+        final ControlBatch batch = new ControlBatch(set.size());
+        for (final int control : PROFILE_CONTROLS) {
+            if (!set.has(control)) {
+                continue;
+            }
+            final boolean auto;
+            switch (control) {
+                case CONTROL_EXPOSURE_TIME_ABSOLUTE:
+                    auto = aeUnknown || (aeMode == UVC_AUTO_EXPOSURE_MODE_AUTO)
+                            || (aeMode == UVC_AUTO_EXPOSURE_MODE_APERTURE_PRIORITY);
+                    break;
+                case CONTROL_IRIS_ABSOLUTE:
+                    auto = aeUnknown || (aeMode == UVC_AUTO_EXPOSURE_MODE_AUTO)
+                            || (aeMode == UVC_AUTO_EXPOSURE_MODE_SHUTTER_PRIORITY);
+                    break;
+                case CONTROL_FOCUS_ABSOLUTE:
+                    auto = isAuto(set, CONTROL_FOCUS_AUTO);
+                    break;
+                case CONTROL_WHITE_BALANCE:
+                    auto = isAuto(set, CONTROL_WHITE_BALANCE_AUTO);
+                    break;
+                case CONTROL_WHITE_BALANCE_COMPONENT:
+                    auto = isAuto(set, CONTROL_WHITE_BALANCE_COMPONENT_AUTO);
+                    break;
+                case CONTROL_HUE:
+                    auto = isAuto(set, CONTROL_HUE_AUTO);
+                    break;
+                case CONTROL_CONTRAST:
+                    auto = isAuto(set, CONTROL_CONTRAST_AUTO);
+                    break;
+                default:
+                    auto = false;
+                    break;
+            }
+            if (!auto) {
+                batch.set(control, set.getValue(control, 0));
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return true if the auto mode is enabled or it is supported but failed to read
+     */
+    private static boolean isAuto(@NonNull final ControlSet set, final int autoControl) {
+        final int result = set.getResult(autoControl);
+        if (result == 0) {
+            return set.getValue(autoControl, 0) != 0;
+        }
+        return result != UVC_ERROR_NOT_SUPPORTED;
+    }
+
+    /**
+     * Returns the queue to set controls of this camera asynchronously,
+     * use this instead of the setters when values change rapidly, e.g. from a slider.
+     */
+    @NonNull
+    public synchronized ControlQueue getQueue() {
+        if (mQueue == null) {
+            mQueue = new ControlQueue(this);
+        }
+        return mQueue;
+    }
+
+    /**
+     * Restores a camera profile taken by {@link #snapshot()}, same as {@link #apply(ControlBatch)}.
+     * Controls that failed to read are not in the profile, so their current values are kept.
+     *
+     * @return true if all controls were set
+     */
+    public boolean restore(@NonNull final ControlBatch profile) {
+        return apply(profile);
+    }
+
     public synchronized void updateCameraParams() {
+        updateControlFlags();
+        ensureLimits();
+    }
+
+    /**
+     * read the control flags, these come from the descriptors and need no control transfer
+     */
+    private synchronized void updateControlFlags() {
         if (mNativePtr != 0) {
+            if (mCameraTerminalControls == 0) {
+                // Get the bmControls ( a entry of bit set )  of Camera Terminal (CT) that is supported  by the camera
+                mCameraTerminalControls = nativeGetCameraTerminalControls(mNativePtr);
+            }
+            if (mProcessingUnitControls == 0) {
+                // Get the bmControls ( a entry of bit set )  of Processing Unit (PU) that is supported  by the camera
+                mProcessingUnitControls = nativeGetProcessingUnitControls(mNativePtr);
+            }
+        } else {
+            mCameraTerminalControls = mProcessingUnitControls = 0;
+        }
+    }
+
+    /**
+     * query min/max/def of all controls unless they are already known.
+     * This runs dozens of control transfers, so it should run in background after the first frame.
+     * The lock is taken for each control only, so that the controls can be set meanwhile,
+     * and only the controls that were queried successfully are marked known.
+     *
+     * @return true if the limits of all supported controls are known
+     */
+    boolean ensureLimits() {
+        final int generation;
+        synchronized (this) {
+            if (mNativePtr == 0) {
+                return false;
+            }
+            updateControlFlags();
             if ((mCameraTerminalControls == 0) || (mProcessingUnitControls == 0)) {
-                // Get supported feature flag
-                if (mCameraTerminalControls == 0) {
-                    // Get the bmControls ( a entry of bit set )  of Camera Terminal (CT) that is supported  by the camera
-                    mCameraTerminalControls = nativeGetCameraTerminalControls(mNativePtr);
-                }
-                if (mProcessingUnitControls == 0) {
-                    // Get the bmControls ( a entry of bit set )  of Processing Unit (PU) that is supported  by the camera
-                    mProcessingUnitControls = nativeGetProcessingUnitControls(mNativePtr);
-                }
-                // Update supported feature parameters
-                if ((mCameraTerminalControls != 0) && (mProcessingUnitControls != 0)) {
-                    updateScanningModeLimit();
-                    updateAutoExposureModeLimit();
-                    updateAutoExposurePriorityLimit();
-                    updateExposureTimeAbsoluteLimit();
-                    updateExposureTimeRelativeLimit();
-                    updateFocusAbsoluteLimit();
-                    updateFocusRelativeLimit();
-                    updateIrisAbsoluteLimit();
-                    updateIrisRelativeLimit();
-                    updateZoomAbsoluteLimit();
-                    updateZoomRelativeLimit();
-                    updatePanAbsoluteLimit();
-                    updateTiltAbsoluteLimit();
-                    updatePanRelativeLimit();
-                    updateTiltRelativeLimit();
-                    updateRollAbsoluteLimit();
-                    updateRollRelativeLimit();
-                    updateFocusAutoLimit();
-                    updatePrivacyLimit();
-                    updateBrightnessLimit();
-                    updateContrastLimit();
-                    updateHueLimit();
-                    updateSaturationLimit();
-                    updateSharpnessLimit();
-                    updateGammaLimit();
-                    updateWhiteBalanceLimit();
-                    updateWhiteBalanceCompoLimit();
-                    updateBacklightCompLimit();
-                    updateGainLimit();
-                    updatePowerlineFrequencyLimit();
-                    updateHueAutoLimit();
-                    updateWhiteBalanceAutoLimit();
-                    updateWhiteBalanceCompoAutoLimit();
-                    updateDigitalMultiplierLimit();
-                    updateDigitalMultiplierLimitLimit();
-                    updateAnalogVideoStandardLimit();
-                    updateAnalogVideoLockStateLimit();
-                    updateContrastAutoLimit();
+                return false;
+            }
+            generation = mLimitsGeneration.get();
+            if (mValidLimitsGeneration != generation) {
+                // invalidated, query all of them again
+                mValidLimits = 0;
+                mValidLimitsGeneration = generation;
+            }
+            if (mValidLimits == ALL_LIMITS) {
+                return true;
+            }
+        }
+        for (int i = 0; i < LIMIT_FLAGS.length; i++) {
+            synchronized (this) {
+                if ((mNativePtr == 0) || (mLimitsGeneration.get() != generation)) {
+                    // released or invalidated while querying
+                    return false;
                 }
-                if (false) {
-                    dumpCameraTerminal(mCameraTerminalControls);
-                    dumpProcessingUnit(mProcessingUnitControls);
-                    Log.v(TAG, String.format("Brightness:min=%d,max=%d,def=%d", mBrightnessMin, mBrightnessMax, mBrightnessDef));
-                    Log.v(TAG, String.format("Contrast:min=%d,max=%d,def=%d", mContrastMin, mContrastMax, mContrastDef));
-                    Log.v(TAG, String.format("Sharpness:min=%d,max=%d,def=%d", mSharpnessMin, mSharpnessMax, mSharpnessDef));
-                    Log.v(TAG, String.format("Gain:min=%d,max=%d,def=%d", mGainMin, mGainMax, mGainDef));
-                    Log.v(TAG, String.format("Gamma:min=%d,max=%d,def=%d", mGammaMin, mGammaMax, mGammaDef));
-                    Log.v(TAG, String.format("Saturation:min=%d,max=%d,def=%d", mSaturationMin, mSaturationMax, mSaturationDef));
-                    Log.v(TAG, String.format("Hue:min=%d,max=%d,def=%d", mHueMin, mHueMax, mHueDef));
-                    Log.v(TAG, String.format("Zoom:min=%d,max=%d,def=%d", mZoomAbsoluteMin, mZoomAbsoluteMax, mZoomAbsoluteDef));
-                    Log.v(TAG, String.format("WhiteBalance:min=%d,max=%d,def=%d", mWhiteBalanceMin, mWhiteBalanceMax, mWhiteBalanceDef));
-                    Log.v(TAG, String.format("Focus:min=%d,max=%d,def=%d", mFocusAbsoluteMin, mFocusAbsoluteMax, mFocusAbsoluteDef));
-                    Log.v(TAG, String.format("AutoExposureMode:min=%d,max=%d,def=%d", mAutoExposureModeMin, mAutoExposureModeMax, mAutoExposureModeDef));
+                final long bit = 1L << i;
+                if (((mValidLimits & bit) == 0)
+                        && (!checkSupportFlag(LIMIT_FLAGS[i]) || (mLimitQueries[i].update() != null))) {
+                    mValidLimits |= bit;
                 }
             }
-        } else {
-            mCameraTerminalControls = mProcessingUnitControls = 0;
         }
+        synchronized (this) {
+            return isLimitsValid();
+        }
+    }
+
+    /**
+     * forget min/max/def of the controls when the camera reported that the info of a control changed,
+     * they are queried again when they are needed next time.
+     * This does not take the lock because it is called on the USB event thread.
+     */
+    void invalidateLimits() {
+        mLimitsGeneration.incrementAndGet();
     }
 
-    public void release(){
+    /**
+     * this waits for the limits being queried in background
+     */
+    public synchronized void release(){
+        if (mQueue != null) {
+            mQueue.release();
+            mQueue = null;
+        }
         mNativePtr = 0;
         mCameraTerminalControls = mProcessingUnitControls = 0;
+        mValidLimits = 0;
     }
 
     private void dumpCameraTerminal(final long CameraTerminalControls) {
@@ -1875,6 +2466,10 @@ public class UVCControl {
     //--------------------------------------------------------------------------------
     private native long nativeGetCameraTerminalControls(final long id_camera);
 
+    private native int nativeApplyControls(final long id_camera, final int[] controls, final int[] values, final int[] results, final int count);
+
+    private native int nativeReadControls(final long id_camera, final int[] controls, final int[] values, final int[] results, final int count);
+
     private native long nativeGetProcessingUnitControls(final long id_camera);
 
     private native int[] nativeObtainScanningModeLimit(final long id_camera);
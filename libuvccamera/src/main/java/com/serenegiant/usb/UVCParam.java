@@ -12,6 +12,11 @@ public class UVCParam implements Cloneable {
      * Enable some quirks to resolve specific issues
      */
     private int quirks;
+    /**
+     * Duration and margin of payload calibration, see {@link UVCCamera#setPayloadCalibration}
+     */
+    private int payloadCalibrationMs;
+    private int payloadCalibrationMarginPercent = UVCCamera.DEFAULT_CALIBRATION_MARGIN_PERCENT;
 
     public UVCParam() {
     }
@@ -37,13 +42,34 @@ public class UVCParam implements Cloneable {
         this.quirks = quirks;
     }
 
+    public int getPayloadCalibrationMs() {
+        return payloadCalibrationMs;
+    }
+
+    public int getPayloadCalibrationMarginPercent() {
+        return payloadCalibrationMarginPercent;
+    }
+
+    /**
+     * Select the smallest alt-setting that covers the payload measured after streaming starts
+     *
+     * @param durationMs    time to measure, 0 to disable, e.g. {@link UVCCamera#DEFAULT_CALIBRATION_MS}
+     * @param marginPercent margin added to the measured payload
+     */
+    public void setPayloadCalibration(int durationMs, int marginPercent) {
+        this.payloadCalibrationMs = durationMs;
+        this.payloadCalibrationMarginPercent = marginPercent;
+    }
+
     @NonNull
     @Override
     protected Object clone() {
         try {
             return super.clone();
         } catch (CloneNotSupportedException e) {
-            return new UVCParam(previewSize, quirks);
+            final UVCParam param = new UVCParam(previewSize, quirks);
+            param.setPayloadCalibration(payloadCalibrationMs, payloadCalibrationMarginPercent);
+            return param;
         }
     }
 }
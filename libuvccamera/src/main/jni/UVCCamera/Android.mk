@@ -57,6 +57,17 @@ LOCAL_SRC_FILES := \
 		_onload.cpp \
 		utilbase.cpp \
 		ConvertHelper.cpp \
+		InferenceTap.cpp \
+		MjpegMuxer.cpp \
+		AviMjpegMuxer.cpp \
+		MkvMjpegMuxer.cpp \
+		MjpegRecorder.cpp \
+		SceneChangeDetector.cpp \
+		LumaStats.cpp \
+		MosaicCompositor.cpp \
+		FrameMemoryBudget.cpp \
+		FramePool.cpp \
+		UVCContext.cpp \
 		UVCCamera.cpp \
 		UVCControl.cpp \
 		UVCPreview.cpp \
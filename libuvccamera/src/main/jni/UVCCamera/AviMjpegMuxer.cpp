@@ -0,0 +1,491 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: AviMjpegMuxer.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+
+#define	LOCAL_DEBUG 0
+
+#include "utilbase.h"
+#include "libUVCCamera.h"
+#include "MjpegMuxer.h"
+
+#define FCC(a, b, c, d) ((uint32_t)(a) | ((uint32_t)(b) << 8) | ((uint32_t)(c) << 16) | ((uint32_t)(d) << 24))
+
+#define AVI_RIFF_LIMIT (1024LL * 1024 * 1024)
+// each entry references one ix## chunk, the checkpoint interval is doubled when half of them are used
+#define AVI_SUPER_INDEX_ENTRIES 16384
+#define AVI_CHECKPOINT_INTERVAL_US 1000000LL
+// zero size chunks are inserted for dropped frames, but not for a longer gap than this
+#define AVI_MAX_GAP_FRAMES 300
+// skip audio gap larger than this at start of recording
+#define AVI_MAX_AUDIO_LEAD_US 1000000LL
+
+#define AVIF_HASINDEX 0x00000010
+#define AVIF_ISINTERLEAVED 0x00000100
+#define AVIIF_KEYFRAME 0x00000010
+#define AVI_INDEX_OF_INDEXES 0x00
+#define AVI_INDEX_OF_CHUNKS 0x01
+
+#define CKID_VIDEO FCC('0', '0', 'd', 'c')
+#define CKID_AUDIO FCC('0', '1', 'w', 'b')
+
+/**
+ * little endian byte buffer to build header chunks
+ */
+class LeBuffer {
+public:
+	std::vector<uint8_t> data;
+
+	inline size_t size() const { return data.size(); }
+	inline void u8(uint8_t v) { data.push_back(v); }
+	inline void u16(uint16_t v) { u8(v & 0xff); u8(v >> 8); }
+	inline void u32(uint32_t v) { u16(v & 0xffff); u16(v >> 16); }
+	inline void u64(uint64_t v) { u32((uint32_t)v); u32((uint32_t)(v >> 32)); }
+	inline void zero(size_t n) { data.insert(data.end(), n, 0); }
+	inline void set32(size_t offset, uint32_t v) {
+		data[offset] = v & 0xff; data[offset + 1] = (v >> 8) & 0xff;
+		data[offset + 2] = (v >> 16) & 0xff; data[offset + 3] = v >> 24;
+	}
+	/** start a LIST and return the offset of its size field */
+	inline size_t list(uint32_t type) {
+		u32(FCC('L', 'I', 'S', 'T'));
+		const size_t pos = size();
+		u32(0);
+		u32(type);
+		return pos;
+	}
+	inline void endList(size_t size_pos) {
+		set32(size_pos, (uint32_t)(size() - size_pos - 4));
+	}
+};
+
+static inline void put_le32(uint8_t *p, uint32_t v) {
+	p[0] = v & 0xff; p[1] = (v >> 8) & 0xff; p[2] = (v >> 16) & 0xff; p[3] = v >> 24;
+}
+
+static inline void put_le64(uint8_t *p, uint64_t v) {
+	put_le32(p, (uint32_t)v);
+	put_le32(p + 4, (uint32_t)(v >> 32));
+}
+
+AviMjpegMuxer::AviMjpegMuxer()
+:	mHasAudio(false),
+	mBlockAlign(0),
+	mRiffSizePos(0),
+	mMoviSizePos(0),
+	mMoviPos(0),
+	mAvihTotalFramesPos(0),
+	mVideoLengthPos(0),
+	mAudioLengthPos(0),
+	mVideoSuggestedPos(0),
+	mVideoIndxPos(0),
+	mAudioIndxPos(0),
+	mDmlhTotalFramesPos(0),
+	mBaseOffset(0),
+	mRiffCount(0),
+	mVideoFrames(0),
+	mFirstRiffFrames(0),
+	mAudioBytes(0),
+	mMaxVideoChunk(0),
+	mFirstPts(-1),
+	mLastCheckpointPts(0),
+	mCheckpointIntervalUs(AVI_CHECKPOINT_INTERVAL_US),
+	mAudioStarted(false),
+	mPendingAudioBytes(0),
+	mIdx1Written(false) {
+}
+
+AviMjpegMuxer::~AviMjpegMuxer() {
+}
+
+static void write_super_index(LeBuffer &h, uint32_t ckid) {
+	const size_t n = AVI_SUPER_INDEX_ENTRIES;
+	h.u32(FCC('i', 'n', 'd', 'x'));
+	h.u32((uint32_t)(24 + n * 16));
+	h.u16(4);						// wLongsPerEntry
+	h.u8(0);						// bIndexSubType
+	h.u8(AVI_INDEX_OF_INDEXES);		// bIndexType
+	h.u32(0);						// nEntriesInUse
+	h.u32(ckid);					// dwChunkId
+	h.zero(12);						// reserved
+	h.zero(n * 16);
+}
+
+int AviMjpegMuxer::open(int fd, const mjpeg_mux_config_t &config) {
+	ENTER();
+
+	mConfig = config;
+	if (mConfig.fps <= 0) mConfig.fps = 30;
+	mHasAudio = (config.audioSampleRate > 0) && (config.audioChannels > 0);
+	mBlockAlign = mHasAudio ? config.audioChannels * 2 : 0;
+	int result = mSink.open(fd, 1024 * 1024);
+	if (UNLIKELY(result)) RETURN(result, int);
+
+	const int64_t base = mSink.pos();
+	const uint32_t w = (uint32_t)config.width, h_ = (uint32_t)config.height;
+	LeBuffer h;
+	h.u32(FCC('R', 'I', 'F', 'F'));
+	mRiffSizePos = base + h.size();
+	h.u32(0);
+	h.u32(FCC('A', 'V', 'I', ' '));
+	const size_t hdrl = h.list(FCC('h', 'd', 'r', 'l'));
+	{	// main header
+		h.u32(FCC('a', 'v', 'i', 'h'));
+		h.u32(56);
+		h.u32(1000000 / mConfig.fps);			// dwMicroSecPerFrame
+		h.u32(0);								// dwMaxBytesPerSec
+		h.u32(0);								// dwPaddingGranularity
+		h.u32(AVIF_HASINDEX | AVIF_ISINTERLEAVED);
+		mAvihTotalFramesPos = base + h.size();
+		h.u32(0);								// dwTotalFrames(first RIFF only)
+		h.u32(0);								// dwInitialFrames
+		h.u32(mHasAudio ? 2 : 1);				// dwStreams
+		h.u32(1024 * 1024);						// dwSuggestedBufferSize
+		h.u32(w);
+		h.u32(h_);
+		h.zero(16);
+	}
+	{	// video stream
+		const size_t strl = h.list(FCC('s', 't', 'r', 'l'));
+		h.u32(FCC('s', 't', 'r', 'h'));
+		h.u32(56);
+		h.u32(FCC('v', 'i', 'd', 's'));
+		h.u32(FCC('M', 'J', 'P', 'G'));
+		h.u32(0);								// dwFlags
+		h.u16(0);								// wPriority
+		h.u16(0);								// wLanguage
+		h.u32(0);								// dwInitialFrames
+		h.u32(1);								// dwScale
+		h.u32(mConfig.fps);						// dwRate
+		h.u32(0);								// dwStart
+		mVideoLengthPos = base + h.size();
+		h.u32(0);								// dwLength
+		mVideoSuggestedPos = base + h.size();
+		h.u32(0);								// dwSuggestedBufferSize
+		h.u32(0xffffffff);						// dwQuality
+		h.u32(0);								// dwSampleSize
+		h.u16(0); h.u16(0); h.u16(w); h.u16(h_);	// rcFrame
+		h.u32(FCC('s', 't', 'r', 'f'));
+		h.u32(40);
+		h.u32(40);								// biSize
+		h.u32(w);
+		h.u32(h_);
+		h.u16(1);								// biPlanes
+		h.u16(24);								// biBitCount
+		h.u32(FCC('M', 'J', 'P', 'G'));
+		h.u32(w * h_ * 3);						// biSizeImage
+		h.zero(16);
+		mVideoIndxPos = base + h.size();
+		write_super_index(h, CKID_VIDEO);
+		h.endList(strl);
+	}
+	if (mHasAudio) {
+		const size_t strl = h.list(FCC('s', 't', 'r', 'l'));
+		const uint32_t rate = (uint32_t)config.audioSampleRate;
+		h.u32(FCC('s', 't', 'r', 'h'));
+		h.u32(56);
+		h.u32(FCC('a', 'u', 'd', 's'));
+		h.u32(0);								// fccHandler
+		h.u32(0);
+		h.u16(0);
+		h.u16(0);
+		h.u32(0);
+		h.u32(mBlockAlign);						// dwScale
+		h.u32(rate * mBlockAlign);				// dwRate
+		h.u32(0);
+		mAudioLengthPos = base + h.size();
+		h.u32(0);								// dwLength in blocks
+		h.u32(rate * mBlockAlign);				// dwSuggestedBufferSize
+		h.u32(0xffffffff);
+		h.u32(mBlockAlign);						// dwSampleSize
+		h.zero(8);
+		h.u32(FCC('s', 't', 'r', 'f'));
+		h.u32(18);
+		h.u16(1);								// WAVE_FORMAT_PCM
+		h.u16(config.audioChannels);
+		h.u32(rate);
+		h.u32(rate * mBlockAlign);				// nAvgBytesPerSec
+		h.u16(mBlockAlign);
+		h.u16(16);								// wBitsPerSample
+		h.u16(0);								// cbSize
+		mAudioIndxPos = base + h.size();
+		write_super_index(h, CKID_AUDIO);
+		h.endList(strl);
+	}
+	{	// OpenDML extended header
+		const size_t odml = h.list(FCC('o', 'd', 'm', 'l'));
+		h.u32(FCC('d', 'm', 'l', 'h'));
+		h.u32(248);
+		mDmlhTotalFramesPos = base + h.size();
+		h.zero(248);
+		h.endList(odml);
+	}
+	h.endList(hdrl);
+	h.u32(FCC('L', 'I', 'S', 'T'));
+	mMoviSizePos = base + h.size();
+	h.u32(0);
+	mMoviPos = base + h.size();
+	h.u32(FCC('m', 'o', 'v', 'i'));
+
+	mBaseOffset = base;
+	mRiffCount = 1;
+	result = mSink.write(h.data.data(), h.size());
+	RETURN(result, int);
+}
+
+int AviMjpegMuxer::writeChunk(uint32_t ckid, const uint8_t *data, size_t size) {
+	uint8_t hdr[8];
+	put_le32(hdr, ckid);
+	put_le32(hdr + 4, (uint32_t)size);
+	const int64_t chunk_pos = mSink.pos();
+	mSink.write(hdr, 8);
+	if (size) {
+		if (data) {
+			mSink.write(data, size);
+		} else {
+			// silence
+			uint8_t zero[1024] = {0};
+			for (size_t remain = size; remain > 0; ) {
+				const size_t n = remain > sizeof(zero) ? sizeof(zero) : remain;
+				mSink.write(zero, n);
+				remain -= n;
+			}
+		}
+		if (size & 1) {
+			const uint8_t pad = 0;
+			mSink.write(&pad, 1);
+		}
+	}
+	const uint32_t data_offset = (uint32_t)(chunk_pos + 8 - mBaseOffset);
+	if (ckid == CKID_VIDEO) {
+		mVideoIndex.push_back({ data_offset, (uint32_t)size });
+		mVideoFrames++;
+	} else {
+		mAudioIndex.push_back({ data_offset, (uint32_t)size });
+		mAudioBytes += size;
+		mPendingAudioBytes += size;
+	}
+	if (mRiffCount == 1) {
+		mIdx1.push_back({ ckid, (uint32_t)(chunk_pos - mMoviPos), (uint32_t)size });
+		if (ckid == CKID_VIDEO) mFirstRiffFrames++;
+	}
+	return mSink.error();
+}
+
+int AviMjpegMuxer::writeVideo(const uint8_t *data, size_t size, int64_t pts_us) {
+	if (UNLIKELY(mFirstPts < 0)) {
+		mFirstPts = mLastCheckpointPts = pts_us;
+	}
+	// keep the timing of dropped frames as AVI has no timestamp
+	const int64_t frame_index = ((pts_us - mFirstPts) * mConfig.fps + 500000) / 1000000;
+	for (int i = 0; (mVideoFrames < frame_index) && (i < AVI_MAX_GAP_FRAMES); i++) {
+		writeChunk(CKID_VIDEO, NULL, 0);
+	}
+	int result = writeChunk(CKID_VIDEO, data, size);
+	if (size > mMaxVideoChunk) mMaxVideoChunk = (uint32_t)size;
+	if (LIKELY(!result)) {
+		if (mSink.pos() - mBaseOffset >= AVI_RIFF_LIMIT) {
+			result = startNewRiff();
+			mLastCheckpointPts = pts_us;
+		} else if (pts_us - mLastCheckpointPts >= mCheckpointIntervalUs) {
+			result = checkpoint();
+			mLastCheckpointPts = pts_us;
+		}
+	}
+	return result;
+}
+
+int AviMjpegMuxer::writeAudio(const uint8_t *data, size_t size, int64_t pts_us) {
+	if (!mHasAudio || (mFirstPts < 0)) {
+		// audio before the first video frame is dropped
+		return 0;
+	}
+	if (UNLIKELY(!mAudioStarted)) {
+		// AVI audio stream always starts with the video stream, align them
+		const int64_t lead_us = pts_us - mFirstPts;
+		const size_t lead_bytes = (size_t)((lead_us < 0 ? -lead_us : lead_us)
+			* mConfig.audioSampleRate / 1000000) * mBlockAlign;
+		if (lead_us < 0) {
+			if (lead_bytes >= size) return 0;
+			data += lead_bytes;
+			size -= lead_bytes;
+		} else if (lead_bytes && (lead_us < AVI_MAX_AUDIO_LEAD_US)) {
+			writeChunk(CKID_AUDIO, NULL, lead_bytes);
+		}
+		mAudioStarted = true;
+	}
+	size -= size % mBlockAlign;
+	if (!size) return 0;
+	return writeChunk(CKID_AUDIO, data, size);
+}
+
+int AviMjpegMuxer::writeStdIndex(uint32_t ixid, uint32_t ckid,
+	std::vector<std_index_entry_t> &entries,
+	uint32_t duration, std::vector<super_index_entry_t> &super_index) {
+
+	if (entries.empty()) return 0;
+	if (UNLIKELY(super_index.size() >= AVI_SUPER_INDEX_ENTRIES)) {
+		// keep entries until the next RIFF, this should not happen as the interval grows
+		LOGW("super index is full");
+		return 0;
+	}
+	const size_t n = entries.size();
+	LeBuffer ix;
+	ix.data.reserve(32 + n * 8);
+	ix.u32(ixid);
+	ix.u32((uint32_t)(24 + n * 8));
+	ix.u16(2);						// wLongsPerEntry
+	ix.u8(0);						// bIndexSubType
+	ix.u8(AVI_INDEX_OF_CHUNKS);		// bIndexType
+	ix.u32((uint32_t)n);
+	ix.u32(ckid);
+	ix.u64((uint64_t)mBaseOffset);
+	ix.u32(0);
+	for (const std_index_entry_t &e : entries) {
+		ix.u32(e.offset);
+		// MJPEG frames are all key frames, clear bit31 means key frame
+		ix.u32(e.size & 0x7fffffff);
+	}
+	super_index_entry_t entry = { (uint64_t)mSink.pos(), (uint32_t)ix.size(), duration };
+	int result = mSink.write(ix.data.data(), ix.size());
+	if (LIKELY(!result)) {
+		super_index.push_back(entry);
+		entries.clear();
+		// write new entry and nEntriesInUse into indx chunk
+		const int64_t indx_pos = (ckid == CKID_VIDEO) ? mVideoIndxPos : mAudioIndxPos;
+		uint8_t buf[16];
+		put_le64(buf, entry.offset);
+		put_le32(buf + 8, entry.size);
+		put_le32(buf + 12, entry.duration);
+		result = mSink.patch(indx_pos + 8 + 24 + (super_index.size() - 1) * 16, buf, 16);
+		put_le32(buf, (uint32_t)super_index.size());
+		if (LIKELY(!result)) result = mSink.patch(indx_pos + 8 + 4, buf, 4);
+	}
+	return result;
+}
+
+int AviMjpegMuxer::patchHeaders() {
+	uint8_t buf[4];
+	const int64_t pos = mSink.pos();
+	if (!mIdx1Written || (mRiffCount > 1)) {
+		// current RIFF and movi are still growing
+		put_le32(buf, (uint32_t)(pos - mRiffSizePos - 4));
+		mSink.patch(mRiffSizePos, buf, 4);
+		put_le32(buf, (uint32_t)(pos - mMoviSizePos - 4));
+		mSink.patch(mMoviSizePos, buf, 4);
+	}
+	put_le32(buf, mFirstRiffFrames);
+	mSink.patch(mAvihTotalFramesPos, buf, 4);
+	put_le32(buf, mVideoFrames);
+	mSink.patch(mVideoLengthPos, buf, 4);
+	mSink.patch(mDmlhTotalFramesPos, buf, 4);
+	put_le32(buf, mMaxVideoChunk + 8);
+	mSink.patch(mVideoSuggestedPos, buf, 4);
+	if (mHasAudio) {
+		put_le32(buf, (uint32_t)(mAudioBytes / mBlockAlign));
+		mSink.patch(mAudioLengthPos, buf, 4);
+	}
+	return mSink.error();
+}
+
+int AviMjpegMuxer::checkpoint() {
+	writeStdIndex(FCC('i', 'x', '0', '0'), CKID_VIDEO, mVideoIndex,
+		(uint32_t)mVideoIndex.size(), mVideoSuper);
+	if (mHasAudio && !mAudioIndex.empty()) {
+		writeStdIndex(FCC('i', 'x', '0', '1'), CKID_AUDIO, mAudioIndex,
+			(uint32_t)(mPendingAudioBytes / mBlockAlign), mAudioSuper);
+		mPendingAudioBytes = 0;
+	}
+	if (UNLIKELY(mVideoSuper.size() * 2 >= AVI_SUPER_INDEX_ENTRIES
+		&& mCheckpointIntervalUs < 3600 * 1000000LL)) {
+
+		mCheckpointIntervalUs *= 2;
+	}
+	return patchHeaders();
+}
+
+/**
+ * write legacy idx1 just after the movi LIST of the first RIFF
+ */
+int AviMjpegMuxer::writeIdx1() {
+	uint8_t buf[16];
+	put_le32(buf, (uint32_t)(mSink.pos() - mMoviSizePos - 4));
+	mSink.patch(mMoviSizePos, buf, 4);
+	put_le32(buf, FCC('i', 'd', 'x', '1'));
+	put_le32(buf + 4, (uint32_t)(mIdx1.size() * 16));
+	mSink.write(buf, 8);
+	for (const idx1_entry_t &e : mIdx1) {
+		put_le32(buf, e.ckid);
+		put_le32(buf + 4, AVIIF_KEYFRAME);
+		put_le32(buf + 8, e.offset);
+		put_le32(buf + 12, e.size);
+		mSink.write(buf, 16);
+	}
+	mIdx1.clear();
+	mIdx1Written = true;
+	put_le32(buf, (uint32_t)(mSink.pos() - mRiffSizePos - 4));
+	return mSink.patch(mRiffSizePos, buf, 4);
+}
+
+int AviMjpegMuxer::startNewRiff() {
+	ENTER();
+
+	// std index chunks can not reference the chunks in other RIFF
+	checkpoint();
+	if (mRiffCount == 1) {
+		writeIdx1();
+	}
+	uint8_t hdr[24];
+	mBaseOffset = mSink.pos();
+	put_le32(hdr, FCC('R', 'I', 'F', 'F'));
+	put_le32(hdr + 4, 0);
+	put_le32(hdr + 8, FCC('A', 'V', 'I', 'X'));
+	put_le32(hdr + 12, FCC('L', 'I', 'S', 'T'));
+	put_le32(hdr + 16, 0);
+	put_le32(hdr + 20, FCC('m', 'o', 'v', 'i'));
+	mRiffSizePos = mBaseOffset + 4;
+	mMoviSizePos = mBaseOffset + 16;
+	mRiffCount++;
+	mSink.write(hdr, sizeof(hdr));
+	const int result = patchHeaders();
+
+	RETURN(result, int);
+}
+
+int AviMjpegMuxer::close() {
+	ENTER();
+
+	int result = 0;
+	if (mRiffCount) {
+		checkpoint();
+		if (mRiffCount == 1) {
+			writeIdx1();
+		}
+		patchHeaders();
+		mSink.sync();
+		result = mSink.error();
+	}
+	mSink.close();
+
+	RETURN(result, int);
+}
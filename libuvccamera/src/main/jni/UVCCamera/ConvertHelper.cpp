@@ -1,3 +1,4 @@
+#include <string.h>
 #include "ConvertHelper.h"
 
 #define THROW(action, message) { \
@@ -172,6 +173,7 @@ int uvc_rgbx_to_yuyv(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_YUYV;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     int ret = UVC_SUCCESS;
@@ -247,6 +249,7 @@ int uvc_nv12_to_rgbx(uvc_frame_t *in, uvc_frame_t *out) {
     out->step = in->width * PIXEL_RGBX;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     const int src_stride_y = in->step > 0 ? in->step : in->width;
@@ -292,6 +295,7 @@ int uvc_nv21_to_rgbx(uvc_frame_t *in, uvc_frame_t *out) {
     out->step = in->width * PIXEL_RGBX;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     const int src_stride_y = in->step > 0 ? in->step : in->width;
@@ -350,6 +354,7 @@ int uvc_i420_to_rgbx(uvc_frame_t *in, uvc_frame_t *out) {
     out->step = in->width * PIXEL_RGBX;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     const int src_stride_y = in->step > 0 ? in->step : in->width;
@@ -412,6 +417,7 @@ int uvc_i420_to_rgbx(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     int ret = UVC_SUCCESS;
@@ -445,6 +451,7 @@ int uvc_i420_to_rgbx(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     int ret = UVC_SUCCESS;
@@ -478,6 +485,7 @@ int uvc_i420_to_rgbx(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_RGB;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     int ret = UVC_SUCCESS;
@@ -510,6 +518,7 @@ int uvc_i420_to_rgbx(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_RGB565;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     int ret = UVC_SUCCESS;
@@ -542,6 +551,7 @@ int uvc_i420_to_rgbx(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_BGR;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     int ret = UVC_SUCCESS;
@@ -574,6 +584,7 @@ int uvc_i420_to_rgbx(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     int ret = UVC_SUCCESS;
@@ -586,3 +597,438 @@ int uvc_i420_to_rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 
     return  ret;
 }
+
+
+//======================================================================
+// single pass conversion from the camera's native format to callback formats
+//======================================================================
+
+// swap byte order of each YUYV macro pixel to UYVY (Y0 U Y1 V => U Y0 V Y1)
+static const uint8_t kShuffleYUY2ToUYVY[16] = {
+        1u, 0u, 3u, 2u, 5u, 4u, 7u, 6u, 9u, 8u, 11u, 10u, 13u, 12u, 15u, 14u
+};
+
+// pixels of a row converted at a time from NV12/NV21 to UYVY, even and small enough for the stack
+#define UYVY_CHUNK_PIXELS 1024
+
+static inline int align_up(const int value, const int align) {
+    return (value + align - 1) & ~(align - 1);
+}
+
+typedef struct {
+    const uint8_t *y;
+    const uint8_t *u;
+    const uint8_t *v;
+    int stride_y;
+    int stride_u;
+    int stride_v;
+} src_layout_t;
+
+/**
+ * resolve plane pointers and strides of the input frame
+ * and check the frame has enough bytes for them
+ */
+static int get_src_layout(const uvc_frame_t *in, src_layout_t *src) {
+    if (!in || !in->data || in->width <= 0 || in->height <= 0)
+        return UVC_ERROR_INVALID_PARAM;
+
+    const uint8_t *data = (const uint8_t *) in->data;
+    const size_t height = in->height;
+    size_t need_bytes;
+    memset(src, 0, sizeof(src_layout_t));
+    switch (in->frame_format) {
+        case UVC_FRAME_FORMAT_YUYV:
+            if (in->width & 1)
+                return UVC_ERROR_INVALID_PARAM;
+            src->y = data;
+            src->stride_y = in->step > 0 ? in->step : in->width * PIXEL_YUYV;
+            need_bytes = static_cast<size_t>(src->stride_y) * height;
+            break;
+        case UVC_FRAME_FORMAT_RGBX:
+            src->y = data;
+            src->stride_y = in->step > 0 ? in->step : in->width * PIXEL_RGBX;
+            need_bytes = static_cast<size_t>(src->stride_y) * height;
+            break;
+        case UVC_FRAME_FORMAT_NV12:
+        case UVC_FRAME_FORMAT_NV21:
+            if ((in->width & 1) || (in->height & 1))
+                return UVC_ERROR_INVALID_PARAM;
+            src->y = data;
+            src->stride_y = in->step > 0 ? in->step : in->width;
+            // u holds the interleaved chroma plane (UV for NV12, VU for NV21)
+            src->u = data + static_cast<size_t>(src->stride_y) * height;
+            src->stride_u = src->stride_y;
+            need_bytes = static_cast<size_t>(src->stride_y) * height
+                         + static_cast<size_t>(src->stride_u) * (height / 2);
+            break;
+        case UVC_FRAME_FORMAT_I420:
+            if ((in->width & 1) || (in->height & 1))
+                return UVC_ERROR_INVALID_PARAM;
+            src->y = data;
+            src->stride_y = in->step > 0 ? in->step : in->width;
+            src->stride_u = src->stride_v = src->stride_y / 2;
+            src->u = data + static_cast<size_t>(src->stride_y) * height;
+            src->v = src->u + static_cast<size_t>(src->stride_u) * (height / 2);
+            need_bytes = static_cast<size_t>(src->stride_y) * height
+                         + static_cast<size_t>(src->stride_u) * height;
+            break;
+        default:
+            return UVC_ERROR_NOT_SUPPORTED;
+    }
+    if (in->data_bytes < need_bytes)
+        return UVC_ERROR_INVALID_PARAM;
+    return UVC_SUCCESS;
+}
+
+static inline void copy_frame_info(const uvc_frame_t *in, uvc_frame_t *out,
+                                   const enum uvc_frame_format format, const size_t step) {
+    out->width = in->width;
+    out->height = in->height;
+    out->frame_format = format;
+    out->step = step;
+    out->sequence = in->sequence;
+    out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
+    out->source = in->source;
+}
+
+size_t uvc_i420_aligned_bytes(const int width, const int height, const int align) {
+    if (width <= 0 || height <= 0 || (width & 1) || (height & 1)) return 0;
+    const size_t stride_y = align_up(width, align);
+    const size_t stride_uv = align_up(width / 2, align);
+    return stride_y * height + stride_uv * height;
+}
+
+size_t uvc_nv12_aligned_bytes(const int width, const int height, const int align) {
+    if (width <= 0 || height <= 0 || (width & 1) || (height & 1)) return 0;
+    const size_t stride = align_up(width, align);
+    return stride * height + stride * (height / 2);
+}
+
+/** @brief Convert a YUYV/NV12/NV21/I420/RGBX frame to UYVY in a single pass
+ * @ingroup frame
+ * @param in input frame
+ * @param out UYVY frame
+ */
+int uvc_any_to_uyvy(uvc_frame_t *in, uvc_frame_t *out) {
+    src_layout_t src;
+    int ret = get_src_layout(in, &src);
+    if (ret)
+        return ret;
+    if (in->width & 1)
+        return UVC_ERROR_INVALID_PARAM;
+
+    const int width = in->width;
+    const int height = in->height;
+    const int dst_stride = width * PIXEL_UYVY;
+    if (uvc_ensure_frame_size(out, static_cast<size_t>(dst_stride) * height) < 0)
+        return UVC_ERROR_NO_MEM;
+    copy_frame_info(in, out, UVC_FRAME_FORMAT_UYVY, dst_stride);
+    uint8_t *dst = (uint8_t *) out->data;
+
+    switch (in->frame_format) {
+        case UVC_FRAME_FORMAT_YUYV:
+            ret = libyuv::ARGBShuffle(src.y, src.stride_y, dst, dst_stride,
+                                      kShuffleYUY2ToUYVY, width / 2, height);
+            break;
+        case UVC_FRAME_FORMAT_I420:
+            ret = libyuv::I420ToUYVY(src.y, src.stride_y, src.u, src.stride_u, src.v, src.stride_v,
+                                     dst, dst_stride, width, height);
+            break;
+        case UVC_FRAME_FORMAT_NV12:
+        case UVC_FRAME_FORMAT_NV21: {
+            // split the chroma of a row in chunks on the stack and reuse it for both luma rows
+            // so that the source is read only once and nothing is allocated per frame
+            uint8_t u_chunk[UYVY_CHUNK_PIXELS / 2];
+            uint8_t v_chunk[UYVY_CHUNK_PIXELS / 2];
+            const bool is_nv21 = in->frame_format == UVC_FRAME_FORMAT_NV21;
+            for (int y = 0; !ret && (y < height); y += 2) {
+                const uint8_t *uv = src.u + static_cast<size_t>(src.stride_u) * (y / 2);
+                const uint8_t *y_row = src.y + static_cast<size_t>(src.stride_y) * y;
+                uint8_t *dst_row = dst + static_cast<size_t>(dst_stride) * y;
+                for (int x = 0; !ret && (x < width); x += UYVY_CHUNK_PIXELS) {
+                    // width and UYVY_CHUNK_PIXELS are even, so is the chunk
+                    const int chunk = width - x < UYVY_CHUNK_PIXELS ? width - x : UYVY_CHUNK_PIXELS;
+                    libyuv::SplitUVPlane(uv + x, src.stride_u,
+                                         is_nv21 ? v_chunk : u_chunk, 0,
+                                         is_nv21 ? u_chunk : v_chunk, 0,
+                                         chunk / 2, 1);
+                    ret = libyuv::I422ToUYVY(y_row + x, src.stride_y,
+                                             u_chunk, 0, v_chunk, 0,
+                                             dst_row + static_cast<size_t>(x) * PIXEL_UYVY, dst_stride,
+                                             chunk, 2);
+                }
+            }
+            break;
+        }
+        case UVC_FRAME_FORMAT_RGBX:
+            // libyuv only has ABGR=>YUY2, so swap the bytes of each row while it is still in cache
+            for (int y = 0; !ret && (y < height); y++) {
+                uint8_t *dst_row = dst + static_cast<size_t>(dst_stride) * y;
+                ret = libyuv::ABGRToYUY2(src.y + static_cast<size_t>(src.stride_y) * y, src.stride_y,
+                                         dst_row, dst_stride, width, 1);
+                if (!ret) {
+                    ret = libyuv::ARGBShuffle(dst_row, dst_stride, dst_row, dst_stride,
+                                              kShuffleYUY2ToUYVY, width / 2, 1);
+                }
+            }
+            break;
+        default:
+            ret = UVC_ERROR_NOT_SUPPORTED;
+            break;
+    }
+    return ret;
+}
+
+/** @brief Extract the luma plane of a YUYV/NV12/NV21/I420/RGBX frame
+ * @ingroup frame
+ * RGBX frames come from MJPEG (JFIF, full range) so full range luma is used for them.
+ * @param in input frame
+ * @param out GRAY8 frame
+ */
+int uvc_any_to_gray8(uvc_frame_t *in, uvc_frame_t *out) {
+    src_layout_t src;
+    int ret = get_src_layout(in, &src);
+    if (ret)
+        return ret;
+
+    const int width = in->width;
+    const int height = in->height;
+    if (uvc_ensure_frame_size(out, static_cast<size_t>(width) * height) < 0)
+        return UVC_ERROR_NO_MEM;
+    copy_frame_info(in, out, UVC_FRAME_FORMAT_GRAY8, width);
+    uint8_t *dst = (uint8_t *) out->data;
+
+    switch (in->frame_format) {
+        case UVC_FRAME_FORMAT_YUYV:
+            ret = libyuv::YUY2ToY(src.y, src.stride_y, dst, width, width, height);
+            break;
+        case UVC_FRAME_FORMAT_NV12:
+        case UVC_FRAME_FORMAT_NV21:
+        case UVC_FRAME_FORMAT_I420:
+            libyuv::CopyPlane(src.y, src.stride_y, dst, width, width, height);
+            break;
+        case UVC_FRAME_FORMAT_RGBX:
+            ret = libyuv::ABGRToJ400(src.y, src.stride_y, dst, width, width, height);
+            break;
+        default:
+            ret = UVC_ERROR_NOT_SUPPORTED;
+            break;
+    }
+    return ret;
+}
+
+/** @brief Sample luma of a YUYV/NV12/NV21/I420/RGBX frame on a sparse grid
+ * this reads only grid_w * grid_h pixels, so it is cheap enough to run on every frame
+ * @ingroup frame
+ * @param in input frame
+ * @param grid grid_w * grid_h bytes, row major
+ */
+int uvc_sample_luma_grid(const uvc_frame_t *in, uint8_t *grid, const int grid_w, const int grid_h) {
+    src_layout_t src;
+    int ret = get_src_layout(in, &src);
+    if (ret)
+        return ret;
+    if (grid_w <= 0 || grid_h <= 0 || grid_w > (int) in->width || grid_h > (int) in->height)
+        return UVC_ERROR_INVALID_PARAM;
+
+    const int width = in->width;
+    const int height = in->height;
+    for (int gy = 0; gy < grid_h; gy++) {
+        const uint8_t *row = src.y + static_cast<size_t>(src.stride_y) * ((2 * gy + 1) * height / (2 * grid_h));
+        for (int gx = 0; gx < grid_w; gx++) {
+            const int x = (2 * gx + 1) * width / (2 * grid_w);
+            switch (in->frame_format) {
+                case UVC_FRAME_FORMAT_YUYV:
+                    *grid++ = row[x * PIXEL_YUYV];
+                    break;
+                case UVC_FRAME_FORMAT_RGBX: {
+                    // BT.601 full range
+                    const uint8_t *p = row + x * PIXEL_RGBX;
+                    *grid++ = (uint8_t) ((77 * p[0] + 150 * p[1] + 29 * p[2]) >> 8);
+                    break;
+                }
+                default:
+                    // NV12/NV21/I420, Y plane
+                    *grid++ = row[x];
+                    break;
+            }
+        }
+    }
+    return 0;
+}
+
+/** @brief Convert a YUYV/NV12/NV21/I420/RGBX frame to I420 whose rows start on align bytes
+ * @ingroup frame
+ * @param in input frame
+ * @param out I420 frame, Y plane stride is out->step and U/V plane stride is align_up(width / 2, align)
+ * @param align row alignment in bytes, must be power of 2
+ */
+int uvc_any_to_i420_aligned(uvc_frame_t *in, uvc_frame_t *out, const int align) {
+    src_layout_t src;
+    int ret = get_src_layout(in, &src);
+    if (ret)
+        return ret;
+
+    const int width = in->width;
+    const int height = in->height;
+    const size_t need_bytes = uvc_i420_aligned_bytes(width, height, align);
+    if (!need_bytes)
+        return UVC_ERROR_INVALID_PARAM;
+    if (uvc_ensure_frame_size(out, need_bytes) < 0)
+        return UVC_ERROR_NO_MEM;
+    const int stride_y = align_up(width, align);
+    const int stride_uv = align_up(width / 2, align);
+    copy_frame_info(in, out, UVC_FRAME_FORMAT_I420, stride_y);
+    uint8_t *dst_y = (uint8_t *) out->data;
+    uint8_t *dst_u = dst_y + static_cast<size_t>(stride_y) * height;
+    uint8_t *dst_v = dst_u + static_cast<size_t>(stride_uv) * (height / 2);
+
+    switch (in->frame_format) {
+        case UVC_FRAME_FORMAT_YUYV:
+            ret = libyuv::YUY2ToI420(src.y, src.stride_y,
+                                     dst_y, stride_y, dst_u, stride_uv, dst_v, stride_uv,
+                                     width, height);
+            break;
+        case UVC_FRAME_FORMAT_NV12:
+            ret = libyuv::NV12ToI420(src.y, src.stride_y, src.u, src.stride_u,
+                                     dst_y, stride_y, dst_u, stride_uv, dst_v, stride_uv,
+                                     width, height);
+            break;
+        case UVC_FRAME_FORMAT_NV21:
+            ret = libyuv::NV21ToI420(src.y, src.stride_y, src.u, src.stride_u,
+                                     dst_y, stride_y, dst_u, stride_uv, dst_v, stride_uv,
+                                     width, height);
+            break;
+        case UVC_FRAME_FORMAT_I420:
+            ret = libyuv::I420Copy(src.y, src.stride_y, src.u, src.stride_u, src.v, src.stride_v,
+                                   dst_y, stride_y, dst_u, stride_uv, dst_v, stride_uv,
+                                   width, height);
+            break;
+        case UVC_FRAME_FORMAT_RGBX:
+            ret = libyuv::ABGRToI420(src.y, src.stride_y,
+                                     dst_y, stride_y, dst_u, stride_uv, dst_v, stride_uv,
+                                     width, height);
+            break;
+        default:
+            ret = UVC_ERROR_NOT_SUPPORTED;
+            break;
+    }
+    return ret;
+}
+
+/** @brief Convert a YUYV/NV12/NV21/I420/RGBX frame to NV12 whose rows start on align bytes
+ * @ingroup frame
+ * @param in input frame
+ * @param out NV12 frame, both Y and UV plane stride is out->step
+ * @param align row alignment in bytes, must be power of 2
+ */
+int uvc_any_to_nv12_aligned(uvc_frame_t *in, uvc_frame_t *out, const int align) {
+    src_layout_t src;
+    int ret = get_src_layout(in, &src);
+    if (ret)
+        return ret;
+
+    const int width = in->width;
+    const int height = in->height;
+    const size_t need_bytes = uvc_nv12_aligned_bytes(width, height, align);
+    if (!need_bytes)
+        return UVC_ERROR_INVALID_PARAM;
+    if (uvc_ensure_frame_size(out, need_bytes) < 0)
+        return UVC_ERROR_NO_MEM;
+    const int stride = align_up(width, align);
+    copy_frame_info(in, out, UVC_FRAME_FORMAT_NV12, stride);
+    uint8_t *dst_y = (uint8_t *) out->data;
+    uint8_t *dst_uv = dst_y + static_cast<size_t>(stride) * height;
+
+    switch (in->frame_format) {
+        case UVC_FRAME_FORMAT_YUYV:
+            ret = libyuv::YUY2ToNV12(src.y, src.stride_y, dst_y, stride, dst_uv, stride,
+                                     width, height);
+            break;
+        case UVC_FRAME_FORMAT_NV12:
+            ret = libyuv::NV12Copy(src.y, src.stride_y, src.u, src.stride_u,
+                                   dst_y, stride, dst_uv, stride, width, height);
+            break;
+        case UVC_FRAME_FORMAT_NV21:
+            ret = libyuv::NV21ToNV12(src.y, src.stride_y, src.u, src.stride_u,
+                                     dst_y, stride, dst_uv, stride, width, height);
+            break;
+        case UVC_FRAME_FORMAT_I420:
+            ret = libyuv::I420ToNV12(src.y, src.stride_y, src.u, src.stride_u, src.v, src.stride_v,
+                                     dst_y, stride, dst_uv, stride, width, height);
+            break;
+        case UVC_FRAME_FORMAT_RGBX:
+            ret = libyuv::ABGRToNV12(src.y, src.stride_y, dst_y, stride, dst_uv, stride,
+                                     width, height);
+            break;
+        default:
+            ret = UVC_ERROR_NOT_SUPPORTED;
+            break;
+    }
+    return ret;
+}
+
+int uvc_any_to_i420_align16(uvc_frame_t *in, uvc_frame_t *out) {
+    return uvc_any_to_i420_aligned(in, out, 16);
+}
+
+int uvc_any_to_i420_align64(uvc_frame_t *in, uvc_frame_t *out) {
+    return uvc_any_to_i420_aligned(in, out, 64);
+}
+
+int uvc_any_to_nv12_align16(uvc_frame_t *in, uvc_frame_t *out) {
+    return uvc_any_to_nv12_aligned(in, out, 16);
+}
+
+int uvc_any_to_nv12_align64(uvc_frame_t *in, uvc_frame_t *out) {
+    return uvc_any_to_nv12_aligned(in, out, 64);
+}
+
+//--------------------------------------------------------------------------------
+// MJPEG passthrough validation
+//--------------------------------------------------------------------------------
+/**
+ * check the compressed frame without decoding it
+ * some cameras pad MJPEG payload with zeros after EOI,
+ * the padding is trimmed from data_bytes when level >= MJPEG_VALIDATION_MARKERS
+ * @param decompressor turbojpeg handle reused for all frames of a stream, it is created here
+ *                     when *decompressor is NULL and the caller destroys it with tjDestroy
+ * @return 0 if the frame looks like a complete JPEG image
+ */
+int uvc_mjpeg_validate(uvc_frame_t *frame, int level, tjhandle *decompressor) {
+    if (UNLIKELY(!frame || !frame->data || (frame->frame_format != UVC_FRAME_FORMAT_MJPEG) || !decompressor)) {
+        return UVC_ERROR_INVALID_PARAM;
+    }
+    if (level <= MJPEG_VALIDATION_NONE) {
+        return UVC_SUCCESS;
+    }
+    const uint8_t *data = (const uint8_t *) frame->data;
+    size_t bytes = frame->data_bytes;
+    if (UNLIKELY((bytes < 4) || (data[0] != 0xFF) || (data[1] != 0xD8))) {
+        return UVC_ERROR_INVALID_PARAM;    // no SOI
+    }
+    // search EOI backward, skipping zero padding
+    while ((bytes > 4) && !data[bytes - 1]) {
+        bytes--;
+    }
+    if (UNLIKELY((data[bytes - 2] != 0xFF) || (data[bytes - 1] != 0xD9))) {
+        return UVC_ERROR_INVALID_PARAM;    // truncated
+    }
+    if (level >= MJPEG_VALIDATION_HEADER) {
+        int width, height, subsamp, colorspace;
+        if (UNLIKELY(!*decompressor)) {
+            *decompressor = tjInitDecompress();
+            if (UNLIKELY(!*decompressor)) {
+                return UVC_ERROR_NO_MEM;
+            }
+        }
+        const int r = tjDecompressHeader3(*decompressor, data, (unsigned long) bytes,
+                                          &width, &height, &subsamp, &colorspace);
+        if (UNLIKELY((r < 0) || (width != (int) frame->width) || (height != (int) frame->height))) {
+            return UVC_ERROR_INVALID_PARAM;
+        }
+    }
+    frame->data_bytes = bytes;
+    return UVC_SUCCESS;
+}
@@ -37,4 +37,26 @@ int uvc_nv12_to_rgbx(uvc_frame_t *in, uvc_frame_t *out);
 int uvc_nv21_to_rgbx(uvc_frame_t *in, uvc_frame_t *out);
 int uvc_i420_to_rgbx(uvc_frame_t *in, uvc_frame_t *out);
 
+// Convert camera formats (YUYV/NV12/NV21/I420) or RGBX to callback formats in a single pass
+int uvc_any_to_uyvy(uvc_frame_t *in, uvc_frame_t *out);
+int uvc_any_to_gray8(uvc_frame_t *in, uvc_frame_t *out);
+int uvc_any_to_i420_aligned(uvc_frame_t *in, uvc_frame_t *out, int align);
+int uvc_any_to_nv12_aligned(uvc_frame_t *in, uvc_frame_t *out, int align);
+int uvc_any_to_i420_align16(uvc_frame_t *in, uvc_frame_t *out);
+int uvc_any_to_i420_align64(uvc_frame_t *in, uvc_frame_t *out);
+int uvc_any_to_nv12_align16(uvc_frame_t *in, uvc_frame_t *out);
+int uvc_any_to_nv12_align64(uvc_frame_t *in, uvc_frame_t *out);
+
+size_t uvc_i420_aligned_bytes(int width, int height, int align);
+size_t uvc_nv12_aligned_bytes(int width, int height, int align);
+
+// sample luma of a YUYV/NV12/NV21/I420/RGBX frame at the center of each grid cell
+int uvc_sample_luma_grid(const uvc_frame_t *in, uint8_t *grid, int grid_w, int grid_h);
+
+// validation level of MJPEG frames delivered without decoding
+#define MJPEG_VALIDATION_NONE 0        // deliver as is
+#define MJPEG_VALIDATION_MARKERS 1     // SOI/EOI markers, trailing padding is trimmed
+#define MJPEG_VALIDATION_HEADER 2      // MARKERS + parse JPEG header and check the frame size
+int uvc_mjpeg_validate(uvc_frame_t *frame, int level, tjhandle *decompressor);
+
 #endif //UVC_CAMERA_CONVERTHELPER_H
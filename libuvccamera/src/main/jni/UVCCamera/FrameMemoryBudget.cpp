@@ -0,0 +1,259 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: FrameMemoryBudget.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+
+#define LOCAL_DEBUG 0
+
+#include "utilbase.h"
+#include "FrameMemoryBudget.h"
+
+// a consumer is degraded one level when the usage exceeds this percentage of the limit
+#define DEGRADE_PERCENT 90
+// and restored one level when the usage is below this percentage
+#define RECOVER_PERCENT 70
+// minimum interval between level changes, so that a change can take effect before the next one
+#define DEGRADE_INTERVAL_NS (250 * 1000000LL)
+#define RECOVER_INTERVAL_NS (2000 * 1000000LL)
+
+pthread_mutex_t FrameMemoryBudget::sLock = PTHREAD_MUTEX_INITIALIZER;
+ObjectArray<FrameBudgetConsumer *> FrameMemoryBudget::sConsumers(8);
+size_t FrameMemoryBudget::sLimitBytes = 0;
+size_t FrameMemoryBudget::sUsedBytes = 0;
+size_t FrameMemoryBudget::sHighWaterBytes = 0;
+nsecs_t FrameMemoryBudget::sLastChangeNs = 0;
+
+FrameBudgetConsumer::FrameBudgetConsumer(int priority)
+        : mPriority(priority),
+          mLevel(FRAME_BUDGET_LEVEL_NORMAL),
+          mUsedBytes(0),
+          mHighWaterBytes(0),
+          mDroppedFrames(0),
+          mRejectedAllocations(0),
+          mFrameCounter(0) {
+    ENTER();
+    pthread_mutex_lock(&FrameMemoryBudget::sLock);
+    FrameMemoryBudget::sConsumers.put(this);
+    pthread_mutex_unlock(&FrameMemoryBudget::sLock);
+    EXIT();
+}
+
+FrameBudgetConsumer::~FrameBudgetConsumer() {
+    ENTER();
+    pthread_mutex_lock(&FrameMemoryBudget::sLock);
+    FrameMemoryBudget::sConsumers.removeObject(this);
+    if (UNLIKELY(mUsedBytes)) {
+        LOGW("consumer released while using %zu bytes", mUsedBytes);
+        FrameMemoryBudget::sUsedBytes = FrameMemoryBudget::sUsedBytes > mUsedBytes
+                                        ? FrameMemoryBudget::sUsedBytes - mUsedBytes : 0;
+    }
+    pthread_mutex_unlock(&FrameMemoryBudget::sLock);
+    EXIT();
+}
+
+void FrameBudgetConsumer::setPriority(int priority) {
+    pthread_mutex_lock(&FrameMemoryBudget::sLock);
+    mPriority = priority;
+    pthread_mutex_unlock(&FrameMemoryBudget::sLock);
+}
+
+bool FrameBudgetConsumer::charge(size_t bytes, bool force) {
+    bool result = true;
+    const nsecs_t now = systemTime();
+    pthread_mutex_lock(&FrameMemoryBudget::sLock);
+    {
+        const size_t limit = FrameMemoryBudget::sLimitBytes;
+        if (!force && limit && (FrameMemoryBudget::sUsedBytes + bytes > limit)) {
+            mRejectedAllocations++;
+            result = false;
+        } else {
+            mUsedBytes += bytes;
+            if (mUsedBytes > mHighWaterBytes) {
+                mHighWaterBytes = mUsedBytes;
+            }
+            FrameMemoryBudget::sUsedBytes += bytes;
+            if (FrameMemoryBudget::sUsedBytes > FrameMemoryBudget::sHighWaterBytes) {
+                FrameMemoryBudget::sHighWaterBytes = FrameMemoryBudget::sUsedBytes;
+            }
+        }
+        if (limit && (FrameMemoryBudget::sUsedBytes + (result ? 0 : bytes)) * 100 > limit * DEGRADE_PERCENT) {
+            FrameMemoryBudget::degradeLocked(now);
+        }
+    }
+    pthread_mutex_unlock(&FrameMemoryBudget::sLock);
+    return result;
+}
+
+void FrameBudgetConsumer::discharge(size_t bytes) {
+    const nsecs_t now = systemTime();
+    pthread_mutex_lock(&FrameMemoryBudget::sLock);
+    {
+        if (UNLIKELY(bytes > mUsedBytes)) {
+            bytes = mUsedBytes;
+        }
+        mUsedBytes -= bytes;
+        FrameMemoryBudget::sUsedBytes = FrameMemoryBudget::sUsedBytes > bytes
+                                        ? FrameMemoryBudget::sUsedBytes - bytes : 0;
+        FrameMemoryBudget::recoverLocked(now);
+    }
+    pthread_mutex_unlock(&FrameMemoryBudget::sLock);
+}
+
+bool FrameBudgetConsumer::shouldDropFrame() {
+    const int level = mLevel;
+    if (LIKELY(level == FRAME_BUDGET_LEVEL_NORMAL)) {
+        return false;
+    }
+    FrameMemoryBudget::relieve();
+    // keep one of two frames on half rate and one of four frames on the lower levels
+    const uint32_t mask = level == FRAME_BUDGET_LEVEL_HALF_RATE ? 1 : 3;
+    if (mFrameCounter++ & mask) {
+        mDroppedFrames++;
+        return true;
+    }
+    return false;
+}
+
+void FrameBudgetConsumer::getStats(frame_budget_stats_t &stats) {
+    pthread_mutex_lock(&FrameMemoryBudget::sLock);
+    {
+        stats.priority = mPriority;
+        stats.level = mLevel;
+        stats.used_bytes = mUsedBytes;
+        stats.high_water_bytes = mHighWaterBytes;
+        stats.dropped_frames = mDroppedFrames;
+        stats.rejected_allocations = mRejectedAllocations;
+    }
+    pthread_mutex_unlock(&FrameMemoryBudget::sLock);
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+/**
+ * degrade the least important consumer that still holds memory and can be degraded,
+ * the larger one if they have the same priority
+ */
+/*static*/
+void FrameMemoryBudget::degradeLocked(nsecs_t now) {
+    if (now - sLastChangeNs < DEGRADE_INTERVAL_NS) {
+        return;
+    }
+    FrameBudgetConsumer *target = NULL;
+    const int n = sConsumers.size();
+    for (int i = 0; i < n; i++) {
+        FrameBudgetConsumer *consumer = sConsumers[i];
+        if ((consumer->mLevel >= FRAME_BUDGET_LEVEL_REDUCE_RESOLUTION) || !consumer->mUsedBytes) {
+            continue;
+        }
+        if (!target || (consumer->mPriority < target->mPriority)
+            || ((consumer->mPriority == target->mPriority) && (consumer->mUsedBytes > target->mUsedBytes))) {
+            target = consumer;
+        }
+    }
+    if (target) {
+        target->mLevel = target->mLevel + 1;
+        sLastChangeNs = now;
+        LOGI("degrade consumer %p to level %d, used=%zu/%zu", target, target->mLevel, sUsedBytes, sLimitBytes);
+    }
+}
+
+/**
+ * restore the most important degraded consumer, the smaller one if they have the same priority
+ */
+/*static*/
+void FrameMemoryBudget::recoverLocked(nsecs_t now) {
+    if (sLimitBytes && (sUsedBytes * 100 >= sLimitBytes * RECOVER_PERCENT)) {
+        return;
+    }
+    if (now - sLastChangeNs < RECOVER_INTERVAL_NS) {
+        return;
+    }
+    FrameBudgetConsumer *target = NULL;
+    const int n = sConsumers.size();
+    for (int i = 0; i < n; i++) {
+        FrameBudgetConsumer *consumer = sConsumers[i];
+        if (consumer->mLevel == FRAME_BUDGET_LEVEL_NORMAL) {
+            continue;
+        }
+        if (!target || (consumer->mPriority > target->mPriority)
+            || ((consumer->mPriority == target->mPriority) && (consumer->mUsedBytes < target->mUsedBytes))) {
+            target = consumer;
+        }
+    }
+    if (target) {
+        target->mLevel = target->mLevel - 1;
+        sLastChangeNs = now;
+        LOGI("restore consumer %p to level %d, used=%zu/%zu", target, target->mLevel, sUsedBytes, sLimitBytes);
+    }
+}
+
+/*static*/
+void FrameMemoryBudget::relieve() {
+    const nsecs_t now = systemTime();
+    pthread_mutex_lock(&sLock);
+    recoverLocked(now);
+    pthread_mutex_unlock(&sLock);
+}
+
+/*static*/
+void FrameMemoryBudget::setLimit(size_t bytes) {
+    ENTER();
+    pthread_mutex_lock(&sLock);
+    {
+        sLimitBytes = bytes;
+        if (!bytes) {
+            const int n = sConsumers.size();
+            for (int i = 0; i < n; i++) {
+                sConsumers[i]->mLevel = FRAME_BUDGET_LEVEL_NORMAL;
+            }
+        }
+        sLastChangeNs = 0;
+    }
+    pthread_mutex_unlock(&sLock);
+    EXIT();
+}
+
+/*static*/
+void FrameMemoryBudget::getTotals(frame_budget_totals_t &totals) {
+    pthread_mutex_lock(&sLock);
+    {
+        totals.limit_bytes = sLimitBytes;
+        totals.used_bytes = sUsedBytes;
+        totals.high_water_bytes = sHighWaterBytes;
+    }
+    pthread_mutex_unlock(&sLock);
+}
+
+/*static*/
+void FrameMemoryBudget::resetHighWaterMarks() {
+    pthread_mutex_lock(&sLock);
+    {
+        sHighWaterBytes = sUsedBytes;
+        const int n = sConsumers.size();
+        for (int i = 0; i < n; i++) {
+            sConsumers[i]->mHighWaterBytes = sConsumers[i]->mUsedBytes;
+        }
+    }
+    pthread_mutex_unlock(&sLock);
+}
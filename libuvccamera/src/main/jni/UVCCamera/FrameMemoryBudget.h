@@ -0,0 +1,141 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: FrameMemoryBudget.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef FRAMEMEMORYBUDGET_H_
+#define FRAMEMEMORYBUDGET_H_
+
+#include <pthread.h>
+#include "libUVCCamera.h"
+#include "utilbase.h"
+#include "objectarray.h"
+
+#pragma interface
+
+// keep these values same as FrameMemoryBudget.LEVEL_XXX
+#define FRAME_BUDGET_LEVEL_NORMAL 0
+#define FRAME_BUDGET_LEVEL_HALF_RATE 1
+#define FRAME_BUDGET_LEVEL_QUARTER_RATE 2
+#define FRAME_BUDGET_LEVEL_REDUCE_RESOLUTION 3
+
+typedef struct {
+    int priority;
+    // one of FRAME_BUDGET_LEVEL_XXX
+    int level;
+    size_t used_bytes;
+    size_t high_water_bytes;
+    // frames dropped because of the level
+    uint64_t dropped_frames;
+    // allocations refused because the budget was exhausted
+    uint64_t rejected_allocations;
+} frame_budget_stats_t;
+
+typedef struct {
+    // 0 if unlimited
+    size_t limit_bytes;
+    size_t used_bytes;
+    size_t high_water_bytes;
+} frame_budget_totals_t;
+
+class FrameMemoryBudget;
+
+/**
+ * share of the process-wide frame memory budget that a camera or another frame consumer uses.
+ * Allocations are charged before they are made and discharged when they are freed.
+ * When the budget is under pressure the consumer with the lowest priority is degraded first,
+ * its frame rate is halved twice and then it is asked to reduce its resolution.
+ */
+class FrameBudgetConsumer {
+    friend class FrameMemoryBudget;
+private:
+    int mPriority;
+    volatile int mLevel;
+    size_t mUsedBytes;
+    size_t mHighWaterBytes;
+    volatile uint64_t mDroppedFrames;
+    uint64_t mRejectedAllocations;
+    uint32_t mFrameCounter;
+public:
+    FrameBudgetConsumer(int priority);
+
+    ~FrameBudgetConsumer();
+
+    /**
+     * larger value is more important, consumers with smaller value are degraded first
+     */
+    void setPriority(int priority);
+
+    /**
+     * @param force true to charge memory that is already allocated whatever the budget is
+     * @return false if the allocation does not fit into the budget and should not be made
+     */
+    bool charge(size_t bytes, bool force = false);
+
+    void discharge(size_t bytes);
+
+    /**
+     * called for each incoming frame before any memory is allocated for it
+     * @return true if the frame should be dropped because of the level
+     */
+    bool shouldDropFrame();
+
+    inline int getLevel() const { return mLevel; };
+
+    void getStats(frame_budget_stats_t &stats);
+};
+
+/**
+ * process-wide budget of frame memory shared by all consumers
+ */
+class FrameMemoryBudget {
+    friend class FrameBudgetConsumer;
+private:
+    static pthread_mutex_t sLock;
+    static ObjectArray<FrameBudgetConsumer *> sConsumers;
+    static size_t sLimitBytes;
+    static size_t sUsedBytes;
+    static size_t sHighWaterBytes;
+    static nsecs_t sLastChangeNs;
+
+    static void degradeLocked(nsecs_t now);
+
+    static void recoverLocked(nsecs_t now);
+
+    /**
+     * called by degraded consumers so that they recover also while nothing is freed
+     */
+    static void relieve();
+
+public:
+    /**
+     * @param bytes 0 for unlimited, all consumers are restored immediately
+     */
+    static void setLimit(size_t bytes);
+
+    static void getTotals(frame_budget_totals_t &totals);
+
+    /**
+     * reset high-water marks of the budget and all consumers to their current usage
+     */
+    static void resetHighWaterMarks();
+};
+
+#endif /* FRAMEMEMORYBUDGET_H_ */
@@ -0,0 +1,297 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: FramePool.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+
+#define LOCAL_DEBUG 0
+
+#include "utilbase.h"
+#include "FramePool.h"
+
+// alignment of buffers smaller than a page, enough for NEON loads and a cache line
+#define FRAME_ALIGN_BYTES 64
+
+struct frame_slab {
+    // must be the first member, frames handed out are cast back to their slab
+    uvc_frame_t frame;
+    FramePool *pool;
+    // buffer allocated for the frame, libuvc replaces frame.data when it has to reallocate
+    void *buffer;
+    // bytes allocated and charged against the budget
+    size_t capacity;
+};
+
+static size_t page_bytes() {
+    static size_t page = 0;
+    if (UNLIKELY(!page)) {
+        const long sz = sysconf(_SC_PAGESIZE);
+        page = sz > 0 ? (size_t) sz : 4096;
+    }
+    return page;
+}
+
+/**
+ * round up to the page, or to the cache line for small frames
+ */
+static size_t class_size(size_t bytes) {
+    const size_t page = page_bytes();
+    const size_t align = bytes >= page ? page : FRAME_ALIGN_BYTES;
+    const size_t result = (bytes + align - 1) & ~(align - 1);
+    return result ? result : FRAME_ALIGN_BYTES;
+}
+
+FramePool::FramePool(FrameBudgetConsumer *budget, int max_free, int headroom_percent)
+        : mFreeSlabs(max_free > 0 ? max_free : 2),
+          mBudget(budget),
+          mMaxFree(max_free),
+          mHeadroomPercent(headroom_percent),
+          mClassBytes(0),
+          mHits(0),
+          mMisses(0),
+          mReallocations(0),
+          mAllocatedFrames(0),
+          mAllocatedBytes(0),
+          mPeakBytes(0) {
+    ENTER();
+    pthread_mutex_init(&mLock, NULL);
+    EXIT();
+}
+
+FramePool::~FramePool() {
+    ENTER();
+    clear();
+    if (UNLIKELY(mAllocatedFrames)) {
+        LOGW("%d frames are still in use", mAllocatedFrames);
+    }
+    pthread_mutex_destroy(&mLock);
+    EXIT();
+}
+
+/**
+ * allocate a frame that is charged against the frame memory budget and touch its pages
+ * @return NULL if the frame does not fit into the budget
+ */
+frame_slab_t *FramePool::allocate_slab(size_t bytes) {
+    if (mBudget && UNLIKELY(!mBudget->charge(bytes))) {
+        return NULL;
+    }
+    const size_t page = page_bytes();
+    void *buffer = NULL;
+    frame_slab_t *slab = (frame_slab_t *) calloc(1, sizeof(frame_slab_t));
+    if (UNLIKELY(!slab || posix_memalign(&buffer, bytes >= page ? page : FRAME_ALIGN_BYTES, bytes))) {
+        LOGE("failed to allocate frame:bytes=%zu", bytes);
+        free(slab);
+        if (mBudget) {
+            mBudget->discharge(bytes);
+        }
+        return NULL;
+    }
+    // fault in all pages now instead of on the streaming thread
+    volatile uint8_t *p = (uint8_t *) buffer;
+    for (size_t offset = 0; offset < bytes; offset += page) {
+        p[offset] = 0;
+    }
+    p[bytes - 1] = 0;
+    slab->frame.data = buffer;
+    slab->frame.capacity_bytes = bytes;
+    // libuvc may still reallocate the buffer, then the frame is freed when it is recycled
+    slab->frame.library_owns_data = 1;
+    slab->pool = this;
+    slab->buffer = buffer;
+    slab->capacity = bytes;
+    pthread_mutex_lock(&mLock);
+    {
+        mAllocatedFrames++;
+        mAllocatedBytes += bytes;
+        if (mAllocatedBytes > mPeakBytes) {
+            mPeakBytes = mAllocatedBytes;
+        }
+    }
+    pthread_mutex_unlock(&mLock);
+    return slab;
+}
+
+void FramePool::free_slab(frame_slab_t *slab) {
+    pthread_mutex_lock(&mLock);
+    {
+        mAllocatedFrames--;
+        mAllocatedBytes -= slab->capacity;
+    }
+    pthread_mutex_unlock(&mLock);
+    if (mBudget) {
+        mBudget->discharge(slab->capacity);
+    }
+    // frees the buffer even if libuvc reallocated it, the metadata and the slab itself
+    uvc_free_frame(&slab->frame);
+}
+
+void FramePool::free_slabs(ObjectArray<frame_slab_t *> &slabs) {
+    const int n = slabs.size();
+    for (int i = 0; i < n; i++) {
+        free_slab(slabs[i]);
+    }
+    slabs.clear();
+}
+
+uvc_frame_t *FramePool::obtain(size_t data_bytes) {
+    frame_slab_t *slab;
+    size_t class_bytes;
+    for (;;) {
+        frame_slab_t *too_small = NULL;
+        slab = NULL;
+        pthread_mutex_lock(&mLock);
+        {
+            if (UNLIKELY(data_bytes > mClassBytes)) {
+                mClassBytes = class_size(data_bytes + data_bytes * mHeadroomPercent / 100);
+            }
+            class_bytes = mClassBytes;
+            if (!mFreeSlabs.isEmpty()) {
+                slab = mFreeSlabs.last();
+                if (UNLIKELY(slab->capacity < data_bytes)) {
+                    mReallocations++;
+                    too_small = slab;
+                    slab = NULL;
+                } else {
+                    mHits++;
+                }
+            } else {
+                mMisses++;
+            }
+        }
+        pthread_mutex_unlock(&mLock);
+        if (LIKELY(!too_small)) {
+            break;
+        }
+        free_slab(too_small);
+    }
+    if (UNLIKELY(!slab)) {
+        LOGD("allocate new frame:bytes=%zu", class_bytes);
+        slab = allocate_slab(class_bytes);
+        if (UNLIKELY(!slab)) {
+            return NULL;
+        }
+    }
+    // this only sets data_bytes because the capacity is enough
+    uvc_ensure_frame_size(&slab->frame, data_bytes);
+    return &slab->frame;
+}
+
+/*static*/
+void FramePool::recycleFrame(uvc_frame_t *frame) {
+    frame_slab_t *slab = reinterpret_cast<frame_slab_t *>(frame);
+    slab->pool->recycle(slab);
+}
+
+void FramePool::recycle(frame_slab_t *slab) {
+    // shrink the pool of degraded consumers so that their memory is returned to the budget
+    const int level = mBudget ? mBudget->getLevel() : FRAME_BUDGET_LEVEL_NORMAL;
+    const int max_free = level ? (mMaxFree >> level) + 1 : mMaxFree;
+    bool pooled = false;
+    pthread_mutex_lock(&mLock);
+    {
+        if (UNLIKELY(slab->frame.data != slab->buffer)) {
+            // a conversion needed more than the class, grow it so that this does not happen again
+            mReallocations++;
+            const size_t grown = class_size(slab->frame.capacity_bytes);
+            if (grown > mClassBytes) {
+                mClassBytes = grown;
+            }
+        } else if (slab->capacity == mClassBytes) {
+            if (LIKELY(mFreeSlabs.size() < max_free)) {
+                mFreeSlabs.put(slab);
+                pooled = true;
+            }
+        } else if (slab->capacity < mClassBytes) {
+            mReallocations++;
+        }
+    }
+    pthread_mutex_unlock(&mLock);
+    if (UNLIKELY(!pooled)) {
+        free_slab(slab);
+    }
+}
+
+void FramePool::prepare(size_t data_bytes, int prewarm_frames) {
+    ENTER();
+
+    ObjectArray<frame_slab_t *> stale;
+    size_t class_bytes;
+    int n;
+    pthread_mutex_lock(&mLock);
+    {
+        mClassBytes = data_bytes ? class_size(data_bytes) : 0;
+        class_bytes = mClassBytes;
+        for (int i = mFreeSlabs.size() - 1; i >= 0; i--) {
+            if (mFreeSlabs[i]->capacity != class_bytes) {
+                stale.put(mFreeSlabs.remove(i));
+            }
+        }
+        n = (prewarm_frames < mMaxFree ? prewarm_frames : mMaxFree) - mFreeSlabs.size();
+    }
+    pthread_mutex_unlock(&mLock);
+    free_slabs(stale);
+    for (int i = 0; (i < n) && class_bytes; i++) {
+        frame_slab_t *slab = allocate_slab(class_bytes);
+        if (UNLIKELY(!slab)) {
+            break;
+        }
+        pthread_mutex_lock(&mLock);
+        mFreeSlabs.put(slab);
+        pthread_mutex_unlock(&mLock);
+    }
+
+    EXIT();
+}
+
+void FramePool::clear() {
+    ENTER();
+
+    ObjectArray<frame_slab_t *> slabs;
+    pthread_mutex_lock(&mLock);
+    {
+        const int n = mFreeSlabs.size();
+        for (int i = 0; i < n; i++) {
+            slabs.put(mFreeSlabs[i]);
+        }
+        mFreeSlabs.clear();
+    }
+    pthread_mutex_unlock(&mLock);
+    free_slabs(slabs);
+
+    EXIT();
+}
+
+void FramePool::getStats(frame_pool_stats_t &stats) {
+    pthread_mutex_lock(&mLock);
+    {
+        stats.hits = mHits;
+        stats.misses = mMisses;
+        stats.reallocations = mReallocations;
+        stats.class_bytes = mClassBytes;
+        stats.allocated_frames = mAllocatedFrames;
+        stats.allocated_bytes = mAllocatedBytes;
+        stats.peak_bytes = mPeakBytes;
+    }
+    pthread_mutex_unlock(&mLock);
+}
@@ -0,0 +1,125 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: FramePool.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef FRAMEPOOL_H_
+#define FRAMEPOOL_H_
+
+#include <pthread.h>
+#include "libUVCCamera.h"
+#include "objectarray.h"
+#include "FrameMemoryBudget.h"
+
+#pragma interface
+
+// keep these values same as FramePoolStats.POOL_XXX
+// frames as they arrive from the camera (YUYV/NV12/MJPEG...)
+#define FRAME_POOL_RAW 0
+// RGBX frames for the preview and capture surfaces
+#define FRAME_POOL_PREVIEW 1
+// frames converted for the frame callback
+#define FRAME_POOL_CALLBACK 2
+#define FRAME_POOL_NUM 3
+
+typedef struct {
+    // frames taken from the pool
+    uint64_t hits;
+    // frames allocated because the pool was empty
+    uint64_t misses;
+    // pooled frames that were too small and frames that libuvc had to reallocate
+    uint64_t reallocations;
+    // size of the frames the pool allocates now
+    size_t class_bytes;
+    // frames of the pool that are alive, pooled or in use
+    int allocated_frames;
+    size_t allocated_bytes;
+    size_t peak_bytes;
+} frame_pool_stats_t;
+
+typedef struct frame_slab frame_slab_t;
+
+/**
+ * pool of frames of a single size class.
+ * Buffers are aligned to 64 bytes, or to the page when they are a page or larger,
+ * and their pages are touched when allocated so that streaming does not page fault.
+ * The size class follows the largest frame requested, so frames are not reallocated
+ * by libuvc while conversions stay within it.
+ * All frames are charged against the frame memory budget while they are alive.
+ */
+class FramePool {
+private:
+    pthread_mutex_t mLock;
+    ObjectArray<frame_slab_t *> mFreeSlabs;
+    // share of the process-wide frame memory budget, not owned
+    FrameBudgetConsumer *mBudget;
+    // upper limit of pooled frames on FRAME_BUDGET_LEVEL_NORMAL
+    const int mMaxFree;
+    // extra bytes added when the class grows, for frames whose size varies like MJPEG
+    const int mHeadroomPercent;
+    size_t mClassBytes;
+    uint64_t mHits;
+    uint64_t mMisses;
+    uint64_t mReallocations;
+    int mAllocatedFrames;
+    size_t mAllocatedBytes;
+    size_t mPeakBytes;
+
+    frame_slab_t *allocate_slab(size_t bytes);
+
+    void free_slab(frame_slab_t *slab);
+
+    void free_slabs(ObjectArray<frame_slab_t *> &slabs);
+
+    void recycle(frame_slab_t *slab);
+
+public:
+    FramePool(FrameBudgetConsumer *budget, int max_free, int headroom_percent);
+
+    ~FramePool();
+
+    /**
+     * get a frame whose capacity is data_bytes or more, data_bytes of the frame is set to data_bytes
+     * @return NULL if a new frame does not fit into the frame memory budget
+     */
+    uvc_frame_t *obtain(size_t data_bytes);
+
+    /**
+     * return the frame to the pool it was obtained from
+     */
+    static void recycleFrame(uvc_frame_t *frame);
+
+    /**
+     * set the size class for a new stream and allocate frames in advance,
+     * pooled frames of other sizes are freed
+     * @param data_bytes 0 if the size is not known, the class then follows the requested frames
+     * @param prewarm_frames number of frames to allocate now, as far as the budget allows
+     */
+    void prepare(size_t data_bytes, int prewarm_frames);
+
+    /**
+     * free all pooled frames, frames in use are freed when they are recycled
+     */
+    void clear();
+
+    void getStats(frame_pool_stats_t &stats);
+};
+
+#endif /* FRAMEPOOL_H_ */
@@ -0,0 +1,428 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: InferenceTap.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+
+#define	LOCAL_DEBUG 0
+
+#include "utilbase.h"
+#include "InferenceTap.h"
+#include "libyuv.h"
+
+#define TAP_PIXEL_BYTES 4	// staging image is RGBX
+
+InferenceTap::InferenceTap()
+:	mTensorCallbackObj(NULL),
+	mTensorBufferObj(NULL),
+	mTensor(NULL),
+	mTensorBytes(0),
+	mIntervalNs(0),
+	mLastTimeNs(0),
+	mStaging(NULL),
+	mWork(NULL),
+	mWorkBytes(0) {
+
+	ENTER();
+	itensorcallback_fields.onTensor = NULL;
+	memset(&mConfig, 0, sizeof(mConfig));
+	EXIT();
+}
+
+InferenceTap::~InferenceTap() {
+	ENTER();
+	// global references should be released by #release
+	mTensorCallbackObj = mTensorBufferObj = NULL;
+	SAFE_FREE(mStaging);
+	SAFE_FREE(mWork);
+	EXIT();
+}
+
+//static
+size_t InferenceTap::tensor_bytes(const inference_tap_config_t &config) {
+	const size_t elements = (size_t)config.width * (size_t)config.height * 3;
+	return config.dataType == TAP_DATA_FLOAT32 ? elements * sizeof(float) : elements;
+}
+
+int InferenceTap::init(JNIEnv *env, jobject tensor_callback_obj, jobject tensor_buffer_obj,
+	const inference_tap_config_t &config) {
+
+	ENTER();
+	if (UNLIKELY(!tensor_callback_obj || !tensor_buffer_obj
+		|| (config.width <= 0) || (config.height <= 0))) {
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	uint8_t *tensor = (uint8_t *)env->GetDirectBufferAddress(tensor_buffer_obj);
+	const jlong capacity = env->GetDirectBufferCapacity(tensor_buffer_obj);
+	const size_t bytes = tensor_bytes(config);
+	if (UNLIKELY(!tensor || (capacity < 0) || ((size_t)capacity < bytes))) {
+		LOGE("tensor buffer is not direct or too small: capacity=%lld, required=%zu",
+			(long long)capacity, bytes);
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	jclass clazz = env->GetObjectClass(tensor_callback_obj);
+	jmethodID onTensor = NULL;
+	if (LIKELY(clazz)) {
+		onTensor = env->GetMethodID(clazz, "onTensor", "(Ljava/nio/ByteBuffer;J)V");
+		env->DeleteLocalRef(clazz);
+	}
+	env->ExceptionClear();
+	if (UNLIKELY(!onTensor)) {
+		LOGE("Can't find ITensorCallback#onTensor");
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	uint8_t *staging = (uint8_t *)realloc(mStaging,
+		(size_t)config.width * config.height * TAP_PIXEL_BYTES);
+	if (UNLIKELY(!staging)) {
+		RETURN(UVC_ERROR_NO_MEM, int);
+	}
+	mStaging = staging;
+
+	mTensorCallbackObj = tensor_callback_obj;
+	mTensorBufferObj = tensor_buffer_obj;
+	itensorcallback_fields.onTensor = onTensor;
+	mTensor = tensor;
+	mTensorBytes = bytes;
+	mConfig = config;
+	if (mConfig.padValue < 0) mConfig.padValue = 0;
+	if (mConfig.padValue > 255) mConfig.padValue = 255;
+	mIntervalNs = mConfig.maxFps > 0 ? 1000000000LL / mConfig.maxFps : 0;
+	mLastTimeNs = 0;
+	// normalization is applied through a lookup table
+	// so float output costs one load per element regardless of mean/std
+	for (int c = 0; c < 3; c++) {
+		const float std = mConfig.std[c] != 0.0f ? mConfig.std[c] : 1.0f;
+		for (int v = 0; v < 256; v++) {
+			mLut[c][v] = (v * mConfig.scale - mConfig.mean[c]) / std;
+		}
+	}
+	LOGI("inference tap:%dx%d,scale=%d,order=%d,type=%d,layout=%d,maxFps=%d",
+		mConfig.width, mConfig.height, mConfig.scaleMode,
+		mConfig.channelOrder, mConfig.dataType, mConfig.layout, mConfig.maxFps);
+
+	RETURN(0, int);
+}
+
+void InferenceTap::release(JNIEnv *env) {
+	ENTER();
+	itensorcallback_fields.onTensor = NULL;
+	if (mTensorCallbackObj) {
+		env->DeleteGlobalRef(mTensorCallbackObj);
+		mTensorCallbackObj = NULL;
+	}
+	if (mTensorBufferObj) {
+		env->DeleteGlobalRef(mTensorBufferObj);
+		mTensorBufferObj = NULL;
+	}
+	mTensor = NULL;
+	mTensorBytes = 0;
+	EXIT();
+}
+
+uint8_t *InferenceTap::ensure_work(size_t bytes) {
+	if (UNLIKELY(mWorkBytes < bytes)) {
+		uint8_t *work = (uint8_t *)realloc(mWork, bytes);
+		if (UNLIKELY(!work)) {
+			return NULL;
+		}
+		mWork = work;
+		mWorkBytes = bytes;
+	}
+	return mWork;
+}
+
+/**
+ * scale (and crop/letterbox) the frame into RGBX staging image of tensor size
+ */
+int InferenceTap::scale_to_staging(const uvc_frame_t *frame) {
+	const int src_w = frame->width;
+	const int src_h = frame->height;
+	const int dst_w = mConfig.width;
+	const int dst_h = mConfig.height;
+	const int dst_stride = dst_w * TAP_PIXEL_BYTES;
+	// source rect
+	int cx = 0, cy = 0, cw = src_w, ch = src_h;
+	// destination rect
+	int dx = 0, dy = 0, dw = dst_w, dh = dst_h;
+
+	if (UNLIKELY((src_w < 2) || (src_h < 2))) {
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	const bool wider = (int64_t)src_w * dst_h > (int64_t)src_h * dst_w;
+	switch (mConfig.scaleMode) {
+	case TAP_SCALE_CROP:
+		if (wider) {
+			cw = (int)((int64_t)src_h * dst_w / dst_h);
+		} else {
+			ch = (int)((int64_t)src_w * dst_h / dst_w);
+		}
+		// keep chroma sub-sampling aligned
+		cw &= ~1; ch &= ~1;
+		cx = ((src_w - cw) / 2) & ~1;
+		cy = ((src_h - ch) / 2) & ~1;
+		break;
+	case TAP_SCALE_LETTERBOX:
+		if (wider) {
+			dh = (int)((int64_t)src_h * dst_w / src_w);
+		} else {
+			dw = (int)((int64_t)src_w * dst_h / src_h);
+		}
+		if (dw < 1) dw = 1;
+		if (dh < 1) dh = 1;
+		dx = (dst_w - dw) / 2;
+		dy = (dst_h - dh) / 2;
+		if ((dw != dst_w) || (dh != dst_h)) {
+			// X channel is never read, so filling every byte is fine
+			memset(mStaging, mConfig.padValue, (size_t)dst_stride * dst_h);
+		}
+		break;
+	case TAP_SCALE_STRETCH:
+	default:
+		break;
+	}
+	if (UNLIKELY((cw < 2) || (ch < 2))) {
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	uint8_t *dst = mStaging + dy * dst_stride + dx * TAP_PIXEL_BYTES;
+	const int half_dw = (dw + 1) / 2;
+	const int half_dh = (dh + 1) / 2;
+	const uint8_t *src = (const uint8_t *)frame->data;
+	int result;
+
+	switch (frame->frame_format) {
+	case UVC_FRAME_FORMAT_RGBX:
+	{
+		const int stride = frame->step ? (int)frame->step : src_w * 4;
+		if (UNLIKELY(frame->data_bytes < (size_t)stride * src_h)) {
+			return UVC_ERROR_INVALID_PARAM;
+		}
+		result = libyuv::ARGBScale(src + cy * stride + cx * 4, stride, cw, ch,
+			dst, dst_stride, dw, dh, libyuv::kFilterBilinear);
+		break;
+	}
+	case UVC_FRAME_FORMAT_I420:
+	{
+		const size_t y_bytes = (size_t)src_w * src_h;
+		const int half_w = (src_w + 1) / 2;
+		const int half_h = (src_h + 1) / 2;
+		if (UNLIKELY(frame->data_bytes < y_bytes + (size_t)half_w * half_h * 2)) {
+			return UVC_ERROR_INVALID_PARAM;
+		}
+		const uint8_t *u = src + y_bytes;
+		const uint8_t *v = u + (size_t)half_w * half_h;
+		uint8_t *ty = ensure_work((size_t)dw * dh + (size_t)half_dw * half_dh * 2);
+		if (UNLIKELY(!ty)) return UVC_ERROR_NO_MEM;
+		uint8_t *tu = ty + (size_t)dw * dh;
+		uint8_t *tv = tu + (size_t)half_dw * half_dh;
+		result = libyuv::I420Scale(
+			src + cy * src_w + cx, src_w,
+			u + (cy / 2) * half_w + cx / 2, half_w,
+			v + (cy / 2) * half_w + cx / 2, half_w,
+			cw, ch,
+			ty, dw, tu, half_dw, tv, half_dw,
+			dw, dh, libyuv::kFilterBilinear);
+		if (LIKELY(!result)) {
+			result = libyuv::I420ToABGR(ty, dw, tu, half_dw, tv, half_dw,
+				dst, dst_stride, dw, dh);
+		}
+		break;
+	}
+	case UVC_FRAME_FORMAT_NV12:
+	case UVC_FRAME_FORMAT_NV21:
+	{
+		const size_t y_bytes = (size_t)src_w * src_h;
+		const int uv_stride = ((src_w + 1) / 2) * 2;
+		if (UNLIKELY(frame->data_bytes < y_bytes + (size_t)uv_stride * ((src_h + 1) / 2))) {
+			return UVC_ERROR_INVALID_PARAM;
+		}
+		uint8_t *ty = ensure_work((size_t)dw * dh + (size_t)half_dw * 2 * half_dh);
+		if (UNLIKELY(!ty)) return UVC_ERROR_NO_MEM;
+		uint8_t *tuv = ty + (size_t)dw * dh;
+		// NV21 has the same memory layout as NV12 except for U/V order,
+		// so it can be scaled as NV12 and converted with NV21 function
+		result = libyuv::NV12Scale(
+			src + cy * src_w + cx, src_w,
+			src + y_bytes + (cy / 2) * uv_stride + cx, uv_stride,
+			cw, ch,
+			ty, dw, tuv, half_dw * 2,
+			dw, dh, libyuv::kFilterBilinear);
+		if (LIKELY(!result)) {
+			if (frame->frame_format == UVC_FRAME_FORMAT_NV12) {
+				result = libyuv::NV12ToABGR(ty, dw, tuv, half_dw * 2, dst, dst_stride, dw, dh);
+			} else {
+				result = libyuv::NV21ToABGR(ty, dw, tuv, half_dw * 2, dst, dst_stride, dw, dh);
+			}
+		}
+		break;
+	}
+	case UVC_FRAME_FORMAT_YUYV:
+	case UVC_FRAME_FORMAT_UYVY:
+	{
+		const int stride = frame->step ? (int)frame->step : src_w * 2;
+		if (UNLIKELY(frame->data_bytes < (size_t)stride * src_h)) {
+			return UVC_ERROR_INVALID_PARAM;
+		}
+		// packed 4:2:2 can not be scaled directly, convert cropped area into I420 first
+		const int half_cw = cw / 2;
+		const int half_ch = ch / 2;
+		const size_t crop_bytes = (size_t)cw * ch + (size_t)half_cw * half_ch * 2;
+		const size_t scaled_bytes = (size_t)dw * dh + (size_t)half_dw * half_dh * 2;
+		uint8_t *cy_plane = ensure_work(crop_bytes + scaled_bytes);
+		if (UNLIKELY(!cy_plane)) return UVC_ERROR_NO_MEM;
+		uint8_t *cu_plane = cy_plane + (size_t)cw * ch;
+		uint8_t *cv_plane = cu_plane + (size_t)half_cw * half_ch;
+		uint8_t *ty = cy_plane + crop_bytes;
+		uint8_t *tu = ty + (size_t)dw * dh;
+		uint8_t *tv = tu + (size_t)half_dw * half_dh;
+		const uint8_t *src_crop = src + cy * stride + cx * 2;
+		if (frame->frame_format == UVC_FRAME_FORMAT_YUYV) {
+			result = libyuv::YUY2ToI420(src_crop, stride,
+				cy_plane, cw, cu_plane, half_cw, cv_plane, half_cw, cw, ch);
+		} else {
+			result = libyuv::UYVYToI420(src_crop, stride,
+				cy_plane, cw, cu_plane, half_cw, cv_plane, half_cw, cw, ch);
+		}
+		if (LIKELY(!result)) {
+			result = libyuv::I420Scale(
+				cy_plane, cw, cu_plane, half_cw, cv_plane, half_cw, cw, ch,
+				ty, dw, tu, half_dw, tv, half_dw,
+				dw, dh, libyuv::kFilterBilinear);
+		}
+		if (LIKELY(!result)) {
+			result = libyuv::I420ToABGR(ty, dw, tu, half_dw, tv, half_dw,
+				dst, dst_stride, dw, dh);
+		}
+		break;
+	}
+	case UVC_FRAME_FORMAT_MJPEG:
+	{
+		// PIXEL_FORMAT_MJPEG passthrough hands the compressed frame to the capture thread,
+		// decode it here only because the tap needs pixels
+		const int half_w = (src_w + 1) / 2;
+		const int half_h = (src_h + 1) / 2;
+		const size_t full_bytes = (size_t)src_w * src_h + (size_t)half_w * half_h * 2;
+		const size_t scaled_bytes = (size_t)dw * dh + (size_t)half_dw * half_dh * 2;
+		uint8_t *fy = ensure_work(full_bytes + scaled_bytes);
+		if (UNLIKELY(!fy)) return UVC_ERROR_NO_MEM;
+		uint8_t *fu = fy + (size_t)src_w * src_h;
+		uint8_t *fv = fu + (size_t)half_w * half_h;
+		uint8_t *ty = fy + full_bytes;
+		uint8_t *tu = ty + (size_t)dw * dh;
+		uint8_t *tv = tu + (size_t)half_dw * half_dh;
+		result = libyuv::MJPGToI420(src, frame->data_bytes,
+			fy, src_w, fu, half_w, fv, half_w, src_w, src_h, src_w, src_h);
+		if (LIKELY(!result)) {
+			result = libyuv::I420Scale(
+				fy + cy * src_w + cx, src_w,
+				fu + (cy / 2) * half_w + cx / 2, half_w,
+				fv + (cy / 2) * half_w + cx / 2, half_w,
+				cw, ch,
+				ty, dw, tu, half_dw, tv, half_dw,
+				dw, dh, libyuv::kFilterBilinear);
+		}
+		if (LIKELY(!result)) {
+			result = libyuv::I420ToABGR(ty, dw, tu, half_dw, tv, half_dw,
+				dst, dst_stride, dw, dh);
+		}
+		break;
+	}
+	default:
+		result = UVC_ERROR_NOT_SUPPORTED;
+		break;
+	}
+	return result;
+}
+
+/**
+ * write RGBX staging image into the tensor buffer with requested layout/order/type
+ */
+void InferenceTap::write_tensor() {
+	const int w = mConfig.width;
+	const int h = mConfig.height;
+	const size_t plane = (size_t)w * h;
+	const uint8_t *src = mStaging;
+	// source channel offset in RGBX for each tensor channel
+	const int r = mConfig.channelOrder == TAP_ORDER_BGR ? 2 : 0;
+	const int c0 = r, c1 = 1, c2 = 2 - r;
+
+	if (mConfig.dataType == TAP_DATA_FLOAT32) {
+		float *dst = (float *)mTensor;
+		const float *lut0 = mLut[0], *lut1 = mLut[1], *lut2 = mLut[2];
+		if (mConfig.layout == TAP_LAYOUT_NCHW) {
+			float *p0 = dst, *p1 = dst + plane, *p2 = dst + plane * 2;
+			for (size_t i = 0; i < plane; i++, src += TAP_PIXEL_BYTES) {
+				p0[i] = lut0[src[c0]];
+				p1[i] = lut1[src[c1]];
+				p2[i] = lut2[src[c2]];
+			}
+		} else {
+			for (size_t i = 0; i < plane; i++, src += TAP_PIXEL_BYTES, dst += 3) {
+				dst[0] = lut0[src[c0]];
+				dst[1] = lut1[src[c1]];
+				dst[2] = lut2[src[c2]];
+			}
+		}
+	} else {
+		uint8_t *dst = mTensor;
+		if (mConfig.layout == TAP_LAYOUT_NCHW) {
+			uint8_t *p0 = dst, *p1 = dst + plane, *p2 = dst + plane * 2;
+			for (size_t i = 0; i < plane; i++, src += TAP_PIXEL_BYTES) {
+				p0[i] = src[c0];
+				p1[i] = src[c1];
+				p2[i] = src[c2];
+			}
+		} else if (mConfig.channelOrder == TAP_ORDER_BGR) {
+			// libyuv RGB24 is B,G,R in memory
+			libyuv::ABGRToRGB24(src, w * TAP_PIXEL_BYTES, dst, w * 3, w, h);
+		} else {
+			// libyuv RAW is R,G,B in memory
+			libyuv::ABGRToRAW(src, w * TAP_PIXEL_BYTES, dst, w * 3, w, h);
+		}
+	}
+}
+
+void InferenceTap::process(JNIEnv *env, const uvc_frame_t *frame) {
+	if (UNLIKELY(!frame || !mTensor || !itensorcallback_fields.onTensor)) {
+		return;
+	}
+	if (mIntervalNs > 0) {
+		const nsecs_t now = systemTime();
+		if (mLastTimeNs && (now - mLastTimeNs < mIntervalNs)) {
+			// skip before any conversion
+			return;
+		}
+		mLastTimeNs = now;
+	}
+	const int result = scale_to_staging(frame);
+	if (UNLIKELY(result)) {
+#if LOCAL_DEBUG
+		LOGW("inference tap: failed to scale frame(%d),fmt=%d", result, frame->frame_format);
+#endif
+		return;
+	}
+	write_tensor();
+	const jlong capture_time_us = (jlong)frame->capture_time.tv_sec * 1000000LL
+		+ frame->capture_time.tv_usec;
+	env->CallVoidMethod(mTensorCallbackObj, itensorcallback_fields.onTensor,
+		mTensorBufferObj, capture_time_us);
+	env->ExceptionClear();
+}
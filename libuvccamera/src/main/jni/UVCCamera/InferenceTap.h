@@ -0,0 +1,113 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: InferenceTap.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef INFERENCETAP_H_
+#define INFERENCETAP_H_
+
+#include "libUVCCamera.h"
+
+#pragma interface
+
+// keep these values same as InferenceTapConfig.java
+#define TAP_SCALE_STRETCH 0
+#define TAP_SCALE_LETTERBOX 1
+#define TAP_SCALE_CROP 2
+
+#define TAP_ORDER_RGB 0
+#define TAP_ORDER_BGR 1
+
+#define TAP_DATA_UINT8 0
+#define TAP_DATA_FLOAT32 1
+
+#define TAP_LAYOUT_NHWC 0
+#define TAP_LAYOUT_NCHW 1
+
+typedef struct inference_tap_config {
+    int width;
+    int height;
+    int scaleMode;
+    int channelOrder;
+    int dataType;
+    int layout;
+    float mean[3];        // in tensor channel order
+    float std[3];         // in tensor channel order
+    float scale;          // applied to 0-255 value before mean/std
+    int padValue;         // 0-255, used for letterbox borders
+    int maxFps;           // 0: every frame that reaches the capture thread
+} inference_tap_config_t;
+
+// for callback to Java object
+typedef struct {
+    jmethodID onTensor;
+} Fields_itensorcallback;
+
+/**
+ * native consumer that resizes, converts and normalizes frames on the capture thread
+ * and writes them as a model input tensor into a caller-supplied direct ByteBuffer
+ */
+class InferenceTap {
+private:
+    jobject mTensorCallbackObj;
+    jobject mTensorBufferObj;
+    Fields_itensorcallback itensorcallback_fields;
+    uint8_t *mTensor;
+    size_t mTensorBytes;
+    inference_tap_config_t mConfig;
+    float mLut[3][256];
+    nsecs_t mIntervalNs;
+    nsecs_t mLastTimeNs;
+    // RGBX image of tensor size
+    uint8_t *mStaging;
+    // temporary planes for YUV scaling
+    uint8_t *mWork;
+    size_t mWorkBytes;
+
+    uint8_t *ensure_work(size_t bytes);
+
+    int scale_to_staging(const uvc_frame_t *frame);
+
+    void write_tensor();
+
+public:
+    InferenceTap();
+
+    ~InferenceTap();
+
+    static size_t tensor_bytes(const inference_tap_config_t &config);
+
+    /**
+     * @param tensor_callback_obj global reference, owned by this instance on success
+     * @param tensor_buffer_obj global reference, owned by this instance on success
+     */
+    int init(JNIEnv *env, jobject tensor_callback_obj, jobject tensor_buffer_obj,
+             const inference_tap_config_t &config);
+
+    void release(JNIEnv *env);
+
+    /**
+     * called on capture thread for every frame that is passed to the capture stage
+     * frame must be RGBX, raw YUYV/UYVY/NV12/NV21/I420 or MJPEG
+     */
+    void process(JNIEnv *env, const uvc_frame_t *frame);
+};
+
+#endif /* INFERENCETAP_H_ */
@@ -0,0 +1,151 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: LumaStats.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+#include <stdlib.h>
+#include <string.h>
+
+#define	LOCAL_DEBUG 0
+
+#include "utilbase.h"
+#include "LumaStats.h"
+#include "ConvertHelper.h"
+
+LumaStats::LumaStats()
+:	mStatsCallbackObj(NULL),
+	mStatsClass(NULL),
+	mIntervalNs(0),
+	mLastTimeNs(0) {
+
+	ENTER();
+	iframestatscallback_fields.onFrameStats = NULL;
+	iframestatscallback_fields.constructor = NULL;
+	EXIT();
+}
+
+LumaStats::~LumaStats() {
+	ENTER();
+	// global references should be released by #release
+	mStatsCallbackObj = NULL;
+	mStatsClass = NULL;
+	EXIT();
+}
+
+int LumaStats::init(JNIEnv *env, jobject stats_callback_obj, jclass stats_class, int max_fps) {
+	ENTER();
+	if (UNLIKELY(!stats_callback_obj || !stats_class)) {
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	jclass clazz = env->GetObjectClass(stats_callback_obj);
+	jmethodID onFrameStats = NULL;
+	if (LIKELY(clazz)) {
+		onFrameStats = env->GetMethodID(clazz, "onFrameStats", "(Lcom/serenegiant/usb/FrameStats;)V");
+		env->DeleteLocalRef(clazz);
+	}
+	env->ExceptionClear();
+	// FrameStats(long captureTimeUs, int width, int height, int sampleCount,
+	//     float mean, float lowClipRatio, float highClipRatio, int[] histogram)
+	jmethodID constructor = env->GetMethodID(stats_class, "<init>", "(JIIIFFF[I)V");
+	env->ExceptionClear();
+	if (UNLIKELY(!onFrameStats || !constructor)) {
+		LOGE("Can't find IFrameStatsCallback#onFrameStats or FrameStats constructor");
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	mStatsCallbackObj = stats_callback_obj;
+	mStatsClass = stats_class;
+	iframestatscallback_fields.onFrameStats = onFrameStats;
+	iframestatscallback_fields.constructor = constructor;
+	mIntervalNs = max_fps > 0 ? 1000000000LL / max_fps : 0;
+	mLastTimeNs = 0;
+	LOGI("luma stats:maxFps=%d", max_fps);
+
+	RETURN(0, int);
+}
+
+void LumaStats::release(JNIEnv *env) {
+	ENTER();
+	iframestatscallback_fields.onFrameStats = NULL;
+	iframestatscallback_fields.constructor = NULL;
+	if (mStatsCallbackObj) {
+		env->DeleteGlobalRef(mStatsCallbackObj);
+		mStatsCallbackObj = NULL;
+	}
+	if (mStatsClass) {
+		env->DeleteGlobalRef(mStatsClass);
+		mStatsClass = NULL;
+	}
+	EXIT();
+}
+
+void LumaStats::process(JNIEnv *env, const uvc_frame_t *frame) {
+	if (UNLIKELY(!frame || !iframestatscallback_fields.onFrameStats)) {
+		return;
+	}
+	const nsecs_t now = systemTime();
+	if (mIntervalNs > 0) {
+		if (mLastTimeNs && (now - mLastTimeNs < mIntervalNs)) {
+			// skip before sampling
+			return;
+		}
+	}
+	// small frames are sampled at every pixel
+	const int grid_w = (int)frame->width < LUMA_STATS_GRID_WIDTH ? (int)frame->width : LUMA_STATS_GRID_WIDTH;
+	const int grid_h = (int)frame->height < LUMA_STATS_GRID_HEIGHT ? (int)frame->height : LUMA_STATS_GRID_HEIGHT;
+	if (UNLIKELY(uvc_sample_luma_grid(frame, mGrid, grid_w, grid_h))) {
+		// unsupported frame format, e.g. MJPEG payload
+		return;
+	}
+	mLastTimeNs = now;
+
+	const int count = grid_w * grid_h;
+	memset(mHistogram, 0, sizeof(mHistogram));
+	uint32_t sum = 0;
+	for (int i = 0; i < count; i++) {
+		mHistogram[mGrid[i]]++;
+		sum += mGrid[i];
+	}
+	int low = 0, high = 0;
+	for (int v = 0; v <= LUMA_STATS_CLIP_LOW; v++) {
+		low += mHistogram[v];
+	}
+	for (int v = LUMA_STATS_CLIP_HIGH; v < LUMA_STATS_BINS; v++) {
+		high += mHistogram[v];
+	}
+
+	jintArray histogram = env->NewIntArray(LUMA_STATS_BINS);
+	if (UNLIKELY(!histogram)) {
+		env->ExceptionClear();
+		return;
+	}
+	env->SetIntArrayRegion(histogram, 0, LUMA_STATS_BINS, mHistogram);
+	const jlong capture_time_us = (jlong)frame->capture_time.tv_sec * 1000000LL
+		+ frame->capture_time.tv_usec;
+	jobject stats = env->NewObject(mStatsClass, iframestatscallback_fields.constructor,
+		capture_time_us, (jint)frame->width, (jint)frame->height, (jint)count,
+		(jfloat)sum / count, (jfloat)low / count, (jfloat)high / count, histogram);
+	if (LIKELY(stats)) {
+		env->CallVoidMethod(mStatsCallbackObj, iframestatscallback_fields.onFrameStats, stats);
+		env->DeleteLocalRef(stats);
+	}
+	env->ExceptionClear();
+	env->DeleteLocalRef(histogram);
+}
@@ -0,0 +1,79 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: LumaStats.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+
+#ifndef LUMASTATS_H_
+#define LUMASTATS_H_
+
+#include "libUVCCamera.h"
+
+#pragma interface
+
+#define LUMA_STATS_GRID_WIDTH 160
+#define LUMA_STATS_GRID_HEIGHT 90
+#define LUMA_STATS_BINS 256
+// keep these values same as FrameStats.java
+#define LUMA_STATS_CLIP_LOW 4
+#define LUMA_STATS_CLIP_HIGH 251
+
+// for callback to Java object
+typedef struct {
+    jmethodID onFrameStats;
+    jmethodID constructor;
+} Fields_iframestatscallback;
+
+/**
+ * computes luma histogram, mean and clipped ratios of frames on a subsampled grid
+ * on the capture thread and passes them to IFrameStatsCallback at limited rate
+ */
+class LumaStats {
+private:
+    jobject mStatsCallbackObj;
+    jclass mStatsClass;
+    Fields_iframestatscallback iframestatscallback_fields;
+    nsecs_t mIntervalNs;
+    nsecs_t mLastTimeNs;
+    uint8_t mGrid[LUMA_STATS_GRID_WIDTH * LUMA_STATS_GRID_HEIGHT];
+    jint mHistogram[LUMA_STATS_BINS];
+
+public:
+    LumaStats();
+
+    ~LumaStats();
+
+    /**
+     * @param stats_callback_obj global reference of IFrameStatsCallback, owned by this instance on success
+     * @param stats_class global reference of FrameStats class, owned by this instance on success
+     * @param max_fps 0: every frame that reaches the capture thread
+     */
+    int init(JNIEnv *env, jobject stats_callback_obj, jclass stats_class, int max_fps);
+
+    void release(JNIEnv *env);
+
+    /**
+     * called on capture thread for every frame that is passed to the capture stage
+     * frames that can not be sampled(e.g. MJPEG payload) are ignored
+     */
+    void process(JNIEnv *env, const uvc_frame_t *frame);
+};
+
+#endif /* LUMASTATS_H_ */
@@ -0,0 +1,171 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: MjpegMuxer.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <unistd.h>
+
+#define	LOCAL_DEBUG 0
+
+#include "utilbase.h"
+#include "libUVCCamera.h"
+#include "MjpegMuxer.h"
+
+MuxFileSink::MuxFileSink()
+:	mFd(-1),
+	mBuf(NULL),
+	mBufSize(0),
+	mBufUsed(0),
+	mPos(0),
+	mError(0) {
+}
+
+MuxFileSink::~MuxFileSink() {
+	close();
+	SAFE_FREE(mBuf);
+}
+
+static int write_fully(int fd, const uint8_t *data, size_t len) {
+	while (len > 0) {
+		const ssize_t n = ::write(fd, data, len);
+		if (UNLIKELY(n < 0)) {
+			if (errno == EINTR) continue;
+			LOGE("write failed:errno=%d", errno);
+			return UVC_ERROR_IO;
+		}
+		data += n;
+		len -= n;
+	}
+	return 0;
+}
+
+int MuxFileSink::open(int fd, size_t buf_size) {
+	ENTER();
+
+	mFd = fd;
+	mError = 0;
+	mBufUsed = 0;
+	const off64_t pos = lseek64(fd, 0, SEEK_CUR);
+	if (UNLIKELY(pos < 0)) {
+		// header fields can not be patched without seek
+		LOGE("file descriptor is not seekable");
+		mError = UVC_ERROR_NOT_SUPPORTED;
+		RETURN(mError, int);
+	}
+	mPos = pos;
+	if (mBufSize != buf_size) {
+		SAFE_FREE(mBuf);
+		mBuf = (uint8_t *)malloc(buf_size);
+		mBufSize = mBuf ? buf_size : 0;
+	}
+	if (UNLIKELY(!mBuf)) {
+		mError = UVC_ERROR_NO_MEM;
+	}
+	RETURN(mError, int);
+}
+
+int MuxFileSink::write(const void *data, size_t len) {
+	if (UNLIKELY(mError)) return mError;
+	if (mBufUsed + len > mBufSize) {
+		flush();
+		if (len >= mBufSize) {
+			// large payload, bypass the buffer
+			mError = write_fully(mFd, (const uint8_t *)data, len);
+			if (LIKELY(!mError)) {
+				mPos += len;
+			}
+			return mError;
+		}
+	}
+	memcpy(mBuf + mBufUsed, data, len);
+	mBufUsed += len;
+	mPos += len;
+	return mError;
+}
+
+int MuxFileSink::flush() {
+	if (UNLIKELY(mError)) return mError;
+	if (mBufUsed) {
+		mError = write_fully(mFd, mBuf, mBufUsed);
+		mBufUsed = 0;
+	}
+	return mError;
+}
+
+int MuxFileSink::patch(int64_t offset, const void *data, size_t len) {
+	if (UNLIKELY(flush())) return mError;
+	const uint8_t *p = (const uint8_t *)data;
+	while (len > 0) {
+		const ssize_t n = pwrite64(mFd, p, len, offset);
+		if (UNLIKELY(n < 0)) {
+			if (errno == EINTR) continue;
+			LOGE("pwrite failed:errno=%d", errno);
+			mError = UVC_ERROR_IO;
+			break;
+		}
+		p += n;
+		offset += n;
+		len -= n;
+	}
+	return mError;
+}
+
+int MuxFileSink::sync() {
+	if (UNLIKELY(flush())) return mError;
+	if (UNLIKELY(fdatasync(mFd) < 0 && errno != EINVAL)) {
+		// EINVAL: the file descriptor does not support synchronization
+		LOGW("fdatasync failed:errno=%d", errno);
+	}
+	return mError;
+}
+
+void MuxFileSink::close() {
+	if (mFd >= 0) {
+		flush();
+		::close(mFd);
+		mFd = -1;
+	}
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+MjpegMuxer::MjpegMuxer() {
+	memset(&mConfig, 0, sizeof(mConfig));
+}
+
+MjpegMuxer::~MjpegMuxer() {
+}
+
+//static
+MjpegMuxer *MjpegMuxer::create(int container) {
+	switch (container) {
+	case MJPEG_CONTAINER_AVI:
+		return new AviMjpegMuxer();
+	case MJPEG_CONTAINER_MKV:
+		return new MkvMjpegMuxer();
+	default:
+		LOGE("unknown container type:%d", container);
+		return NULL;
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: MjpegMuxer.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef MJPEGMUXER_H_
+#define MJPEGMUXER_H_
+
+#include <stdint.h>
+#include <stddef.h>
+#include <vector>
+
+#pragma interface
+
+// keep these values same as VideoCaptureConfig.java
+#define MJPEG_CONTAINER_AVI 1
+#define MJPEG_CONTAINER_MKV 2
+
+typedef struct mjpeg_mux_config {
+    int width;
+    int height;
+    int fps;
+    int audioSampleRate;    // 0: no audio track
+    int audioChannels;      // 16bit PCM only
+} mjpeg_mux_config_t;
+
+/**
+ * buffered sequential writer on a seekable file descriptor,
+ * already written header fields are patched with pwrite
+ */
+class MuxFileSink {
+private:
+    int mFd;
+    uint8_t *mBuf;
+    size_t mBufSize;
+    size_t mBufUsed;
+    int64_t mPos;    // file offset of the next byte
+    int mError;
+public:
+    MuxFileSink();
+
+    ~MuxFileSink();
+
+    int open(int fd, size_t buf_size);
+
+    int write(const void *data, size_t len);
+
+    int flush();
+
+    int patch(int64_t offset, const void *data, size_t len);
+
+    int sync();
+
+    void close();
+
+    inline int64_t pos() const { return mPos; }
+
+    inline int error() const { return mError; }
+};
+
+/**
+ * writes camera's MJPEG frames and 16bit PCM audio into a container without transcoding
+ * all methods are called on the recorder's writer thread
+ */
+class MjpegMuxer {
+protected:
+    MuxFileSink mSink;
+    mjpeg_mux_config_t mConfig;
+public:
+    MjpegMuxer();
+
+    virtual ~MjpegMuxer();
+
+    static MjpegMuxer *create(int container);
+
+    /**
+     * @param fd this instance takes ownership of the file descriptor
+     */
+    virtual int open(int fd, const mjpeg_mux_config_t &config) = 0;
+
+    virtual int writeVideo(const uint8_t *data, size_t size, int64_t pts_us) = 0;
+
+    virtual int writeAudio(const uint8_t *data, size_t size, int64_t pts_us) = 0;
+
+    virtual int close() = 0;
+};
+
+/**
+ * AVI 2.0(OpenDML) writer
+ * Each RIFF is limited to 1GB, standard index chunks are written into movi
+ * and referenced from super index on every checkpoint,
+ * so an interrupted file is still playable up to the last checkpoint.
+ */
+class AviMjpegMuxer : public MjpegMuxer {
+private:
+    typedef struct {
+        uint32_t offset;    // from mBaseOffset to chunk data
+        uint32_t size;
+    } std_index_entry_t;
+    typedef struct {
+        uint64_t offset;    // file offset of ix## chunk
+        uint32_t size;
+        uint32_t duration;
+    } super_index_entry_t;
+    typedef struct {
+        uint32_t ckid;
+        uint32_t offset;    // from 'movi' fourcc of the first RIFF
+        uint32_t size;
+    } idx1_entry_t;
+
+    bool mHasAudio;
+    int mBlockAlign;
+    // header field offsets to patch
+    int64_t mRiffSizePos;
+    int64_t mMoviSizePos;
+    int64_t mMoviPos;
+    int64_t mAvihTotalFramesPos;
+    int64_t mVideoLengthPos;
+    int64_t mAudioLengthPos;
+    int64_t mVideoSuggestedPos;
+    int64_t mVideoIndxPos;
+    int64_t mAudioIndxPos;
+    int64_t mDmlhTotalFramesPos;
+    int64_t mBaseOffset;    // start of current RIFF
+    int mRiffCount;
+    // counters
+    uint32_t mVideoFrames;
+    uint32_t mFirstRiffFrames;
+    uint64_t mAudioBytes;
+    uint32_t mMaxVideoChunk;
+    int64_t mFirstPts;
+    int64_t mLastCheckpointPts;
+    int64_t mCheckpointIntervalUs;
+    bool mAudioStarted;
+    std::vector<std_index_entry_t> mVideoIndex;
+    std::vector<std_index_entry_t> mAudioIndex;
+    uint64_t mPendingAudioBytes;
+    std::vector<super_index_entry_t> mVideoSuper;
+    std::vector<super_index_entry_t> mAudioSuper;
+    std::vector<idx1_entry_t> mIdx1;
+    bool mIdx1Written;
+
+    int writeChunk(uint32_t ckid, const uint8_t *data, size_t size);
+
+    int writeStdIndex(uint32_t ixid, uint32_t ckid, std::vector<std_index_entry_t> &entries,
+                      uint32_t duration, std::vector<super_index_entry_t> &super_index);
+
+    int writeIdx1();
+
+    int patchHeaders();
+
+    int startNewRiff();
+
+    int checkpoint();
+public:
+    AviMjpegMuxer();
+
+    virtual ~AviMjpegMuxer();
+
+    virtual int open(int fd, const mjpeg_mux_config_t &config);
+
+    virtual int writeVideo(const uint8_t *data, size_t size, int64_t pts_us);
+
+    virtual int writeAudio(const uint8_t *data, size_t size, int64_t pts_us);
+
+    virtual int close();
+};
+
+/**
+ * Matroska writer
+ * Segment and the current Cluster are written with unknown size and patched on close,
+ * so the file is playable without Cues when recording is interrupted.
+ */
+class MkvMjpegMuxer : public MjpegMuxer {
+private:
+    typedef struct {
+        uint64_t time_ms;
+        uint64_t cluster_pos;    // relative to segment data
+    } cue_t;
+
+    bool mHasAudio;
+    int64_t mSegmentSizePos;
+    int64_t mSegmentDataPos;
+    int64_t mSeekHeadPos;
+    int64_t mInfoPos;
+    int64_t mTracksPos;
+    int64_t mDurationPos;
+    int64_t mClusterPos;        // -1: no open cluster
+    int64_t mClusterSizePos;
+    int64_t mClusterTimeMs;
+    int64_t mFirstPts;
+    int64_t mLastTimeMs;
+    std::vector<cue_t> mCues;
+
+    int startCluster(int64_t time_ms);
+
+    int closeCluster();
+
+    int writeBlock(int track, const uint8_t *data, size_t size, int64_t time_ms, bool keyframe);
+public:
+    MkvMjpegMuxer();
+
+    virtual ~MkvMjpegMuxer();
+
+    virtual int open(int fd, const mjpeg_mux_config_t &config);
+
+    virtual int writeVideo(const uint8_t *data, size_t size, int64_t pts_us);
+
+    virtual int writeAudio(const uint8_t *data, size_t size, int64_t pts_us);
+
+    virtual int close();
+};
+
+#endif /* MJPEGMUXER_H_ */
@@ -0,0 +1,241 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: MjpegRecorder.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+
+#define	LOCAL_DEBUG 0
+
+#include "utilbase.h"
+#include "MjpegRecorder.h"
+
+// frames are dropped while the storage can not keep up with this much queued data
+#define MAX_QUEUED_BYTES (64 * 1024 * 1024)
+#define MAX_QUEUED_PACKETS 240
+#define MAX_POOL_PACKETS 16
+
+MjpegRecorder::MjpegRecorder()
+:	mMuxer(NULL),
+	mIsRunning(false),
+	writer_thread(0),
+	mQueuedBytes(0),
+	mDroppedVideo(0),
+	mDroppedAudio(0),
+	mError(0) {
+
+	ENTER();
+	pthread_mutex_init(&queue_mutex, NULL);
+	pthread_cond_init(&queue_sync, NULL);
+	EXIT();
+}
+
+MjpegRecorder::~MjpegRecorder() {
+	ENTER();
+	stop();
+	for (packet_t *packet : mPool) {
+		free(packet->data);
+		delete packet;
+	}
+	mPool.clear();
+	pthread_cond_destroy(&queue_sync);
+	pthread_mutex_destroy(&queue_mutex);
+	EXIT();
+}
+
+int MjpegRecorder::start(int fd, int container, const mjpeg_mux_config_t &config) {
+	ENTER();
+
+	if (UNLIKELY(mIsRunning)) {
+		close(fd);
+		RETURN(UVC_ERROR_BUSY, int);
+	}
+	mMuxer = MjpegMuxer::create(container);
+	if (UNLIKELY(!mMuxer)) {
+		close(fd);
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	// headers are written here so that the caller knows the file descriptor is usable
+	int result = mMuxer->open(fd, config);
+	if (LIKELY(!result)) {
+		mQueuedBytes = 0;
+		mDroppedVideo = mDroppedAudio = 0;
+		mError = 0;
+		mIsRunning = true;
+		result = pthread_create(&writer_thread, NULL, writer_thread_func, (void *)this);
+		if (LIKELY(!result)) {
+			pthread_setname_np(writer_thread, "mjpeg_recorder");
+		} else {
+			mIsRunning = false;
+		}
+	}
+	if (UNLIKELY(result)) {
+		mMuxer->close();
+		SAFE_DELETE(mMuxer);
+	}
+	RETURN(result, int);
+}
+
+int MjpegRecorder::stop() {
+	ENTER();
+
+	if (mIsRunning) {
+		pthread_mutex_lock(&queue_mutex);
+		{
+			mIsRunning = false;
+			pthread_cond_signal(&queue_sync);
+		}
+		pthread_mutex_unlock(&queue_mutex);
+		// writer thread writes all queued packets and finalizes the file before it terminates
+		if (pthread_join(writer_thread, NULL) != EXIT_SUCCESS) {
+			LOGW("MjpegRecorder::terminate writer thread: pthread_join failed");
+		}
+		writer_thread = 0;
+		LOGI("recording finished:dropped video=%u,audio=%u", mDroppedVideo, mDroppedAudio);
+	}
+	SAFE_DELETE(mMuxer);
+	RETURN(mError, int);
+}
+
+MjpegRecorder::packet_t *MjpegRecorder::obtain_packet(size_t size) {
+	packet_t *packet = NULL;
+	if (!mPool.empty()) {
+		packet = mPool.front();
+		mPool.pop_front();
+	} else {
+		packet = new packet_t();
+		packet->data = NULL;
+		packet->capacity = 0;
+	}
+	if (packet->capacity < size) {
+		uint8_t *data = (uint8_t *)realloc(packet->data, size);
+		if (UNLIKELY(!data)) {
+			free(packet->data);
+			delete packet;
+			return NULL;
+		}
+		packet->data = data;
+		packet->capacity = size;
+	}
+	packet->size = size;
+	return packet;
+}
+
+/**
+ * should be called with queue_mutex locked
+ */
+void MjpegRecorder::recycle_packet(packet_t *packet) {
+	if (mPool.size() < MAX_POOL_PACKETS) {
+		mPool.push_back(packet);
+	} else {
+		free(packet->data);
+		delete packet;
+	}
+}
+
+int MjpegRecorder::enqueue(bool video, const uint8_t *data, size_t size, int64_t pts_us) {
+	int result = 0;
+	pthread_mutex_lock(&queue_mutex);
+	{
+		if (UNLIKELY(!mIsRunning)) {
+			result = UVC_ERROR_INVALID_MODE;
+		} else if (UNLIKELY((mQueuedBytes + size > MAX_QUEUED_BYTES)
+			|| (mQueue.size() >= MAX_QUEUED_PACKETS))) {
+
+			// storage is too slow, drop rather than blocking the camera
+			if (video) mDroppedVideo++; else mDroppedAudio++;
+			result = UVC_ERROR_OVERFLOW;
+		} else {
+			packet_t *packet = obtain_packet(size);
+			if (LIKELY(packet)) {
+				memcpy(packet->data, data, size);
+				packet->video = video;
+				packet->pts_us = pts_us;
+				mQueue.push_back(packet);
+				mQueuedBytes += size;
+				pthread_cond_signal(&queue_sync);
+			} else {
+				result = UVC_ERROR_NO_MEM;
+			}
+		}
+	}
+	pthread_mutex_unlock(&queue_mutex);
+	return result;
+}
+
+int MjpegRecorder::writeVideo(const uvc_frame_t *frame) {
+	const int64_t pts_us = (int64_t)frame->capture_time_finished.tv_sec * 1000000LL
+		+ frame->capture_time_finished.tv_nsec / 1000;
+	return enqueue(true, (const uint8_t *)frame->data, frame->data_bytes, pts_us);
+}
+
+int MjpegRecorder::writeAudio(const uint8_t *data, size_t size, int64_t pts_us) {
+	return enqueue(false, data, size, pts_us);
+}
+
+/*static*/
+void *MjpegRecorder::writer_thread_func(void *vptr_args) {
+	ENTER();
+	MjpegRecorder *recorder = reinterpret_cast<MjpegRecorder *>(vptr_args);
+	if (LIKELY(recorder)) {
+		recorder->do_write();
+	}
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
+void MjpegRecorder::do_write() {
+	ENTER();
+
+	for ( ; ; ) {
+		packet_t *packet = NULL;
+		pthread_mutex_lock(&queue_mutex);
+		{
+			while (mIsRunning && mQueue.empty()) {
+				pthread_cond_wait(&queue_sync, &queue_mutex);
+			}
+			if (!mQueue.empty()) {
+				packet = mQueue.front();
+				mQueue.pop_front();
+				mQueuedBytes -= packet->size;
+			}
+		}
+		pthread_mutex_unlock(&queue_mutex);
+		if (!packet) break;	// stopped and all packets are written
+		if (LIKELY(!mError)) {
+			const int result = packet->video
+				? mMuxer->writeVideo(packet->data, packet->size, packet->pts_us)
+				: mMuxer->writeAudio(packet->data, packet->size, packet->pts_us);
+			if (UNLIKELY(result)) {
+				LOGE("failed to write:err=%d", result);
+				mError = result;
+			}
+		}
+		pthread_mutex_lock(&queue_mutex);
+		recycle_packet(packet);
+		pthread_mutex_unlock(&queue_mutex);
+	}
+	const int result = mMuxer->close();
+	if (!mError) mError = result;
+
+	EXIT();
+}
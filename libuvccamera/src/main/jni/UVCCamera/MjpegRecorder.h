@@ -0,0 +1,91 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: MjpegRecorder.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef MJPEGRECORDER_H_
+#define MJPEGRECORDER_H_
+
+#include <pthread.h>
+#include <deque>
+#include "libUVCCamera.h"
+#include "MjpegMuxer.h"
+
+#pragma interface
+
+/**
+ * records MJPEG frames and PCM audio on its own writer thread
+ * so that file I/O never blocks the preview thread
+ */
+class MjpegRecorder {
+private:
+    typedef struct {
+        bool video;
+        uint8_t *data;
+        size_t size;
+        size_t capacity;
+        int64_t pts_us;
+    } packet_t;
+
+    MjpegMuxer *mMuxer;
+    volatile bool mIsRunning;
+    pthread_t writer_thread;
+    pthread_mutex_t queue_mutex;
+    pthread_cond_t queue_sync;
+    std::deque<packet_t *> mQueue;
+    std::deque<packet_t *> mPool;
+    size_t mQueuedBytes;
+    uint32_t mDroppedVideo;
+    uint32_t mDroppedAudio;
+    int mError;
+
+    packet_t *obtain_packet(size_t size);
+
+    void recycle_packet(packet_t *packet);
+
+    int enqueue(bool video, const uint8_t *data, size_t size, int64_t pts_us);
+
+    static void *writer_thread_func(void *vptr_args);
+
+    void do_write();
+
+public:
+    MjpegRecorder();
+
+    ~MjpegRecorder();
+
+    /**
+     * @param fd this instance takes ownership of the file descriptor even if this call fails
+     */
+    int start(int fd, int container, const mjpeg_mux_config_t &config);
+
+    int stop();
+
+    /**
+     * copy camera's JPEG payload into the queue, called on preview thread
+     */
+    int writeVideo(const uvc_frame_t *frame);
+
+    int writeAudio(const uint8_t *data, size_t size, int64_t pts_us);
+
+    inline uint32_t getDroppedFrames() const { return mDroppedVideo; }
+};
+
+#endif /* MJPEGRECORDER_H_ */
@@ -0,0 +1,386 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: MkvMjpegMuxer.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+
+#define	LOCAL_DEBUG 0
+
+#include "utilbase.h"
+#include "libUVCCamera.h"
+#include "MjpegMuxer.h"
+
+// EBML element ids
+#define MKV_EBML					0x1A45DFA3
+#define MKV_EBML_VERSION			0x4286
+#define MKV_EBML_READ_VERSION		0x42F7
+#define MKV_EBML_MAX_ID_LENGTH		0x42F2
+#define MKV_EBML_MAX_SIZE_LENGTH	0x42F3
+#define MKV_DOCTYPE					0x4282
+#define MKV_DOCTYPE_VERSION			0x4287
+#define MKV_DOCTYPE_READ_VERSION	0x4285
+#define MKV_SEGMENT					0x18538067
+#define MKV_SEEKHEAD				0x114D9B74
+#define MKV_SEEK					0x4DBB
+#define MKV_SEEK_ID					0x53AB
+#define MKV_SEEK_POSITION			0x53AC
+#define MKV_VOID					0xEC
+#define MKV_INFO					0x1549A966
+#define MKV_TIMESTAMP_SCALE			0x2AD7B1
+#define MKV_MUXING_APP				0x4D80
+#define MKV_WRITING_APP				0x5741
+#define MKV_DURATION				0x4489
+#define MKV_TRACKS					0x1654AE6B
+#define MKV_TRACK_ENTRY				0xAE
+#define MKV_TRACK_NUMBER			0xD7
+#define MKV_TRACK_UID				0x73C5
+#define MKV_TRACK_TYPE				0x83
+#define MKV_FLAG_LACING				0x9C
+#define MKV_CODEC_ID				0x86
+#define MKV_DEFAULT_DURATION		0x23E383
+#define MKV_VIDEO					0xE0
+#define MKV_PIXEL_WIDTH				0xB0
+#define MKV_PIXEL_HEIGHT			0xBA
+#define MKV_AUDIO					0xE1
+#define MKV_SAMPLING_FREQUENCY		0xB5
+#define MKV_CHANNELS				0x9F
+#define MKV_BIT_DEPTH				0x6264
+#define MKV_CLUSTER					0x1F43B675
+#define MKV_TIMESTAMP				0xE7
+#define MKV_SIMPLE_BLOCK			0xA3
+#define MKV_CUES					0x1C53BB6B
+#define MKV_CUE_POINT				0xBB
+#define MKV_CUE_TIME				0xB3
+#define MKV_CUE_TRACK_POSITIONS		0xB7
+#define MKV_CUE_TRACK				0xF7
+#define MKV_CUE_CLUSTER_POSITION	0xF1
+
+#define MKV_TRACK_VIDEO 1
+#define MKV_TRACK_AUDIO 2
+#define MKV_TRACK_TYPE_VIDEO 1
+#define MKV_TRACK_TYPE_AUDIO 2
+
+// space reserved just after Segment to write SeekHead on close
+#define MKV_SEEKHEAD_RESERVED 160
+#define MKV_CLUSTER_DURATION_MS 1000
+#define MKV_CLUSTER_MAX_BYTES (8 * 1024 * 1024)
+#define MKV_APP_NAME "libuvccamera"
+
+/**
+ * big endian byte buffer to build EBML elements
+ */
+class EbmlBuffer {
+public:
+	std::vector<uint8_t> data;
+
+	inline size_t size() const { return data.size(); }
+
+	void id(uint32_t v) {
+		if (v >= 0x1000000) data.push_back(v >> 24);
+		if (v >= 0x10000) data.push_back((v >> 16) & 0xff);
+		if (v >= 0x100) data.push_back((v >> 8) & 0xff);
+		data.push_back(v & 0xff);
+	}
+
+	/** @param len 0: minimum length */
+	void vint(uint64_t v, int len = 0) {
+		if (!len) {
+			len = 1;
+			while ((len < 8) && (v >= (1ULL << (7 * len)) - 1)) len++;
+		}
+		for (int i = len - 1; i >= 0; i--) {
+			uint8_t b = (v >> (8 * i)) & 0xff;
+			if (i == len - 1) b |= 0x80 >> (len - 1);
+			data.push_back(b);
+		}
+	}
+
+	void uint(uint32_t elem, uint64_t v) {
+		int len = 1;
+		while ((len < 8) && (v >> (8 * len))) len++;
+		id(elem);
+		vint(len);
+		for (int i = len - 1; i >= 0; i--) data.push_back((v >> (8 * i)) & 0xff);
+	}
+
+	void float64(uint32_t elem, double v) {
+		uint64_t bits;
+		memcpy(&bits, &v, 8);
+		id(elem);
+		vint(8);
+		for (int i = 7; i >= 0; i--) data.push_back((bits >> (8 * i)) & 0xff);
+	}
+
+	void str(uint32_t elem, const char *s) {
+		const size_t len = strlen(s);
+		id(elem);
+		vint(len);
+		data.insert(data.end(), s, s + len);
+	}
+
+	void binary(uint32_t elem, const uint8_t *p, size_t len) {
+		id(elem);
+		vint(len);
+		data.insert(data.end(), p, p + len);
+	}
+
+	void master(uint32_t elem, const EbmlBuffer &children) {
+		id(elem);
+		vint(children.size());
+		data.insert(data.end(), children.data.begin(), children.data.end());
+	}
+
+	void voidElement(size_t total) {
+		// total >= 2
+		id(MKV_VOID);
+		const size_t payload = total - 1 - (total - 2 < 127 ? 1 : 8);
+		vint(payload, total - 2 < 127 ? 1 : 8);
+		data.insert(data.end(), payload, 0);
+	}
+};
+
+/** 8 bytes size field, written as unknown size and patched later */
+static void put_size8(uint8_t *p, uint64_t v) {
+	p[0] = 0x01;
+	for (int i = 1; i < 8; i++) p[i] = (v >> (8 * (7 - i))) & 0xff;
+}
+
+static const uint8_t UNKNOWN_SIZE[8] = { 0x01, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff };
+
+MkvMjpegMuxer::MkvMjpegMuxer()
+:	mHasAudio(false),
+	mSegmentSizePos(0),
+	mSegmentDataPos(0),
+	mSeekHeadPos(0),
+	mInfoPos(0),
+	mTracksPos(0),
+	mDurationPos(0),
+	mClusterPos(-1),
+	mClusterSizePos(0),
+	mClusterTimeMs(0),
+	mFirstPts(-1),
+	mLastTimeMs(0) {
+}
+
+MkvMjpegMuxer::~MkvMjpegMuxer() {
+}
+
+int MkvMjpegMuxer::open(int fd, const mjpeg_mux_config_t &config) {
+	ENTER();
+
+	mConfig = config;
+	if (mConfig.fps <= 0) mConfig.fps = 30;
+	mHasAudio = (config.audioSampleRate > 0) && (config.audioChannels > 0);
+	int result = mSink.open(fd, 1024 * 1024);
+	if (UNLIKELY(result)) RETURN(result, int);
+
+	EbmlBuffer h;
+	{
+		EbmlBuffer e;
+		e.uint(MKV_EBML_VERSION, 1);
+		e.uint(MKV_EBML_READ_VERSION, 1);
+		e.uint(MKV_EBML_MAX_ID_LENGTH, 4);
+		e.uint(MKV_EBML_MAX_SIZE_LENGTH, 8);
+		e.str(MKV_DOCTYPE, "matroska");
+		e.uint(MKV_DOCTYPE_VERSION, 4);
+		e.uint(MKV_DOCTYPE_READ_VERSION, 2);
+		h.master(MKV_EBML, e);
+	}
+	const int64_t base = mSink.pos();
+	h.id(MKV_SEGMENT);
+	mSegmentSizePos = base + h.size();
+	h.data.insert(h.data.end(), UNKNOWN_SIZE, UNKNOWN_SIZE + 8);
+	mSegmentDataPos = base + h.size();
+	mSeekHeadPos = base + h.size();
+	h.voidElement(MKV_SEEKHEAD_RESERVED);
+	{
+		mInfoPos = base + h.size();
+		EbmlBuffer e;
+		// Duration is the first child so that its position is known
+		e.float64(MKV_DURATION, 0.0);
+		e.uint(MKV_TIMESTAMP_SCALE, 1000000);	// 1 msec
+		e.str(MKV_MUXING_APP, MKV_APP_NAME);
+		e.str(MKV_WRITING_APP, MKV_APP_NAME);
+		h.id(MKV_INFO);
+		h.vint(e.size(), 8);
+		// skip Duration id(2 bytes) and size(1 byte)
+		mDurationPos = base + h.size() + 3;
+		h.data.insert(h.data.end(), e.data.begin(), e.data.end());
+	}
+	{
+		mTracksPos = base + h.size();
+		EbmlBuffer tracks;
+		{
+			EbmlBuffer t, v;
+			t.uint(MKV_TRACK_NUMBER, MKV_TRACK_VIDEO);
+			t.uint(MKV_TRACK_UID, MKV_TRACK_VIDEO);
+			t.uint(MKV_TRACK_TYPE, MKV_TRACK_TYPE_VIDEO);
+			t.uint(MKV_FLAG_LACING, 0);
+			t.str(MKV_CODEC_ID, "V_MJPEG");
+			t.uint(MKV_DEFAULT_DURATION, 1000000000ULL / mConfig.fps);
+			v.uint(MKV_PIXEL_WIDTH, config.width);
+			v.uint(MKV_PIXEL_HEIGHT, config.height);
+			t.master(MKV_VIDEO, v);
+			tracks.master(MKV_TRACK_ENTRY, t);
+		}
+		if (mHasAudio) {
+			EbmlBuffer t, a;
+			t.uint(MKV_TRACK_NUMBER, MKV_TRACK_AUDIO);
+			t.uint(MKV_TRACK_UID, MKV_TRACK_AUDIO);
+			t.uint(MKV_TRACK_TYPE, MKV_TRACK_TYPE_AUDIO);
+			t.uint(MKV_FLAG_LACING, 0);
+			t.str(MKV_CODEC_ID, "A_PCM/INT/LIT");
+			a.float64(MKV_SAMPLING_FREQUENCY, config.audioSampleRate);
+			a.uint(MKV_CHANNELS, config.audioChannels);
+			a.uint(MKV_BIT_DEPTH, 16);
+			t.master(MKV_AUDIO, a);
+			tracks.master(MKV_TRACK_ENTRY, t);
+		}
+		h.master(MKV_TRACKS, tracks);
+	}
+	result = mSink.write(h.data.data(), h.size());
+	RETURN(result, int);
+}
+
+int MkvMjpegMuxer::startCluster(int64_t time_ms) {
+	EbmlBuffer c;
+	mClusterPos = mSink.pos();
+	c.id(MKV_CLUSTER);
+	mClusterSizePos = mClusterPos + c.size();
+	c.data.insert(c.data.end(), UNKNOWN_SIZE, UNKNOWN_SIZE + 8);
+	c.uint(MKV_TIMESTAMP, time_ms);
+	mClusterTimeMs = time_ms;
+	return mSink.write(c.data.data(), c.size());
+}
+
+int MkvMjpegMuxer::closeCluster() {
+	if (mClusterPos < 0) return 0;
+	uint8_t buf[8];
+	put_size8(buf, mSink.pos() - mClusterSizePos - 8);
+	mClusterPos = -1;
+	return mSink.patch(mClusterSizePos, buf, 8);
+}
+
+int MkvMjpegMuxer::writeBlock(int track, const uint8_t *data, size_t size, int64_t time_ms, bool keyframe) {
+	EbmlBuffer b;
+	const int16_t rel = (int16_t)(time_ms - mClusterTimeMs);
+	b.id(MKV_SIMPLE_BLOCK);
+	b.vint(size + 4);
+	b.vint(track);
+	b.data.push_back((rel >> 8) & 0xff);
+	b.data.push_back(rel & 0xff);
+	b.data.push_back(keyframe ? 0x80 : 0x00);
+	mSink.write(b.data.data(), b.size());
+	if (time_ms > mLastTimeMs) mLastTimeMs = time_ms;
+	return mSink.write(data, size);
+}
+
+int MkvMjpegMuxer::writeVideo(const uint8_t *data, size_t size, int64_t pts_us) {
+	if (UNLIKELY(mFirstPts < 0)) {
+		mFirstPts = pts_us;
+	}
+	const int64_t time_ms = (pts_us - mFirstPts) / 1000;
+	if ((mClusterPos < 0)
+		|| (time_ms - mClusterTimeMs >= MKV_CLUSTER_DURATION_MS)
+		|| (time_ms < mClusterTimeMs)
+		|| (mSink.pos() - mClusterPos + size > MKV_CLUSTER_MAX_BYTES)) {
+
+		// every MJPEG frame is a key frame, so a cluster can start at any video frame
+		closeCluster();
+		startCluster(time_ms);
+		mCues.push_back({ (uint64_t)time_ms, (uint64_t)(mClusterPos - mSegmentDataPos) });
+	}
+	return writeBlock(MKV_TRACK_VIDEO, data, size, time_ms, true);
+}
+
+int MkvMjpegMuxer::writeAudio(const uint8_t *data, size_t size, int64_t pts_us) {
+	if (!mHasAudio || (mFirstPts < 0) || (pts_us < mFirstPts)) {
+		// audio before the first video frame is dropped
+		return 0;
+	}
+	const int64_t time_ms = (pts_us - mFirstPts) / 1000;
+	const int64_t rel = time_ms - mClusterTimeMs;
+	if ((mClusterPos < 0) || (rel > INT16_MAX) || (rel < INT16_MIN)) {
+		closeCluster();
+		startCluster(time_ms);
+	}
+	return writeBlock(MKV_TRACK_AUDIO, data, size, time_ms, true);
+}
+
+int MkvMjpegMuxer::close() {
+	ENTER();
+
+	if (mSegmentDataPos > 0) {
+		closeCluster();
+		const int64_t cues_pos = mSink.pos();
+		if (!mCues.empty()) {
+			EbmlBuffer cues;
+			for (const cue_t &cue : mCues) {
+				EbmlBuffer p, t;
+				p.uint(MKV_CUE_TIME, cue.time_ms);
+				t.uint(MKV_CUE_TRACK, MKV_TRACK_VIDEO);
+				t.uint(MKV_CUE_CLUSTER_POSITION, cue.cluster_pos);
+				p.master(MKV_CUE_TRACK_POSITIONS, t);
+				cues.master(MKV_CUE_POINT, p);
+			}
+			EbmlBuffer e;
+			e.master(MKV_CUES, cues);
+			mSink.write(e.data.data(), e.size());
+		}
+		{	// fill the reserved space with SeekHead
+			const struct { uint32_t id; int64_t pos; } entries[] = {
+				{ MKV_INFO, mInfoPos },
+				{ MKV_TRACKS, mTracksPos },
+				{ MKV_CUES, mCues.empty() ? -1 : cues_pos },
+			};
+			EbmlBuffer seeks;
+			for (const auto &entry : entries) {
+				if (entry.pos < 0) continue;
+				EbmlBuffer s, id;
+				id.id(entry.id);
+				s.binary(MKV_SEEK_ID, id.data.data(), id.size());
+				s.uint(MKV_SEEK_POSITION, entry.pos - mSegmentDataPos);
+				seeks.master(MKV_SEEK, s);
+			}
+			EbmlBuffer e;
+			e.master(MKV_SEEKHEAD, seeks);
+			e.voidElement(MKV_SEEKHEAD_RESERVED - e.size());
+			mSink.patch(mSeekHeadPos, e.data.data(), e.size());
+		}
+		{
+			const double duration = (double)mLastTimeMs + 1000.0 / mConfig.fps;
+			uint64_t bits;
+			memcpy(&bits, &duration, 8);
+			uint8_t buf[8];
+			for (int i = 0; i < 8; i++) buf[i] = (bits >> (8 * (7 - i))) & 0xff;
+			mSink.patch(mDurationPos, buf, 8);
+		}
+		uint8_t buf[8];
+		put_size8(buf, mSink.pos() - mSegmentDataPos);
+		mSink.patch(mSegmentSizePos, buf, 8);
+		mSink.sync();
+	}
+	const int result = mSink.error();
+	mSink.close();
+
+	RETURN(result, int);
+}
@@ -0,0 +1,531 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: MosaicCompositor.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+
+#define LOCAL_DEBUG 0
+
+#include "MosaicCompositor.h"
+#include "libyuv.h"
+
+MosaicCompositor::MosaicCompositor(int width, int height, int columns, int rows, int format, int fps)
+        : mRefCount(1),
+          mWidth(width),
+          mHeight(height),
+          mColumns(columns),
+          mRows(rows),
+          mFormat(format),
+          mTileWidth(0),
+          mTileHeight(0),
+          mIntervalNs(fps > 0 ? 1000000000LL / fps : 0),
+          mFrameBytes(0),
+          mCanvas(NULL),
+          mOutput(NULL),
+          mMosaicCallbackObj(NULL),
+          mOutputBufferObj(NULL),
+          mIsRunning(false),
+          output_thread(0) {
+
+    ENTER();
+    pthread_mutex_init(&mRefLock, NULL);
+    pthread_rwlock_init(&mCanvasLock, NULL);
+    for (int i = 0; i < MOSAIC_MAX_TILES; i++) {
+        pthread_mutex_init(&mTileLock[i], NULL);
+        mWork[i] = NULL;
+        mWorkBytes[i] = 0;
+        mStaging[i] = NULL;
+        mTileUpdated[i] = false;
+    }
+    pthread_mutex_init(&mStatsLock, NULL);
+    memset(&mStats, 0, sizeof(mStats));
+    imosaiccallback_fields.onMosaicFrame = NULL;
+    pthread_mutex_init(&mOutputLock, NULL);
+    // the output thread waits for absolute monotonic ticks
+    pthread_condattr_t attr;
+    pthread_condattr_init(&attr);
+    pthread_condattr_setclock(&attr, CLOCK_MONOTONIC);
+    pthread_cond_init(&mOutputSync, &attr);
+    pthread_condattr_destroy(&attr);
+    EXIT();
+}
+
+MosaicCompositor::~MosaicCompositor() {
+    ENTER();
+    // global references should be released by #stop
+    mMosaicCallbackObj = mOutputBufferObj = NULL;
+    SAFE_FREE(mCanvas);
+    SAFE_FREE(mOutput);
+    for (int i = 0; i < MOSAIC_MAX_TILES; i++) {
+        SAFE_FREE(mWork[i]);
+        SAFE_FREE(mStaging[i]);
+        pthread_mutex_destroy(&mTileLock[i]);
+    }
+    pthread_rwlock_destroy(&mCanvasLock);
+    pthread_mutex_destroy(&mStatsLock);
+    pthread_cond_destroy(&mOutputSync);
+    pthread_mutex_destroy(&mOutputLock);
+    pthread_mutex_destroy(&mRefLock);
+    EXIT();
+}
+
+void MosaicCompositor::addRef() {
+    pthread_mutex_lock(&mRefLock);
+    mRefCount++;
+    pthread_mutex_unlock(&mRefLock);
+}
+
+void MosaicCompositor::release() {
+    pthread_mutex_lock(&mRefLock);
+    const int count = --mRefCount;
+    pthread_mutex_unlock(&mRefLock);
+    if (!count) {
+        delete this;
+    }
+}
+
+int MosaicCompositor::start(JNIEnv *env, jobject mosaic_callback_obj) {
+    ENTER();
+    if (UNLIKELY(!mosaic_callback_obj || (mIntervalNs <= 0)
+                 || (mWidth <= 0) || (mHeight <= 0) || (mWidth & 1) || (mHeight & 1)
+                 || (mColumns <= 0) || (mRows <= 0) || (mColumns * mRows > MOSAIC_MAX_TILES)
+                 || ((mFormat != MOSAIC_FORMAT_NV12) && (mFormat != MOSAIC_FORMAT_UYVY)))) {
+        RETURN(UVC_ERROR_INVALID_PARAM, int);
+    }
+    // keep chroma sub-sampling aligned in every tile
+    mTileWidth = (mWidth / mColumns) & ~1;
+    mTileHeight = (mHeight / mRows) & ~1;
+    if (UNLIKELY((mTileWidth < 2) || (mTileHeight < 2))) {
+        RETURN(UVC_ERROR_INVALID_PARAM, int);
+    }
+    jclass clazz = env->GetObjectClass(mosaic_callback_obj);
+    jmethodID onMosaicFrame = NULL;
+    if (LIKELY(clazz)) {
+        onMosaicFrame = env->GetMethodID(clazz, "onMosaicFrame", "(Ljava/nio/ByteBuffer;J)V");
+        env->DeleteLocalRef(clazz);
+    }
+    env->ExceptionClear();
+    if (UNLIKELY(!onMosaicFrame)) {
+        LOGE("Can't find IMosaicCallback#onMosaicFrame");
+        RETURN(UVC_ERROR_INVALID_PARAM, int);
+    }
+    mFrameBytes = mFormat == MOSAIC_FORMAT_NV12
+                  ? (size_t) mWidth * mHeight * 3 / 2 : (size_t) mWidth * mHeight * 2;
+    mCanvas = (uint8_t *) malloc(mFrameBytes);
+    mOutput = (uint8_t *) malloc(mFrameBytes);
+    if (UNLIKELY(!mCanvas || !mOutput)) {
+        SAFE_FREE(mCanvas);
+        SAFE_FREE(mOutput);
+        RETURN(UVC_ERROR_NO_MEM, int);
+    }
+    clear_canvas();
+    jobject buf = env->NewDirectByteBuffer(mOutput, mFrameBytes);
+    if (UNLIKELY(!buf)) {
+        env->ExceptionClear();
+        RETURN(UVC_ERROR_NO_MEM, int);
+    }
+    mOutputBufferObj = env->NewGlobalRef(buf);
+    env->DeleteLocalRef(buf);
+    mMosaicCallbackObj = mosaic_callback_obj;
+    imosaiccallback_fields.onMosaicFrame = onMosaicFrame;
+
+    mIsRunning = true;
+    int result = pthread_create(&output_thread, NULL, output_thread_func, (void *) this);
+    if (LIKELY(!result)) {
+        pthread_setname_np(output_thread, "uvc_mosaic");
+        LOGI("mosaic:%dx%d,%dx%d tiles of %dx%d,format=%d,interval=%lldns",
+             mWidth, mHeight, mColumns, mRows, mTileWidth, mTileHeight,
+             mFormat, (long long) mIntervalNs);
+    } else {
+        mIsRunning = false;
+        output_thread = 0;
+        // the caller releases the callback on failure
+        mMosaicCallbackObj = NULL;
+        env->DeleteGlobalRef(mOutputBufferObj);
+        mOutputBufferObj = NULL;
+    }
+    RETURN(result, int);
+}
+
+void MosaicCompositor::stop(JNIEnv *env) {
+    ENTER();
+    pthread_mutex_lock(&mOutputLock);
+    {
+        mIsRunning = false;
+        pthread_cond_signal(&mOutputSync);
+    }
+    pthread_mutex_unlock(&mOutputLock);
+    if (output_thread) {
+        if (pthread_join(output_thread, NULL) != EXIT_SUCCESS) {
+            LOGW("MosaicCompositor::stop output thread: pthread_join failed");
+        }
+        output_thread = 0;
+    }
+    imosaiccallback_fields.onMosaicFrame = NULL;
+    if (mMosaicCallbackObj) {
+        env->DeleteGlobalRef(mMosaicCallbackObj);
+        mMosaicCallbackObj = NULL;
+    }
+    if (mOutputBufferObj) {
+        env->DeleteGlobalRef(mOutputBufferObj);
+        mOutputBufferObj = NULL;
+    }
+    EXIT();
+}
+
+/**
+ * fill the canvas with black so that tiles without camera are not garbage
+ */
+void MosaicCompositor::clear_canvas() {
+    const size_t pixels = (size_t) mWidth * mHeight;
+    if (mFormat == MOSAIC_FORMAT_NV12) {
+        memset(mCanvas, 16, pixels);
+        memset(mCanvas + pixels, 128, pixels / 2);
+    } else {
+        // U Y V Y
+        uint32_t *p = (uint32_t *) mCanvas;
+        const uint8_t black[4] = {128, 16, 128, 16};
+        uint32_t value;
+        memcpy(&value, black, sizeof(value));
+        for (size_t i = 0; i < pixels / 2; i++) {
+            p[i] = value;
+        }
+    }
+}
+
+uint8_t *MosaicCompositor::ensure_work(int index, size_t bytes) {
+    if (UNLIKELY(mWorkBytes[index] < bytes)) {
+        uint8_t *work = (uint8_t *) realloc(mWork[index], bytes);
+        if (UNLIKELY(!work)) {
+            return NULL;
+        }
+        mWork[index] = work;
+        mWorkBytes[index] = bytes;
+    }
+    return mWork[index];
+}
+
+/**
+ * the tile size does not change after #start, so the staging tile is allocated only once
+ */
+uint8_t *MosaicCompositor::ensure_staging(int index) {
+    if (UNLIKELY(!mStaging[index])) {
+        const size_t pixels = (size_t) mTileWidth * mTileHeight;
+        mStaging[index] = (uint8_t *) malloc(mFormat == MOSAIC_FORMAT_NV12 ? pixels * 3 / 2 : pixels * 2);
+    }
+    return mStaging[index];
+}
+
+/**
+ * scale the frame into I420 of tile size in the work buffer of the tile
+ * @param planes y, u and v plane of the scaled image
+ * @param strides strides of the planes
+ */
+int MosaicCompositor::scale_to_i420(int index, const uvc_frame_t *frame, uint8_t **planes, int *strides) {
+    const int src_w = frame->width;
+    const int src_h = frame->height;
+    const int dw = mTileWidth;
+    const int dh = mTileHeight;
+    const int half_dw = dw / 2;
+    const int half_dh = dh / 2;
+    const size_t tile_bytes = (size_t) dw * dh + (size_t) half_dw * half_dh * 2;
+    const uint8_t *src = (const uint8_t *) frame->data;
+    size_t extra_bytes;
+    int result;
+
+    if (UNLIKELY((src_w < 2) || (src_h < 2))) {
+        return UVC_ERROR_INVALID_PARAM;
+    }
+    const int half_w = (src_w + 1) / 2;
+    const int half_h = (src_h + 1) / 2;
+    switch (frame->frame_format) {
+        case UVC_FRAME_FORMAT_RGBX:
+            extra_bytes = (size_t) dw * dh * 4;
+            break;
+        case UVC_FRAME_FORMAT_NV12:
+        case UVC_FRAME_FORMAT_NV21:
+            extra_bytes = (size_t) half_dw * 2 * half_dh;
+            break;
+        case UVC_FRAME_FORMAT_YUYV:
+        case UVC_FRAME_FORMAT_UYVY:
+        case UVC_FRAME_FORMAT_MJPEG:
+            // packed 4:2:2 and JPEG can not be scaled directly, convert into I420 of source size first
+            extra_bytes = (size_t) src_w * src_h + (size_t) half_w * half_h * 2;
+            break;
+        default:
+            extra_bytes = 0;
+            break;
+    }
+    uint8_t *ty = ensure_work(index, tile_bytes + extra_bytes);
+    if (UNLIKELY(!ty)) return UVC_ERROR_NO_MEM;
+    uint8_t *tu = ty + (size_t) dw * dh;
+    uint8_t *tv = tu + (size_t) half_dw * half_dh;
+    uint8_t *extra = ty + tile_bytes;
+    planes[0] = ty;
+    planes[1] = tu;
+    planes[2] = tv;
+    strides[0] = dw;
+    strides[1] = strides[2] = half_dw;
+
+    switch (frame->frame_format) {
+        case UVC_FRAME_FORMAT_RGBX: {
+            const int stride = frame->step ? (int) frame->step : src_w * 4;
+            if (UNLIKELY(frame->data_bytes < (size_t) stride * src_h)) {
+                return UVC_ERROR_INVALID_PARAM;
+            }
+            // scale first, conversion of the smaller image is cheaper
+            result = libyuv::ARGBScale(src, stride, src_w, src_h,
+                                       extra, dw * 4, dw, dh, libyuv::kFilterBilinear);
+            if (LIKELY(!result)) {
+                result = libyuv::ABGRToI420(extra, dw * 4, ty, dw, tu, half_dw, tv, half_dw, dw, dh);
+            }
+            break;
+        }
+        case UVC_FRAME_FORMAT_I420: {
+            const size_t y_bytes = (size_t) src_w * src_h;
+            if (UNLIKELY(frame->data_bytes < y_bytes + (size_t) half_w * half_h * 2)) {
+                return UVC_ERROR_INVALID_PARAM;
+            }
+            const uint8_t *u = src + y_bytes;
+            const uint8_t *v = u + (size_t) half_w * half_h;
+            result = libyuv::I420Scale(src, src_w, u, half_w, v, half_w, src_w, src_h,
+                                       ty, dw, tu, half_dw, tv, half_dw,
+                                       dw, dh, libyuv::kFilterBilinear);
+            break;
+        }
+        case UVC_FRAME_FORMAT_NV12:
+        case UVC_FRAME_FORMAT_NV21: {
+            const int stride = frame->step ? (int) frame->step : src_w;
+            const size_t y_bytes = (size_t) stride * src_h;
+            if (UNLIKELY(frame->data_bytes < y_bytes + (size_t) stride * half_h)) {
+                return UVC_ERROR_INVALID_PARAM;
+            }
+            // NV21 has the same memory layout as NV12 except for U/V order
+            result = libyuv::NV12Scale(src, stride, src + y_bytes, stride, src_w, src_h,
+                                       ty, dw, extra, half_dw * 2,
+                                       dw, dh, libyuv::kFilterBilinear);
+            if (LIKELY(!result)) {
+                const bool is_nv21 = frame->frame_format == UVC_FRAME_FORMAT_NV21;
+                libyuv::SplitUVPlane(extra, half_dw * 2,
+                                     is_nv21 ? tv : tu, half_dw, is_nv21 ? tu : tv, half_dw,
+                                     half_dw, half_dh);
+            }
+            break;
+        }
+        case UVC_FRAME_FORMAT_YUYV:
+        case UVC_FRAME_FORMAT_UYVY:
+        case UVC_FRAME_FORMAT_MJPEG: {
+            uint8_t *fy = extra;
+            uint8_t *fu = fy + (size_t) src_w * src_h;
+            uint8_t *fv = fu + (size_t) half_w * half_h;
+            if (frame->frame_format == UVC_FRAME_FORMAT_MJPEG) {
+                result = libyuv::MJPGToI420(src, frame->data_bytes,
+                                            fy, src_w, fu, half_w, fv, half_w,
+                                            src_w, src_h, src_w, src_h);
+            } else {
+                const int stride = frame->step ? (int) frame->step : src_w * 2;
+                if (UNLIKELY(frame->data_bytes < (size_t) stride * src_h)) {
+                    return UVC_ERROR_INVALID_PARAM;
+                }
+                if (frame->frame_format == UVC_FRAME_FORMAT_YUYV) {
+                    result = libyuv::YUY2ToI420(src, stride, fy, src_w, fu, half_w, fv, half_w, src_w, src_h);
+                } else {
+                    result = libyuv::UYVYToI420(src, stride, fy, src_w, fu, half_w, fv, half_w, src_w, src_h);
+                }
+            }
+            if (LIKELY(!result)) {
+                result = libyuv::I420Scale(fy, src_w, fu, half_w, fv, half_w, src_w, src_h,
+                                           ty, dw, tu, half_dw, tv, half_dw,
+                                           dw, dh, libyuv::kFilterBilinear);
+            }
+            break;
+        }
+        default:
+            result = UVC_ERROR_NOT_SUPPORTED;
+            break;
+    }
+    return result;
+}
+
+/**
+ * scale the frame into the staging tile, then copy it into its tile of the canvas
+ */
+int MosaicCompositor::write_tile(int index, const uvc_frame_t *frame) {
+    const int x = (index % mColumns) * mTileWidth;
+    const int y = (index / mColumns) * mTileHeight;
+    const int dw = mTileWidth;
+    const int dh = mTileHeight;
+    int result;
+
+    uint8_t *tile = ensure_staging(index);
+    if (UNLIKELY(!tile)) {
+        return UVC_ERROR_NO_MEM;
+    }
+    if ((mFormat == MOSAIC_FORMAT_NV12) && (frame->frame_format == UVC_FRAME_FORMAT_NV12)
+        && (frame->width >= 2) && (frame->height >= 2)) {
+        // same layout, scale straight into the staging tile without intermediate image
+        const int stride = frame->step ? (int) frame->step : frame->width;
+        const size_t y_bytes = (size_t) stride * frame->height;
+        if (UNLIKELY(frame->data_bytes < y_bytes + (size_t) stride * ((frame->height + 1) / 2))) {
+            return UVC_ERROR_INVALID_PARAM;
+        }
+        const uint8_t *src = (const uint8_t *) frame->data;
+        result = libyuv::NV12Scale(src, stride, src + y_bytes, stride, frame->width, frame->height,
+                                   tile, dw, tile + (size_t) dw * dh, dw,
+                                   dw, dh, libyuv::kFilterBilinear);
+    } else {
+        uint8_t *planes[3];
+        int strides[3];
+        result = scale_to_i420(index, frame, planes, strides);
+        if (LIKELY(!result)) {
+            if (mFormat == MOSAIC_FORMAT_NV12) {
+                result = libyuv::I420ToNV12(planes[0], strides[0], planes[1], strides[1], planes[2], strides[2],
+                                            tile, dw, tile + (size_t) dw * dh, dw, dw, dh);
+            } else {
+                result = libyuv::I420ToUYVY(planes[0], strides[0], planes[1], strides[1], planes[2], strides[2],
+                                            tile, dw * 2, dw, dh);
+            }
+        }
+    }
+    if (UNLIKELY(result)) {
+        return result;
+    }
+    // only the copy blocks the output thread
+    pthread_rwlock_rdlock(&mCanvasLock);
+    {
+        if (mFormat == MOSAIC_FORMAT_NV12) {
+            libyuv::CopyPlane(tile, dw, mCanvas + (size_t) y * mWidth + x, mWidth, dw, dh);
+            libyuv::CopyPlane(tile + (size_t) dw * dh, dw,
+                              mCanvas + (size_t) mWidth * mHeight + (size_t) (y / 2) * mWidth + x, mWidth,
+                              dw, dh / 2);
+        } else {
+            libyuv::CopyPlane(tile, dw * 2, mCanvas + (size_t) y * mWidth * 2 + (size_t) x * 2, mWidth * 2,
+                              dw * 2, dh);
+        }
+        mTileUpdated[index] = true;
+    }
+    pthread_rwlock_unlock(&mCanvasLock);
+    return UVC_SUCCESS;
+}
+
+void MosaicCompositor::process(int index, const uvc_frame_t *frame) {
+    if (UNLIKELY(!frame || !mCanvas || (index < 0) || (index >= getTileCount()))) {
+        return;
+    }
+    int result;
+    pthread_mutex_lock(&mTileLock[index]);
+    {
+        result = write_tile(index, frame);
+    }
+    pthread_mutex_unlock(&mTileLock[index]);
+    if (UNLIKELY(result)) {
+#if LOCAL_DEBUG
+        LOGW("mosaic: failed to write tile %d(%d),fmt=%d", index, result, frame->frame_format);
+#endif
+        return;
+    }
+    pthread_mutex_lock(&mStatsLock);
+    mStats.tile_updates[index]++;
+    pthread_mutex_unlock(&mStatsLock);
+}
+
+void MosaicCompositor::getStats(mosaic_stats_t &stats) {
+    pthread_mutex_lock(&mStatsLock);
+    stats = mStats;
+    pthread_mutex_unlock(&mStatsLock);
+}
+
+//static
+void *MosaicCompositor::output_thread_func(void *vptr_args) {
+    ENTER();
+    MosaicCompositor *mosaic = reinterpret_cast<MosaicCompositor *>(vptr_args);
+    if (LIKELY(mosaic)) {
+        JavaVM *vm = getVM();
+        JNIEnv *env;
+        // attach to JavaVM
+        vm->AttachCurrentThread(&env, NULL);
+        mosaic->do_output(env);
+        // detach from JavaVM
+        vm->DetachCurrentThread();
+        MARK("DetachCurrentThread");
+    }
+    PRE_EXIT();
+    pthread_exit(NULL);
+}
+
+/**
+ * emit a copy of the canvas on every tick until #stop,
+ * ticks that passed while the callback was running are skipped to keep the cadence
+ */
+void MosaicCompositor::do_output(JNIEnv *env) {
+    ENTER();
+    const int tiles = getTileCount();
+    bool updated[MOSAIC_MAX_TILES];
+    nsecs_t next = systemTime() + mIntervalNs;
+    struct timespec ts;
+    pthread_mutex_lock(&mOutputLock);
+    while (mIsRunning) {
+        ts.tv_sec = next / 1000000000LL;
+        ts.tv_nsec = next % 1000000000LL;
+        const int r = pthread_cond_timedwait(&mOutputSync, &mOutputLock, &ts);
+        if (!mIsRunning) break;
+        if (r != ETIMEDOUT) continue;
+        pthread_mutex_unlock(&mOutputLock);
+
+        pthread_rwlock_wrlock(&mCanvasLock);
+        {
+            memcpy(mOutput, mCanvas, mFrameBytes);
+            for (int i = 0; i < tiles; i++) {
+                updated[i] = mTileUpdated[i];
+                mTileUpdated[i] = false;
+            }
+        }
+        pthread_rwlock_unlock(&mCanvasLock);
+        env->CallVoidMethod(mMosaicCallbackObj, imosaiccallback_fields.onMosaicFrame,
+                            mOutputBufferObj, (jlong) next);
+        env->ExceptionClear();
+
+        nsecs_t missed = 0;
+        next += mIntervalNs;
+        const nsecs_t now = systemTime();
+        if (next <= now) {
+            missed = (now - next) / mIntervalNs + 1;
+            next += missed * mIntervalNs;
+        }
+        pthread_mutex_lock(&mStatsLock);
+        {
+            mStats.emitted_frames++;
+            mStats.missed_ticks += missed;
+            for (int i = 0; i < tiles; i++) {
+                // tiles that never had a frame are not late, they have no camera
+                if (!updated[i] && mStats.tile_updates[i]) {
+                    mStats.tile_repeats[i]++;
+                }
+            }
+        }
+        pthread_mutex_unlock(&mStatsLock);
+        pthread_mutex_lock(&mOutputLock);
+    }
+    pthread_mutex_unlock(&mOutputLock);
+    EXIT();
+}
@@ -0,0 +1,147 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: MosaicCompositor.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef MOSAICCOMPOSITOR_H_
+#define MOSAICCOMPOSITOR_H_
+
+#include <pthread.h>
+#include "libUVCCamera.h"
+#include "utilbase.h"
+
+#pragma interface
+
+// keep these values same as UVCCamera.PIXEL_FORMAT_XXX
+#define MOSAIC_FORMAT_NV12 2
+#define MOSAIC_FORMAT_UYVY 9
+
+#define MOSAIC_MAX_TILES 16
+
+// for callback to Java object
+typedef struct {
+    jmethodID onMosaicFrame;
+} Fields_imosaiccallback;
+
+typedef struct {
+    // number of frames emitted
+    uint64_t emitted_frames;
+    // number of ticks skipped because emitting the previous frame took too long
+    uint64_t missed_ticks;
+    // number of frames written into each tile
+    uint64_t tile_updates[MOSAIC_MAX_TILES];
+    // number of emitted frames that repeated the previous tile because its camera was late
+    uint64_t tile_repeats[MOSAIC_MAX_TILES];
+} mosaic_stats_t;
+
+/**
+ * native sink that composites frames of several cameras into one tiled frame.
+ * Capture threads of the cameras scale their frames into staging tiles and copy them
+ * into their tiles of a shared canvas, and an output thread emits a copy of the canvas at a fixed cadence,
+ * so a tile keeps the latest frame of its camera until the next one arrives.
+ * The compositor is reference counted, Java side and every attached camera hold a reference.
+ */
+class MosaicCompositor {
+private:
+    pthread_mutex_t mRefLock;
+    int mRefCount;
+
+    int mWidth, mHeight;
+    int mColumns, mRows;
+    int mFormat;
+    int mTileWidth, mTileHeight;
+    nsecs_t mIntervalNs;
+    size_t mFrameBytes;
+    // tiles are copied under the read lock concurrently as they never overlap,
+    // the output thread takes the write lock to copy the whole canvas,
+    // scaling runs outside of the lock so that readers hold it only for a copy
+    pthread_rwlock_t mCanvasLock;
+    uint8_t *mCanvas;
+    uint8_t *mOutput;
+
+    // scaling buffers of each tile, only used by the capture thread of the attached camera
+    pthread_mutex_t mTileLock[MOSAIC_MAX_TILES];
+    uint8_t *mWork[MOSAIC_MAX_TILES];
+    size_t mWorkBytes[MOSAIC_MAX_TILES];
+    // scaled image of each tile in the canvas format, copied into the canvas
+    uint8_t *mStaging[MOSAIC_MAX_TILES];
+    volatile bool mTileUpdated[MOSAIC_MAX_TILES];
+
+    pthread_mutex_t mStatsLock;
+    mosaic_stats_t mStats;
+
+    jobject mMosaicCallbackObj;
+    jobject mOutputBufferObj;
+    Fields_imosaiccallback imosaiccallback_fields;
+    volatile bool mIsRunning;
+    pthread_mutex_t mOutputLock;
+    pthread_cond_t mOutputSync;
+    pthread_t output_thread;
+
+    ~MosaicCompositor();
+
+    void clear_canvas();
+
+    uint8_t *ensure_work(int index, size_t bytes);
+
+    uint8_t *ensure_staging(int index);
+
+    int scale_to_i420(int index, const uvc_frame_t *frame, uint8_t **planes, int *strides);
+
+    int write_tile(int index, const uvc_frame_t *frame);
+
+    static void *output_thread_func(void *vptr_args);
+
+    void do_output(JNIEnv *env);
+
+public:
+    MosaicCompositor(int width, int height, int columns, int rows, int format, int fps);
+
+    /**
+     * allocate the canvas and start the output thread
+     * @param mosaic_callback_obj global reference, owned by this instance on success
+     */
+    int start(JNIEnv *env, jobject mosaic_callback_obj);
+
+    /**
+     * stop the output thread and release the Java callback, tiles can still be written
+     * until all attached cameras drop their references
+     */
+    void stop(JNIEnv *env);
+
+    void addRef();
+
+    /**
+     * drop a reference, this instance is deleted with the last one
+     */
+    void release();
+
+    inline int getTileCount() const { return mColumns * mRows; };
+
+    /**
+     * called on capture thread of the camera that is attached to the tile
+     * frame must be RGBX, raw YUYV/UYVY/NV12/NV21/I420 or MJPEG
+     */
+    void process(int index, const uvc_frame_t *frame);
+
+    void getStats(mosaic_stats_t &stats);
+};
+
+#endif /* MOSAICCOMPOSITOR_H_ */
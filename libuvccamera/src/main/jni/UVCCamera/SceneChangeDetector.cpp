@@ -0,0 +1,85 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: SceneChangeDetector.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+
+#define	LOCAL_DEBUG 0
+
+#include "utilbase.h"
+#include "SceneChangeDetector.h"
+#include "ConvertHelper.h"
+
+SceneChangeDetector::SceneChangeDetector()
+:	mHasReference(false),
+	mHasCurrent(false),
+	mThreshold(0),
+	mMaxIntervalNs(0),
+	mLastDeliveredNs(0),
+	mLastScore(SCENE_SCORE_UNKNOWN) {
+}
+
+SceneChangeDetector::~SceneChangeDetector() {
+}
+
+void SceneChangeDetector::configure(int threshold, int max_interval_ms) {
+	mThreshold = threshold > 0 ? (threshold < SCENE_SCORE_MAX ? threshold : SCENE_SCORE_MAX) : 0;
+	mMaxIntervalNs = max_interval_ms > 0 ? (nsecs_t)max_interval_ms * 1000000LL : 0;
+}
+
+int SceneChangeDetector::measure(const uvc_frame_t *frame) {
+	mHasCurrent = !uvc_sample_luma_grid(frame, mCurrent, SCENE_GRID_WIDTH, SCENE_GRID_HEIGHT);
+	int score = SCENE_SCORE_UNKNOWN;
+	if (mHasCurrent) {
+		if (mHasReference) {
+			int changed = 0;
+			for (int i = 0; i < SCENE_GRID_SIZE; i++) {
+				const int diff = (int)mCurrent[i] - (int)mReference[i];
+				if ((diff > SCENE_NOISE_LEVEL) || (diff < -SCENE_NOISE_LEVEL)) {
+					changed++;
+				}
+			}
+			score = changed * SCENE_SCORE_MAX / SCENE_GRID_SIZE;
+		} else {
+			score = SCENE_SCORE_MAX;
+		}
+	}
+	mLastScore = score;
+	return score;
+}
+
+bool SceneChangeDetector::should_skip(nsecs_t now_ns) const {
+	const int threshold = mThreshold;
+	if (!threshold || (mLastScore == SCENE_SCORE_UNKNOWN) || (mLastScore >= threshold)) {
+		return false;
+	}
+	const nsecs_t max_interval = mMaxIntervalNs;
+	return !max_interval || (now_ns - mLastDeliveredNs < max_interval);
+}
+
+void SceneChangeDetector::delivered(nsecs_t now_ns) {
+	mLastDeliveredNs = now_ns;
+	if (mHasCurrent) {
+		memcpy(mReference, mCurrent, SCENE_GRID_SIZE);
+		mHasReference = true;
+	}
+}
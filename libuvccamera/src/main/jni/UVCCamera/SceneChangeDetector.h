@@ -0,0 +1,84 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: SceneChangeDetector.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef SCENECHANGEDETECTOR_H_
+#define SCENECHANGEDETECTOR_H_
+
+#include "libUVCCamera.h"
+
+#pragma interface
+
+#define SCENE_GRID_WIDTH 64
+#define SCENE_GRID_HEIGHT 36
+#define SCENE_GRID_SIZE (SCENE_GRID_WIDTH * SCENE_GRID_HEIGHT)
+// luma difference smaller than this is regarded as sensor noise
+#define SCENE_NOISE_LEVEL 12
+// score of the frames whose change can not be measured(e.g. MJPEG payload)
+#define SCENE_SCORE_UNKNOWN -1
+#define SCENE_SCORE_MAX 1000
+
+/**
+ * cheap change detector on a subsampled luma grid
+ * score is per mille of grid points whose luma changed more than the noise level
+ * since the last delivered frame
+ */
+class SceneChangeDetector {
+private:
+    uint8_t mReference[SCENE_GRID_SIZE];
+    uint8_t mCurrent[SCENE_GRID_SIZE];
+    bool mHasReference;
+    bool mHasCurrent;
+    volatile int mThreshold;           // 0: never skip
+    volatile nsecs_t mMaxIntervalNs;
+    nsecs_t mLastDeliveredNs;
+    volatile int mLastScore;
+public:
+    SceneChangeDetector();
+
+    ~SceneChangeDetector();
+
+    /**
+     * @param threshold frames with lower score than this are skipped, 0 disables skipping
+     * @param max_interval_ms frames are delivered at least at this interval even if the scene is static
+     */
+    void configure(int threshold, int max_interval_ms);
+
+    /**
+     * measure change of the frame against the last delivered frame
+     * @return score 0-SCENE_SCORE_MAX or SCENE_SCORE_UNKNOWN
+     */
+    int measure(const uvc_frame_t *frame);
+
+    /**
+     * whether the last measured frame should be skipped
+     */
+    bool should_skip(nsecs_t now_ns) const;
+
+    /**
+     * the last measured frame was delivered, use it as the reference of following frames
+     */
+    void delivered(nsecs_t now_ns);
+
+    inline int last_score() const { return mLastScore; }
+};
+
+#endif /* SCENECHANGEDETECTOR_H_ */
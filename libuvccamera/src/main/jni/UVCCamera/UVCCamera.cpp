@@ -38,6 +38,7 @@
 #include <unistd.h>
 #include <string.h>
 #include "UVCCamera.h"
+#include "UVCContext.h"
 #include "Parameters.h"
 #include "libuvc_internal.h"
 
@@ -49,12 +50,12 @@
  */
 UVCCamera::UVCCamera()
         : mFd(0),
-          mContext(NULL),
           mDeviceHandle(NULL),
           mStatusCallback(NULL),
           mButtonCallback(NULL),
           mPreview(NULL),
-          mControl(NULL) {
+          mControl(NULL),
+          mBudget(new FrameBudgetConsumer(0)) {
 
     ENTER();
     EXIT();
@@ -66,14 +67,12 @@ UVCCamera::UVCCamera()
 UVCCamera::~UVCCamera() {
     ENTER();
     release();
-    if (mContext) {
-        uvc_exit(mContext);
-        mContext = NULL;
-    }
     if (mFd) {
         close(mFd);
         mFd = 0;
     }
+    // frames of the preview are discharged in release()
+    SAFE_DELETE(mBudget);
     EXIT();
 }
 
@@ -93,17 +92,11 @@ int UVCCamera::connect(int fd, int quirks) {
         mFd = 0;
     }
     if (!mDeviceHandle && fd) {
-        if (UNLIKELY(!mContext)) {
-            result = uvc_init2(&mContext, NULL);
-            if (UNLIKELY(result < 0)) {
-                LOGD("failed to init libuvc");
-                RETURN(result, int);
-            }
-        }
         fd = dup(fd);
 
         // Wrap a platform-specific system device handle(File Descriptor) and obtain a UVC device handle.
-        result = uvc_wrap(fd, mContext, &mDeviceHandle);
+        // All cameras share a libusb context and its event thread.
+        result = UVCContext::wrap(fd, &mDeviceHandle);
         if (LIKELY(!result)) {
             // success to obtain device handle
 #if LOCAL_DEBUG
@@ -112,7 +105,7 @@ int UVCCamera::connect(int fd, int quirks) {
             mFd = fd;
             mStatusCallback = new UVCStatusCallback(mDeviceHandle);
             mButtonCallback = new UVCButtonCallback(mDeviceHandle);
-            mPreview = new UVCPreview(mDeviceHandle);
+            mPreview = new UVCPreview(mDeviceHandle, mBudget);
             mControl = new UVCControl(mDeviceHandle);
 
             mDeviceHandle->quirks = quirks;
@@ -137,7 +130,7 @@ int UVCCamera::release() {
         SAFE_DELETE(mPreview);
         SAFE_DELETE(mControl);
         // close camera
-        uvc_close(mDeviceHandle);
+        UVCContext::close(mDeviceHandle);
         mDeviceHandle = NULL;
     }
 //    if (mFd) {
@@ -183,6 +176,24 @@ int UVCCamera::setPreviewSize(int width, int height, jint frameType, jint fps) {
     RETURN(result, int);
 }
 
+int UVCCamera::reconfigure(int width, int height, int frameType, int fps) {
+    ENTER();
+    int result = EXIT_FAILURE;
+    if (mPreview) {
+        result = mPreview->reconfigure(width, height, frameType, fps);
+    }
+    RETURN(result, int);
+}
+
+int UVCCamera::prepareStandby() {
+    ENTER();
+    int result = EXIT_FAILURE;
+    if (mPreview) {
+        result = mPreview->prepareStandby();
+    }
+    RETURN(result, int);
+}
+
 int UVCCamera::setPreviewDisplay(ANativeWindow *preview_window) {
     ENTER();
     int result = EXIT_FAILURE;
@@ -201,6 +212,160 @@ int UVCCamera::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pix
     RETURN(result, int);
 }
 
+int UVCCamera::setMjpegValidation(int level) {
+    ENTER();
+    int result = EXIT_FAILURE;
+    if (mPreview) {
+        result = mPreview->setMjpegValidation(level);
+    }
+    RETURN(result, int);
+}
+
+int UVCCamera::getMjpegDroppedFrames() {
+    return mPreview ? (int) mPreview->getMjpegDroppedFrames() : 0;
+}
+
+int UVCCamera::setInferenceTap(JNIEnv *env, jobject tensor_callback_obj, jobject tensor_buffer_obj,
+                               const inference_tap_config_t *config) {
+    ENTER();
+    int result = EXIT_FAILURE;
+    if (mPreview) {
+        result = mPreview->setInferenceTap(env, tensor_callback_obj, tensor_buffer_obj, config);
+    } else {
+        if (tensor_callback_obj) env->DeleteGlobalRef(tensor_callback_obj);
+        if (tensor_buffer_obj) env->DeleteGlobalRef(tensor_buffer_obj);
+    }
+    RETURN(result, int);
+}
+
+int UVCCamera::setFrameStatsCallback(JNIEnv *env, jobject stats_callback_obj, jclass stats_class, int max_fps) {
+    ENTER();
+    int result = EXIT_FAILURE;
+    if (mPreview) {
+        result = mPreview->setFrameStatsCallback(env, stats_callback_obj, stats_class, max_fps);
+    } else {
+        if (stats_callback_obj) env->DeleteGlobalRef(stats_callback_obj);
+        if (stats_class) env->DeleteGlobalRef(stats_class);
+    }
+    RETURN(result, int);
+}
+
+int UVCCamera::setMosaicTile(MosaicCompositor *mosaic, int index) {
+    ENTER();
+    int result = EXIT_FAILURE;
+    if (mPreview) {
+        result = mPreview->setMosaicTile(mosaic, index);
+    }
+    RETURN(result, int);
+}
+
+int UVCCamera::startMjpegRecording(int fd, int container, int fps,
+                                   int audio_sample_rate, int audio_channels) {
+    ENTER();
+    int result = EXIT_FAILURE;
+    if (mPreview) {
+        result = mPreview->startMjpegRecording(fd, container, fps, audio_sample_rate, audio_channels);
+    } else {
+        close(fd);
+    }
+    RETURN(result, int);
+}
+
+MjpegRecorder *UVCCamera::detachMjpegRecorder() {
+    ENTER();
+    MjpegRecorder *recorder = NULL;
+    if (mPreview) {
+        recorder = mPreview->detachMjpegRecorder();
+    }
+    RETURN(recorder, MjpegRecorder *);
+}
+
+int UVCCamera::writeMjpegRecordingAudio(const uint8_t *data, size_t size, int64_t pts_us) {
+    return mPreview ? mPreview->writeMjpegRecordingAudio(data, size, pts_us) : EXIT_FAILURE;
+}
+
+int UVCCamera::setStaticSceneSkip(int threshold, int max_interval_ms) {
+    ENTER();
+    int result = EXIT_FAILURE;
+    if (mPreview) {
+        result = mPreview->setStaticSceneSkip(threshold, max_interval_ms);
+    }
+    RETURN(result, int);
+}
+
+int UVCCamera::setTimelapseInterval(int interval_ms) {
+    ENTER();
+    int result = EXIT_FAILURE;
+    if (mPreview) {
+        result = mPreview->setTimelapseInterval(interval_ms);
+    }
+    RETURN(result, int);
+}
+
+int UVCCamera::setMaxPayloadSize(int bytes) {
+    ENTER();
+    int result = EXIT_FAILURE;
+    if (mPreview) {
+        result = mPreview->setMaxPayloadSize(bytes);
+    }
+    RETURN(result, int);
+}
+
+int UVCCamera::setPayloadCalibration(int duration_ms, int margin_percent) {
+    ENTER();
+    int result = EXIT_FAILURE;
+    if (mPreview) {
+        result = mPreview->setPayloadCalibration(duration_ms, margin_percent);
+    }
+    RETURN(result, int);
+}
+
+int UVCCamera::setMeasuredPayloadSize(int bytes) {
+    ENTER();
+    int result = EXIT_FAILURE;
+    if (mPreview) {
+        result = mPreview->setMeasuredPayloadSize(bytes);
+    }
+    RETURN(result, int);
+}
+
+int UVCCamera::getMeasuredPayloadSize() {
+    return mPreview ? mPreview->getMeasuredPayloadSize() : 0;
+}
+
+int UVCCamera::getBandwidthInfo(int *info, int max_count) {
+    ENTER();
+    int result = 0;
+    if (mPreview) {
+        result = mPreview->getBandwidthInfo(info, max_count);
+    }
+    RETURN(result, int);
+}
+
+int UVCCamera::getFrameChangeScore() {
+    return mPreview ? mPreview->getFrameChangeScore() : -1;
+}
+
+int UVCCamera::getFramePoolStats(frame_pool_stats_t *stats) {
+    if (mPreview) {
+        mPreview->getFramePoolStats(stats);
+        return FRAME_POOL_NUM;
+    }
+    return 0;
+}
+
+int UVCCamera::getStreamPixelFormat() {
+    return mPreview ? mPreview->getStreamPixelFormat() : -1;
+}
+
+nsecs_t UVCCamera::getFrameTimestamp() {
+    return mPreview ? mPreview->getFrameTimestamp() : 0;
+}
+
+uint32_t UVCCamera::getFrameSequence() {
+    return mPreview ? mPreview->getFrameSequence() : 0;
+}
+
 int UVCCamera::startPreview() {
     ENTER();
 
@@ -38,13 +38,14 @@
 
 class UVCCamera {
 private:
-    uvc_context_t *mContext;
     int mFd;
     uvc_device_handle_t *mDeviceHandle;
     UVCStatusCallback *mStatusCallback;
     UVCButtonCallback *mButtonCallback;
     UVCPreview *mPreview;
     UVCControl *mControl;
+    // kept while the camera is closed, so that the priority survives reconnection
+    FrameBudgetConsumer *mBudget;
 public:
     UVCCamera();
 
@@ -52,6 +53,8 @@ public:
 
     UVCControl *getControl();
 
+    inline FrameBudgetConsumer *getFrameBudget() const { return mBudget; };
+
     int connect(int fd, int quirks);
 
     int release();
@@ -64,10 +67,62 @@ public:
 
     int setPreviewSize(int width, int height, int frameType, int fps);
 
+    int reconfigure(int width, int height, int frameType, int fps);
+
+    int prepareStandby();
+
     int setPreviewDisplay(ANativeWindow *preview_window);
 
     int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
 
+    int setMjpegValidation(int level);
+
+    int getMjpegDroppedFrames();
+
+    int setInferenceTap(JNIEnv *env, jobject tensor_callback_obj, jobject tensor_buffer_obj,
+                        const inference_tap_config_t *config);
+
+    int setFrameStatsCallback(JNIEnv *env, jobject stats_callback_obj, jclass stats_class, int max_fps);
+
+    int setMosaicTile(MosaicCompositor *mosaic, int index);
+
+    int startMjpegRecording(int fd, int container, int fps, int audio_sample_rate, int audio_channels);
+
+    MjpegRecorder *detachMjpegRecorder();
+
+    int writeMjpegRecordingAudio(const uint8_t *data, size_t size, int64_t pts_us);
+
+    int setStaticSceneSkip(int threshold, int max_interval_ms);
+
+    int getFrameChangeScore();
+
+    /**
+     * @param stats FRAME_POOL_NUM entries, indexed by FRAME_POOL_XXX
+     * @return 0 if the camera is not connected
+     */
+    int getFramePoolStats(frame_pool_stats_t *stats);
+
+    /**
+     * @return PIXEL_FORMAT_XXX of the frames the camera sends now, -1 if not known
+     */
+    int getStreamPixelFormat();
+
+    nsecs_t getFrameTimestamp();
+
+    uint32_t getFrameSequence();
+
+    int setTimelapseInterval(int interval_ms);
+
+    int setMaxPayloadSize(int bytes);
+
+    int getBandwidthInfo(int *info, int max_count);
+
+    int setPayloadCalibration(int duration_ms, int margin_percent);
+
+    int setMeasuredPayloadSize(int bytes);
+
+    int getMeasuredPayloadSize();
+
     int startPreview();
 
     int stopPreview();
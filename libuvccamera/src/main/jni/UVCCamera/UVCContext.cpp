@@ -0,0 +1,189 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: UVCContext.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <sys/resource.h>
+
+#define LOCAL_DEBUG 0
+
+#include "utilbase.h"
+#include "UVCContext.h"
+#include "libuvc_internal.h"
+
+// same as Process.THREAD_PRIORITY_URGENT_AUDIO, isochronous transfers of all cameras
+// are reaped and resubmitted on this thread
+#define EVENT_THREAD_PRIORITY -16
+// the thread is woken by libusb_interrupt_event_handler on release, so this is only a safety net
+#define EVENT_TIMEOUT_SEC 1
+
+pthread_mutex_t UVCContext::sLock = PTHREAD_MUTEX_INITIALIZER;
+UVCContext *UVCContext::sInstance = NULL;
+
+UVCContext::UVCContext()
+        : mUsbContext(NULL),
+          mContext(NULL),
+          mOpenCameras(0),
+          mKillEventThread(0),
+          event_thread(0),
+          mWakeups(0),
+          mStartTime(0) {
+}
+
+UVCContext::~UVCContext() {
+    ENTER();
+    if (event_thread) {
+        mKillEventThread = 1;
+        libusb_interrupt_event_handler(mUsbContext);
+        if (pthread_join(event_thread, NULL) != EXIT_SUCCESS) {
+            LOGW("UVCContext::terminate event thread: pthread_join failed");
+        }
+        event_thread = 0;
+    }
+    if (mContext) {
+        uvc_exit(mContext);
+        mContext = NULL;
+    }
+    if (mUsbContext) {
+        libusb_exit(mUsbContext);
+        mUsbContext = NULL;
+    }
+    EXIT();
+}
+
+int UVCContext::init() {
+    ENTER();
+    // no-root android must use set LIBUSB_OPTION_NO_DEVICE_DISCOVERY
+    libusb_set_option(NULL, LIBUSB_OPTION_NO_DEVICE_DISCOVERY, NULL);
+    int result = libusb_init(&mUsbContext);
+    if (UNLIKELY(result)) {
+        mUsbContext = NULL;
+        RETURN(result, int);
+    }
+    // libuvc does not start its own event thread for a context it does not own
+    result = uvc_init2(&mContext, mUsbContext);
+    if (UNLIKELY(result)) {
+        mContext = NULL;
+        RETURN(result, int);
+    }
+    mKillEventThread = 0;
+    mWakeups = 0;
+    mStartTime = systemTime();
+    result = pthread_create(&event_thread, NULL, event_thread_func, (void *) this);
+    if (LIKELY(!result)) {
+        pthread_setname_np(event_thread, "uvc_events");
+    } else {
+        event_thread = 0;
+    }
+    RETURN(result, int);
+}
+
+void *UVCContext::event_thread_func(void *vptr_args) {
+    ENTER();
+    UVCContext *context = reinterpret_cast<UVCContext *>(vptr_args);
+    if (LIKELY(context)) {
+        // 0 means the calling thread on Linux
+        if (setpriority(PRIO_PROCESS, 0, EVENT_THREAD_PRIORITY)) {
+            LOGW("failed to raise priority of event thread");
+        }
+        context->do_handle_events();
+    }
+    PRE_EXIT();
+    pthread_exit(NULL);
+}
+
+void UVCContext::do_handle_events() {
+    ENTER();
+    struct timeval tv;
+    while (!mKillEventThread) {
+        tv.tv_sec = EVENT_TIMEOUT_SEC;
+        tv.tv_usec = 0;
+        libusb_handle_events_timeout_completed(mUsbContext, &tv, (int *) &mKillEventThread);
+        mWakeups++;
+    }
+    EXIT();
+}
+
+/*static*/
+uvc_error_t UVCContext::wrap(int fd, uvc_device_handle_t **devh) {
+    ENTER();
+    uvc_error_t result;
+    pthread_mutex_lock(&sLock);
+    {
+        if (!sInstance) {
+            UVCContext *context = new UVCContext();
+            result = (uvc_error_t) context->init();
+            if (LIKELY(!result)) {
+                sInstance = context;
+            } else {
+                LOGD("failed to init libuvc");
+                delete context;
+            }
+        }
+        if (LIKELY(sInstance)) {
+            // libuvc keeps the open devices in a list of the context, so this is serialized
+            result = uvc_wrap(fd, sInstance->mContext, devh);
+            if (LIKELY(!result)) {
+                sInstance->mOpenCameras++;
+            } else if (!sInstance->mOpenCameras) {
+                SAFE_DELETE(sInstance);
+            }
+        }
+    }
+    pthread_mutex_unlock(&sLock);
+    RETURN(result, uvc_error_t);
+}
+
+/*static*/
+void UVCContext::close(uvc_device_handle_t *devh) {
+    ENTER();
+    pthread_mutex_lock(&sLock);
+    {
+        // transfers of the other cameras keep being handled while this one is closed
+        uvc_close(devh);
+        if (LIKELY(sInstance) && (--sInstance->mOpenCameras <= 0)) {
+            MARK("release shared context");
+            SAFE_DELETE(sInstance);
+        }
+    }
+    pthread_mutex_unlock(&sLock);
+    EXIT();
+}
+
+/*static*/
+void UVCContext::getStats(uvc_event_loop_stats_t &stats) {
+    memset(&stats, 0, sizeof(stats));
+    pthread_mutex_lock(&sLock);
+    if (sInstance && sInstance->event_thread) {
+        stats.open_cameras = sInstance->mOpenCameras;
+        stats.wakeups = sInstance->mWakeups;
+        stats.wall_time_ns = systemTime() - sInstance->mStartTime;
+        clockid_t clock_id;
+        struct timespec t;
+        if (!pthread_getcpuclockid(sInstance->event_thread, &clock_id)
+            && !clock_gettime(clock_id, &t)) {
+            stats.cpu_time_ns = nsecs_t(t.tv_sec) * 1000000000LL + t.tv_nsec;
+        }
+    }
+    pthread_mutex_unlock(&sLock);
+}
@@ -0,0 +1,86 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * File name: UVCContext.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef UVCCONTEXT_H_
+#define UVCCONTEXT_H_
+
+#include <pthread.h>
+#include "libUVCCamera.h"
+#include "utilbase.h"
+
+#pragma interface
+
+typedef struct {
+    // number of cameras opened on the shared context
+    int open_cameras;
+    // number of times the event thread returned from libusb
+    uint64_t wakeups;
+    // cpu time and wall time of the event thread since it started
+    nsecs_t cpu_time_ns;
+    nsecs_t wall_time_ns;
+} uvc_event_loop_stats_t;
+
+/**
+ * process-wide libusb/libuvc context shared by all cameras.
+ * libusb events of all cameras are handled on a single high priority thread
+ * that runs while at least one camera is open, instead of a context and
+ * an event thread for each camera.
+ */
+class UVCContext {
+private:
+    static pthread_mutex_t sLock;
+    static UVCContext *sInstance;
+
+    libusb_context *mUsbContext;
+    uvc_context_t *mContext;
+    int mOpenCameras;
+    volatile int mKillEventThread;
+    pthread_t event_thread;
+    volatile uint64_t mWakeups;
+    nsecs_t mStartTime;
+
+    UVCContext();
+
+    ~UVCContext();
+
+    int init();
+
+    static void *event_thread_func(void *vptr_args);
+
+    void do_handle_events();
+
+public:
+    /**
+     * wrap the file descriptor on the shared context, the context and its event thread
+     * are created on the first camera
+     */
+    static uvc_error_t wrap(int fd, uvc_device_handle_t **devh);
+
+    /**
+     * close the camera, the context and its event thread are released with the last camera
+     */
+    static void close(uvc_device_handle_t *devh);
+
+    static void getStats(uvc_event_loop_stats_t &stats);
+};
+
+#endif /* UVCCONTEXT_H_ */
@@ -2324,3 +2324,234 @@ bool UVCControl::getContrastAuto() {
     }
     RETURN(r, int);
 }
+
+//======================================================================
+// Set a control by its id
+int UVCControl::setControl(int id, int value) {
+    switch (id) {
+    case UVC_CONTROL_SCANNING_MODE:
+        return setScanningMode(value);
+    case UVC_CONTROL_AE_MODE:
+        return setAutoExposureMode(value);
+    case UVC_CONTROL_AE_PRIORITY:
+        return setAutoExposurePriority(value);
+    case UVC_CONTROL_EXPOSURE_TIME_ABSOLUTE:
+        return setExposureTimeAbsolute(value);
+    case UVC_CONTROL_FOCUS_ABSOLUTE:
+        return setFocusAbsolute(value);
+    case UVC_CONTROL_IRIS_ABSOLUTE:
+        return setIrisAbsolute(value);
+    case UVC_CONTROL_ZOOM_ABSOLUTE:
+        return setZoomAbsolute(value);
+    case UVC_CONTROL_PAN_ABSOLUTE:
+        return setPanAbsolute(value);
+    case UVC_CONTROL_TILT_ABSOLUTE:
+        return setTiltAbsolute(value);
+    case UVC_CONTROL_ROLL_ABSOLUTE:
+        return setRollAbsolute(value);
+    case UVC_CONTROL_FOCUS_AUTO:
+        return setFocusAuto(value != 0);
+    case UVC_CONTROL_PRIVACY:
+        return setPrivacy(value);
+    case UVC_CONTROL_BRIGHTNESS:
+        return setBrightness(value);
+    case UVC_CONTROL_CONTRAST:
+        return setContrast(value);
+    case UVC_CONTROL_CONTRAST_AUTO:
+        return setContrastAuto(value != 0);
+    case UVC_CONTROL_HUE:
+        return setHue(value);
+    case UVC_CONTROL_HUE_AUTO:
+        return setHueAuto(value != 0);
+    case UVC_CONTROL_SATURATION:
+        return setSaturation(value);
+    case UVC_CONTROL_SHARPNESS:
+        return setSharpness(value);
+    case UVC_CONTROL_GAMMA:
+        return setGamma(value);
+    case UVC_CONTROL_WHITE_BALANCE:
+        return setWhiteBalance(value);
+    case UVC_CONTROL_WHITE_BALANCE_AUTO:
+        return setWhiteBalanceAuto(value != 0);
+    case UVC_CONTROL_WHITE_BALANCE_COMPONENT:
+        return setWhiteBalanceCompo(value);
+    case UVC_CONTROL_WHITE_BALANCE_COMPONENT_AUTO:
+        return setWhiteBalanceCompoAuto(value != 0);
+    case UVC_CONTROL_BACKLIGHT_COMPENSATION:
+        return setBacklightComp(value);
+    case UVC_CONTROL_GAIN:
+        return setGain(value);
+    case UVC_CONTROL_POWER_LINE_FREQUENCY:
+        return setPowerlineFrequency(value);
+    case UVC_CONTROL_DIGITAL_MULTIPLIER:
+        return setDigitalMultiplier(value);
+    case UVC_CONTROL_DIGITAL_MULTIPLIER_LIMIT:
+        return setDigitalMultiplierLimit(value);
+    case UVC_CONTROL_ANALOG_VIDEO_STANDARD:
+        return setAnalogVideoStandard(value);
+    default:
+        return UVC_ERROR_INVALID_PARAM;
+    }
+}
+
+//======================================================================
+// Read the current value of a control with a single GET_CUR request,
+// the error of the request is returned as is
+static int get_ctrl_cur(uvc_device_handle_t *devh, paramget_func_i16 get_func, int &value) {
+    int16_t v;
+    const int ret = get_func(devh, &v, UVC_GET_CUR);
+    if (LIKELY(!ret)) {
+        value = v;
+    }
+    return ret;
+}
+
+static int get_ctrl_cur(uvc_device_handle_t *devh, paramget_func_u16 get_func, int &value) {
+    uint16_t v;
+    const int ret = get_func(devh, &v, UVC_GET_CUR);
+    if (LIKELY(!ret)) {
+        value = v;
+    }
+    return ret;
+}
+
+static int get_ctrl_cur(uvc_device_handle_t *devh, paramget_func_u8 get_func, int &value) {
+    uint8_t v;
+    const int ret = get_func(devh, &v, UVC_GET_CUR);
+    if (LIKELY(!ret)) {
+        value = v;
+    }
+    return ret;
+}
+
+static int get_ctrl_cur(uvc_device_handle_t *devh, paramget_func_u32 get_func, int &value) {
+    uint32_t v;
+    const int ret = get_func(devh, &v, UVC_GET_CUR);
+    if (LIKELY(!ret)) {
+        value = (int) v;
+    }
+    return ret;
+}
+
+#define GET_CTRL_CUR(SUPPORTED, FUNC) \
+    if (SUPPORTED) { \
+        ret = get_ctrl_cur(mDeviceHandle, FUNC, value); \
+    } \
+
+// Get value of a control by its id,
+// unlike the getters of each control the error of the request is returned instead of 0
+int UVCControl::getControl(int id, int &value) {
+    ENTER();
+    value = 0;
+    if (UNLIKELY(!mDeviceHandle)) {
+        RETURN(UVC_ERROR_INVALID_DEVICE, int);
+    }
+    int ret = UVC_ERROR_NOT_SUPPORTED;
+    switch (id) {
+    case UVC_CONTROL_SCANNING_MODE:
+        GET_CTRL_CUR(mCTControls & CT_SCANNING_MODE_CONTROL, uvc_get_scanning_mode);
+        break;
+    case UVC_CONTROL_AE_MODE:
+        GET_CTRL_CUR(mCTControls & CT_AE_MODE_CONTROL, uvc_get_ae_mode);
+        break;
+    case UVC_CONTROL_AE_PRIORITY:
+        GET_CTRL_CUR(mCTControls & CT_AE_PRIORITY_CONTROL, uvc_get_ae_priority);
+        break;
+    case UVC_CONTROL_EXPOSURE_TIME_ABSOLUTE:
+        GET_CTRL_CUR(mCTControls & CT_EXPOSURE_TIME_ABSOLUTE_CONTROL, uvc_get_exposure_abs);
+        break;
+    case UVC_CONTROL_FOCUS_ABSOLUTE:
+        GET_CTRL_CUR(mCTControls & CT_FOCUS_ABSOLUTE_CONTROL, uvc_get_focus_abs);
+        break;
+    case UVC_CONTROL_IRIS_ABSOLUTE:
+        GET_CTRL_CUR(mCTControls & CT_IRIS_ABSOLUTE_CONTROL, uvc_get_iris_abs);
+        break;
+    case UVC_CONTROL_ZOOM_ABSOLUTE:
+        GET_CTRL_CUR(mCTControls & CT_ZOOM_ABSOLUTE_CONTROL, uvc_get_zoom_abs);
+        break;
+    case UVC_CONTROL_PAN_ABSOLUTE:
+        if (mCTControls & CT_PANTILT_ABSOLUTE_CONTROL) {
+            int32_t pan, tilt;
+            ret = uvc_get_pantilt_abs(mDeviceHandle, &pan, &tilt, UVC_GET_CUR);
+            if (LIKELY(!ret)) {
+                value = pan;
+            }
+        }
+        break;
+    case UVC_CONTROL_TILT_ABSOLUTE:
+        if (mCTControls & CT_PANTILT_ABSOLUTE_CONTROL) {
+            int32_t pan, tilt;
+            ret = uvc_get_pantilt_abs(mDeviceHandle, &pan, &tilt, UVC_GET_CUR);
+            if (LIKELY(!ret)) {
+                value = tilt;
+            }
+        }
+        break;
+    case UVC_CONTROL_ROLL_ABSOLUTE:
+        GET_CTRL_CUR(mCTControls & CT_ROLL_ABSOLUTE_CONTROL, uvc_get_roll_abs);
+        break;
+    case UVC_CONTROL_FOCUS_AUTO:
+        GET_CTRL_CUR(mCTControls & CT_FOCUS_AUTO_CONTROL, uvc_get_focus_auto);
+        break;
+    case UVC_CONTROL_PRIVACY:
+        GET_CTRL_CUR(mCTControls & CT_PRIVACY_CONTROL, uvc_get_privacy);
+        break;
+    case UVC_CONTROL_BRIGHTNESS:
+        GET_CTRL_CUR(mPUControls & PU_BRIGHTNESS_CONTROL, uvc_get_brightness);
+        break;
+    case UVC_CONTROL_CONTRAST:
+        GET_CTRL_CUR(mPUControls & PU_CONTRAST_CONTROL, uvc_get_contrast);
+        break;
+    case UVC_CONTROL_CONTRAST_AUTO:
+        GET_CTRL_CUR(mPUControls & PU_CONTRAST_AUTO_CONTROL, uvc_get_contrast_auto);
+        break;
+    case UVC_CONTROL_HUE:
+        GET_CTRL_CUR(mPUControls & PU_HUE_CONTROL, uvc_get_hue);
+        break;
+    case UVC_CONTROL_HUE_AUTO:
+        GET_CTRL_CUR(mPUControls & PU_HUE_AUTO_CONTROL, uvc_get_hue_auto);
+        break;
+    case UVC_CONTROL_SATURATION:
+        GET_CTRL_CUR(mPUControls & PU_SATURATION_CONTROL, uvc_get_saturation);
+        break;
+    case UVC_CONTROL_SHARPNESS:
+        GET_CTRL_CUR(mPUControls & PU_SHARPNESS_CONTROL, uvc_get_sharpness);
+        break;
+    case UVC_CONTROL_GAMMA:
+        GET_CTRL_CUR(mPUControls & PU_GAMMA_CONTROL, uvc_get_gamma);
+        break;
+    case UVC_CONTROL_WHITE_BALANCE:
+        GET_CTRL_CUR(mPUControls & PU_WHITE_BALANCE_TEMPERATURE_CONTROL, uvc_get_white_balance_temperature);
+        break;
+    case UVC_CONTROL_WHITE_BALANCE_AUTO:
+        GET_CTRL_CUR(mPUControls & PU_WHITE_BALANCE_TEMPERATURE_AUTO_CONTROL, uvc_get_white_balance_temperature_auto);
+        break;
+    case UVC_CONTROL_WHITE_BALANCE_COMPONENT:
+        GET_CTRL_CUR(mPUControls & PU_WHITE_BALANCE_COMPONENT_CONTROL, uvc_get_white_balance_component2);
+        break;
+    case UVC_CONTROL_WHITE_BALANCE_COMPONENT_AUTO:
+        GET_CTRL_CUR(mPUControls & PU_WHITE_BALANCE_COMPONENT_AUTO_CONTROL, uvc_get_white_balance_component_auto);
+        break;
+    case UVC_CONTROL_BACKLIGHT_COMPENSATION:
+        GET_CTRL_CUR(mPUControls & PU_BACKLIGHT_COMPENSATION_CONTROL, uvc_get_backlight_compensation);
+        break;
+    case UVC_CONTROL_GAIN:
+        GET_CTRL_CUR(mPUControls & PU_GAIN_CONTROL, uvc_get_gain);
+        break;
+    case UVC_CONTROL_POWER_LINE_FREQUENCY:
+        GET_CTRL_CUR(mPUControls & PU_POWER_LINE_FREQUENCY_CONTROL, uvc_get_power_line_frequency);
+        break;
+    case UVC_CONTROL_DIGITAL_MULTIPLIER:
+        GET_CTRL_CUR(mPUControls & PU_DIGITAL_MULTIPLIER_CONTROL, uvc_get_digital_multiplier);
+        break;
+    case UVC_CONTROL_DIGITAL_MULTIPLIER_LIMIT:
+        GET_CTRL_CUR(mPUControls & PU_DIGITAL_MULTIPLIER_LIMIT_CONTROL, uvc_get_digital_multiplier_limit);
+        break;
+    case UVC_CONTROL_ANALOG_VIDEO_STANDARD:
+        GET_CTRL_CUR(mPUControls & PU_ANALOG_VIDEO_STANDARD_CONTROL, uvc_get_analog_video_standard);
+        break;
+    default:
+        RETURN(UVC_ERROR_INVALID_PARAM, int);
+    }
+    RETURN(ret, int);
+}
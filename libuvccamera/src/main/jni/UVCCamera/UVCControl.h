@@ -51,6 +51,40 @@
 #define PU_ANALOG_LOCK_STATUS_CONTROL        0x020000    // D17: Analog Video Lock Status
 #define PU_CONTRAST_AUTO_CONTROL    0x040000    // D18: Contrast, Auto
 
+// ids of the controls for setControl/getControl, these should be same as UVCControl#CONTROL_XXX in Java
+enum uvc_control_id {
+    UVC_CONTROL_SCANNING_MODE = 1,
+    UVC_CONTROL_AE_MODE = 2,
+    UVC_CONTROL_AE_PRIORITY = 3,
+    UVC_CONTROL_EXPOSURE_TIME_ABSOLUTE = 4,
+    UVC_CONTROL_FOCUS_ABSOLUTE = 5,
+    UVC_CONTROL_IRIS_ABSOLUTE = 6,
+    UVC_CONTROL_ZOOM_ABSOLUTE = 7,
+    UVC_CONTROL_PAN_ABSOLUTE = 8,
+    UVC_CONTROL_TILT_ABSOLUTE = 9,
+    UVC_CONTROL_ROLL_ABSOLUTE = 10,
+    UVC_CONTROL_FOCUS_AUTO = 11,
+    UVC_CONTROL_PRIVACY = 12,
+    UVC_CONTROL_BRIGHTNESS = 13,
+    UVC_CONTROL_CONTRAST = 14,
+    UVC_CONTROL_CONTRAST_AUTO = 15,
+    UVC_CONTROL_HUE = 16,
+    UVC_CONTROL_HUE_AUTO = 17,
+    UVC_CONTROL_SATURATION = 18,
+    UVC_CONTROL_SHARPNESS = 19,
+    UVC_CONTROL_GAMMA = 20,
+    UVC_CONTROL_WHITE_BALANCE = 21,
+    UVC_CONTROL_WHITE_BALANCE_AUTO = 22,
+    UVC_CONTROL_WHITE_BALANCE_COMPONENT = 23,
+    UVC_CONTROL_WHITE_BALANCE_COMPONENT_AUTO = 24,
+    UVC_CONTROL_BACKLIGHT_COMPENSATION = 25,
+    UVC_CONTROL_GAIN = 26,
+    UVC_CONTROL_POWER_LINE_FREQUENCY = 27,
+    UVC_CONTROL_DIGITAL_MULTIPLIER = 28,
+    UVC_CONTROL_DIGITAL_MULTIPLIER_LIMIT = 29,
+    UVC_CONTROL_ANALOG_VIDEO_STANDARD = 30,
+};
+
 typedef struct control_value {
     int res;    // unused
     int min;
@@ -430,6 +464,17 @@ public:
     int setAnalogVideoLockState(int status);
 
     int getAnalogVideoLockState();
+
+    /**
+     * set a control by its id, see enum uvc_control_id
+     */
+    int setControl(int id, int value);
+
+    /**
+     * get a control by its id, see enum uvc_control_id
+     * @return 0 if the control is supported, the getters do not report transfer errors
+     */
+    int getControl(int id, int &value);
 };
 
 #endif /* UVCCONTROL_H */
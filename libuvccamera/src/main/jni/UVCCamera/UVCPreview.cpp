@@ -40,6 +40,20 @@
 // RGB_565:2
 #define PREVIEW_PIXEL_BYTES 4
 #define FRAME_POOL_SZ MAX_FRAME + 2
+// converted frames kept pooled, one is drawn or delivered while the next one is converted
+#define CONVERTED_POOL_SZ 4
+// frames allocated when the stream size is known, so that streaming starts without page faults
+#define PREWARM_FRAMES 2
+// MJPEG frames vary in size, the raw class grows with this margin so that it does not grow every frame
+#define RAW_HEADROOM_PERCENT 12
+// alt-settings of a streaming interface that are examined for bandwidth
+#define MAX_ALT_SETTINGS 32
+// interval to check the payloads of a stream that runs on a calibrated alt-setting
+#define PAYLOAD_CHECK_INTERVAL_NS 1000000000LL
+// measure again when a payload reached this share of the packet size of the calibrated alt-setting
+#define RECALIBRATE_PERCENT 95
+// result of uvc_mjpeg_validate before a frame is validated, the function returns 0 or a negative error
+#define MJPEG_NOT_VALIDATED 1
 
 static inline bool can_passthrough_callback_frame(const int pixel_format, const uvc_frame_t *frame) {
     if (!frame) return false;
@@ -53,6 +67,35 @@ static inline bool can_passthrough_callback_frame(const int pixel_format, const
             return frame->frame_format == UVC_FRAME_FORMAT_NV21;
         case PIXEL_FORMAT_I420:
             return frame->frame_format == UVC_FRAME_FORMAT_I420;
+        case PIXEL_FORMAT_MJPEG:
+            return frame->frame_format == UVC_FRAME_FORMAT_MJPEG;
+        default:
+            return false;
+    }
+}
+
+/**
+ * whether the callback frame for pixel_format can be converted directly
+ * from the camera's native (uncompressed) frame in a single pass
+ */
+static inline bool can_convert_callback_frame_from_raw(const int pixel_format, const uvc_frame_t *frame) {
+    if (!frame) return false;
+    switch (pixel_format) {
+        case PIXEL_FORMAT_UYVY:
+        case PIXEL_FORMAT_GRAY8:
+        case PIXEL_FORMAT_I420_ALIGN16:
+        case PIXEL_FORMAT_NV12_ALIGN16:
+        case PIXEL_FORMAT_I420_ALIGN64:
+        case PIXEL_FORMAT_NV12_ALIGN64:
+            switch (frame->frame_format) {
+                case UVC_FRAME_FORMAT_YUYV:
+                case UVC_FRAME_FORMAT_NV12:
+                case UVC_FRAME_FORMAT_NV21:
+                case UVC_FRAME_FORMAT_I420:
+                    return true;
+                default:
+                    return false;
+            }
         default:
             return false;
     }
@@ -99,6 +142,18 @@ static inline size_t frame_bytes_for_pixel_format(const int pixel_format, const
             return wh * 3;
         case PIXEL_FORMAT_RGBX:
             return wh * 4;
+        case PIXEL_FORMAT_UYVY:
+            return wh * 2;
+        case PIXEL_FORMAT_GRAY8:
+            return wh;
+        case PIXEL_FORMAT_I420_ALIGN16:
+            return uvc_i420_aligned_bytes(width, height, 16);
+        case PIXEL_FORMAT_NV12_ALIGN16:
+            return uvc_nv12_aligned_bytes(width, height, 16);
+        case PIXEL_FORMAT_I420_ALIGN64:
+            return uvc_i420_aligned_bytes(width, height, 64);
+        case PIXEL_FORMAT_NV12_ALIGN64:
+            return uvc_nv12_aligned_bytes(width, height, 64);
         default:
             return wh * 4;
     }
@@ -114,12 +169,14 @@ static inline const char *uvc_frame_format_name(const enum uvc_frame_format fmt)
         case UVC_FRAME_FORMAT_RGBX: return "RGBX";
         case UVC_FRAME_FORMAT_RGB: return "RGB";
         case UVC_FRAME_FORMAT_BGR: return "BGR";
+        case UVC_FRAME_FORMAT_UYVY: return "UYVY";
+        case UVC_FRAME_FORMAT_GRAY8: return "GRAY8";
         case UVC_FRAME_FORMAT_UNCOMPRESSED: return "UNCOMPRESSED";
         default: return "OTHER";
     }
 }
 
-UVCPreview::UVCPreview(uvc_device_handle_t *devh)
+UVCPreview::UVCPreview(uvc_device_handle_t *devh, FrameBudgetConsumer *budget)
         : mPreviewWindow(NULL),
           mCaptureWindow(NULL),
           mDeviceHandle(devh),
@@ -140,17 +197,56 @@ UVCPreview::UVCPreview(uvc_device_handle_t *devh)
           mFrameCallbackObj(NULL),
           mFrameCallbackFunc(NULL),
           callbackPixelBytes(2),
+          mMjpegValidation(MJPEG_VALIDATION_MARKERS),
+          mMjpegDecompressor(NULL),
+          mMjpegDropped(0),
+          mStreamFrameFormat(UVC_FRAME_FORMAT_UNKNOWN),
+          mTimelapseIntervalNs(0),
+          mTimelapseNextNs(0),
+          mCallbackTimestampNs(0),
+          mCallbackSequence(0),
+          mInferenceTap(NULL),
+          mTapInUse(NULL),
+          mRetiredTap(NULL),
+          mMjpegRecorder(NULL),
+          mLumaStats(NULL),
+          mStatsInUse(NULL),
+          mRetiredStats(NULL),
+          mMosaic(NULL),
+          mMosaicTile(0),
+          mIsStreaming(false),
+          mReconfigurePending(false),
+          mReconfigureResult(0),
+          mHasPreparedCtrl(false),
+          mHasNegotiatedCtrl(false),
+          mMaxPayloadSize(0),
+          mCalibrationMs(0),
+          mCalibrationMarginPercent(0),
+          mMeasuredPayloadSize(0),
+          mCalibrationDeadline(0),
+          mCalibratedPacketSize(0),
+          mPayloadCheckTime(0),
+          mRecalibratePending(false),
+          mBudget(budget),
           preview_thread(0),
           capture_thread(0) {
 
     ENTER();
     pthread_cond_init(&preview_sync, NULL);
     pthread_mutex_init(&preview_mutex, NULL);
+    pthread_cond_init(&reconfigure_sync, NULL);
 //
     pthread_cond_init(&capture_sync, NULL);
     pthread_mutex_init(&capture_mutex, NULL);
 //	
-    pthread_mutex_init(&pool_mutex, NULL);
+    mFramePools[FRAME_POOL_RAW] = new FramePool(budget, FRAME_POOL_SZ, RAW_HEADROOM_PERCENT);
+    mFramePools[FRAME_POOL_PREVIEW] = new FramePool(budget, CONVERTED_POOL_SZ, 0);
+    mFramePools[FRAME_POOL_CALLBACK] = new FramePool(budget, CONVERTED_POOL_SZ, 0);
+//
+    pthread_mutex_init(&tap_mutex, NULL);
+    pthread_mutex_init(&recorder_mutex, NULL);
+    pthread_mutex_init(&stats_mutex, NULL);
+    pthread_mutex_init(&mosaic_mutex, NULL);
     EXIT();
 }
 
@@ -165,65 +261,93 @@ UVCPreview::~UVCPreview() {
     mCaptureWindow = NULL;
     mFrameCallbackObj = NULL;
     iframecallback_fields.onFrame = NULL;
+    if (mMjpegDecompressor) {
+        tjDestroy(mMjpegDecompressor);
+        mMjpegDecompressor = NULL;
+    }
+    if (mInferenceTap) {
+        JNIEnv *env = getEnv();
+        if (env) {
+            mInferenceTap->release(env);
+        }
+        SAFE_DELETE(mInferenceTap);
+    }
+    if (mRetiredTap) {
+        JNIEnv *env = getEnv();
+        if (env) {
+            mRetiredTap->release(env);
+        }
+        SAFE_DELETE(mRetiredTap);
+    }
+    if (mLumaStats) {
+        JNIEnv *env = getEnv();
+        if (env) {
+            mLumaStats->release(env);
+        }
+        SAFE_DELETE(mLumaStats);
+    }
+    if (mRetiredStats) {
+        JNIEnv *env = getEnv();
+        if (env) {
+            mRetiredStats->release(env);
+        }
+        SAFE_DELETE(mRetiredStats);
+    }
+    if (mMosaic) {
+        mMosaic->release();
+        mMosaic = NULL;
+    }
+    // this finalizes the file if recording is still running
+    SAFE_DELETE(mMjpegRecorder);
     clearPreviewFrame();
     clearCaptureFrame();
     clear_pool();
+    for (int i = 0; i < FRAME_POOL_NUM; i++) {
+        SAFE_DELETE(mFramePools[i]);
+    }
     pthread_mutex_destroy(&preview_mutex);
     pthread_cond_destroy(&preview_sync);
+    pthread_cond_destroy(&reconfigure_sync);
     pthread_mutex_destroy(&capture_mutex);
     pthread_cond_destroy(&capture_sync);
-    pthread_mutex_destroy(&pool_mutex);
+    pthread_mutex_destroy(&tap_mutex);
+    pthread_mutex_destroy(&recorder_mutex);
+    pthread_mutex_destroy(&stats_mutex);
+    pthread_mutex_destroy(&mosaic_mutex);
     EXIT();
 }
 
 /**
- * get uvc_frame_t from frame pool
+ * get uvc_frame_t from the frame pool of the size class
  * if pool is empty, create new frame
- * this function does not confirm the frame size
- * and you may need to confirm the size
+ * data_bytes of the frame is set to data_bytes
+ * @param pool one of FRAME_POOL_XXX
+ * @return NULL if the frame does not fit into the frame memory budget
  */
-uvc_frame_t *UVCPreview::get_frame(size_t data_bytes) {
-    uvc_frame_t *frame = NULL;
-    pthread_mutex_lock(&pool_mutex);
-    {
-        if (!mFramePool.isEmpty()) {
-            frame = mFramePool.last();
-        }
-    }
-    pthread_mutex_unlock(&pool_mutex);
-    if UNLIKELY(!frame) {
-        LOGI("allocate new frame");
-        frame = uvc_allocate_frame(data_bytes);
-    } else {
-        uvc_ensure_frame_size(frame, data_bytes);
-    }
-    return frame;
+uvc_frame_t *UVCPreview::get_frame(int pool, size_t data_bytes) {
+    return mFramePools[pool]->obtain(data_bytes);
 }
 
+/**
+ * return the frame to the pool it was obtained from
+ */
 void UVCPreview::recycle_frame(uvc_frame_t *frame) {
-    pthread_mutex_lock(&pool_mutex);
-    if (LIKELY(mFramePool.size() < FRAME_POOL_SZ)) {
-        mFramePool.put(frame);
-        frame = NULL;
-    }
-    pthread_mutex_unlock(&pool_mutex);
-    if (UNLIKELY(frame)) {
-        uvc_free_frame(frame);
-    }
+    FramePool::recycleFrame(frame);
 }
 
-
-void UVCPreview::init_pool(size_t data_bytes) {
+/**
+ * set the size classes for the stream and allocate some frames of each in advance
+ */
+void UVCPreview::prewarm_pools(uvc_stream_ctrl_t *ctrl) {
     ENTER();
 
-    clear_pool();
-    pthread_mutex_lock(&pool_mutex);
-    {
-        for (int i = 0; i < FRAME_POOL_SZ; i++) {
-            mFramePool.put(uvc_allocate_frame(data_bytes));
-        }
-    }
-    pthread_mutex_unlock(&pool_mutex);
+    // size of compressed frames is not known in advance, the class follows the frames
+    const bool compressed = (frameFormatType == UVC_VS_FRAME_MJPEG)
+                            || (frameFormatType == UVC_VS_FRAME_FRAME_BASED);
+    const size_t raw_bytes = ctrl && ctrl->dwMaxVideoFrameSize
+                             ? ctrl->dwMaxVideoFrameSize : (size_t) frameWidth * frameHeight * 2;
+    mFramePools[FRAME_POOL_RAW]->prepare(compressed ? 0 : raw_bytes, compressed ? 0 : PREWARM_FRAMES);
+    mFramePools[FRAME_POOL_PREVIEW]->prepare(previewBytes, PREWARM_FRAMES);
 
     EXIT();
 }
@@ -231,18 +355,36 @@ void UVCPreview::init_pool(size_t data_bytes) {
 void UVCPreview::clear_pool() {
     ENTER();
 
-    pthread_mutex_lock(&pool_mutex);
-    {
-        const int n = mFramePool.size();
-        for (int i = 0; i < n; i++) {
-            uvc_free_frame(mFramePool[i]);
-        }
-        mFramePool.clear();
+    for (int i = 0; i < FRAME_POOL_NUM; i++) {
+        mFramePools[i]->clear();
     }
-    pthread_mutex_unlock(&pool_mutex);
+
     EXIT();
 }
 
+void UVCPreview::getFramePoolStats(frame_pool_stats_t *stats) {
+    for (int i = 0; i < FRAME_POOL_NUM; i++) {
+        mFramePools[i]->getStats(stats[i]);
+    }
+}
+
+int UVCPreview::getStreamPixelFormat() {
+    switch (mStreamFrameFormat) {
+        case UVC_FRAME_FORMAT_YUYV:
+            return PIXEL_FORMAT_YUV;
+        case UVC_FRAME_FORMAT_NV12:
+            return PIXEL_FORMAT_NV12;
+        case UVC_FRAME_FORMAT_NV21:
+            return PIXEL_FORMAT_NV21;
+        case UVC_FRAME_FORMAT_I420:
+            return PIXEL_FORMAT_I420;
+        case UVC_FRAME_FORMAT_MJPEG:
+            return PIXEL_FORMAT_MJPEG;
+        default:
+            return -1;
+    }
+}
+
 inline const bool UVCPreview::isRunning() const { return mIsRunning; }
 
 static uvc_frame_format getFrameFormatByType(int frameType) {
@@ -269,8 +411,6 @@ static uvc_frame_format getFrameFormatByType(int frameType) {
 int UVCPreview::setPreviewSize(int width, int height, int frameType, int fps) {
     ENTER();
 
-    int result = 0;
-
     enum uvc_frame_format frame_format = getFrameFormatByType(frameType);
 
     requestWidth = width;
@@ -280,6 +420,100 @@ int UVCPreview::setPreviewSize(int width, int height, int frameType, int fps) {
     negotiatedFrameFormat = frame_format;
 
     uvc_stream_ctrl_t ctrl;
+    int result = negotiate_stream_ctrl(width, height, frameType, fps, &ctrl, &frame_format);
+    if (result == UVC_SUCCESS) {
+        negotiatedFrameFormat = frame_format;
+        // keep it so that next startPreview does not need to probe again
+        mPreparedCtrl = ctrl;
+        mNegotiatedCtrl = ctrl;
+        mHasNegotiatedCtrl = true;
+    }
+    mHasPreparedCtrl = result == UVC_SUCCESS;
+
+    RETURN(result, int);
+}
+
+/**
+ * release memory that is only needed while streaming and negotiate stream control in advance
+ * so that next startPreview only needs to start streaming, for warm standby
+ */
+int UVCPreview::prepareStandby() {
+    ENTER();
+
+    if (UNLIKELY(isRunning())) {
+        RETURN(UVC_ERROR_BUSY, int);
+    }
+    clear_pool();
+    int result = 0;
+    if (!mHasPreparedCtrl) {
+        result = setPreviewSize(requestWidth, requestHeight, requestFormatType, requestFps);
+    }
+    RETURN(result, int);
+}
+
+/**
+ * switch the running stream to another mode without stopping preview,
+ * only USB streaming is restarted and the preview/capture threads and the windows are kept.
+ * The new mode is probed while the current mode is still streaming.
+ * This works same as setPreviewSize when the camera is not streaming.
+ */
+int UVCPreview::reconfigure(int width, int height, int frameType, int fps) {
+    ENTER();
+
+    if (!isRunning() || !mIsStreaming) {
+        RETURN(setPreviewSize(width, height, frameType, fps), int);
+    }
+    bool recording;
+    pthread_mutex_lock(&recorder_mutex);
+    recording = mMjpegRecorder != NULL;
+    pthread_mutex_unlock(&recorder_mutex);
+    if (UNLIKELY(recording)) {
+        // MJPEG file can not change its frame size on the fly
+        RETURN(UVC_ERROR_BUSY, int);
+    }
+    uvc_stream_ctrl_t ctrl;
+    enum uvc_frame_format frame_format;
+    int result = negotiate_stream_ctrl(width, height, frameType, fps, &ctrl, &frame_format);
+    if (UNLIKELY(result)) {
+        LOGE("could not negotiate new mode:err=%d", result);
+        RETURN(result, int);
+    }
+    pthread_mutex_lock(&preview_mutex);
+    {
+        if (UNLIKELY(!mIsStreaming)) {
+            result = UVC_ERROR_INVALID_MODE;
+        } else if (UNLIKELY(mReconfigurePending)) {
+            result = UVC_ERROR_BUSY;
+        } else {
+            mReconfigureCtrl = ctrl;
+            mReconfigureWidth = width;
+            mReconfigureHeight = height;
+            mReconfigureFormatType = frameType;
+            mReconfigureFps = fps;
+            mReconfigureFrameFormat = frame_format;
+            mReconfigureResult = 0;
+            mReconfigurePending = true;
+            // wake up the preview thread if it is waiting for frames
+            pthread_cond_signal(&preview_sync);
+            while (mReconfigurePending) {
+                pthread_cond_wait(&reconfigure_sync, &preview_mutex);
+            }
+            result = mReconfigureResult;
+        }
+    }
+    pthread_mutex_unlock(&preview_mutex);
+
+    RETURN(result, int);
+}
+
+/**
+ * probe stream control for the requested mode, this does not change current request
+ * @param negotiated the frame format that the device accepted is returned on success
+ */
+int UVCPreview::negotiate_stream_ctrl(int width, int height, int frameType, int fps,
+                                      uvc_stream_ctrl_t *ctrl, enum uvc_frame_format *negotiated) {
+    int result;
+    enum uvc_frame_format frame_format = getFrameFormatByType(frameType);
 
     // If requested format is uncompressed, prefer NV12/I420 when the
     // device advertises corresponding GUIDs (helps Elgato CamLink 4K).
@@ -310,7 +544,7 @@ int UVCPreview::setPreviewSize(int width, int height, int frameType, int fps) {
         }
     }
     result = uvc_get_stream_ctrl_format_size(
-            mDeviceHandle, &ctrl,
+            mDeviceHandle, ctrl,
             frame_format,
             width, height, fps);
 
@@ -327,7 +561,7 @@ int UVCPreview::setPreviewSize(int width, int height, int frameType, int fps) {
         const int num_fallbacks = sizeof(fallback_formats) / sizeof(fallback_formats[0]);
         for (int i = 0; i < num_fallbacks; ++i) {
             enum uvc_frame_format ff = fallback_formats[i];
-            result = uvc_get_stream_ctrl_format_size(mDeviceHandle, &ctrl, ff, width, height, fps);
+            result = uvc_get_stream_ctrl_format_size(mDeviceHandle, ctrl, ff, width, height, fps);
             if (result == UVC_SUCCESS) {
                 frame_format = ff; // use the successful frame format
                 LOGI("Requested uncompressed format not supported, falling back to %d", frame_format);
@@ -337,14 +571,14 @@ int UVCPreview::setPreviewSize(int width, int height, int frameType, int fps) {
     }
 
 #if LOCAL_DEBUG
-    uvc_print_stream_ctrl(&ctrl, stderr);
+    uvc_print_stream_ctrl(ctrl, stderr);
 #endif
 
     if (result == UVC_SUCCESS) {
-        negotiatedFrameFormat = frame_format;
+        *negotiated = frame_format;
     }
 
-    RETURN(result, int);
+    return result;
 }
 
 int UVCPreview::setPreviewDisplay(ANativeWindow *preview_window) {
@@ -410,6 +644,531 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
     RETURN(0, int);
 }
 
+/**
+ * set/clear native inference tap
+ * tensor_callback_obj and tensor_buffer_obj should be global references
+ * and they are released here when this call fails
+ * @param config NULL clears current inference tap
+ */
+int UVCPreview::setInferenceTap(JNIEnv *env, jobject tensor_callback_obj, jobject tensor_buffer_obj,
+                                const inference_tap_config_t *config) {
+
+    ENTER();
+    int result = 0;
+    InferenceTap *tap = NULL;
+    if (config && tensor_callback_obj && tensor_buffer_obj) {
+        // prepare new tap outside of the lock so that capture thread is not blocked
+        tap = new InferenceTap();
+        result = tap->init(env, tensor_callback_obj, tensor_buffer_obj, *config);
+        if (UNLIKELY(result)) {
+            SAFE_DELETE(tap);
+        }
+    }
+    if (!tap) {
+        if (tensor_callback_obj) {
+            env->DeleteGlobalRef(tensor_callback_obj);
+        }
+        if (tensor_buffer_obj) {
+            env->DeleteGlobalRef(tensor_buffer_obj);
+        }
+    }
+    InferenceTap *prev;
+    pthread_mutex_lock(&tap_mutex);
+    {
+        prev = mInferenceTap;
+        mInferenceTap = tap;
+        if (prev && (prev == mTapInUse)) {
+            // the capture thread is calling this tap now(this may be called from ITensorCallback),
+            // it releases the tap when the call returns
+            mRetiredTap = prev;
+            prev = NULL;
+        }
+    }
+    pthread_mutex_unlock(&tap_mutex);
+    if (prev) {
+        prev->release(env);
+        SAFE_DELETE(prev);
+    }
+    RETURN(result, int);
+}
+
+/**
+ * set/clear native luma statistics listener
+ * stats_callback_obj and stats_class should be global references
+ * and they are released here when this call fails
+ * @param stats_callback_obj NULL clears current listener
+ * @param max_fps upper limit of the callback rate, 0: every frame
+ */
+int UVCPreview::setFrameStatsCallback(JNIEnv *env, jobject stats_callback_obj, jclass stats_class, int max_fps) {
+
+    ENTER();
+    int result = 0;
+    LumaStats *stats = NULL;
+    if (stats_callback_obj && stats_class) {
+        stats = new LumaStats();
+        result = stats->init(env, stats_callback_obj, stats_class, max_fps);
+        if (UNLIKELY(result)) {
+            SAFE_DELETE(stats);
+        }
+    }
+    if (!stats) {
+        if (stats_callback_obj) {
+            env->DeleteGlobalRef(stats_callback_obj);
+        }
+        if (stats_class) {
+            env->DeleteGlobalRef(stats_class);
+        }
+    }
+    LumaStats *prev;
+    pthread_mutex_lock(&stats_mutex);
+    {
+        prev = mLumaStats;
+        mLumaStats = stats;
+        if (prev && (prev == mStatsInUse)) {
+            // the capture thread is calling this listener now(this may be called from onFrameStats),
+            // it releases the listener when the call returns
+            mRetiredStats = prev;
+            prev = NULL;
+        }
+    }
+    pthread_mutex_unlock(&stats_mutex);
+    if (prev) {
+        prev->release(env);
+        SAFE_DELETE(prev);
+    }
+    RETURN(result, int);
+}
+
+/**
+ * attach this camera to a tile of the mosaic compositor or detach it
+ * @param mosaic NULL detaches from current compositor
+ * @param index index of the tile, row-major
+ */
+int UVCPreview::setMosaicTile(MosaicCompositor *mosaic, int index) {
+
+    ENTER();
+    if (mosaic) {
+        if (UNLIKELY((index < 0) || (index >= mosaic->getTileCount()))) {
+            RETURN(UVC_ERROR_INVALID_PARAM, int);
+        }
+        mosaic->addRef();
+    }
+    MosaicCompositor *prev;
+    pthread_mutex_lock(&mosaic_mutex);
+    {
+        prev = mMosaic;
+        mMosaic = mosaic;
+        mMosaicTile = index;
+    }
+    pthread_mutex_unlock(&mosaic_mutex);
+    if (prev) {
+        prev->release();
+    }
+    RETURN(0, int);
+}
+
+/**
+ * start recording camera's MJPEG frames into AVI/Matroska without transcoding
+ * @param fd file descriptor to write, this instance takes ownership of it even if this call fails
+ * @param container MJPEG_CONTAINER_AVI or MJPEG_CONTAINER_MKV
+ * @param fps nominal frame rate for the container header, 0 uses requested fps
+ * @param audio_sample_rate 0 records video only
+ */
+int UVCPreview::startMjpegRecording(int fd, int container, int fps,
+                                    int audio_sample_rate, int audio_channels) {
+
+    ENTER();
+    if (UNLIKELY(!isRunning() || (frameFormatType != UVC_VS_FRAME_MJPEG))) {
+        LOGE("MJPEG recording needs running MJPEG stream");
+        close(fd);
+        RETURN(UVC_ERROR_INVALID_MODE, int);
+    }
+    mjpeg_mux_config_t config;
+    config.width = frameWidth;
+    config.height = frameHeight;
+    config.fps = fps > 0 ? fps : requestFps;
+    config.audioSampleRate = audio_channels > 0 ? audio_sample_rate : 0;
+    config.audioChannels = audio_channels;
+    MjpegRecorder *recorder = new MjpegRecorder();
+    int result = recorder->start(fd, container, config);
+    if (LIKELY(!result)) {
+        pthread_mutex_lock(&recorder_mutex);
+        {
+            if (!mMjpegRecorder) {
+                mMjpegRecorder = recorder;
+                recorder = NULL;
+            } else {
+                result = UVC_ERROR_BUSY;
+            }
+        }
+        pthread_mutex_unlock(&recorder_mutex);
+    }
+    // deleting the recorder finalizes and closes the file
+    SAFE_DELETE(recorder);
+    RETURN(result, int);
+}
+
+/**
+ * stop feeding frames to the MJPEG recorder and hand it over to the caller,
+ * which finalizes the file with MjpegRecorder#stop and deletes the recorder
+ * @return NULL if not recording
+ */
+MjpegRecorder *UVCPreview::detachMjpegRecorder() {
+    ENTER();
+    MjpegRecorder *recorder;
+    pthread_mutex_lock(&recorder_mutex);
+    {
+        recorder = mMjpegRecorder;
+        mMjpegRecorder = NULL;
+    }
+    pthread_mutex_unlock(&recorder_mutex);
+    RETURN(recorder, MjpegRecorder *);
+}
+
+/**
+ * pass 16bit PCM audio to the MJPEG recorder
+ * @param pts_us capture time of the first sample, same time base as System#nanoTime
+ */
+int UVCPreview::writeMjpegRecordingAudio(const uint8_t *data, size_t size, int64_t pts_us) {
+    int result = UVC_ERROR_INVALID_MODE;
+    pthread_mutex_lock(&recorder_mutex);
+    {
+        if (mMjpegRecorder) {
+            result = mMjpegRecorder->writeAudio(data, size, pts_us);
+        }
+    }
+    pthread_mutex_unlock(&recorder_mutex);
+    return result;
+}
+
+/**
+ * skip IFrameCallback for frames that hardly changed since the last delivered frame
+ * @param threshold change score(per mille of changed luma samples) below which frames are skipped, 0 disables
+ * @param max_interval_ms static frames are still delivered at this interval, 0 never delivers them
+ */
+int UVCPreview::setStaticSceneSkip(int threshold, int max_interval_ms) {
+    ENTER();
+    if (UNLIKELY((threshold < 0) || (max_interval_ms < 0))) {
+        RETURN(UVC_ERROR_INVALID_PARAM, int);
+    }
+    mSceneDetector.configure(threshold, max_interval_ms);
+    RETURN(0, int);
+}
+
+/**
+ * pass only one frame per interval to the pipeline for timelapse capture
+ * other frames are dropped in the USB callback before they are copied or decoded
+ * @param interval_ms 0 passes every frame
+ */
+int UVCPreview::setTimelapseInterval(int interval_ms) {
+    ENTER();
+    if (UNLIKELY(interval_ms < 0)) {
+        RETURN(UVC_ERROR_INVALID_PARAM, int);
+    }
+    mTimelapseNextNs = 0;
+    mTimelapseIntervalNs = (nsecs_t) interval_ms * 1000000LL;
+    LOGI("timelapse interval=%dms", interval_ms);
+    RETURN(0, int);
+}
+
+/**
+ * limit dwMaxPayloadTransferSize of isochronous streaming so that libuvc selects
+ * a smaller alt-setting than the device asks for, applied when streaming starts next time
+ * @param bytes bytes per (micro)frame, 0 to use the negotiated value
+ */
+int UVCPreview::setMaxPayloadSize(int bytes) {
+    ENTER();
+    if (UNLIKELY(bytes < 0)) {
+        RETURN(UVC_ERROR_INVALID_PARAM, int);
+    }
+    mMaxPayloadSize = bytes;
+    LOGI("max payload size=%d", bytes);
+    RETURN(0, int);
+}
+
+void UVCPreview::apply_payload_limit(uvc_stream_ctrl_t *ctrl) {
+    int max_payload = mMaxPayloadSize;
+    const int measured = mMeasuredPayloadSize;
+    if (measured > 0) {
+        const int calibrated = measured + measured * mCalibrationMarginPercent / 100;
+        if ((max_payload <= 0) || (calibrated < max_payload)) {
+            max_payload = calibrated;
+        }
+    }
+    if ((max_payload > 0) && (ctrl->dwMaxPayloadTransferSize > (uint32_t) max_payload)) {
+        LOGI("limit payload size %u=>%d", ctrl->dwMaxPayloadTransferSize, max_payload);
+        ctrl->dwMaxPayloadTransferSize = max_payload;
+    }
+}
+
+/**
+ * bytes per (micro)frame of each isochronous alt-setting of the streaming interface of ctrl,
+ * found same as uvc_stream_start does
+ * @return number of alt-settings, 0 if the interface uses bulk transfers
+ */
+static int get_iso_packet_sizes(uvc_device_handle_t *devh, const uvc_stream_ctrl_t *ctrl,
+                                int *sizes, int max_sizes) {
+    uvc_frame_desc_t *frame_desc = uvc_find_frame_desc(devh, ctrl->bFormatIndex, ctrl->bFrameIndex);
+    if (UNLIKELY(!frame_desc || !devh->info->config)) {
+        return 0;
+    }
+    const uint8_t endpoint_address = frame_desc->parent->parent->bEndpointAddress;
+    const struct libusb_interface *interface = &devh->info->config->interface[ctrl->bInterfaceNumber];
+    if (interface->num_altsetting <= 1) {
+        return 0;
+    }
+    int n = 0;
+    for (int alt_idx = 0; (alt_idx < interface->num_altsetting) && (n < max_sizes); alt_idx++) {
+        const struct libusb_interface_descriptor *altsetting = interface->altsetting + alt_idx;
+        int bytes = 0;
+        for (int ep_idx = 0; ep_idx < altsetting->bNumEndpoints; ep_idx++) {
+            const struct libusb_endpoint_descriptor *endpoint = altsetting->endpoint + ep_idx;
+            struct libusb_ss_endpoint_companion_descriptor *ep_comp = NULL;
+            libusb_get_ss_endpoint_companion_descriptor(NULL, endpoint, &ep_comp);
+            if (ep_comp) {
+                bytes = ep_comp->wBytesPerInterval;
+                libusb_free_ss_endpoint_companion_descriptor(ep_comp);
+                break;
+            } else if (endpoint->bEndpointAddress == endpoint_address) {
+                // wMaxPacketSize: [unused:2 (multiplier-1):3 size:11]
+                bytes = (endpoint->wMaxPacketSize & 0x07ff) * (((endpoint->wMaxPacketSize >> 11) & 3) + 1);
+                break;
+            }
+        }
+        sizes[n++] = bytes;
+    }
+    return n;
+}
+
+/**
+ * @return index of the alt-setting that uvc_stream_start selects for the payload size, -1 if none fits
+ */
+static int find_alt_setting(const int *sizes, int num_alts, uint32_t payload_size) {
+    for (int i = 0; i < num_alts; i++) {
+        // libuvc assumes the packet sizes are increasing
+        if (sizes[i] >= (int) payload_size) {
+            return i;
+        }
+    }
+    return -1;
+}
+
+/**
+ * report the bandwidth that the current request reserves on the bus
+ * info[0]: 1 if isochronous, 0 if bulk
+ * info[1]: speed of the device, enum libusb_speed
+ * info[2]: dwMaxPayloadTransferSize that the device negotiated
+ * info[3]: dwMaxPayloadTransferSize after the limit of setMaxPayloadSize
+ * info[4]: index of the alt-setting that is selected for it, -1 if none fits or bulk
+ * info[5]: bytes per (micro)frame that the alt-setting reserves
+ * info[6]: 1 if streaming now
+ * info[7]: number of alt-settings followed by bytes per (micro)frame of each of them
+ * @return number of values written, 0 if no stream control is negotiated yet
+ */
+int UVCPreview::getBandwidthInfo(int *info, int max_count) {
+    ENTER();
+    if (UNLIKELY(!mHasNegotiatedCtrl || max_count < 8)) {
+        RETURN(0, int);
+    }
+    uvc_stream_ctrl_t ctrl = mNegotiatedCtrl;
+    const int negotiated = ctrl.dwMaxPayloadTransferSize;
+    apply_payload_limit(&ctrl);
+    int *sizes = info + 9;
+    const int num_alts = get_iso_packet_sizes(mDeviceHandle, &ctrl, sizes, max_count - 9);
+    const int alt = find_alt_setting(sizes, num_alts, ctrl.dwMaxPayloadTransferSize);
+    info[0] = num_alts > 0 ? 1 : 0;
+    info[1] = libusb_get_device_speed(mDeviceHandle->dev->usb_dev);
+    info[2] = negotiated;
+    info[3] = ctrl.dwMaxPayloadTransferSize;
+    info[4] = alt;
+    info[5] = alt >= 0 ? sizes[alt] : 0;
+    info[6] = mIsStreaming ? 1 : 0;
+    info[7] = mMeasuredPayloadSize;
+    info[8] = num_alts;
+    RETURN(9 + num_alts, int);
+}
+
+/**
+ * measure the largest isochronous payload for a while after streaming starts,
+ * then restart streaming on the smallest alt-setting that covers it with the margin.
+ * This is skipped while the payload of the current request is already known,
+ * see setMeasuredPayloadSize.
+ * @param duration_ms time to measure, 0 to disable calibration
+ * @param margin_percent margin added to the measured payload
+ */
+int UVCPreview::setPayloadCalibration(int duration_ms, int margin_percent) {
+    ENTER();
+    if (UNLIKELY((duration_ms < 0) || (margin_percent < 0))) {
+        RETURN(UVC_ERROR_INVALID_PARAM, int);
+    }
+    mCalibrationMarginPercent = margin_percent;
+    mCalibrationMs = duration_ms;
+    LOGI("payload calibration=%dms,margin=%d%%", duration_ms, margin_percent);
+    RETURN(0, int);
+}
+
+/**
+ * preset the payload measured before for the request that is applied next,
+ * e.g. from a cache, applied when streaming starts next time
+ * @param bytes largest payload of a (micro)frame, 0 if not known
+ */
+int UVCPreview::setMeasuredPayloadSize(int bytes) {
+    ENTER();
+    if (UNLIKELY(bytes < 0)) {
+        RETURN(UVC_ERROR_INVALID_PARAM, int);
+    }
+    mMeasuredPayloadSize = bytes;
+    RETURN(0, int);
+}
+
+/**
+ * start calibration of the stream that just started if it is enabled and needed
+ */
+void UVCPreview::arm_calibration(uvc_stream_ctrl_t *ctrl) {
+    mCalibrationDeadline = 0;
+    // a payload preset from a cache limits the stream same as a measured one
+    watch_calibrated_payload(ctrl);
+    const int duration_ms = mCalibrationMs;
+    if ((duration_ms > 0) && (mMeasuredPayloadSize <= 0)) {
+        int sizes[MAX_ALT_SETTINGS];
+        // nothing to choose with bulk transfers or a single alt-setting
+        if (get_iso_packet_sizes(mDeviceHandle, ctrl, sizes, MAX_ALT_SETTINGS) > 1) {
+            mCalibrationDeadline = systemTime() + (nsecs_t) duration_ms * 1000000LL;
+        }
+    }
+}
+
+/**
+ * start watching the payloads if the stream started with ctrl is limited by the measured payload,
+ * a more complex scene may need larger payloads than the ones measured
+ */
+void UVCPreview::watch_calibrated_payload(const uvc_stream_ctrl_t *ctrl) {
+    mCalibratedPacketSize = 0;
+    mRecalibratePending = false;
+    if (mMeasuredPayloadSize <= 0) {
+        return;
+    }
+    uvc_stream_ctrl_t limited_ctrl = *ctrl;
+    apply_payload_limit(&limited_ctrl);
+    if (limited_ctrl.dwMaxPayloadTransferSize >= ctrl->dwMaxPayloadTransferSize) {
+        return;
+    }
+    int sizes[MAX_ALT_SETTINGS];
+    const int num_alts = get_iso_packet_sizes(mDeviceHandle, ctrl, sizes, MAX_ALT_SETTINGS);
+    const int alt = find_alt_setting(sizes, num_alts, limited_ctrl.dwMaxPayloadTransferSize);
+    const int negotiated_alt = find_alt_setting(sizes, num_alts, ctrl->dwMaxPayloadTransferSize);
+    // nothing larger to go back to
+    if ((alt >= 0) && (negotiated_alt != alt)) {
+        mCalibratedPacketSize = sizes[alt];
+        mPayloadCheckTime = systemTime() + PAYLOAD_CHECK_INTERVAL_NS;
+    }
+}
+
+/**
+ * whether the largest payload of the running stream came close to the packet size of the calibrated
+ * alt-setting, larger payloads would be truncated, checked once per PAYLOAD_CHECK_INTERVAL_NS
+ */
+bool UVCPreview::is_payload_near_limit() {
+    const nsecs_t now = systemTime();
+    if (now < mPayloadCheckTime) {
+        return false;
+    }
+    mPayloadCheckTime = now + PAYLOAD_CHECK_INTERVAL_NS;
+    const size_t max_payload = uvc_stream_get_max_payload_bytes(mDeviceHandle->streams);
+    if (max_payload * 100 >= (size_t) mCalibratedPacketSize * RECALIBRATE_PERCENT) {
+        LOGI("payload calibration:payload %zu reached packet size %d", max_payload, mCalibratedPacketSize);
+        mRecalibratePending = true;
+    }
+    return mRecalibratePending;
+}
+
+inline const bool UVCPreview::isCalibrationDue() {
+    if (UNLIKELY(mCalibrationDeadline)) {
+        return systemTime() >= mCalibrationDeadline;
+    }
+    return UNLIKELY(mCalibratedPacketSize) && (mRecalibratePending || is_payload_near_limit());
+}
+
+/**
+ * forget the calibrated payload and restart streaming on the negotiated alt-setting,
+ * then calibrate again with the payloads of the current scene
+ * @return 0 if streaming
+ */
+int UVCPreview::recalibrate(uvc_stream_ctrl_t *ctrl) {
+    ENTER();
+    mRecalibratePending = false;
+    mCalibratedPacketSize = 0;
+    mMeasuredPayloadSize = 0;
+    const nsecs_t start = systemTime();
+    uvc_stop_streaming(mDeviceHandle);
+    clearPreviewFrame();
+    uvc_stream_ctrl_t stream_ctrl = *ctrl;
+    apply_payload_limit(&stream_ctrl);
+    const int result = uvc_start_streaming(
+            mDeviceHandle, &stream_ctrl, uvc_preview_frame_callback, (void *) this, 0);
+    if (LIKELY(!result)) {
+        LOGI("restarted with negotiated payload for calibration in %dms",
+             (int) ((systemTime() - start) / 1000000LL));
+        arm_calibration(ctrl);
+    } else {
+        LOGE("failed to restart streaming for calibration (%d)", result);
+    }
+    RETURN(result, int);
+}
+
+/**
+ * restart streaming on the smallest alt-setting that covers the measured payload,
+ * called on the preview thread after calibration time passed
+ * @return 0 if streaming, an error if the device could not stream on any alt-setting tried
+ */
+int UVCPreview::finish_calibration(uvc_stream_ctrl_t *ctrl) {
+    ENTER();
+    mCalibrationDeadline = 0;
+    const int measured = (int) uvc_stream_get_max_payload_bytes(mDeviceHandle->streams);
+    if (UNLIKELY(measured <= 0)) {
+        LOGW("payload calibration:nothing received");
+        RETURN(0, int);
+    }
+    int sizes[MAX_ALT_SETTINGS];
+    const int num_alts = get_iso_packet_sizes(mDeviceHandle, ctrl, sizes, MAX_ALT_SETTINGS);
+    uvc_stream_ctrl_t current_ctrl = *ctrl;
+    apply_payload_limit(&current_ctrl);
+    mMeasuredPayloadSize = measured;
+    uvc_stream_ctrl_t calibrated_ctrl = *ctrl;
+    apply_payload_limit(&calibrated_ctrl);
+    const int current_alt = find_alt_setting(sizes, num_alts, current_ctrl.dwMaxPayloadTransferSize);
+    const int calibrated_alt = find_alt_setting(sizes, num_alts, calibrated_ctrl.dwMaxPayloadTransferSize);
+    LOGI("payload calibration:measured=%d,negotiated=%u,alt %d=>%d",
+         measured, ctrl->dwMaxPayloadTransferSize, current_alt, calibrated_alt);
+    if ((calibrated_alt < 0) || (calibrated_alt >= current_alt)) {
+        RETURN(0, int);
+    }
+    const nsecs_t start = systemTime();
+    uvc_stop_streaming(mDeviceHandle);
+    clearPreviewFrame();
+    int result = uvc_start_streaming(
+            mDeviceHandle, &calibrated_ctrl, uvc_preview_frame_callback, (void *) this, 0);
+    if (LIKELY(!result)) {
+        LOGI("restarted with calibrated payload in %dms", (int) ((systemTime() - start) / 1000000LL));
+        watch_calibrated_payload(ctrl);
+    } else {
+        LOGE("failed to restart streaming with calibrated payload (%d)", result);
+        // do not report the value that the device could not stream with
+        mMeasuredPayloadSize = 0;
+        result = uvc_start_streaming(
+                mDeviceHandle, &current_ctrl, uvc_preview_frame_callback, (void *) this, 0);
+        if (UNLIKELY(result)) {
+            LOGE("failed to restore previous alt-setting (%d), retry with negotiated payload", result);
+            result = uvc_start_streaming(
+                    mDeviceHandle, ctrl, uvc_preview_frame_callback, (void *) this, 0);
+            if (UNLIKELY(result)) {
+                LOGE("failed to restart streaming (%d)", result);
+            }
+        }
+    }
+    RETURN(result, int);
+}
+
 void UVCPreview::callbackPixelFormatChanged() {
     mFrameCallbackFunc = NULL;
     const int callback_width = frameWidth > 0 ? frameWidth : requestWidth;
@@ -460,7 +1219,59 @@ void UVCPreview::callbackPixelFormatChanged() {
             mFrameCallbackFunc = uvc_rgbx_to_i420;
             callbackPixelBytes = (sz * 3) / 2;
             break;
+        case PIXEL_FORMAT_UYVY:
+            LOGI("PIXEL_FORMAT_UYVY:");
+            mFrameCallbackFunc = uvc_any_to_uyvy;
+            callbackPixelBytes = sz * 2;
+            break;
+        case PIXEL_FORMAT_GRAY8:
+            LOGI("PIXEL_FORMAT_GRAY8:");
+            mFrameCallbackFunc = uvc_any_to_gray8;
+            callbackPixelBytes = sz;
+            break;
+        case PIXEL_FORMAT_I420_ALIGN16:
+            LOGI("PIXEL_FORMAT_I420_ALIGN16:");
+            mFrameCallbackFunc = uvc_any_to_i420_align16;
+            callbackPixelBytes = uvc_i420_aligned_bytes(callback_width, callback_height, 16);
+            break;
+        case PIXEL_FORMAT_NV12_ALIGN16:
+            LOGI("PIXEL_FORMAT_NV12_ALIGN16:");
+            mFrameCallbackFunc = uvc_any_to_nv12_align16;
+            callbackPixelBytes = uvc_nv12_aligned_bytes(callback_width, callback_height, 16);
+            break;
+        case PIXEL_FORMAT_I420_ALIGN64:
+            LOGI("PIXEL_FORMAT_I420_ALIGN64:");
+            mFrameCallbackFunc = uvc_any_to_i420_align64;
+            callbackPixelBytes = uvc_i420_aligned_bytes(callback_width, callback_height, 64);
+            break;
+        case PIXEL_FORMAT_NV12_ALIGN64:
+            LOGI("PIXEL_FORMAT_NV12_ALIGN64:");
+            mFrameCallbackFunc = uvc_any_to_nv12_align64;
+            callbackPixelBytes = uvc_nv12_aligned_bytes(callback_width, callback_height, 64);
+            break;
+        case PIXEL_FORMAT_MJPEG:
+            LOGI("PIXEL_FORMAT_MJPEG:");
+            // compressed size varies, frames are always passed through as is
+            callbackPixelBytes = sz * 2;
+            break;
+    }
+    // frames passed through without conversion do not use the callback pool
+    mFramePools[FRAME_POOL_CALLBACK]->prepare(
+            mFrameCallbackFunc ? callbackPixelBytes : 0,
+            mFrameCallbackFunc && mFrameCallbackObj && isRunning() ? PREWARM_FRAMES : 0);
+}
+
+/**
+ * set validation level of MJPEG frames for PIXEL_FORMAT_MJPEG
+ * @param level MJPEG_VALIDATION_NONE/MJPEG_VALIDATION_MARKERS/MJPEG_VALIDATION_HEADER
+ */
+int UVCPreview::setMjpegValidation(int level) {
+    ENTER();
+    if (UNLIKELY((level < MJPEG_VALIDATION_NONE) || (level > MJPEG_VALIDATION_HEADER))) {
+        RETURN(UVC_ERROR_INVALID_PARAM, int);
     }
+    mMjpegValidation = level;
+    RETURN(0, int);
 }
 
 void UVCPreview::clearDisplay() {
@@ -511,7 +1322,8 @@ int UVCPreview::startPreview() {
         mIsRunning = true;
         pthread_mutex_lock(&preview_mutex);
         {
-            if (LIKELY(mPreviewWindow)) {
+            // frame callback only streaming(e.g. PIXEL_FORMAT_MJPEG archiving) does not need preview window
+            if (LIKELY(mPreviewWindow || mFrameCallbackObj)) {
                 result = pthread_create(&preview_thread, NULL, preview_thread_func, (void *) this);
                 pthread_setname_np(preview_thread, "preview_thread");
             }
@@ -547,6 +1359,7 @@ int UVCPreview::stopPreview() {
     }
     clearPreviewFrame();
     clearCaptureFrame();
+    mStreamFrameFormat = UVC_FRAME_FORMAT_UNKNOWN;
     pthread_mutex_lock(&preview_mutex);
     if (mPreviewWindow) {
         ANativeWindow_release(mPreviewWindow);
@@ -578,6 +1391,14 @@ void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args)
 #endif
         return;
     }
+    preview->mStreamFrameFormat = frame->frame_format;
+    if (UNLIKELY(preview->mTimelapseIntervalNs > 0) && !preview->select_timelapse_frame()) {
+        return;
+    }
+    // drop frames of degraded consumers before they are copied
+    if (preview->mBudget && UNLIKELY(preview->mBudget->shouldDropFrame())) {
+        return;
+    }
 //    if (UNLIKELY(
 //            ((frame->frame_format != UVC_FRAME_FORMAT_MJPEG)
 //             && (frame->data_bytes < preview->frameBytes))
@@ -591,7 +1412,7 @@ void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args)
 //        return;
 //    }
     if (LIKELY(preview->isRunning())) {
-        uvc_frame_t *copy = preview->get_frame(frame->data_bytes);
+        uvc_frame_t *copy = preview->get_frame(FRAME_POOL_RAW, frame->data_bytes);
         if (UNLIKELY(!copy)) {
 #if LOCAL_DEBUG
             LOGE("uvc_callback:unable to allocate duplicate frame!");
@@ -607,6 +1428,21 @@ void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args)
     }
 }
 
+/**
+ * whether the frame that arrived now is on the timelapse schedule, called on the USB callback thread
+ * the schedule advances by the interval so that selected frames do not drift behind
+ */
+bool UVCPreview::select_timelapse_frame() {
+    const nsecs_t interval = mTimelapseIntervalNs;
+    const nsecs_t now = systemTime();
+    if (mTimelapseNextNs && (now < mTimelapseNextNs)) {
+        return false;
+    }
+    mTimelapseNextNs = (mTimelapseNextNs && (now - mTimelapseNextNs < interval))
+                       ? mTimelapseNextNs + interval : now + interval;
+    return true;
+}
+
 void UVCPreview::addPreviewFrame(uvc_frame_t *frame) {
 
     pthread_mutex_lock(&preview_mutex);
@@ -625,7 +1461,7 @@ uvc_frame_t *UVCPreview::waitPreviewFrame() {
     uvc_frame_t *frame = NULL;
     pthread_mutex_lock(&preview_mutex);
     {
-        if (!previewFrames.size()) {
+        if (!previewFrames.size() && !mReconfigurePending) {
             pthread_cond_wait(&preview_sync, &preview_mutex);
         }
         if (LIKELY(isRunning() && previewFrames.size() > 0)) {
@@ -668,6 +1504,17 @@ int UVCPreview::prepare_preview(uvc_stream_ctrl_t *ctrl) {
     ENTER();
     const enum uvc_frame_format requested_stream_format =
             negotiatedFrameFormat ? negotiatedFrameFormat : getFrameFormatByType(requestFormatType);
+    if (mHasPreparedCtrl) {
+        // negotiated by setPreviewSize/prepareStandby for current request
+        mHasPreparedCtrl = false;
+        *ctrl = mPreparedCtrl;
+        LOGI("prepare_preview: use prepared stream control %dx%d@%dfps",
+             requestWidth, requestHeight, requestFps);
+        update_frame_format(ctrl, requested_stream_format);
+        mNegotiatedCtrl = *ctrl;
+        mHasNegotiatedCtrl = true;
+        RETURN(UVC_SUCCESS, int);
+    }
     result = uvc_get_stream_ctrl_format_size(mDeviceHandle, ctrl,
                                              requested_stream_format,
                                              requestWidth, requestHeight,
@@ -679,176 +1526,384 @@ int UVCPreview::prepare_preview(uvc_stream_ctrl_t *ctrl) {
 #if LOCAL_DEBUG
         uvc_print_stream_ctrl(ctrl, stderr);
 #endif
-        uvc_frame_desc_t *frame_desc;
-        frame_desc = uvc_find_frame_desc(mDeviceHandle, ctrl->bFormatIndex, ctrl->bFrameIndex);
-        if (LIKELY(!result)) {
-            frameWidth = frame_desc->wWidth;
-            frameHeight = frame_desc->wHeight;
-            frameFormatType = frame_desc->bDescriptorSubtype;
-              LOGI("frameSize=(%d,%d) negotiated=%s descSubtype=0x%02x",
-                  frameWidth, frameHeight,
-                  uvc_frame_format_name(requested_stream_format),
-                  frameFormatType & 0xFF);
-            pthread_mutex_lock(&preview_mutex);
-            if (LIKELY(mPreviewWindow)) {
-                ANativeWindow_setBuffersGeometry(mPreviewWindow,
-                                                 frameWidth, frameHeight, previewFormat);
-            }
-            pthread_mutex_unlock(&preview_mutex);
-        } else {
-            frameWidth = requestWidth;
-            frameHeight = requestHeight;
-            frameFormatType = requestFormatType;
-        }
-        frameBytes = frameWidth * frameHeight * (frameFormatType == UVC_VS_FRAME_MJPEG ? 4 : 2);
-        previewBytes = frameWidth * frameHeight * PREVIEW_PIXEL_BYTES;
+        update_frame_format(ctrl, requested_stream_format);
+        mNegotiatedCtrl = *ctrl;
+        mHasNegotiatedCtrl = true;
     } else {
         LOGE("could not negotiate with camera:err=%d", result);
     }
     RETURN(result, int);
 }
 
+/**
+ * update actual frame size/format from the stream control that is used for streaming
+ */
+void UVCPreview::update_frame_format(uvc_stream_ctrl_t *ctrl, enum uvc_frame_format stream_format) {
+    uvc_frame_desc_t *frame_desc;
+    frame_desc = uvc_find_frame_desc(mDeviceHandle, ctrl->bFormatIndex, ctrl->bFrameIndex);
+    if (LIKELY(frame_desc)) {
+        frameWidth = frame_desc->wWidth;
+        frameHeight = frame_desc->wHeight;
+        frameFormatType = frame_desc->bDescriptorSubtype;
+          LOGI("frameSize=(%d,%d) negotiated=%s descSubtype=0x%02x",
+              frameWidth, frameHeight,
+              uvc_frame_format_name(stream_format),
+              frameFormatType & 0xFF);
+        pthread_mutex_lock(&preview_mutex);
+        if (LIKELY(mPreviewWindow)) {
+            ANativeWindow_setBuffersGeometry(mPreviewWindow,
+                                             frameWidth, frameHeight, previewFormat);
+        }
+        pthread_mutex_unlock(&preview_mutex);
+    } else {
+        frameWidth = requestWidth;
+        frameHeight = requestHeight;
+        frameFormatType = requestFormatType;
+    }
+    frameBytes = frameWidth * frameHeight * (frameFormatType == UVC_VS_FRAME_MJPEG ? 4 : 2);
+    previewBytes = frameWidth * frameHeight * PREVIEW_PIXEL_BYTES;
+    prewarm_pools(ctrl);
+}
+
 void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
     ENTER();
 
-//    time_t c_start, c_end;
-
-    uvc_frame_t *frame = NULL;
-    uvc_frame_t *frame_yuv = NULL;
-    uvc_frame_t *frame_mjpeg = NULL;
+    uvc_stream_ctrl_t stream_ctrl = *ctrl;
+    apply_payload_limit(&stream_ctrl);
     int result = uvc_start_streaming(
-            mDeviceHandle, ctrl, uvc_preview_frame_callback, (void *) this, 0);
+            mDeviceHandle, &stream_ctrl, uvc_preview_frame_callback, (void *) this, 0);
 
     if (LIKELY(!result)) {
         clearPreviewFrame();
+        mIsStreaming = true;
+        arm_calibration(ctrl);
         pthread_create(&capture_thread, NULL, capture_thread_func, (void *) this);
         pthread_setname_np(capture_thread, "capture_thread");
 
 #if LOCAL_DEBUG
         LOGI("Streaming...");
 #endif
-        if (frameFormatType == UVC_VS_FRAME_MJPEG) {
-            // MJPEG mode
-            for (; LIKELY(isRunning());) {
-                frame_mjpeg = waitPreviewFrame();
-                if (LIKELY(frame_mjpeg)) {
-//                    frame = get_frame(frame_mjpeg->width * frame_mjpeg->height * 2);
-                    frame = get_frame(
-                            frame_mjpeg->width * frame_mjpeg->height * PREVIEW_PIXEL_BYTES);
-                    if (UNLIKELY(!frame)) {
-                        recycle_frame(frame_mjpeg);
-                        continue;
-                    }
-//                    c_start = clock();
-                    result = uvc_mjpeg2rgbx_tj(frame_mjpeg, frame);   // MJPEG => yuyv
-//                    c_end = clock();
-//                    LOGI("uvc_mjpeg2yuyv time: %f", (double) (c_end - c_start) / CLOCKS_PER_SEC);
-                    if (LIKELY(!result)) {
-                        draw_preview_one(frame, &mPreviewWindow);
-                        if (!addCaptureFrame(frame)) {
-                            recycle_frame(frame);
-                        }
-                    } else {
+        for (; LIKELY(isRunning());) {
+            do_preview_frames();
+            if (mReconfigurePending && isRunning()) {
+                if (UNLIKELY(swap_stream(ctrl))) {
+                    // neither the new nor the previous mode streams, reported as not streaming
+                    break;
+                }
+            } else if (isCalibrationDue() && isRunning()) {
+                if (UNLIKELY(mRecalibratePending ? recalibrate(ctrl) : finish_calibration(ctrl))) {
+                    // nothing streams any more, reported as not streaming
+                    break;
+                }
+            }
+        }
+        pthread_cond_signal(&capture_sync);
+#if LOCAL_DEBUG
+        LOGI("preview_thread_func:wait for all callbacks complete");
+#endif
+        uvc_stop_streaming(mDeviceHandle);
+#if LOCAL_DEBUG
+        LOGI("Streaming finished");
+#endif
+    } else {
+        LOGE("failed start_streaming (%d)", result);
+    }
+    // reconfigure() may be waiting for this thread
+    pthread_mutex_lock(&preview_mutex);
+    {
+        mIsStreaming = false;
+        if (mReconfigurePending) {
+            mReconfigurePending = false;
+            mReconfigureResult = UVC_ERROR_INTERRUPTED;
+        }
+        pthread_cond_broadcast(&reconfigure_sync);
+    }
+    pthread_mutex_unlock(&preview_mutex);
+
+    EXIT();
+}
+
+/**
+ * decode and draw frames until preview stops, reconfiguration is requested or calibration finishes
+ */
+void UVCPreview::do_preview_frames() {
+//    time_t c_start, c_end;
+
+    uvc_frame_t *frame = NULL;
+    uvc_frame_t *frame_yuv = NULL;
+    uvc_frame_t *frame_mjpeg = NULL;
+    int result;
+
+    if (frameFormatType == UVC_VS_FRAME_MJPEG) {
+        // MJPEG mode
+        for (; LIKELY(isRunning() && !mReconfigurePending && !isCalibrationDue());) {
+            frame_mjpeg = waitPreviewFrame();
+            if (LIKELY(frame_mjpeg)) {
+                int validated = MJPEG_NOT_VALIDATED;
+                record_mjpeg_frame(frame_mjpeg, validated);
+                bool passthrough;
+                pthread_mutex_lock(&capture_mutex);
+                passthrough = mFrameCallbackObj
+                              && !mCaptureWindow
+                              && (mPixelFormat == PIXEL_FORMAT_MJPEG);
+                pthread_mutex_unlock(&capture_mutex);
+                if (passthrough) {
+                    do_preview_mjpeg_passthrough(frame_mjpeg, validated);
+                    continue;
+                }
+//                frame = get_frame(frame_mjpeg->width * frame_mjpeg->height * 2);
+                frame = get_frame(FRAME_POOL_PREVIEW,
+                                  frame_mjpeg->width * frame_mjpeg->height * PREVIEW_PIXEL_BYTES);
+                if (UNLIKELY(!frame)) {
+                    recycle_frame(frame_mjpeg);
+                    continue;
+                }
+//                c_start = clock();
+                result = uvc_mjpeg2rgbx_tj(frame_mjpeg, frame);   // MJPEG => yuyv
+//                c_end = clock();
+//                LOGI("uvc_mjpeg2yuyv time: %f", (double) (c_end - c_start) / CLOCKS_PER_SEC);
+                if (LIKELY(!result)) {
+                    draw_preview_one(frame, &mPreviewWindow);
+                    if (!addCaptureFrame(frame)) {
                         recycle_frame(frame);
                     }
-                    recycle_frame(frame_mjpeg);
+                } else {
+                    recycle_frame(frame);
                 }
+                recycle_frame(frame_mjpeg);
             }
-        } else {
-            // yuvyv mode
-            bool logged_input_format_once = false;
-            for (; LIKELY(isRunning());) {
-                frame_yuv = waitPreviewFrame();
-                if (LIKELY(frame_yuv)) {
-                    if (UNLIKELY(!logged_input_format_once)) {
-                        LOGI("preview_input: fmt=%s %dx%d bytes=%zu step=%zu",
-                             uvc_frame_format_name(frame_yuv->frame_format),
-                             frame_yuv->width, frame_yuv->height,
-                             frame_yuv->data_bytes, frame_yuv->step);
-                        logged_input_format_once = true;
-                    }
-                    const size_t min_bytes = min_frame_bytes_for_format(frame_yuv);
-                    if (UNLIKELY(min_bytes == 0 || frame_yuv->data_bytes < min_bytes)) {
+        }
+    } else {
+        // yuvyv mode
+        bool logged_input_format_once = false;
+        for (; LIKELY(isRunning() && !mReconfigurePending && !isCalibrationDue());) {
+            frame_yuv = waitPreviewFrame();
+            if (LIKELY(frame_yuv)) {
+                if (UNLIKELY(!logged_input_format_once)) {
+                    LOGI("preview_input: fmt=%s %dx%d bytes=%zu step=%zu",
+                         uvc_frame_format_name(frame_yuv->frame_format),
+                         frame_yuv->width, frame_yuv->height,
+                         frame_yuv->data_bytes, frame_yuv->step);
+                    logged_input_format_once = true;
+                }
+                const size_t min_bytes = min_frame_bytes_for_format(frame_yuv);
+                if (UNLIKELY(min_bytes == 0 || frame_yuv->data_bytes < min_bytes)) {
 #if LOCAL_DEBUG
-                        LOGW("skip bad preview frame: fmt=%d size=%zu need=%zu %dx%d", frame_yuv->frame_format,
-                             frame_yuv->data_bytes, min_bytes, frame_yuv->width, frame_yuv->height);
+                    LOGW("skip bad preview frame: fmt=%d size=%zu need=%zu %dx%d", frame_yuv->frame_format,
+                         frame_yuv->data_bytes, min_bytes, frame_yuv->width, frame_yuv->height);
 #endif
-                        recycle_frame(frame_yuv);
-                        continue;
-                    }
+                    recycle_frame(frame_yuv);
+                    continue;
+                }
 
-                    frame = get_frame(frame_yuv->width * frame_yuv->height * PREVIEW_PIXEL_BYTES);
-                    if (UNLIKELY(!frame)) {
+                bool hasWindow;
+                pthread_mutex_lock(&preview_mutex);
+                hasWindow = mPreviewWindow != NULL;
+                pthread_mutex_unlock(&preview_mutex);
+                bool canPassRawFrame;
+                pthread_mutex_lock(&capture_mutex);
+                // mosaic scales raw frames straight into its tile, so skip RGBX for it
+                // when nothing else needs the converted frame
+                canPassRawFrame = !mCaptureWindow
+                                  && (mFrameCallbackObj
+                                      ? (can_passthrough_callback_frame(mPixelFormat, frame_yuv)
+                                         || can_convert_callback_frame_from_raw(mPixelFormat, frame_yuv))
+                                      : (mMosaic != NULL));
+                pthread_mutex_unlock(&capture_mutex);
+                if (!hasWindow && canPassRawFrame) {
+                    // nothing needs RGBX, e.g. the preview is drawn from the raw frame by a GL shader
+                    if (!addCaptureFrame(frame_yuv)) {
                         recycle_frame(frame_yuv);
-                        continue;
-                    }
-                    // choose conversion based on incoming frame format
-                    if (frame_yuv->frame_format == UVC_FRAME_FORMAT_MJPEG) {
-                        result = uvc_mjpeg2rgbx_tj(frame_yuv, frame);
-                    } else if (frame_yuv->frame_format == UVC_FRAME_FORMAT_YUYV) {
-                        result = uvc_yuyv2rgbx(frame_yuv, frame);
-                    } else if (frame_yuv->frame_format == UVC_FRAME_FORMAT_NV12) {
-                        result = uvc_nv12_to_rgbx(frame_yuv, frame);
-                    } else if (frame_yuv->frame_format == UVC_FRAME_FORMAT_NV21) {
-                        result = uvc_nv21_to_rgbx(frame_yuv, frame);
-                    } else if (frame_yuv->frame_format == UVC_FRAME_FORMAT_I420) {
-                        result = uvc_i420_to_rgbx(frame_yuv, frame);
-                    } else {
-                        // fallback: try YUYV conversion if nothing else matches
-                        result = uvc_yuyv2rgbx(frame_yuv, frame);
                     }
+                    continue;
+                }
+
+                frame = get_frame(FRAME_POOL_PREVIEW, frame_yuv->width * frame_yuv->height * PREVIEW_PIXEL_BYTES);
+                if (UNLIKELY(!frame)) {
+                    recycle_frame(frame_yuv);
+                    continue;
+                }
+                // choose conversion based on incoming frame format
+                if (frame_yuv->frame_format == UVC_FRAME_FORMAT_MJPEG) {
+                    result = uvc_mjpeg2rgbx_tj(frame_yuv, frame);
+                } else if (frame_yuv->frame_format == UVC_FRAME_FORMAT_YUYV) {
+                    result = uvc_yuyv2rgbx(frame_yuv, frame);
+                } else if (frame_yuv->frame_format == UVC_FRAME_FORMAT_NV12) {
+                    result = uvc_nv12_to_rgbx(frame_yuv, frame);
+                } else if (frame_yuv->frame_format == UVC_FRAME_FORMAT_NV21) {
+                    result = uvc_nv21_to_rgbx(frame_yuv, frame);
+                } else if (frame_yuv->frame_format == UVC_FRAME_FORMAT_I420) {
+                    result = uvc_i420_to_rgbx(frame_yuv, frame);
+                } else {
+                    // fallback: try YUYV conversion if nothing else matches
+                    result = uvc_yuyv2rgbx(frame_yuv, frame);
+                }
 
-                    if (LIKELY(!result)) {
-                        draw_preview_one(frame, &mPreviewWindow);
-
-                        bool callbackQueued = false;
-                        bool canPassRawFrame = false;
-                        pthread_mutex_lock(&capture_mutex);
-                        canPassRawFrame = mFrameCallbackObj
-                                          && !mCaptureWindow
-                                          && can_passthrough_callback_frame(mPixelFormat, frame_yuv);
-                        pthread_mutex_unlock(&capture_mutex);
-
-                        if (canPassRawFrame) {
-                            uvc_frame_t *raw_for_callback = get_frame(frame_yuv->data_bytes);
-                            if (LIKELY(raw_for_callback)) {
-                                const uvc_error_t copy_ret = uvc_duplicate_frame(frame_yuv, raw_for_callback);
-                                if (LIKELY(!copy_ret)) {
-                                    callbackQueued = addCaptureFrame(raw_for_callback);
-                                }
-                                if (!callbackQueued) {
-                                    recycle_frame(raw_for_callback);
-                                }
+                if (LIKELY(!result)) {
+                    draw_preview_one(frame, &mPreviewWindow);
+
+                    bool callbackQueued = false;
+                    if (canPassRawFrame) {
+                        uvc_frame_t *raw_for_callback = get_frame(FRAME_POOL_RAW, frame_yuv->data_bytes);
+                        if (LIKELY(raw_for_callback)) {
+                            const uvc_error_t copy_ret = uvc_duplicate_frame(frame_yuv, raw_for_callback);
+                            if (LIKELY(!copy_ret)) {
+                                callbackQueued = addCaptureFrame(raw_for_callback);
+                            }
+                            if (!callbackQueued) {
+                                recycle_frame(raw_for_callback);
                             }
                         }
+                    }
 
-                        if (!callbackQueued) {
-                            if (!addCaptureFrame(frame)) {
-                                recycle_frame(frame);
-                            }
-                        } else {
+                    if (!callbackQueued) {
+                        if (!addCaptureFrame(frame)) {
                             recycle_frame(frame);
                         }
                     } else {
                         recycle_frame(frame);
                     }
-                    recycle_frame(frame_yuv);
+                } else {
+                    recycle_frame(frame);
                 }
+                recycle_frame(frame_yuv);
             }
         }
-        pthread_cond_signal(&capture_sync);
-#if LOCAL_DEBUG
-        LOGI("preview_thread_func:wait for all callbacks complete");
-#endif
-        uvc_stop_streaming(mDeviceHandle);
+    }
+}
+
+/**
+ * switch USB streaming to the pending stream control on the preview thread,
+ * the capture thread, the frame callback and the windows are kept as they are
+ * so that the output continues with the new mode after a short gap
+ * @param ctrl stream control that is streaming now, updated on success
+ * @return 0 if streaming with the new or the previous mode, an error if nothing streams any more
+ */
+int UVCPreview::swap_stream(uvc_stream_ctrl_t *ctrl) {
+    ENTER();
+
+    uvc_stream_ctrl_t new_ctrl;
+    int width, height, frame_type, fps;
+    enum uvc_frame_format frame_format;
+    pthread_mutex_lock(&preview_mutex);
+    {
+        new_ctrl = mReconfigureCtrl;
+        width = mReconfigureWidth;
+        height = mReconfigureHeight;
+        frame_type = mReconfigureFormatType;
+        fps = mReconfigureFps;
+        frame_format = mReconfigureFrameFormat;
+    }
+    pthread_mutex_unlock(&preview_mutex);
+
+    const nsecs_t start = systemTime();
+    uvc_stop_streaming(mDeviceHandle);
+    // queued frames have the previous size/format
+    clearPreviewFrame();
+    uvc_stream_ctrl_t stream_ctrl = new_ctrl;
+    apply_payload_limit(&stream_ctrl);
+    int result = uvc_start_streaming(
+            mDeviceHandle, &stream_ctrl, uvc_preview_frame_callback, (void *) this, 0);
+    int streaming = result;
+    if (LIKELY(!result)) {
+        *ctrl = new_ctrl;
+        mNegotiatedCtrl = new_ctrl;
+        mHasNegotiatedCtrl = true;
+        requestWidth = width;
+        requestHeight = height;
+        requestFormatType = frame_type;
+        requestFps = fps;
+        negotiatedFrameFormat = frame_format;
+        update_frame_format(ctrl, frame_format);
+        arm_calibration(ctrl);
+        pthread_mutex_lock(&capture_mutex);
+        {
+            callbackPixelFormatChanged();
+        }
+        pthread_mutex_unlock(&capture_mutex);
+        LOGI("reconfigured to %dx%d@%dfps in %dms", frameWidth, frameHeight, fps,
+             (int) ((systemTime() - start) / 1000000LL));
+    } else {
+        LOGE("failed to start streaming with new mode (%d), restore previous mode", result);
+        stream_ctrl = *ctrl;
+        apply_payload_limit(&stream_ctrl);
+        streaming = uvc_start_streaming(
+                mDeviceHandle, &stream_ctrl, uvc_preview_frame_callback, (void *) this, 0);
+        if (UNLIKELY(streaming)) {
+            LOGE("failed to restore previous mode (%d)", streaming);
+        }
+    }
+    pthread_mutex_lock(&preview_mutex);
+    {
+        if (UNLIKELY(streaming)) {
+            // do_preview clears this when it leaves the loop, waiters must not see it streaming meanwhile
+            mIsStreaming = false;
+        }
+        mReconfigureResult = result;
+        mReconfigurePending = false;
+        pthread_cond_broadcast(&reconfigure_sync);
+    }
+    pthread_mutex_unlock(&preview_mutex);
+
+    RETURN(streaming, int);
+}
+
+/**
+ * validate the frame at most once, the recorder and the frame callback share the result
+ * @param validated MJPEG_NOT_VALIDATED before the first call for the frame, keeps the result
+ */
+int UVCPreview::validate_mjpeg_frame(uvc_frame_t *frame_mjpeg, int &validated) {
+    if (validated == MJPEG_NOT_VALIDATED) {
+        validated = uvc_mjpeg_validate(frame_mjpeg, mMjpegValidation, &mMjpegDecompressor);
+    }
+    return validated;
+}
+
+/**
+ * deliver the camera's JPEG payload to the frame callback without decoding it,
+ * decode only when the preview window still needs the image
+ * this takes ownership of frame_mjpeg
+ */
+void UVCPreview::do_preview_mjpeg_passthrough(uvc_frame_t *frame_mjpeg, int &validated) {
+    if (UNLIKELY(validate_mjpeg_frame(frame_mjpeg, validated))) {
+        mMjpegDropped++;
 #if LOCAL_DEBUG
-        LOGI("Streaming finished");
+        LOGW("drop broken MJPEG frame:bytes=%zu,dropped=%u", frame_mjpeg->data_bytes, mMjpegDropped);
 #endif
-    } else {
-        LOGE("failed start_streaming (%d)", result);
+        recycle_frame(frame_mjpeg);
+        return;
     }
+    bool needDecode;
+    pthread_mutex_lock(&preview_mutex);
+    needDecode = mPreviewWindow != NULL;
+    pthread_mutex_unlock(&preview_mutex);
+    if (needDecode) {
+        uvc_frame_t *frame = get_frame(FRAME_POOL_PREVIEW,
+                                       frame_mjpeg->width * frame_mjpeg->height * PREVIEW_PIXEL_BYTES);
+        if (LIKELY(frame)) {
+            if (LIKELY(!uvc_mjpeg2rgbx_tj(frame_mjpeg, frame))) {
+                draw_preview_one(frame, &mPreviewWindow);
+            }
+            recycle_frame(frame);
+        }
+    }
+    if (!addCaptureFrame(frame_mjpeg)) {
+        recycle_frame(frame_mjpeg);
+    }
+}
 
-    EXIT();
+/**
+ * queue camera's JPEG payload to the MJPEG recorder if recording
+ * broken frames are not recorded
+ */
+void UVCPreview::record_mjpeg_frame(uvc_frame_t *frame_mjpeg, int &validated) {
+    pthread_mutex_lock(&recorder_mutex);
+    {
+        if (mMjpegRecorder && LIKELY(!validate_mjpeg_frame(frame_mjpeg, validated))) {
+            mMjpegRecorder->writeVideo(frame_mjpeg);
+        }
+    }
+    pthread_mutex_unlock(&recorder_mutex);
 }
 
 // transfer specific frame data to the Surface(ANativeWindow)
@@ -1081,14 +2136,85 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 //    ENTER();
 
     if (LIKELY(frame)) {
+        // inference tap reads the frame before IFrameCallback conversion recycles it,
+        // ITensorCallback is called without tap_mutex so that it can replace or clear the tap
+        InferenceTap *tap;
+        pthread_mutex_lock(&tap_mutex);
+        {
+            tap = mTapInUse = mInferenceTap;
+        }
+        pthread_mutex_unlock(&tap_mutex);
+        if (tap) {
+            tap->process(env, frame);
+            InferenceTap *retired;
+            pthread_mutex_lock(&tap_mutex);
+            {
+                mTapInUse = NULL;
+                retired = mRetiredTap;
+                mRetiredTap = NULL;
+            }
+            pthread_mutex_unlock(&tap_mutex);
+            if (retired) {
+                retired->release(env);
+                SAFE_DELETE(retired);
+            }
+        }
+        // luma statistics are sampled from the source frame too,
+        // onFrameStats is called without stats_mutex for the same reason as the inference tap
+        LumaStats *stats;
+        pthread_mutex_lock(&stats_mutex);
+        {
+            stats = mStatsInUse = mLumaStats;
+        }
+        pthread_mutex_unlock(&stats_mutex);
+        if (stats) {
+            stats->process(env, frame);
+            LumaStats *retired;
+            pthread_mutex_lock(&stats_mutex);
+            {
+                mStatsInUse = NULL;
+                retired = mRetiredStats;
+                mRetiredStats = NULL;
+            }
+            pthread_mutex_unlock(&stats_mutex);
+            if (retired) {
+                retired->release(env);
+                SAFE_DELETE(retired);
+            }
+        }
+        pthread_mutex_lock(&mosaic_mutex);
+        if (mMosaic) {
+            mMosaic->process(mMosaicTile, frame);
+        }
+        pthread_mutex_unlock(&mosaic_mutex);
         static bool logged_callback_path_once = false;
+        // every converter copies capture_time_finished from the camera's frame,
+        // it is only zero if the frame was never completed by the stream, e.g. frames built natively
+        nsecs_t timestamp = nsecs_t(frame->capture_time_finished.tv_sec) * 1000000000LL
+                            + frame->capture_time_finished.tv_nsec;
+        if (UNLIKELY(!timestamp)) {
+            timestamp = systemTime();
+        }
+        const uint32_t sequence = frame->sequence;
         uvc_frame_t *callback_frame = frame;
         size_t callback_bytes = frame->data_bytes;
         const bool passthrough = can_passthrough_callback_frame(mPixelFormat, frame);
         if (mFrameCallbackObj && iframecallback_fields.onFrame) {
+            if (UNLIKELY((mPixelFormat == PIXEL_FORMAT_MJPEG) && !passthrough)) {
+                // JPEG payload is not available for this frame(non-MJPEG stream or capture surface is set)
+                goto SKIP;
+            }
+            // score the source frame before conversion, JPEG payload can not be scored and is always delivered
+            mSceneDetector.measure(frame);
+            const nsecs_t now = systemTime();
+            if (mSceneDetector.should_skip(now)) {
+                goto SKIP;
+            }
+            mSceneDetector.delivered(now);
             if (mFrameCallbackFunc && !passthrough) {
                 const size_t expected_bytes = frame_bytes_for_pixel_format(mPixelFormat, frame->width, frame->height);
-                callback_frame = get_frame(expected_bytes > 0 ? expected_bytes : callbackPixelBytes);
+                callback_frame = get_frame(FRAME_POOL_CALLBACK,
+                                           expected_bytes > 0 ? expected_bytes : callbackPixelBytes);
                 if (LIKELY(callback_frame)) {
                     int b = mFrameCallbackFunc(frame, callback_frame);
                     recycle_frame(frame);
@@ -1112,6 +2238,8 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
                      frame->width, frame->height);
                 logged_callback_path_once = true;
             }
+            mCallbackTimestampNs = timestamp;
+            mCallbackSequence = sequence;
             jobject buf = env->NewDirectByteBuffer(callback_frame->data, callback_bytes);
             env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
             env->ExceptionClear();
@@ -30,6 +30,13 @@
 #include <android/native_window.h>
 #include "objectarray.h"
 #include "ConvertHelper.h"
+#include "InferenceTap.h"
+#include "MjpegRecorder.h"
+#include "SceneChangeDetector.h"
+#include "LumaStats.h"
+#include "MosaicCompositor.h"
+#include "FrameMemoryBudget.h"
+#include "FramePool.h"
 
 #pragma interface
 
@@ -50,6 +57,13 @@ typedef int (*convFunc_t)(uvc_frame_t *in, uvc_frame_t *out);
 #define PIXEL_FORMAT_RGBX 6
 #define PIXEL_FORMAT_BGR 7
 #define PIXEL_FORMAT_I420 8
+#define PIXEL_FORMAT_UYVY 9        // packed YUV422, native format of NDI
+#define PIXEL_FORMAT_GRAY8 10      // luma(Y) plane only
+#define PIXEL_FORMAT_I420_ALIGN16 11    // I420 with 16 bytes aligned rows
+#define PIXEL_FORMAT_NV12_ALIGN16 12    // NV12 with 16 bytes aligned rows
+#define PIXEL_FORMAT_I420_ALIGN64 13    // I420 with 64 bytes aligned rows
+#define PIXEL_FORMAT_NV12_ALIGN64 14    // NV12 with 64 bytes aligned rows
+#define PIXEL_FORMAT_MJPEG 15      // camera's original JPEG payload, MJPEG stream only
 
 
 // for callback to Java object
@@ -91,15 +105,76 @@ private:
     Fields_iframecallback iframecallback_fields;
     int mPixelFormat;
     size_t callbackPixelBytes;
+    volatile int mMjpegValidation;
+    tjhandle mMjpegDecompressor;    // validates MJPEG frames on the preview thread
+    volatile uint32_t mMjpegDropped;
+    // uvc_frame_format of the latest frame from the camera, UVC_FRAME_FORMAT_UNKNOWN until it arrives
+    volatile int mStreamFrameFormat;
+    volatile nsecs_t mTimelapseIntervalNs;    // 0: every frame is passed to the pipeline
+    nsecs_t mTimelapseNextNs;
+    pthread_mutex_t tap_mutex;
+    InferenceTap *mInferenceTap;
+    InferenceTap *mTapInUse;      // tap that the capture thread is calling without tap_mutex
+    InferenceTap *mRetiredTap;    // replaced while in use, the capture thread releases it
+    pthread_mutex_t recorder_mutex;
+    MjpegRecorder *mMjpegRecorder;
+    pthread_mutex_t stats_mutex;
+    LumaStats *mLumaStats;
+    LumaStats *mStatsInUse;       // listener that the capture thread is calling without stats_mutex
+    LumaStats *mRetiredStats;     // replaced while in use, the capture thread releases it
+    pthread_mutex_t mosaic_mutex;
+    MosaicCompositor *mMosaic;
+    int mMosaicTile;
+    SceneChangeDetector mSceneDetector;    // only accessed on capture thread except configure
+    // capture time and sequence number of the frame being passed to IFrameCallback
+    volatile nsecs_t mCallbackTimestampNs;
+    volatile uint32_t mCallbackSequence;
+    // hot reconfiguration, pending request is guarded by preview_mutex
+    pthread_cond_t reconfigure_sync;
+    volatile bool mIsStreaming;
+    volatile bool mReconfigurePending;
+    uvc_stream_ctrl_t mReconfigureCtrl;
+    int mReconfigureWidth, mReconfigureHeight, mReconfigureFormatType, mReconfigureFps;
+    enum uvc_frame_format mReconfigureFrameFormat;
+    int mReconfigureResult;
+    // stream control negotiated in advance for current request
+    uvc_stream_ctrl_t mPreparedCtrl;
+    bool mHasPreparedCtrl;
+    // stream control of current request as the device negotiated it, for bandwidth reports
+    uvc_stream_ctrl_t mNegotiatedCtrl;
+    bool mHasNegotiatedCtrl;
+    // upper limit of dwMaxPayloadTransferSize on isochronous streaming, 0 if not limited
+    volatile int mMaxPayloadSize;
+    // measure the payload the stream actually needs for this time after streaming starts, 0 to disable
+    volatile int mCalibrationMs;
+    volatile int mCalibrationMarginPercent;
+    // largest payload measured or preset for current request, 0 if not known yet
+    volatile int mMeasuredPayloadSize;
+    // time when calibration of the running stream finishes, 0 if not calibrating
+    nsecs_t mCalibrationDeadline;
+    // bytes per (micro)frame of the alt-setting that the measured payload selected,
+    // 0 if the running stream is not limited by a measured payload
+    int mCalibratedPacketSize;
+    // next time to check whether payloads grew close to mCalibratedPacketSize
+    nsecs_t mPayloadCheckTime;
+    // payloads reached the calibrated alt-setting, measure again on the negotiated one
+    bool mRecalibratePending;
 // improve performance by reducing memory allocation
-    pthread_mutex_t pool_mutex;
-    ObjectArray<uvc_frame_t *> mFramePool;
+    // pools for each size class, indexed by FRAME_POOL_XXX
+    FramePool *mFramePools[FRAME_POOL_NUM];
+    // share of the process-wide frame memory budget, owned by UVCCamera
+    FrameBudgetConsumer *mBudget;
 
-    uvc_frame_t *get_frame(size_t data_bytes);
+    /**
+     * @param pool one of FRAME_POOL_XXX
+     */
+    uvc_frame_t *get_frame(int pool, size_t data_bytes);
 
     void recycle_frame(uvc_frame_t *frame);
 
-    void init_pool(size_t data_bytes);
+    void prewarm_pools(uvc_stream_ctrl_t *ctrl);
+
+    void apply_payload_limit(uvc_stream_ctrl_t *ctrl);
 
     void clear_pool();
 
@@ -108,6 +183,8 @@ private:
 
     static void uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args);
 
+    bool select_timelapse_frame();
+
     void addPreviewFrame(uvc_frame_t *frame);
 
     uvc_frame_t *waitPreviewFrame();
@@ -118,10 +195,37 @@ private:
 
     int prepare_preview(uvc_stream_ctrl_t *ctrl);
 
+    void update_frame_format(uvc_stream_ctrl_t *ctrl, enum uvc_frame_format stream_format);
+
+    int negotiate_stream_ctrl(int width, int height, int frameType, int fps,
+                              uvc_stream_ctrl_t *ctrl, enum uvc_frame_format *negotiated);
+
     void do_preview(uvc_stream_ctrl_t *ctrl);
 
+    void do_preview_frames();
+
+    int swap_stream(uvc_stream_ctrl_t *ctrl);
+
+    void arm_calibration(uvc_stream_ctrl_t *ctrl);
+
+    void watch_calibrated_payload(const uvc_stream_ctrl_t *ctrl);
+
+    inline const bool isCalibrationDue();
+
+    bool is_payload_near_limit();
+
+    int finish_calibration(uvc_stream_ctrl_t *ctrl);
+
+    int recalibrate(uvc_stream_ctrl_t *ctrl);
+
     void draw_preview_one(uvc_frame_t *frame, ANativeWindow **window);
 
+    int validate_mjpeg_frame(uvc_frame_t *frame_mjpeg, int &validated);
+
+    void do_preview_mjpeg_passthrough(uvc_frame_t *frame_mjpeg, int &validated);
+
+    void record_mjpeg_frame(uvc_frame_t *frame_mjpeg, int &validated);
+
 //
     bool addCaptureFrame(uvc_frame_t *frame);
 
@@ -142,7 +246,7 @@ private:
     void callbackPixelFormatChanged();
 
 public:
-    UVCPreview(uvc_device_handle_t *devh);
+    UVCPreview(uvc_device_handle_t *devh, FrameBudgetConsumer *budget);
 
     ~UVCPreview();
 
@@ -150,10 +254,61 @@ public:
 
     int setPreviewSize(int width, int height, int frameType, int fps);
 
+    int reconfigure(int width, int height, int frameType, int fps);
+
+    int prepareStandby();
+
     int setPreviewDisplay(ANativeWindow *preview_window);
 
     int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
 
+    int setMjpegValidation(int level);
+
+    uint32_t getMjpegDroppedFrames() const { return mMjpegDropped; }
+
+    int setInferenceTap(JNIEnv *env, jobject tensor_callback_obj, jobject tensor_buffer_obj,
+                        const inference_tap_config_t *config);
+
+    int setFrameStatsCallback(JNIEnv *env, jobject stats_callback_obj, jclass stats_class, int max_fps);
+
+    int setMosaicTile(MosaicCompositor *mosaic, int index);
+
+    int startMjpegRecording(int fd, int container, int fps, int audio_sample_rate, int audio_channels);
+
+    MjpegRecorder *detachMjpegRecorder();
+
+    int writeMjpegRecordingAudio(const uint8_t *data, size_t size, int64_t pts_us);
+
+    int setStaticSceneSkip(int threshold, int max_interval_ms);
+
+    int setTimelapseInterval(int interval_ms);
+
+    int setMaxPayloadSize(int bytes);
+
+    int getBandwidthInfo(int *info, int max_count);
+
+    /**
+     * @param stats FRAME_POOL_NUM entries, indexed by FRAME_POOL_XXX
+     */
+    void getFramePoolStats(frame_pool_stats_t *stats);
+
+    /**
+     * @return PIXEL_FORMAT_XXX of the frames the camera sends now, -1 if not streaming yet or no PIXEL_FORMAT_XXX matches
+     */
+    int getStreamPixelFormat();
+
+    int setPayloadCalibration(int duration_ms, int margin_percent);
+
+    int setMeasuredPayloadSize(int bytes);
+
+    int getMeasuredPayloadSize() const { return mMeasuredPayloadSize; }
+
+    int getFrameChangeScore() const { return mSceneDetector.last_score(); }
+
+    nsecs_t getFrameTimestamp() const { return mCallbackTimestampNs; }
+
+    uint32_t getFrameSequence() const { return mCallbackSequence; }
+
     int startPreview();
 
     int stopPreview();
@@ -34,10 +34,12 @@
 //#endif
 
 #include <jni.h>
+#include <unistd.h>
 #include <android/native_window_jni.h>
 
 #include "libUVCCamera.h"
 #include "UVCCamera.h"
+#include "UVCContext.h"
 
 /**
  * set the value into the long field
@@ -234,6 +236,31 @@ static jint nativeSetPreviewSize(JNIEnv *env, jobject thiz,
     RETURN(JNI_ERR, jint);
 }
 
+// switch stream mode while previewing
+static jint nativeReconfigure(JNIEnv *env, jobject thiz,
+                              ID_TYPE id_camera, jint width, jint height,
+                              jint frameType, jint fps) {
+
+    ENTER();
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        return camera->reconfigure(width, height, frameType, fps);
+    }
+    RETURN(JNI_ERR, jint);
+}
+
+// keep the camera open but idle with stream control negotiated
+static jint nativePrepareStandby(JNIEnv *env, jobject thiz,
+                                 ID_TYPE id_camera) {
+
+    ENTER();
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        return camera->prepareStandby();
+    }
+    RETURN(JNI_ERR, jint);
+}
+
 static jint nativeStartPreview(JNIEnv *env, jobject thiz,
                                ID_TYPE id_camera) {
 
@@ -284,6 +311,283 @@ static jint nativeSetFrameCallback(JNIEnv *env, jobject thiz,
     RETURN(result, jint);
 }
 
+static jint nativeSetMjpegValidation(JNIEnv *env, jobject thiz,
+                                     ID_TYPE id_camera, jint level) {
+
+    jint result = JNI_ERR;
+    ENTER();
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->setMjpegValidation(level);
+    }
+    RETURN(result, jint);
+}
+
+static jint nativeGetMjpegDroppedFrames(JNIEnv *env, jobject thiz,
+                                        ID_TYPE id_camera) {
+
+    jint result = 0;
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->getMjpegDroppedFrames();
+    }
+    return result;
+}
+
+static jint nativeSetInferenceTap(JNIEnv *env, jobject thiz,
+                                  ID_TYPE id_camera, jobject jITensorCallback, jobject jTensorBuffer,
+                                  jint width, jint height, jint scale_mode,
+                                  jint channel_order, jint data_type, jint layout,
+                                  jfloatArray jMean, jfloatArray jStd, jfloat scale,
+                                  jint pad_value, jint max_fps) {
+
+    jint result = JNI_ERR;
+    ENTER();
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        if (jITensorCallback && jTensorBuffer) {
+            inference_tap_config_t config;
+            config.width = width;
+            config.height = height;
+            config.scaleMode = scale_mode;
+            config.channelOrder = channel_order;
+            config.dataType = data_type;
+            config.layout = layout;
+            config.scale = scale;
+            config.padValue = pad_value;
+            config.maxFps = max_fps;
+            for (int i = 0; i < 3; i++) {
+                config.mean[i] = 0.0f;
+                config.std[i] = 1.0f;
+            }
+            if (jMean && env->GetArrayLength(jMean) >= 3) {
+                env->GetFloatArrayRegion(jMean, 0, 3, config.mean);
+            }
+            if (jStd && env->GetArrayLength(jStd) >= 3) {
+                env->GetFloatArrayRegion(jStd, 0, 3, config.std);
+            }
+            jobject tensor_callback_obj = env->NewGlobalRef(jITensorCallback);
+            jobject tensor_buffer_obj = env->NewGlobalRef(jTensorBuffer);
+            result = camera->setInferenceTap(env, tensor_callback_obj, tensor_buffer_obj, &config);
+        } else {
+            result = camera->setInferenceTap(env, NULL, NULL, NULL);
+        }
+    }
+    RETURN(result, jint);
+}
+
+static jint nativeSetFrameStatsCallback(JNIEnv *env, jobject thiz,
+                                        ID_TYPE id_camera, jobject jIFrameStatsCallback, jint max_fps) {
+
+    jint result = JNI_ERR;
+    ENTER();
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        if (jIFrameStatsCallback) {
+            // FrameStats class should be looked up here because capture thread can not see app classes
+            jclass clazz = env->FindClass("com/serenegiant/usb/FrameStats");
+            if (LIKELY(clazz)) {
+                jobject stats_callback_obj = env->NewGlobalRef(jIFrameStatsCallback);
+                jclass stats_class = (jclass) env->NewGlobalRef(clazz);
+                env->DeleteLocalRef(clazz);
+                result = camera->setFrameStatsCallback(env, stats_callback_obj, stats_class, max_fps);
+            } else {
+                env->ExceptionClear();
+                LOGE("Can't find FrameStats class");
+            }
+        } else {
+            result = camera->setFrameStatsCallback(env, NULL, NULL, 0);
+        }
+    }
+    RETURN(result, jint);
+}
+
+static jint nativeStartMjpegRecording(JNIEnv *env, jobject thiz,
+                                      ID_TYPE id_camera, jint fd, jint container, jint fps,
+                                      jint audio_sample_rate, jint audio_channels) {
+
+    jint result = JNI_ERR;
+    ENTER();
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        // the file descriptor is detached from ParcelFileDescriptor and owned by native side
+        result = camera->startMjpegRecording(fd, container, fps, audio_sample_rate, audio_channels);
+    } else if (fd >= 0) {
+        close(fd);
+    }
+    RETURN(result, jint);
+}
+
+static ID_TYPE nativeDetachMjpegRecording(JNIEnv *env, jobject thiz,
+                                          ID_TYPE id_camera) {
+
+    ENTER();
+    MjpegRecorder *recorder = NULL;
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        recorder = camera->detachMjpegRecorder();
+    }
+    RETURN(reinterpret_cast<ID_TYPE>(recorder), ID_TYPE);
+}
+
+/**
+ * finalize the file of a detached recorder and delete it,
+ * this does not touch the camera so that it can run while other calls use the camera
+ */
+static jint nativeFinishMjpegRecording(JNIEnv *env, jclass clazz,
+                                       ID_TYPE id_recorder) {
+
+    jint result = UVC_ERROR_INVALID_MODE;
+    ENTER();
+    MjpegRecorder *recorder = reinterpret_cast<MjpegRecorder *>(id_recorder);
+    if (LIKELY(recorder)) {
+        result = recorder->stop();
+        SAFE_DELETE(recorder);
+    }
+    RETURN(result, jint);
+}
+
+static jint nativeWriteMjpegRecordingAudio(JNIEnv *env, jobject thiz,
+                                           ID_TYPE id_camera, jobject jBuffer, jint bytes, jlong pts_us) {
+
+    jint result = JNI_ERR;
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera && jBuffer && (bytes > 0))) {
+        const uint8_t *data = (const uint8_t *) env->GetDirectBufferAddress(jBuffer);
+        const jlong capacity = env->GetDirectBufferCapacity(jBuffer);
+        if (LIKELY(data && (capacity >= bytes))) {
+            result = camera->writeMjpegRecordingAudio(data, bytes, pts_us);
+        }
+    }
+    return result;
+}
+
+static jint nativeSetStaticSceneSkip(JNIEnv *env, jobject thiz,
+                                     ID_TYPE id_camera, jint threshold, jint max_interval_ms) {
+
+    jint result = JNI_ERR;
+    ENTER();
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->setStaticSceneSkip(threshold, max_interval_ms);
+    }
+    RETURN(result, jint);
+}
+
+static jint nativeSetTimelapseInterval(JNIEnv *env, jobject thiz,
+                                       ID_TYPE id_camera, jint interval_ms) {
+
+    jint result = JNI_ERR;
+    ENTER();
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->setTimelapseInterval(interval_ms);
+    }
+    RETURN(result, jint);
+}
+
+static jint nativeSetMaxPayloadSize(JNIEnv *env, jobject thiz,
+                                    ID_TYPE id_camera, jint bytes) {
+
+    jint result = JNI_ERR;
+    ENTER();
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->setMaxPayloadSize(bytes);
+    }
+    RETURN(result, jint);
+}
+
+static jint nativeSetPayloadCalibration(JNIEnv *env, jobject thiz,
+                                        ID_TYPE id_camera, jint duration_ms, jint margin_percent) {
+
+    jint result = JNI_ERR;
+    ENTER();
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->setPayloadCalibration(duration_ms, margin_percent);
+    }
+    RETURN(result, jint);
+}
+
+static jint nativeSetMeasuredPayloadSize(JNIEnv *env, jobject thiz,
+                                         ID_TYPE id_camera, jint bytes) {
+
+    jint result = JNI_ERR;
+    ENTER();
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->setMeasuredPayloadSize(bytes);
+    }
+    RETURN(result, jint);
+}
+
+static jint nativeGetMeasuredPayloadSize(JNIEnv *env, jobject thiz,
+                                         ID_TYPE id_camera) {
+
+    jint result = 0;
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->getMeasuredPayloadSize();
+    }
+    return result;
+}
+
+// 9 values and bytes of each alt-setting, see UVCPreview::getBandwidthInfo
+#define MAX_BANDWIDTH_INFO 41
+
+static jintArray nativeGetBandwidthInfo(JNIEnv *env, jobject thiz,
+                                        ID_TYPE id_camera) {
+
+    ENTER();
+    jintArray result = NULL;
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        jint info[MAX_BANDWIDTH_INFO];
+        const int n = camera->getBandwidthInfo(info, MAX_BANDWIDTH_INFO);
+        if (n > 0) {
+            result = env->NewIntArray(n);
+            if (LIKELY(result)) {
+                env->SetIntArrayRegion(result, 0, n, info);
+            }
+        }
+    }
+    RETURN(result, jintArray);
+}
+
+static jint nativeGetFrameChangeScore(JNIEnv *env, jobject thiz,
+                                      ID_TYPE id_camera) {
+
+    jint result = -1;
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->getFrameChangeScore();
+    }
+    return result;
+}
+
+static jlong nativeGetFrameTimestamp(JNIEnv *env, jobject thiz,
+                                     ID_TYPE id_camera) {
+
+    jlong result = 0;
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->getFrameTimestamp();
+    }
+    return result;
+}
+
+static jint nativeGetFrameSequence(JNIEnv *env, jobject thiz,
+                                   ID_TYPE id_camera) {
+
+    jint result = 0;
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->getFrameSequence();
+    }
+    return result;
+}
+
 static jint nativeSetCaptureDisplay(JNIEnv *env, jobject thiz,
                                     ID_TYPE id_camera, jobject jSurface) {
 
@@ -297,6 +601,232 @@ static jint nativeSetCaptureDisplay(JNIEnv *env, jobject thiz,
     RETURN(result, jint);
 }
 
+static jlongArray nativeGetEventLoopStats(JNIEnv *env, jclass clazz) {
+
+    uvc_event_loop_stats_t stats;
+    UVCContext::getStats(stats);
+    const jlong values[] = {
+            stats.open_cameras,
+            (jlong) stats.wakeups,
+            stats.cpu_time_ns,
+            stats.wall_time_ns,
+    };
+    jlongArray result = env->NewLongArray(NUM_ARRAY_ELEMENTS(values));
+    if (LIKELY(result)) {
+        env->SetLongArrayRegion(result, 0, NUM_ARRAY_ELEMENTS(values), values);
+    }
+    return result;
+}
+
+static jint nativeGetStreamPixelFormat(JNIEnv *env, jobject thiz,
+                                       ID_TYPE id_camera) {
+
+    jint result = -1;
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->getStreamPixelFormat();
+    }
+    return result;
+}
+
+static ID_TYPE nativeCreateMosaic(JNIEnv *env, jclass clazz,
+                                  jint width, jint height, jint columns, jint rows,
+                                  jint pixel_format, jint fps, jobject jIMosaicCallback) {
+
+    ENTER();
+    if (UNLIKELY(!jIMosaicCallback)) {
+        RETURN(0, ID_TYPE);
+    }
+    MosaicCompositor *mosaic = new MosaicCompositor(width, height, columns, rows, pixel_format, fps);
+    jobject mosaic_callback_obj = env->NewGlobalRef(jIMosaicCallback);
+    const int result = mosaic->start(env, mosaic_callback_obj);
+    if (UNLIKELY(result)) {
+        LOGE("failed to start mosaic:%d", result);
+        env->DeleteGlobalRef(mosaic_callback_obj);
+        mosaic->release();
+        mosaic = NULL;
+    }
+    RETURN(reinterpret_cast<ID_TYPE>(mosaic), ID_TYPE);
+}
+
+static void nativeReleaseMosaic(JNIEnv *env, jclass clazz, ID_TYPE id_mosaic) {
+
+    ENTER();
+    MosaicCompositor *mosaic = reinterpret_cast<MosaicCompositor *>(id_mosaic);
+    if (LIKELY(mosaic)) {
+        mosaic->stop(env);
+        // attached cameras keep their references until they are detached
+        mosaic->release();
+    }
+    EXIT();
+}
+
+static jlongArray nativeGetMosaicStats(JNIEnv *env, jclass clazz, ID_TYPE id_mosaic) {
+
+    MosaicCompositor *mosaic = reinterpret_cast<MosaicCompositor *>(id_mosaic);
+    if (UNLIKELY(!mosaic)) {
+        return NULL;
+    }
+    mosaic_stats_t stats;
+    mosaic->getStats(stats);
+    const int tiles = mosaic->getTileCount();
+    // emitted frames, missed ticks, then updates and repeats of each tile
+    jlong values[2 + MOSAIC_MAX_TILES * 2];
+    values[0] = (jlong) stats.emitted_frames;
+    values[1] = (jlong) stats.missed_ticks;
+    for (int i = 0; i < tiles; i++) {
+        values[2 + i * 2] = (jlong) stats.tile_updates[i];
+        values[3 + i * 2] = (jlong) stats.tile_repeats[i];
+    }
+    const jsize num = 2 + tiles * 2;
+    jlongArray result = env->NewLongArray(num);
+    if (LIKELY(result)) {
+        env->SetLongArrayRegion(result, 0, num, values);
+    }
+    return result;
+}
+
+static jint nativeSetMosaicTile(JNIEnv *env, jobject thiz,
+                                ID_TYPE id_camera, ID_TYPE id_mosaic, jint index) {
+
+    jint result = JNI_ERR;
+    ENTER();
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    if (LIKELY(camera)) {
+        result = camera->setMosaicTile(reinterpret_cast<MosaicCompositor *>(id_mosaic), index);
+    }
+    RETURN(result, jint);
+}
+
+static void nativeSetFrameMemoryLimit(JNIEnv *env, jclass clazz, jlong bytes) {
+
+    FrameMemoryBudget::setLimit(bytes > 0 ? (size_t) bytes : 0);
+}
+
+static jlongArray nativeGetFrameMemoryTotals(JNIEnv *env, jclass clazz) {
+
+    frame_budget_totals_t totals;
+    FrameMemoryBudget::getTotals(totals);
+    const jlong values[] = {
+            (jlong) totals.limit_bytes,
+            (jlong) totals.used_bytes,
+            (jlong) totals.high_water_bytes,
+    };
+    jlongArray result = env->NewLongArray(NUM_ARRAY_ELEMENTS(values));
+    if (LIKELY(result)) {
+        env->SetLongArrayRegion(result, 0, NUM_ARRAY_ELEMENTS(values), values);
+    }
+    return result;
+}
+
+static void nativeResetFrameMemoryHighWater(JNIEnv *env, jclass clazz) {
+
+    FrameMemoryBudget::resetHighWaterMarks();
+}
+
+static ID_TYPE nativeCreateFrameMemoryConsumer(JNIEnv *env, jclass clazz, jint priority) {
+
+    ENTER();
+    FrameBudgetConsumer *consumer = new FrameBudgetConsumer(priority);
+    RETURN(reinterpret_cast<ID_TYPE>(consumer), ID_TYPE);
+}
+
+static void nativeReleaseFrameMemoryConsumer(JNIEnv *env, jclass clazz, ID_TYPE id_consumer) {
+
+    ENTER();
+    FrameBudgetConsumer *consumer = reinterpret_cast<FrameBudgetConsumer *>(id_consumer);
+    SAFE_DELETE(consumer);
+    EXIT();
+}
+
+static jboolean nativeChargeFrameMemory(JNIEnv *env, jclass clazz, ID_TYPE id_consumer, jlong bytes) {
+
+    FrameBudgetConsumer *consumer = reinterpret_cast<FrameBudgetConsumer *>(id_consumer);
+    if (UNLIKELY(!consumer || (bytes < 0))) {
+        return JNI_FALSE;
+    }
+    return consumer->charge((size_t) bytes) ? JNI_TRUE : JNI_FALSE;
+}
+
+static void nativeDischargeFrameMemory(JNIEnv *env, jclass clazz, ID_TYPE id_consumer, jlong bytes) {
+
+    FrameBudgetConsumer *consumer = reinterpret_cast<FrameBudgetConsumer *>(id_consumer);
+    if (LIKELY(consumer && (bytes > 0))) {
+        consumer->discharge((size_t) bytes);
+    }
+}
+
+static jboolean nativeShouldDropFrame(JNIEnv *env, jclass clazz, ID_TYPE id_consumer) {
+
+    FrameBudgetConsumer *consumer = reinterpret_cast<FrameBudgetConsumer *>(id_consumer);
+    return consumer && consumer->shouldDropFrame() ? JNI_TRUE : JNI_FALSE;
+}
+
+static void nativeSetFrameMemoryPriority(JNIEnv *env, jclass clazz, ID_TYPE id_consumer, jint priority) {
+
+    FrameBudgetConsumer *consumer = reinterpret_cast<FrameBudgetConsumer *>(id_consumer);
+    if (LIKELY(consumer)) {
+        consumer->setPriority(priority);
+    }
+}
+
+static jlongArray nativeGetFrameMemoryStats(JNIEnv *env, jclass clazz, ID_TYPE id_consumer) {
+
+    FrameBudgetConsumer *consumer = reinterpret_cast<FrameBudgetConsumer *>(id_consumer);
+    if (UNLIKELY(!consumer)) {
+        return NULL;
+    }
+    frame_budget_stats_t stats;
+    consumer->getStats(stats);
+    const jlong values[] = {
+            stats.priority,
+            stats.level,
+            (jlong) stats.used_bytes,
+            (jlong) stats.high_water_bytes,
+            (jlong) stats.dropped_frames,
+            (jlong) stats.rejected_allocations,
+    };
+    jlongArray result = env->NewLongArray(NUM_ARRAY_ELEMENTS(values));
+    if (LIKELY(result)) {
+        env->SetLongArrayRegion(result, 0, NUM_ARRAY_ELEMENTS(values), values);
+    }
+    return result;
+}
+
+static ID_TYPE nativeGetFrameMemoryConsumer(JNIEnv *env, jobject thiz, ID_TYPE id_camera) {
+
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    return LIKELY(camera) ? reinterpret_cast<ID_TYPE>(camera->getFrameBudget()) : 0;
+}
+
+// 7 values of each pool in order of FRAME_POOL_XXX, see FramePoolStats
+#define FRAME_POOL_STATS_VALUES 7
+
+static jlongArray nativeGetFramePoolStats(JNIEnv *env, jobject thiz, ID_TYPE id_camera) {
+
+    UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+    frame_pool_stats_t stats[FRAME_POOL_NUM];
+    if (UNLIKELY(!camera || !camera->getFramePoolStats(stats))) {
+        return NULL;
+    }
+    jlong values[FRAME_POOL_NUM * FRAME_POOL_STATS_VALUES];
+    for (int i = 0; i < FRAME_POOL_NUM; i++) {
+        jlong *v = &values[i * FRAME_POOL_STATS_VALUES];
+        v[0] = (jlong) stats[i].hits;
+        v[1] = (jlong) stats[i].misses;
+        v[2] = (jlong) stats[i].reallocations;
+        v[3] = (jlong) stats[i].class_bytes;
+        v[4] = stats[i].allocated_frames;
+        v[5] = (jlong) stats[i].allocated_bytes;
+        v[6] = (jlong) stats[i].peak_bytes;
+    }
+    jlongArray result = env->NewLongArray(NUM_ARRAY_ELEMENTS(values));
+    if (LIKELY(result)) {
+        env->SetLongArrayRegion(result, 0, NUM_ARRAY_ELEMENTS(values), values);
+    }
+    return result;
+}
+
 //**********************************************************************
 //
 //**********************************************************************
@@ -330,12 +860,54 @@ static JNINativeMethod methods[] = {
 
         {"nativeGetSupportedFormats", "(J)Ljava/lang/String;",                     (void *) nativeGetSupportedFormats},
         {"nativeSetPreviewSize",      "(JIIII)I",                                  (void *) nativeSetPreviewSize},
+        {"nativeReconfigure",         "(JIIII)I",                                  (void *) nativeReconfigure},
+        {"nativePrepareStandby",      "(J)I",                                      (void *) nativePrepareStandby},
         {"nativeStartPreview",        "(J)I",                                      (void *) nativeStartPreview},
         {"nativeStopPreview",         "(J)I",                                      (void *) nativeStopPreview},
         {"nativeSetPreviewDisplay",   "(JLandroid/view/Surface;)I",                (void *) nativeSetPreviewDisplay},
         {"nativeSetFrameCallback",    "(JLcom/serenegiant/usb/IFrameCallback;I)I", (void *) nativeSetFrameCallback},
 
+        {"nativeSetMjpegValidation",  "(JI)I",                                     (void *) nativeSetMjpegValidation},
+        {"nativeGetMjpegDroppedFrames", "(J)I",                                    (void *) nativeGetMjpegDroppedFrames},
+        {"nativeSetInferenceTap",     "(JLcom/serenegiant/usb/ITensorCallback;Ljava/nio/ByteBuffer;IIIIII[F[FFII)I", (void *) nativeSetInferenceTap},
+        {"nativeSetFrameStatsCallback", "(JLcom/serenegiant/usb/IFrameStatsCallback;I)I", (void *) nativeSetFrameStatsCallback},
+        {"nativeStartMjpegRecording", "(JIIIII)I",                                 (void *) nativeStartMjpegRecording},
+        {"nativeDetachMjpegRecording", "(J)J",                                     (void *) nativeDetachMjpegRecording},
+        {"nativeFinishMjpegRecording", "(J)I",                                     (void *) nativeFinishMjpegRecording},
+        {"nativeWriteMjpegRecordingAudio", "(JLjava/nio/ByteBuffer;IJ)I",          (void *) nativeWriteMjpegRecordingAudio},
+        {"nativeSetStaticSceneSkip", "(JII)I",                                     (void *) nativeSetStaticSceneSkip},
+        {"nativeGetFrameChangeScore", "(J)I",                                      (void *) nativeGetFrameChangeScore},
+        {"nativeGetFrameTimestamp", "(J)J",                                        (void *) nativeGetFrameTimestamp},
+        {"nativeGetFrameSequence", "(J)I",                                         (void *) nativeGetFrameSequence},
+        {"nativeSetTimelapseInterval", "(JI)I",                                    (void *) nativeSetTimelapseInterval},
+
         {"nativeSetCaptureDisplay",   "(JLandroid/view/Surface;)I",                (void *) nativeSetCaptureDisplay},
+
+        {"nativeSetMaxPayloadSize", "(JI)I",                                       (void *) nativeSetMaxPayloadSize},
+        {"nativeGetBandwidthInfo", "(J)[I",                                        (void *) nativeGetBandwidthInfo},
+        {"nativeSetPayloadCalibration", "(JII)I",                                  (void *) nativeSetPayloadCalibration},
+        {"nativeSetMeasuredPayloadSize", "(JI)I",                                  (void *) nativeSetMeasuredPayloadSize},
+        {"nativeGetMeasuredPayloadSize", "(J)I",                                   (void *) nativeGetMeasuredPayloadSize},
+        {"nativeGetEventLoopStats",   "()[J",                                      (void *) nativeGetEventLoopStats},
+
+        {"nativeCreateMosaic",        "(IIIIIILcom/serenegiant/usb/IMosaicCallback;)J", (void *) nativeCreateMosaic},
+        {"nativeReleaseMosaic",       "(J)V",                                      (void *) nativeReleaseMosaic},
+        {"nativeGetMosaicStats",      "(J)[J",                                     (void *) nativeGetMosaicStats},
+        {"nativeSetMosaicTile",       "(JJI)I",                                    (void *) nativeSetMosaicTile},
+
+        {"nativeSetFrameMemoryLimit", "(J)V",                                      (void *) nativeSetFrameMemoryLimit},
+        {"nativeGetFrameMemoryTotals", "()[J",                                     (void *) nativeGetFrameMemoryTotals},
+        {"nativeResetFrameMemoryHighWater", "()V",                                 (void *) nativeResetFrameMemoryHighWater},
+        {"nativeCreateFrameMemoryConsumer", "(I)J",                                (void *) nativeCreateFrameMemoryConsumer},
+        {"nativeReleaseFrameMemoryConsumer", "(J)V",                               (void *) nativeReleaseFrameMemoryConsumer},
+        {"nativeChargeFrameMemory",   "(JJ)Z",                                     (void *) nativeChargeFrameMemory},
+        {"nativeDischargeFrameMemory", "(JJ)V",                                    (void *) nativeDischargeFrameMemory},
+        {"nativeShouldDropFrame",     "(J)Z",                                      (void *) nativeShouldDropFrame},
+        {"nativeSetFrameMemoryPriority", "(JI)V",                                  (void *) nativeSetFrameMemoryPriority},
+        {"nativeGetFrameMemoryStats", "(J)[J",                                     (void *) nativeGetFrameMemoryStats},
+        {"nativeGetFrameMemoryConsumer", "(J)J",                                   (void *) nativeGetFrameMemoryConsumer},
+        {"nativeGetFramePoolStats",   "(J)[J",                                     (void *) nativeGetFramePoolStats},
+        {"nativeGetStreamPixelFormat", "(J)I",                                     (void *) nativeGetStreamPixelFormat},
 };
 
 int register_uvccamera(JNIEnv *env) {
@@ -1622,6 +1622,60 @@ static jint nativeGetContrastAuto(JNIEnv *env, jobject thiz,
     RETURN(result, jint);
 }
 
+//======================================================================
+// Set controls in ids/values pairs back to back with a single JNI call
+// @return number of the controls that failed, results has error code of each control
+static jint nativeApplyControls(JNIEnv *env, jobject thiz,
+                                ID_TYPE id_camera, jintArray ids_array, jintArray values_array,
+                                jintArray results_array, jint count) {
+
+    jint result = JNI_ERR;
+    ENTER();
+    UVCControl *control = reinterpret_cast<UVCControl *>(id_camera);
+    if (LIKELY(control && (count > 0))) {
+        // copy out of the Java heap because control transfers should not run in a critical region
+        jint *buf = new jint[count * 3];
+        jint *ids = buf, *values = buf + count, *results = buf + count * 2;
+        env->GetIntArrayRegion(ids_array, 0, count, ids);
+        env->GetIntArrayRegion(values_array, 0, count, values);
+        result = 0;
+        for (int i = 0; i < count; i++) {
+            results[i] = control->setControl(ids[i], values[i]);
+            if (results[i]) result++;
+        }
+        env->SetIntArrayRegion(results_array, 0, count, results);
+        delete[] buf;
+    }
+    RETURN(result, jint);
+}
+
+// Get controls in ids back to back with a single JNI call, a GET_CUR request for each control
+// @return number of the controls that failed, results has error code of each control
+static jint nativeReadControls(JNIEnv *env, jobject thiz,
+                               ID_TYPE id_camera, jintArray ids_array, jintArray values_array,
+                               jintArray results_array, jint count) {
+
+    jint result = JNI_ERR;
+    ENTER();
+    UVCControl *control = reinterpret_cast<UVCControl *>(id_camera);
+    if (LIKELY(control && (count > 0))) {
+        jint *buf = new jint[count * 3];
+        jint *ids = buf, *values = buf + count, *results = buf + count * 2;
+        env->GetIntArrayRegion(ids_array, 0, count, ids);
+        result = 0;
+        for (int i = 0; i < count; i++) {
+            int value = 0;
+            results[i] = control->getControl(ids[i], value);
+            values[i] = value;
+            if (results[i]) result++;
+        }
+        env->SetIntArrayRegion(values_array, 0, count, values);
+        env->SetIntArrayRegion(results_array, 0, count, results);
+        delete[] buf;
+    }
+    RETURN(result, jint);
+}
+
 //**********************************************************************
 //
 //**********************************************************************
@@ -1801,6 +1855,9 @@ static JNINativeMethod methods[] = {
         {"nativeObtainContrastAutoLimit",           "(J)[I", (void *) nativeObtainContrastAutoLimit},
         {"nativeSetContrastAuto",                   "(JZ)I", (void *) nativeSetContrastAuto},
         {"nativeGetContrastAuto",                   "(J)I",  (void *) nativeGetContrastAuto},
+
+        {"nativeApplyControls",                     "(J[I[I[II)I", (void *) nativeApplyControls},
+        {"nativeReadControls",                      "(J[I[I[II)I", (void *) nativeReadControls},
 };
 
 int register_uvccontrol(JNIEnv *env) {
@@ -22,6 +22,7 @@
  * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
 */
 
+#include <time.h>
 #include "utilbase.h"
 
 static JavaVM *savedVm;
@@ -41,3 +42,10 @@ JNIEnv *getEnv() {
     }
     return env;
 }
+
+nsecs_t systemTime() {
+	struct timespec t;
+	t.tv_sec = t.tv_nsec = 0;
+	clock_gettime(CLOCK_MONOTONIC, &t);
+	return nsecs_t(t.tv_sec) * 1000000000LL + t.tv_nsec;
+}
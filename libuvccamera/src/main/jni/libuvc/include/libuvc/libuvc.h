@@ -696,6 +696,8 @@ uvc_error_t uvc_stream_get_frame(
         int32_t timeout_us
 );
 
+size_t uvc_stream_get_max_payload_bytes(uvc_stream_handle_t *strmh);
+
 uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh);
 
 void uvc_stream_close(uvc_stream_handle_t *strmh);
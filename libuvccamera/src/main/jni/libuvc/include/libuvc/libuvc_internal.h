@@ -313,6 +313,9 @@ struct uvc_stream_handle {
     /* raw metadata buffer if available */
     uint8_t *meta_outbuf, *meta_holdbuf;
     size_t meta_got_bytes, meta_hold_bytes;
+
+    /** largest isochronous packet received since the stream started, including payload header */
+    size_t max_payload_bytes;
 };
 
 /** Handle on an open UVC device
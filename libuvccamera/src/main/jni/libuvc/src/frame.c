@@ -212,6 +212,7 @@ uvc_error_t uvc_rgb2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_RGBX;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     uint8_t *prgb = in->data;
@@ -292,6 +293,7 @@ uvc_error_t uvc_rgb2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_RGB565;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     uint8_t *prgb = in->data;
@@ -393,6 +395,7 @@ uvc_error_t uvc_yuyv2rgb(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_RGB;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     uint8_t *pyuv = in->data;
@@ -457,6 +460,7 @@ uvc_error_t uvc_yuyv2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_RGB565;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     uint8_t *pyuv = in->data;
@@ -553,6 +557,7 @@ uvc_error_t uvc_yuyv2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_RGBX;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     uint8_t *pyuv = in->data;
@@ -643,6 +648,7 @@ uvc_error_t uvc_yuyv2bgr(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_BGR;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     uint8_t *pyuv = in->data;
@@ -812,6 +818,7 @@ uvc_error_t uvc_uyvy2rgb(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_RGB;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     uint8_t *pyuv = in->data;
@@ -876,6 +883,7 @@ uvc_error_t uvc_uyvy2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_RGB565;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     uint8_t *pyuv = in->data;
@@ -972,6 +980,7 @@ uvc_error_t uvc_uyvy2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_RGBX;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     uint8_t *pyuv = in->data;
@@ -1061,6 +1070,7 @@ uvc_error_t uvc_uyvy2bgr(uvc_frame_t *in, uvc_frame_t *out) {
         out->step = in->width * PIXEL_BGR;
     out->sequence = in->sequence;
     out->capture_time = in->capture_time;
+    out->capture_time_finished = in->capture_time_finished;
     out->source = in->source;
 
     uint8_t *pyuv = in->data;
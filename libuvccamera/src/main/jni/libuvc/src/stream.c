@@ -1001,6 +1001,10 @@ void LIBUSB_CALL _uvc_stream_callback(struct libusb_transfer *transfer) {
 
                     pktbuf = libusb_get_iso_packet_buffer_simple(transfer, packet_id);
 
+                    if (pkt->actual_length > strmh->max_payload_bytes) {
+                        strmh->max_payload_bytes = pkt->actual_length;
+                    }
+
                     _uvc_process_payload(strmh, pktbuf, pkt->actual_length);
 
                 }
@@ -1278,6 +1282,7 @@ uvc_error_t uvc_stream_start(
     strmh->fid = 0;
     strmh->pts = 0;
     strmh->last_scr = 0;
+    strmh->max_payload_bytes = 0;
 
     frame_desc = uvc_find_frame_desc_stream(strmh, ctrl->bFormatIndex, ctrl->bFrameIndex);
     if (!frame_desc) {
@@ -1651,6 +1656,20 @@ void uvc_stop_streaming(uvc_device_handle_t *devh) {
     }
 }
 
+/** @brief Get the largest isochronous payload received since the stream started.
+ * @ingroup streaming
+ *
+ * Each isochronous packet carries the payload of a (micro)frame, so this is
+ * the bandwidth the stream actually needed, which may be far less than
+ * dwMaxPayloadTransferSize the device negotiated.
+ *
+ * @param strmh UVC stream handle
+ * @return bytes including payload header, 0 if bulk or nothing received yet
+ */
+size_t uvc_stream_get_max_payload_bytes(uvc_stream_handle_t *strmh) {
+    return strmh ? strmh->max_payload_bytes : 0;
+}
+
 /** @brief Stop stream.
  * @ingroup streaming
  *
@@ -131,6 +131,48 @@ extern "C" {
         env->ReleaseByteArrayElements(jData, dataPtr, JNI_ABORT);
     }
 
+    /**
+     * Send video frame in UYVY format (NDI native format)
+     */
+    JNIEXPORT void JNICALL
+    Java_com_serenegiant_ndi_NdiSender_nSendVideoUYVY(JNIEnv* env, jclass jClazz,
+                                                       jlong pSend, jint width, jint height,
+                                                       jbyteArray jData) {
+        auto sender = reinterpret_cast<NDIlib_send_instance_t>(pSend);
+        if (sender == nullptr) {
+            LOGE("NDI sender pointer is null");
+            return;
+        }
+
+        // Get array pointer
+        jbyte* dataPtr = env->GetByteArrayElements(jData, nullptr);
+        if (dataPtr == nullptr) {
+            LOGE("Failed to get array elements");
+            return;
+        }
+
+        // Create video frame structure
+        NDIlib_video_frame_v2_t videoFrame;
+        std::memset(&videoFrame, 0, sizeof(videoFrame));
+
+        videoFrame.xres = width;
+        videoFrame.yres = height;
+        videoFrame.picture_aspect_ratio = static_cast<float>(width) / static_cast<float>(height);
+        videoFrame.frame_format_type = NDIlib_frame_format_type_progressive;
+        videoFrame.p_data = reinterpret_cast<uint8_t*>(dataPtr);
+        videoFrame.line_stride_in_bytes = width * 2; // UYVY is 2 bytes per pixel
+        videoFrame.FourCC = NDIlib_FourCC_type_UYVY;
+        videoFrame.frame_rate_N = 30000;
+        videoFrame.frame_rate_D = 1001;
+        videoFrame.p_metadata = nullptr;
+
+        // Send the frame (async)
+        NDIlib_send_send_video_v2(sender, &videoFrame);
+
+        // Release array
+        env->ReleaseByteArrayElements(jData, dataPtr, JNI_ABORT);
+    }
+
     /**
      * Send video frame in NV12 format
      */
@@ -31,6 +31,7 @@
 #endif
 #include <unistd.h>
 #include <libgen.h>
+#include <stdint.h>
 #include "localdefines.h"
 
 #define		SAFE_FREE(p)				{ if (p) { free((p)); (p) = NULL; } }
@@ -227,4 +228,8 @@ void setVM(JavaVM *);
 JavaVM *getVM();
 JNIEnv *getEnv();
 
+typedef int64_t nsecs_t;
+// monotonic clock in nanoseconds
+nsecs_t systemTime();
+
 #endif /* UTILBASE_H_ */